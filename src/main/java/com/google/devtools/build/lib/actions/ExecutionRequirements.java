@@ -160,6 +160,12 @@ public class ExecutionRequirements {
   public static final ImmutableMap<String, String> WORKER_MODE_ENABLED =
       ImmutableMap.of(SUPPORTS_WORKERS, "1");
 
+  /**
+   * If an action supports running in persistent worker mode with several requests in flight on the
+   * same worker process.
+   */
+  public static final String SUPPORTS_MULTIPLEX_WORKERS = "supports-multiplex-workers";
+
   /**
    * Requires local execution without sandboxing for a spawn.
    *
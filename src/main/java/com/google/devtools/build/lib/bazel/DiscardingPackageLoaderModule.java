@@ -0,0 +1,51 @@
+// Copyright 2019 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.bazel;
+
+import com.google.common.collect.ImmutableList;
+import com.google.devtools.build.lib.analysis.BlazeDirectories;
+import com.google.devtools.build.lib.packages.StarlarkSemanticsOptions;
+import com.google.devtools.build.lib.pkgcache.BulkPackageProvider;
+import com.google.devtools.build.lib.runtime.BlazeModule;
+import com.google.devtools.build.lib.runtime.CommandEnvironment;
+import com.google.devtools.build.lib.skyframe.packages.BazelPackageLoader;
+import com.google.devtools.build.lib.vfs.Root;
+import javax.annotation.Nullable;
+
+/**
+ * Provides the packages of queries with {@code --experimental_graphless_query_discard_packages}
+ * through a {@link BazelPackageLoader}, which loads them outside of the Skyframe graph of the
+ * server and does not keep them once returned.
+ */
+public final class DiscardingPackageLoaderModule extends BlazeModule {
+  @Override
+  @Nullable
+  public BulkPackageProvider getDiscardingPackageProvider(CommandEnvironment env) {
+    BlazeDirectories directories = env.getDirectories();
+    ImmutableList<Root> pathEntries = env.getPackageLocator().getPathEntries();
+    // The package loader only looks up packages in the workspace.
+    if (pathEntries.size() != 1 || !pathEntries.get(0).asPath().equals(env.getWorkspace())) {
+      return null;
+    }
+    return BazelPackageLoader.builder(
+            pathEntries.get(0), directories.getInstallBase(), directories.getOutputBase())
+        .setRuleClassProvider(env.getRuntime().getRuleClassProvider())
+        .setSkylarkSemantics(
+            env.getSkyframeExecutor()
+                .getEffectiveStarlarkSemantics(
+                    env.getOptions().getOptions(StarlarkSemanticsOptions.class)))
+        .setReporter(env.getReporter())
+        .build();
+  }
+}
@@ -16,6 +16,8 @@ package com.google.devtools.build.lib.bazel;
 import com.google.devtools.build.lib.bazel.execlog.StableSort;
 import com.google.devtools.build.lib.buildtool.BuildRequest;
 import com.google.devtools.build.lib.events.Event;
+import com.google.devtools.build.lib.exec.CompactSpawnLogContext;
+import com.google.devtools.build.lib.exec.CompactSpawnLogReader;
 import com.google.devtools.build.lib.exec.ExecutionOptions;
 import com.google.devtools.build.lib.exec.ExecutorBuilder;
 import com.google.devtools.build.lib.exec.SpawnLogContext;
@@ -30,6 +32,7 @@ import com.google.devtools.build.lib.util.io.MessageOutputStreamWrapper.JsonOutp
 import com.google.devtools.build.lib.util.io.MessageOutputStreamWrapper.MessageOutputStreamCollection;
 import com.google.devtools.build.lib.vfs.FileSystem;
 import com.google.devtools.build.lib.vfs.Path;
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
@@ -46,6 +49,9 @@ public final class SpawnLogModule extends BlazeModule {
 
   private Path rawOutput;
 
+  /** Whether the raw output is in the format of {@link CompactSpawnLogContext}. */
+  private boolean rawOutputIsCompact;
+
   /**
    * After the execution is done, the temporary file contents will be sorted and logged as the user
    * requested, to binary and/or json files. We will open the streams at the beginning of the
@@ -60,6 +66,7 @@ public final class SpawnLogModule extends BlazeModule {
     spawnLogContext = null;
     outputStreams = new MessageOutputStreamCollection();
     rawOutput = null;
+    rawOutputIsCompact = false;
     env = null;
   }
 
@@ -92,6 +99,21 @@ public final class SpawnLogModule extends BlazeModule {
                   .getOutputStream()));
     }
 
+    if (executionOptions.executionLogCompactFile != null
+        && !executionOptions.executionLogCompactFile.isEmpty()) {
+      rawOutput = workingDirectory.getRelative(executionOptions.executionLogCompactFile);
+      rawOutputIsCompact = true;
+      spawnLogContext =
+          new CompactSpawnLogContext(
+              env.getExecRoot(),
+              new BinaryOutputStreamWrapper(
+                  // The writes all come from the context's own thread, so this needs no thread of
+                  // its own like the AsynchronousFileOutputStream below.
+                  new BufferedOutputStream(rawOutput.getOutputStream(), 100000)),
+              env.getOptions().getOptions(RemoteOptions.class));
+      return;
+    }
+
     AsynchronousFileOutputStream outStream = null;
     if (executionOptions.executionLogFile != null && !executionOptions.executionLogFile.isEmpty()) {
       rawOutput = workingDirectory.getRelative(executionOptions.executionLogFile);
@@ -143,8 +165,16 @@ public final class SpawnLogModule extends BlazeModule {
       try {
         spawnLogContext.close();
         if (!outputStreams.isEmpty()) {
-          InputStream in = rawOutput.getInputStream();
-          StableSort.stableSort(in, outputStreams);
+          // Sorting a large log spills to disk, under the output base rather than the system
+          // temporary directory.
+          Path sortDir = env.getOutputBase().getRelative("execution_log_sort");
+          try (InputStream in = rawOutput.getInputStream()) {
+            if (rawOutputIsCompact) {
+              StableSort.stableSort(new CompactSpawnLogReader(in), outputStreams, sortDir);
+            } else {
+              StableSort.stableSort(in, outputStreams, sortDir);
+            }
+          }
           outputStreams.close();
         }
         done = true;
@@ -15,34 +15,83 @@
 package com.google.devtools.build.lib.bazel.execlog;
 
 import com.google.common.base.Preconditions;
-import com.google.common.collect.ImmutableList;
-import com.google.common.collect.Maps;
-import com.google.common.collect.Multimap;
-import com.google.common.collect.MultimapBuilder;
 import com.google.devtools.build.lib.exec.Protos.File;
 import com.google.devtools.build.lib.exec.Protos.SpawnExec;
+import com.google.devtools.build.lib.util.io.MessageInputStream;
+import com.google.devtools.build.lib.util.io.MessageInputStreamWrapper.BinaryInputStreamWrapper;
 import com.google.devtools.build.lib.util.io.MessageOutputStream;
+import com.google.devtools.build.lib.vfs.Path;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.PriorityQueue;
+import java.util.Set;
 
 /**
  * A Utility to sort the SpawnExec log in a way that is reproducible across nondeterministic Bazel
  * runs.
  *
  * <p>This is needed to allow textual diff comparisons of resultant logs.
+ *
+ * <p>Logs can be much larger than the available memory, so the sort only keeps the order of the
+ * spawns in memory: the spawns themselves are spilled to temporary files, which are then merged
+ * in sorted order. The temporary files are created in a directory given by the caller, so that they
+ * can be kept off a small system temporary directory.
  */
 public final class StableSort {
-  private static ImmutableList<SpawnExec> read(InputStream in) throws IOException {
-    ImmutableList.Builder<SpawnExec> result = ImmutableList.builder();
-    while (in.available() > 0) {
-      SpawnExec ex = SpawnExec.parseDelimitedFrom(in);
-      result.add(ex);
+  /** The default amount of spawns, in serialized bytes, to sort in memory at once. */
+  private static final long DEFAULT_MAX_BYTES_IN_MEMORY = 64L << 20;
+
+  /** A spawn in a temporary file along with its position in the sorted log. */
+  private static final class Record {
+    final int rank;
+    final byte[] spawn;
+
+    Record(int rank, byte[] spawn) {
+      this.rank = rank;
+      this.spawn = spawn;
+    }
+
+    void writeTo(DataOutputStream out) throws IOException {
+      out.writeInt(rank);
+      out.writeInt(spawn.length);
+      out.write(spawn);
+    }
+
+    /** Returns the next record of the stream, or null if it has none. */
+    static Record readFrom(DataInputStream in) throws IOException {
+      int rank;
+      try {
+        rank = in.readInt();
+      } catch (EOFException e) {
+        return null;
+      }
+      byte[] spawn = new byte[in.readInt()];
+      in.readFully(spawn);
+      return new Record(rank, spawn);
+    }
+  }
+
+  /** A sorted temporary file being merged. */
+  private static final class Run {
+    final DataInputStream in;
+    Record next;
+
+    Run(Path file) throws IOException {
+      this.in = new DataInputStream(new BufferedInputStream(file.getInputStream()));
+      this.next = Record.readFrom(in);
     }
-    return result.build();
   }
 
   /**
@@ -55,78 +104,215 @@ public final class StableSort {
    *
    * <p>We assume that in the InputStream, at most one SpawnExec declares a given file as its
    * output. We assume that there are no cyclic dependencies.
+   *
+   * <p>The temporary files of the sort are created in {@code tempDir}, which is created if needed
+   * and deleted with its contents afterwards, so it must not be used for anything else.
+   */
+  public static void stableSort(InputStream in, MessageOutputStream out, Path tempDir)
+      throws IOException {
+    stableSort(
+        new BinaryInputStreamWrapper<>(in, SpawnExec.parser()),
+        out,
+        tempDir,
+        DEFAULT_MAX_BYTES_IN_MEMORY);
+  }
+
+  /**
+   * Sorts the spawns read from {@code in} like {@link #stableSort(InputStream,
+   * MessageOutputStream, Path)}.
    */
-  public static void stableSort(InputStream in, MessageOutputStream out) throws IOException {
-    stableSort(read(in), out);
+  public static void stableSort(
+      MessageInputStream<SpawnExec> in, MessageOutputStream out, Path tempDir)
+      throws IOException {
+    stableSort(in, out, tempDir, DEFAULT_MAX_BYTES_IN_MEMORY);
   }
 
-  private static void stableSort(List<SpawnExec> inputs, MessageOutputStream out)
+  /**
+   * Sorts the spawns read from {@code in} like {@link #stableSort(InputStream,
+   * MessageOutputStream, Path)}, holding at most about {@code maxBytesInMemory} of them in memory.
+   */
+  public static void stableSort(
+      MessageInputStream<SpawnExec> in,
+      MessageOutputStream out,
+      Path tempDir,
+      long maxBytesInMemory)
       throws IOException {
-    // A map from each output to a SpawnExec that produced it
-    HashMap<String, SpawnExec> outputProducer = Maps.newHashMapWithExpectedSize(inputs.size());
-
-    for (SpawnExec ex : inputs) {
-      for (File output : ex.getActualOutputsList()) {
-        String name = output.getPath();
-        // Within a single build, each output can only be produced by a single spawn
-        Preconditions.checkArgument(!outputProducer.containsKey(name));
-        outputProducer.put(name, ex);
+    // Left over if an earlier sort was interrupted.
+    tempDir.deleteTree();
+    tempDir.createDirectoryAndParents();
+    try {
+      Path spill = tempDir.getRelative("spawns");
+      List<String> keys = new ArrayList<>();
+      HashMap<String, Integer> outputProducer = new HashMap<>();
+      try (OutputStream spillOut = new BufferedOutputStream(spill.getOutputStream())) {
+        SpawnExec ex;
+        while ((ex = in.read()) != null) {
+          int index = keys.size();
+          for (File output : ex.getActualOutputsList()) {
+            // Within a single build, each output can only be produced by a single spawn
+            Preconditions.checkArgument(outputProducer.put(output.getPath(), index) == null);
+          }
+          keys.add(getSortKey(ex));
+          ex.writeDelimitedTo(spillOut);
+        }
       }
+
+      int[] ranks = rank(spill, keys, outputProducer);
+      outputProducer = null;
+      keys = null;
+      sort(spill, ranks, out, maxBytesInMemory, tempDir);
+    } finally {
+      tempDir.deleteTree();
+    }
+  }
+
+  /** Returns the key that orders the spawns that do not depend on each other. */
+  private static String getSortKey(SpawnExec o) {
+    // Sort by comparing the path of the first output. We don't want the sorting to rely on file
+    // hashes because we want the same action graph to be sorted in the same way regardless of file
+    // contents.
+    if (o.getListedOutputsCount() > 0) {
+      return "1_" + o.getListedOutputs(0);
     }
 
-    // A spawnExec a blocks b if a produces an output consumed by b
-    Multimap<SpawnExec, SpawnExec> blockedBy = MultimapBuilder.hashKeys().arrayListValues().build();
-    Multimap<SpawnExec, SpawnExec> blocking = MultimapBuilder.hashKeys().arrayListValues().build();
+    // Get a proto with only stable information from this proto
+    SpawnExec.Builder stripped = SpawnExec.newBuilder();
+    stripped.addAllCommandArgs(o.getCommandArgsList());
+    stripped.addAllEnvironmentVariables(o.getEnvironmentVariablesList());
+    stripped.setPlatform(o.getPlatform());
+    stripped.addAllInputs(o.getInputsList());
+    stripped.setProgressMessage(o.getProgressMessage());
+    stripped.setMnemonic(o.getMnemonic());
 
-    for (SpawnExec ex : inputs) {
-      for (File s : ex.getInputsList()) {
-        if (outputProducer.containsKey(s.getPath())) {
-          SpawnExec blocker = outputProducer.get(s.getPath());
-          blockedBy.put(ex, blocker);
-          blocking.put(blocker, ex);
+    return "2_" + stripped.build();
+  }
+
+  /**
+   * Returns the position of each spawn in the sorted log, or -1 for spawns that are never
+   * unblocked.
+   */
+  private static int[] rank(Path spill, List<String> keys, HashMap<String, Integer> outputProducer)
+      throws IOException {
+    int count = keys.size();
+    // A spawn a blocks b if a produces an output consumed by b
+    int[] blockerCount = new int[count];
+    List<List<Integer>> blocking = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      blocking.add(new ArrayList<>(0));
+    }
+    try (InputStream spillIn = new BufferedInputStream(spill.getInputStream())) {
+      for (int index = 0; index < count; index++) {
+        SpawnExec ex = SpawnExec.parseDelimitedFrom(spillIn);
+        Set<Integer> blockers = new HashSet<>();
+        for (File s : ex.getInputsList()) {
+          Integer blocker = outputProducer.get(s.getPath());
+          if (blocker != null && blocker != index && blockers.add(blocker)) {
+            blockerCount[index]++;
+            blocking.get(blocker).add(index);
+          }
         }
       }
     }
 
-    // This is a queue of all spawnExecs that are not blocked by future spawnExecs
-    PriorityQueue<SpawnExec> queue =
-        new PriorityQueue<>(
-            Comparator.comparing(
-                o -> {
-                  // Sort by comparing the path of the first output. We don't want the sorting to
-                  // rely on file hashes because we want the same action graph to be sorted in the
-                  // same way regardless of file contents.
-                  if (o.getListedOutputsCount() > 0) {
-                    return "1_" + o.getListedOutputs(0);
-                  }
-
-                  // Get a proto with only stable information from this proto
-                  SpawnExec.Builder stripped = SpawnExec.newBuilder();
-                  stripped.addAllCommandArgs(o.getCommandArgsList());
-                  stripped.addAllEnvironmentVariables(o.getEnvironmentVariablesList());
-                  stripped.setPlatform(o.getPlatform());
-                  stripped.addAllInputs(o.getInputsList());
-                  stripped.setProgressMessage(o.getProgressMessage());
-                  stripped.setMnemonic(o.getMnemonic());
-
-                  return "2_" + stripped.build();
-                }));
-    for (SpawnExec ex : inputs) {
-      if (!blockedBy.containsKey(ex)) {
-        queue.add(ex);
+    // This is a queue of all spawns that are not blocked by future spawns
+    PriorityQueue<Integer> queue = new PriorityQueue<>(Comparator.comparing(keys::get));
+    for (int i = 0; i < count; i++) {
+      if (blockerCount[i] == 0) {
+        queue.add(i);
       }
     }
-
+    int[] ranks = new int[count];
+    Arrays.fill(ranks, -1);
+    int rank = 0;
     while (!queue.isEmpty()) {
-      SpawnExec curr = queue.remove();
-      out.write(curr);
-
-      for (SpawnExec blocked : blocking.get(curr)) {
-        blockedBy.remove(blocked, curr);
-        if (!blockedBy.containsKey(blocked)) {
+      int curr = queue.remove();
+      ranks[curr] = rank++;
+      for (int blocked : blocking.get(curr)) {
+        if (--blockerCount[blocked] == 0) {
           queue.add(blocked);
         }
       }
+      blocking.set(curr, null);
+    }
+    return ranks;
+  }
+
+  /**
+   * Writes the spawns of the spill file to {@code out} in the order of their ranks, by sorting runs
+   * of them that fit in memory into temporary files in {@code tempDir} and then merging these.
+   */
+  private static void sort(
+      Path spill, int[] ranks, MessageOutputStream out, long maxBytesInMemory, Path tempDir)
+      throws IOException {
+    Comparator<Record> byRank = Comparator.comparingInt(r -> r.rank);
+    List<Path> runs = new ArrayList<>();
+    List<Record> buffer = new ArrayList<>();
+    long bufferBytes = 0;
+    try (InputStream spillIn = new BufferedInputStream(spill.getInputStream())) {
+      for (int index = 0; index < ranks.length; index++) {
+        SpawnExec ex = SpawnExec.parseDelimitedFrom(spillIn);
+        if (ranks[index] < 0) {
+          continue;
+        }
+        byte[] bytes = ex.toByteArray();
+        buffer.add(new Record(ranks[index], bytes));
+        bufferBytes += bytes.length;
+        if (bufferBytes >= maxBytesInMemory) {
+          runs.add(writeRun(buffer, byRank, tempDir.getRelative("run-" + runs.size())));
+          buffer.clear();
+          bufferBytes = 0;
+        }
+      }
+    }
+
+    if (runs.isEmpty()) {
+      buffer.sort(byRank);
+      for (Record record : buffer) {
+        out.write(SpawnExec.parseFrom(record.spawn));
+      }
+      return;
+    }
+    if (!buffer.isEmpty()) {
+      runs.add(writeRun(buffer, byRank, tempDir.getRelative("run-" + runs.size())));
+      buffer.clear();
+    }
+
+    PriorityQueue<Run> queue = new PriorityQueue<>(Comparator.comparing(r -> r.next, byRank));
+    try {
+      for (Path file : runs) {
+        Run run = new Run(file);
+        if (run.next != null) {
+          queue.add(run);
+        } else {
+          run.in.close();
+        }
+      }
+      while (!queue.isEmpty()) {
+        Run run = queue.remove();
+        out.write(SpawnExec.parseFrom(run.next.spawn));
+        run.next = Record.readFrom(run.in);
+        if (run.next != null) {
+          queue.add(run);
+        } else {
+          run.in.close();
+        }
+      }
+    } finally {
+      for (Run run : queue) {
+        run.in.close();
+      }
+    }
+  }
+
+  private static Path writeRun(List<Record> records, Comparator<Record> byRank, Path file)
+      throws IOException {
+    records.sort(byRank);
+    try (DataOutputStream runOut =
+        new DataOutputStream(new BufferedOutputStream(file.getOutputStream()))) {
+      for (Record record : records) {
+        record.writeTo(runOut);
+      }
     }
+    return file;
   }
 }
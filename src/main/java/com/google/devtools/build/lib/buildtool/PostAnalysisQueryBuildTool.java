@@ -97,6 +97,8 @@ public abstract class PostAnalysisQueryBuildTool<T> extends BuildTool {
 
     PostAnalysisQueryEnvironment<T> postAnalysisQueryEnvironment =
         getQueryEnvironment(request, hostConfiguration, topLevelConfigurations, walkableGraph);
+    postAnalysisQueryEnvironment.setConfiguredTargetIndex(
+        env.getSkyframeExecutor().getConfiguredTargetIndex());
 
     Iterable<NamedThreadSafeOutputFormatterCallback<T>> callbacks =
         postAnalysisQueryEnvironment.getDefaultOutputFormatters(
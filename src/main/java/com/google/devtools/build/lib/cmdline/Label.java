@@ -76,7 +76,7 @@ public final class Label
   public static final SkyFunctionName TRANSITIVE_TRAVERSAL =
       SkyFunctionName.createHermetic("TRANSITIVE_TRAVERSAL");
 
-  private static final Interner<Label> LABEL_INTERNER = BlazeInterners.newWeakInterner();
+  private static final Interner<Label> LABEL_INTERNER = BlazeInterners.newShardedWeakInterner();
 
   /**
    * Factory for Labels from absolute string form. e.g.
@@ -320,7 +320,12 @@ public final class Label
   /** The name and repository of the package. */
   private final PackageIdentifier packageIdentifier;
 
-  /** The name of the target within the package. Canonical. */
+  /**
+   * The name of the target within the package. Canonical.
+   *
+   * <p>Kept as a plain string rather than in a packed encoding: the package's map of targets is
+   * keyed by this same instance, so a packed copy would add to the heap instead of saving on it.
+   */
   private final String name;
 
   private Label(PackageIdentifier packageIdentifier, String name) {
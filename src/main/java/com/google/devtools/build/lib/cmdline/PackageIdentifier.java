@@ -38,7 +38,7 @@ import javax.annotation.concurrent.Immutable;
 @Immutable
 public final class PackageIdentifier
     implements Comparable<PackageIdentifier>, Serializable, SkylarkValue {
-  private static final Interner<PackageIdentifier> INTERNER = BlazeInterners.newWeakInterner();
+  private static final Interner<PackageIdentifier> INTERNER = BlazeInterners.newShardedWeakInterner();
 
   public static PackageIdentifier create(String repository, PathFragment pkgName)
       throws LabelSyntaxException {
@@ -253,6 +253,18 @@ public final class ImmutableSortedKeyMap<K extends Comparable<K>, V> implements
     return index >= 0 ? values[index] : null;
   }
 
+  /**
+   * Returns the position of {@code key} in the sorted order of the keys of this map, or -1 if it is
+   * not a key of this map.
+   */
+  public int indexOf(@Nullable Object key) {
+    if (key == null) {
+      return -1;
+    }
+    int index = Arrays.binarySearch(sortedKeys, key);
+    return index >= 0 ? index : -1;
+  }
+
   @Override
   public Set<K> keySet() {
     return ImmutableSet.copyOf(sortedKeys);
@@ -39,6 +39,15 @@ public class BlazeInterners {
     return setConcurrencyLevel(Interners.newBuilder().weak()).build();
   }
 
+  /**
+   * Returns a weak interner that uses less memory per interned instance than {@link
+   * #newWeakInterner}, at the cost of taking a lock on every lookup. Suited to types with very many
+   * live instances, such as labels.
+   */
+  public static <T> Interner<T> newShardedWeakInterner() {
+    return new ShardedWeakInterner<>(CONCURRENCY_LEVEL);
+  }
+
   public static <T> Interner<T> newStrongInterner() {
     return setConcurrencyLevel(Interners.newBuilder().strong()).build();
   }
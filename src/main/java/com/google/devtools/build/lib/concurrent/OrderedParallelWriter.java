@@ -0,0 +1,117 @@
+// Copyright 2019 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.concurrent;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Encodes items to bytes on a pool of worker threads, and writes the bytes to a stream in the order
+ * in which the items were submitted.
+ *
+ * <p>At most {@code maxPending} items are being encoded or waiting to be written at any time; once
+ * that many are, {@link #write} blocks until the oldest one is written out. This keeps memory use
+ * bounded no matter how much output there is, while the output itself is the same as if all items
+ * had been encoded and written sequentially.
+ *
+ * <p>Not thread-safe: all methods must be called from the same thread, or under external
+ * synchronization. The {@link Encoder} on the other hand is called concurrently.
+ */
+public final class OrderedParallelWriter<T> implements AutoCloseable {
+
+  /** Converts an item into the bytes to write for it. Must be thread-safe. */
+  @FunctionalInterface
+  public interface Encoder<T> {
+    byte[] encode(T item) throws IOException, InterruptedException;
+  }
+
+  private final OutputStream out;
+  private final Encoder<T> encoder;
+  private final ExecutorService executor;
+  private final int maxPending;
+  private final ArrayDeque<Future<byte[]>> pending = new ArrayDeque<>();
+
+  /**
+   * Creates a writer with {@code threadCount} daemon worker threads, named after {@code
+   * threadNameFormat}, which are released by {@link #close}.
+   */
+  public OrderedParallelWriter(
+      OutputStream out,
+      Encoder<T> encoder,
+      int threadCount,
+      int maxPending,
+      String threadNameFormat) {
+    Preconditions.checkArgument(threadCount > 0, threadCount);
+    Preconditions.checkArgument(maxPending > 0, maxPending);
+    this.out = out;
+    this.encoder = encoder;
+    this.executor =
+        Executors.newFixedThreadPool(
+            threadCount,
+            new ThreadFactoryBuilder().setNameFormat(threadNameFormat).setDaemon(true).build());
+    this.maxPending = maxPending;
+  }
+
+  /** Schedules {@code item} to be encoded and written after all previously scheduled items. */
+  public void write(T item) throws IOException, InterruptedException {
+    pending.addLast(executor.submit(() -> encoder.encode(item)));
+    // Opportunistically write out whatever is ready, then enforce the bound.
+    while (!pending.isEmpty() && pending.peekFirst().isDone()) {
+      writeHead();
+    }
+    while (pending.size() > maxPending) {
+      writeHead();
+    }
+  }
+
+  /** Writes out all scheduled items and flushes the underlying stream. */
+  public void flush() throws IOException, InterruptedException {
+    while (!pending.isEmpty()) {
+      writeHead();
+    }
+    out.flush();
+  }
+
+  /**
+   * Releases the worker threads. Items that were not written out yet by {@link #write} or {@link
+   * #flush} are dropped. Does not close the underlying stream.
+   */
+  @Override
+  public void close() {
+    for (Future<byte[]> future : pending) {
+      future.cancel(/*mayInterruptIfRunning=*/ true);
+    }
+    pending.clear();
+    executor.shutdownNow();
+  }
+
+  private void writeHead() throws IOException, InterruptedException {
+    byte[] bytes;
+    try {
+      bytes = pending.removeFirst().get();
+    } catch (ExecutionException e) {
+      Throwables.propagateIfPossible(e.getCause(), IOException.class, InterruptedException.class);
+      throw new IllegalStateException(e.getCause());
+    }
+    out.write(bytes);
+  }
+}
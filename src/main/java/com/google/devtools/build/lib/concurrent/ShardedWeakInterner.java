@@ -0,0 +1,167 @@
+// Copyright 2019 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.concurrent;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Interner;
+import com.google.devtools.build.lib.concurrent.ThreadSafety.ThreadSafe;
+import java.lang.ref.WeakReference;
+
+/**
+ * A weak {@link Interner} with a smaller per-instance footprint than the one returned by {@link
+ * com.google.common.collect.Interners#newWeakInterner}.
+ *
+ * <p>Each interned instance costs one {@link WeakReference} (with the instance's hash code stored
+ * in what would otherwise be padding) and a slot in an open-addressed table, instead of a chained
+ * map entry. Cleared references are not tracked through a {@link java.lang.ref.ReferenceQueue}:
+ * their slots are reused by later insertions and dropped when a table is rebuilt, which keeps the
+ * table from growing past about twice the number of live instances. That comes to about 40 bytes
+ * per instance on a 64-bit JVM with compressed references, against about 48 for the Guava
+ * interner; the instances themselves are unchanged.
+ *
+ * <p>The instances are spread over a power-of-two number of independently locked shards, so that
+ * concurrent interning of unrelated instances rarely contends.
+ */
+@ThreadSafe
+public final class ShardedWeakInterner<T> implements Interner<T> {
+  private static final int MIN_SHARD_CAPACITY = 16;
+
+  private final Shard<T>[] shards;
+  private final int shardShift;
+
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  ShardedWeakInterner(int concurrencyLevel) {
+    Preconditions.checkArgument(concurrencyLevel > 0, concurrencyLevel);
+    int shardBits = 32 - Integer.numberOfLeadingZeros(Math.max(concurrencyLevel * 4 - 1, 1));
+    this.shards = new Shard[1 << shardBits];
+    for (int i = 0; i < shards.length; i++) {
+      shards[i] = new Shard<>();
+    }
+    // The shard is picked from the high bits of the hash, the slot within a shard from the low ones.
+    this.shardShift = 32 - shardBits;
+  }
+
+  @Override
+  public T intern(T sample) {
+    int hash = smear(sample.hashCode());
+    return shardFor(hash).intern(sample, hash);
+  }
+
+  /** Returns the number of instances in the interner, including ones that are no longer live. */
+  int size() {
+    int size = 0;
+    for (Shard<T> shard : shards) {
+      size += shard.size();
+    }
+    return size;
+  }
+
+  private Shard<T> shardFor(int hash) {
+    return shardShift == 32 ? shards[0] : shards[hash >>> shardShift];
+  }
+
+  private static int smear(int hashCode) {
+    int h = hashCode * 0x9E3779B9;
+    return h ^ (h >>> 16);
+  }
+
+  private static final class Ref<T> extends WeakReference<T> {
+    private final int hash;
+
+    private Ref(T referent, int hash) {
+      super(referent);
+      this.hash = hash;
+    }
+  }
+
+  private static final class Shard<T> {
+    private Ref<T>[] table = newTable(MIN_SHARD_CAPACITY);
+    /** Number of non-null slots in {@link #table}, cleared references included. */
+    private int occupied;
+
+    private synchronized T intern(T sample, int hash) {
+      Ref<T>[] table = this.table;
+      int mask = table.length - 1;
+      int clearedSlot = -1;
+      for (int i = hash & mask; ; i = (i + 1) & mask) {
+        Ref<T> ref = table[i];
+        if (ref == null) {
+          if (clearedSlot >= 0) {
+            table[clearedSlot] = new Ref<>(sample, hash);
+          } else {
+            table[i] = new Ref<>(sample, hash);
+            if (++occupied > table.length / 4 * 3) {
+              rebuild();
+            }
+          }
+          return sample;
+        }
+        if (ref.hash == hash) {
+          T canonical = ref.get();
+          if (canonical == null) {
+            if (clearedSlot < 0) {
+              clearedSlot = i;
+            }
+          } else if (canonical.equals(sample)) {
+            return canonical;
+          }
+        } else if (clearedSlot < 0 && ref.get() == null) {
+          clearedSlot = i;
+        }
+      }
+    }
+
+    /**
+     * Drops the cleared references, and resizes the table so that the live ones fill at most half
+     * of it.
+     */
+    private void rebuild() {
+      int live = 0;
+      for (Ref<T> ref : table) {
+        if (ref != null && ref.get() != null) {
+          live++;
+        }
+      }
+      int capacity = MIN_SHARD_CAPACITY;
+      while (capacity < live * 2) {
+        capacity <<= 1;
+      }
+      Ref<T>[] newTable = newTable(capacity);
+      int mask = capacity - 1;
+      int occupied = 0;
+      for (Ref<T> ref : table) {
+        if (ref == null || ref.get() == null) {
+          continue;
+        }
+        int i = ref.hash & mask;
+        while (newTable[i] != null) {
+          i = (i + 1) & mask;
+        }
+        newTable[i] = ref;
+        occupied++;
+      }
+      this.table = newTable;
+      this.occupied = occupied;
+    }
+
+    private synchronized int size() {
+      return occupied;
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static <T> Ref<T>[] newTable(int capacity) {
+      return new Ref[capacity];
+    }
+  }
+}
@@ -0,0 +1,251 @@
+// Copyright 2019 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.dynamic;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.Map;
+import java.util.TreeMap;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Remembers how long the spawns of each mnemonic took locally and remotely, and how often they
+ * were remote cache hits, so that dynamic execution can tell which branch is worth starting, even
+ * after a server restart.
+ *
+ * <p>Only the branch that wins is timed, the other one is cancelled before it completes. The
+ * latencies are moving averages, so that the history follows changes in the build or the remote
+ * execution service.
+ *
+ * <p>Also counts the wins of each branch in the current build, for the build summary.
+ */
+@ThreadSafe
+final class DynamicExecutionHistory {
+  /** Weight of a new sample in the moving averages. */
+  private static final double ALPHA = 0.2;
+
+  /** What the history knows about the spawns of one mnemonic. */
+  static final class Stats {
+    /** Average time the local branch took when it won, in milliseconds. */
+    final double localMillis;
+
+    final int localSamples;
+    /** Average time the remote branch took when it won, in milliseconds. */
+    final double remoteMillis;
+
+    final int remoteSamples;
+    /**
+     * Share of the spawns that were remote cache hits. A local win counts as a miss: a cache hit
+     * returns long before the local branch could complete, so the remote branch would have won.
+     */
+    final double remoteCacheHitRate;
+
+    Stats(
+        double localMillis,
+        int localSamples,
+        double remoteMillis,
+        int remoteSamples,
+        double remoteCacheHitRate) {
+      this.localMillis = localMillis;
+      this.localSamples = localSamples;
+      this.remoteMillis = remoteMillis;
+      this.remoteSamples = remoteSamples;
+      this.remoteCacheHitRate = remoteCacheHitRate;
+    }
+
+    private Stats recordLocal(long millis) {
+      return new Stats(
+          average(localMillis, localSamples, millis),
+          localSamples + 1,
+          remoteMillis,
+          remoteSamples,
+          average(remoteCacheHitRate, localSamples + remoteSamples, 0));
+    }
+
+    private Stats recordRemote(long millis, boolean cacheHit) {
+      return new Stats(
+          localMillis,
+          localSamples,
+          average(remoteMillis, remoteSamples, millis),
+          remoteSamples + 1,
+          average(remoteCacheHitRate, localSamples + remoteSamples, cacheHit ? 1 : 0));
+    }
+
+    private static double average(double average, int samples, double sample) {
+      // Until there are enough samples for the moving average to be meaningful, use the mean.
+      double weight = Math.max(ALPHA, 1.0 / (samples + 1));
+      return average + weight * (sample - average);
+    }
+  }
+
+  private static final Stats NO_STATS = new Stats(0, 0, 0, 0, 0);
+
+  @GuardedBy("this")
+  private final Map<String, Stats> stats = new TreeMap<>();
+
+  @GuardedBy("this")
+  private int localWins;
+
+  @GuardedBy("this")
+  private int remoteWins;
+
+  @GuardedBy("this")
+  private int remoteCacheHits;
+
+  @GuardedBy("this")
+  private int remoteOnly;
+
+  /** Returns what is known about the spawns of {@code mnemonic}, or null if nothing. */
+  @Nullable
+  synchronized Stats getStats(String mnemonic) {
+    return stats.get(mnemonic);
+  }
+
+  /** Records that the local branch of a spawn won after running for {@code millis}. */
+  synchronized void recordLocalWin(String mnemonic, long millis) {
+    stats.put(mnemonic, stats.getOrDefault(mnemonic, NO_STATS).recordLocal(millis));
+    localWins++;
+  }
+
+  /**
+   * Records that the remote branch of a spawn won after running for {@code millis}, or that it
+   * completed when no local branch was started.
+   *
+   * @param raced whether a local branch was started
+   */
+  synchronized void recordRemoteWin(
+      String mnemonic, long millis, boolean cacheHit, boolean raced) {
+    stats.put(mnemonic, stats.getOrDefault(mnemonic, NO_STATS).recordRemote(millis, cacheHit));
+    if (raced) {
+      remoteWins++;
+    } else {
+      remoteOnly++;
+    }
+    if (cacheHit) {
+      remoteCacheHits++;
+    }
+  }
+
+  /** Returns a summary of the wins of each branch in the current build, or null if none. */
+  @Nullable
+  synchronized String getSummary() {
+    if (localWins + remoteWins + remoteOnly == 0) {
+      return null;
+    }
+    return String.format(
+        "Dynamic execution: %d local wins, %d remote wins, %d remote only (%d remote cache hits)",
+        localWins, remoteWins, remoteOnly, remoteCacheHits);
+  }
+
+  /** Resets the counts of the current build. */
+  synchronized void buildFinished() {
+    localWins = 0;
+    remoteWins = 0;
+    remoteCacheHits = 0;
+    remoteOnly = 0;
+  }
+
+  /** Writes the history to {@code file}, as JSON. */
+  synchronized void save(Path file) throws IOException {
+    try (Writer out = new OutputStreamWriter(file.getOutputStream(), UTF_8);
+        JsonWriter writer = new JsonWriter(out)) {
+      writer.setIndent("  ");
+      writer.beginArray();
+      for (Map.Entry<String, Stats> entry : stats.entrySet()) {
+        Stats s = entry.getValue();
+        writer.beginObject();
+        writer.name("mnemonic").value(entry.getKey());
+        writer.name("localMillis").value(s.localMillis);
+        writer.name("localSamples").value(s.localSamples);
+        writer.name("remoteMillis").value(s.remoteMillis);
+        writer.name("remoteSamples").value(s.remoteSamples);
+        writer.name("remoteCacheHitRate").value(s.remoteCacheHitRate);
+        writer.endObject();
+      }
+      writer.endArray();
+    }
+  }
+
+  /** Reads a history written by {@link #save}. Returns an empty history if the file is missing. */
+  static DynamicExecutionHistory load(Path file) throws IOException {
+    DynamicExecutionHistory history = new DynamicExecutionHistory();
+    if (!file.exists()) {
+      return history;
+    }
+    try (Reader in = new InputStreamReader(file.getInputStream(), UTF_8);
+        JsonReader reader = new JsonReader(in)) {
+      reader.beginArray();
+      while (reader.hasNext()) {
+        history.readEntry(reader);
+      }
+      reader.endArray();
+    } catch (IllegalStateException | NumberFormatException e) {
+      throw new IOException("Malformed dynamic execution history in " + file, e);
+    }
+    return history;
+  }
+
+  private synchronized void readEntry(JsonReader reader) throws IOException {
+    String mnemonic = null;
+    double localMillis = 0;
+    int localSamples = 0;
+    double remoteMillis = 0;
+    int remoteSamples = 0;
+    double remoteCacheHitRate = 0;
+
+    reader.beginObject();
+    while (reader.hasNext()) {
+      switch (reader.nextName()) {
+        case "mnemonic":
+          mnemonic = reader.nextString();
+          break;
+        case "localMillis":
+          localMillis = reader.nextDouble();
+          break;
+        case "localSamples":
+          localSamples = reader.nextInt();
+          break;
+        case "remoteMillis":
+          remoteMillis = reader.nextDouble();
+          break;
+        case "remoteSamples":
+          remoteSamples = reader.nextInt();
+          break;
+        case "remoteCacheHitRate":
+          remoteCacheHitRate = reader.nextDouble();
+          break;
+        default:
+          reader.skipValue();
+      }
+    }
+    reader.endObject();
+
+    if (mnemonic == null) {
+      throw new IOException("Dynamic execution history entry without a mnemonic");
+    }
+    stats.put(
+        mnemonic,
+        new Stats(localMillis, localSamples, remoteMillis, remoteSamples, remoteCacheHitRate));
+  }
+}
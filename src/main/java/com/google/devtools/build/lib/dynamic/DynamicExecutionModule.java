@@ -19,6 +19,7 @@ import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.eventbus.Subscribe;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.devtools.build.lib.actions.ExecutionStrategy;
 import com.google.devtools.build.lib.actions.ExecutorInitException;
@@ -26,13 +27,17 @@ import com.google.devtools.build.lib.actions.Spawn;
 import com.google.devtools.build.lib.actions.SpawnActionContext;
 import com.google.devtools.build.lib.actions.Spawns;
 import com.google.devtools.build.lib.buildtool.BuildRequest;
+import com.google.devtools.build.lib.buildtool.buildevent.BuildCompleteEvent;
 import com.google.devtools.build.lib.concurrent.ExecutorUtil;
+import com.google.devtools.build.lib.events.Event;
 import com.google.devtools.build.lib.exec.ExecutionPolicy;
 import com.google.devtools.build.lib.exec.ExecutorBuilder;
 import com.google.devtools.build.lib.runtime.BlazeModule;
 import com.google.devtools.build.lib.runtime.Command;
 import com.google.devtools.build.lib.runtime.CommandEnvironment;
+import com.google.devtools.build.lib.vfs.Path;
 import com.google.devtools.common.options.OptionsBase;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -46,6 +51,10 @@ import java.util.logging.Logger;
  */
 public class DynamicExecutionModule extends BlazeModule {
   private ExecutorService executorService;
+  private CommandEnvironment env;
+  /** Outcomes of the races of the current and earlier builds, kept across commands. */
+  private DynamicExecutionHistory history;
+  private Path historyFile;
   private static final Logger logger = Logger.getLogger(DynamicExecutionModule.class.getName());
   static List<Map.Entry<String, List<String>>> localStrategiesByMnemonic;
   static List<Map.Entry<String, List<String>>> remoteStrategiesByMnemonic;
@@ -59,6 +68,7 @@ public class DynamicExecutionModule extends BlazeModule {
 
   @Override
   public void beforeCommand(CommandEnvironment env) {
+    this.env = env;
     executorService =
         Executors.newCachedThreadPool(
             new ThreadFactoryBuilder().setNameFormat("dynamic-execution-thread-%d").build());
@@ -149,8 +159,10 @@ public class DynamicExecutionModule extends BlazeModule {
         builder.addActionContext(
             new LegacyDynamicSpawnStrategy(executorService, options, this::getExecutionPolicy));
       } else {
+        loadHistory(env);
         builder.addActionContext(
-            new DynamicSpawnStrategy(executorService, options, this::getExecutionPolicy));
+            new DynamicSpawnStrategy(
+                executorService, options, this::getExecutionPolicy, history));
       }
       builder.addStrategyByContext(SpawnActionContext.class, "dynamic");
       setDefaultStrategiesByMnemonic(options);
@@ -159,6 +171,43 @@ public class DynamicExecutionModule extends BlazeModule {
     }
   }
 
+  private void loadHistory(CommandEnvironment env) {
+    Path file = env.getOutputBase().getRelative("dynamic-execution-history.json");
+    if (history != null && file.equals(historyFile)) {
+      return;
+    }
+    historyFile = file;
+    try {
+      history = DynamicExecutionHistory.load(historyFile);
+    } catch (IOException e) {
+      env.getReporter()
+          .handle(
+              Event.warn("Could not read the history of dynamic execution: " + e.getMessage()));
+      history = new DynamicExecutionHistory();
+    }
+  }
+
+  @Subscribe
+  public void buildComplete(BuildCompleteEvent event) {
+    if (history == null) {
+      return;
+    }
+    String summary = history.getSummary();
+    if (summary == null) {
+      // Dynamic execution was not used in this build, so there is nothing new to save.
+      return;
+    }
+    env.getReporter().handle(Event.info(summary));
+    history.buildFinished();
+    try {
+      history.save(historyFile);
+    } catch (IOException e) {
+      env.getReporter()
+          .handle(
+              Event.warn("Could not save the history of dynamic execution: " + e.getMessage()));
+    }
+  }
+
   /**
    * Use the {@link Spawn} metadata to determine if it can be executed locally, remotely, or both.
    * @param spawn the {@link Spawn} action
@@ -176,5 +225,6 @@ public class DynamicExecutionModule extends BlazeModule {
   public void afterCommand() {
     ExecutorUtil.interruptibleShutdown(executorService);
     executorService = null;
+    env = null;
   }
 }
@@ -113,6 +113,29 @@ public class DynamicExecutionOptions extends OptionsBase {
   )
   public int localExecutionDelay;
 
+  @Option(
+      name = "experimental_dynamic_adaptive_scheduling",
+      documentationCategory = OptionDocumentationCategory.EXECUTION_STRATEGY,
+      effectTags = {OptionEffectTag.EXECUTION},
+      defaultValue = "false",
+      help =
+          "If set, the dynamic scheduler decides for each spawn whether to start the local branch "
+              + "at once, after a delay, or not at all, based on how long the spawns of the same "
+              + "mnemonic took locally and remotely, and how often they were remote cache hits, "
+              + "in previous builds. Has no effect with --legacy_spawn_scheduler.")
+  public boolean adaptiveScheduling;
+
+  @Option(
+      name = "experimental_dynamic_local_budget",
+      documentationCategory = OptionDocumentationCategory.EXECUTION_STRATEGY,
+      effectTags = {OptionEffectTag.EXECUTION},
+      defaultValue = "0",
+      help =
+          "The maximum number of spawns the dynamic scheduler runs locally at once. The local "
+              + "branch of further spawns waits while their remote branch keeps running. 0 means "
+              + "no limit. Has no effect with --legacy_spawn_scheduler.")
+  public int localBudget;
+
   @Option(
     name = "experimental_debug_spawn_scheduler",
     documentationCategory = OptionDocumentationCategory.UNDOCUMENTED,
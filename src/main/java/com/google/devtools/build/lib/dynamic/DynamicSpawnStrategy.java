@@ -16,6 +16,7 @@ package com.google.devtools.build.lib.dynamic;
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Preconditions.checkState;
 
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Throwables;
 import com.google.common.collect.Lists;
 import com.google.common.io.Files;
@@ -33,6 +34,7 @@ import com.google.devtools.build.lib.actions.SandboxedSpawnActionContext.StopCon
 import com.google.devtools.build.lib.actions.Spawn;
 import com.google.devtools.build.lib.actions.SpawnActionContext;
 import com.google.devtools.build.lib.actions.SpawnResult;
+import com.google.devtools.build.lib.dynamic.DynamicExecutionHistory.Stats;
 import com.google.devtools.build.lib.exec.ExecutionPolicy;
 import com.google.devtools.build.lib.util.io.FileOutErr;
 import com.google.devtools.build.lib.vfs.Path;
@@ -47,6 +49,7 @@ import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
 import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Function;
@@ -91,6 +94,26 @@ public class DynamicSpawnStrategy implements SpawnActionContext {
    */
   private final AtomicBoolean delayLocalExecution = new AtomicBoolean(false);
 
+  /**
+   * Number of remote results of a mnemonic that {@link DynamicExecutionOptions#adaptiveScheduling}
+   * needs before it departs from the default behaviour for the mnemonic.
+   */
+  @VisibleForTesting static final int MIN_ADAPTIVE_SAMPLES = 5;
+
+  /** Remote cache hit rate above which the local branch is not started at all. */
+  @VisibleForTesting static final double SKIP_LOCAL_CACHE_HIT_RATE = 0.9;
+
+  /** Returned by {@link #getLocalDelayMillis} when the local branch should not be started. */
+  @VisibleForTesting static final long SKIP_LOCAL = -1;
+
+  private final DynamicExecutionHistory history;
+
+  /**
+   * Limits the number of local branches running at once, see {@link
+   * DynamicExecutionOptions#localBudget}. Null if there is no limit.
+   */
+  @Nullable private final Semaphore localBudget;
+
   private Map<String, List<SandboxedSpawnActionContext>> localStrategiesByMnemonic;
   private Map<String, List<SandboxedSpawnActionContext>> remoteStrategiesByMnemonic;
 
@@ -103,9 +126,50 @@ public class DynamicSpawnStrategy implements SpawnActionContext {
       ExecutorService executorService,
       DynamicExecutionOptions options,
       Function<Spawn, ExecutionPolicy> getExecutionPolicy) {
+    this(executorService, options, getExecutionPolicy, new DynamicExecutionHistory());
+  }
+
+  /**
+   * Constructs a {@code DynamicSpawnStrategy}.
+   *
+   * @param executorService an {@link ExecutorService} that will be used to run Spawn actions.
+   * @param history where to record the outcome of the races, and to look up past outcomes when
+   *     {@link DynamicExecutionOptions#adaptiveScheduling} is set
+   */
+  DynamicSpawnStrategy(
+      ExecutorService executorService,
+      DynamicExecutionOptions options,
+      Function<Spawn, ExecutionPolicy> getExecutionPolicy,
+      DynamicExecutionHistory history) {
     this.executorService = MoreExecutors.listeningDecorator(executorService);
     this.options = options;
     this.getExecutionPolicy = getExecutionPolicy;
+    this.history = history;
+    this.localBudget = options.localBudget > 0 ? new Semaphore(options.localBudget) : null;
+  }
+
+  /**
+   * Decides, from the history of a mnemonic, how long to wait for the remote branch before starting
+   * the local branch of one of its spawns.
+   *
+   * @param stats what is known about the mnemonic, or null if nothing
+   * @param defaultDelayMillis the delay to use while too little is known about the mnemonic
+   * @return the delay in milliseconds, or {@link #SKIP_LOCAL} if the local branch is not worth
+   *     starting because the remote branch is almost always a cache hit
+   */
+  @VisibleForTesting
+  static long getLocalDelayMillis(@Nullable Stats stats, long defaultDelayMillis) {
+    if (stats == null || stats.remoteSamples < MIN_ADAPTIVE_SAMPLES) {
+      return defaultDelayMillis;
+    }
+    if (stats.remoteCacheHitRate >= SKIP_LOCAL_CACHE_HIT_RATE) {
+      return SKIP_LOCAL;
+    }
+    if (stats.localSamples >= MIN_ADAPTIVE_SAMPLES && stats.localMillis <= stats.remoteMillis) {
+      return 0;
+    }
+    // Remote usually wins: give it the time it usually takes before competing with it locally.
+    return Math.round(stats.remoteMillis);
   }
 
   /**
@@ -291,6 +355,18 @@ public class DynamicSpawnStrategy implements SpawnActionContext {
       return runRemotely(spawn, actionExecutionContext, null);
     }
 
+    long defaultDelayMillis = delayLocalExecution.get() ? options.localExecutionDelay : 0;
+    long localDelayMillis =
+        options.adaptiveScheduling
+            ? getLocalDelayMillis(history.getStats(spawn.getMnemonic()), defaultDelayMillis)
+            : defaultDelayMillis;
+    if (localDelayMillis == SKIP_LOCAL) {
+      long startNanos = System.nanoTime();
+      List<SpawnResult> spawnResults = runRemotely(spawn, actionExecutionContext, null);
+      recordRemoteWin(spawn, spawnResults, startNanos, /*raced=*/ false);
+      return spawnResults;
+    }
+
     // Semaphores to track termination of each branch. These are necessary to wait for the branch to
     // finish its own cleanup (e.g. terminating subprocesses) once it has been cancelled.
     Semaphore localDone = new Semaphore(0);
@@ -305,13 +381,29 @@ public class DynamicSpawnStrategy implements SpawnActionContext {
               @Override
               List<SpawnResult> callImpl(ActionExecutionContext context)
                   throws InterruptedException, ExecException {
-                if (delayLocalExecution.get()) {
-                  Thread.sleep(options.localExecutionDelay);
+                if (localDelayMillis > 0) {
+                  Thread.sleep(localDelayMillis);
+                }
+                if (localBudget != null) {
+                  localBudget.acquire();
+                }
+                try {
+                  long startNanos = System.nanoTime();
+                  List<SpawnResult> spawnResults =
+                      runLocally(
+                          spawn,
+                          context,
+                          () ->
+                              stopBranch(remoteBranch, remoteDone, "local", strategyThatCancelled));
+                  history.recordLocalWin(
+                      spawn.getMnemonic(),
+                      TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+                  return spawnResults;
+                } finally {
+                  if (localBudget != null) {
+                    localBudget.release();
+                  }
                 }
-                return runLocally(
-                    spawn,
-                    context,
-                    () -> stopBranch(remoteBranch, remoteDone, "local", strategyThatCancelled));
               }
             });
     localBranch.addListener(
@@ -329,12 +421,14 @@ public class DynamicSpawnStrategy implements SpawnActionContext {
               @Override
               public List<SpawnResult> callImpl(ActionExecutionContext context)
                   throws InterruptedException, ExecException {
+                long startNanos = System.nanoTime();
                 List<SpawnResult> spawnResults =
                     runRemotely(
                         spawn,
                         context,
                         () -> stopBranch(localBranch, localDone, "remote", strategyThatCancelled));
                 delayLocalExecution.set(true);
+                recordRemoteWin(spawn, spawnResults, startNanos, /*raced=*/ true);
                 return spawnResults;
               }
             }));
@@ -355,6 +449,17 @@ public class DynamicSpawnStrategy implements SpawnActionContext {
     }
   }
 
+  private void recordRemoteWin(
+      Spawn spawn, List<SpawnResult> spawnResults, long startNanos, boolean raced) {
+    boolean cacheHit =
+        !spawnResults.isEmpty() && spawnResults.get(spawnResults.size() - 1).isCacheHit();
+    history.recordRemoteWin(
+        spawn.getMnemonic(),
+        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos),
+        cacheHit,
+        raced);
+  }
+
   private static List<SandboxedSpawnActionContext> getValidStrategies(
       Map<String, List<SandboxedSpawnActionContext>> strategiesByMnemonic, Spawn spawn) {
     List<SandboxedSpawnActionContext> validStrategies = Lists.newArrayList();
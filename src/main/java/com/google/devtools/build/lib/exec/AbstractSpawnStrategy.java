@@ -16,7 +16,8 @@ package com.google.devtools.build.lib.exec;
 
 import com.google.common.base.Preconditions;
 import com.google.common.base.Strings;
-import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
 import com.google.devtools.build.lib.actions.ActionExecutionContext;
 import com.google.devtools.build.lib.actions.ActionExecutionMetadata;
 import com.google.devtools.build.lib.actions.ActionInput;
@@ -24,11 +25,13 @@ import com.google.devtools.build.lib.actions.Artifact.ArtifactExpander;
 import com.google.devtools.build.lib.actions.ArtifactPathResolver;
 import com.google.devtools.build.lib.actions.EnvironmentalExecException;
 import com.google.devtools.build.lib.actions.ExecException;
+import com.google.devtools.build.lib.actions.FutureSpawn;
 import com.google.devtools.build.lib.actions.MetadataProvider;
 import com.google.devtools.build.lib.actions.RunningActionEvent;
 import com.google.devtools.build.lib.actions.SandboxedSpawnActionContext;
 import com.google.devtools.build.lib.actions.SchedulingActionEvent;
 import com.google.devtools.build.lib.actions.Spawn;
+import com.google.devtools.build.lib.actions.SpawnContinuation;
 import com.google.devtools.build.lib.actions.SpawnResult;
 import com.google.devtools.build.lib.actions.SpawnResult.Status;
 import com.google.devtools.build.lib.actions.Spawns;
@@ -98,6 +101,29 @@ public abstract class AbstractSpawnStrategy implements SandboxedSpawnActionConte
       ActionExecutionContext actionExecutionContext,
       @Nullable StopConcurrentSpawns stopConcurrentSpawns)
       throws ExecException, InterruptedException {
+    return SpawnContinuation.completeBlocking(
+        beginExecution(spawn, actionExecutionContext, stopConcurrentSpawns));
+  }
+
+  @Override
+  public SpawnContinuation beginExecution(
+      Spawn spawn, ActionExecutionContext actionExecutionContext) throws InterruptedException {
+    try {
+      return beginExecution(spawn, actionExecutionContext, null);
+    } catch (ExecException e) {
+      return SpawnContinuation.failedWithExecException(e);
+    }
+  }
+
+  /**
+   * Looks up the spawn in the cache and starts to execute it on a miss. The returned continuation
+   * waits for the result, stores it in the cache and logs the spawn.
+   */
+  private SpawnContinuation beginExecution(
+      Spawn spawn,
+      ActionExecutionContext actionExecutionContext,
+      @Nullable StopConcurrentSpawns stopConcurrentSpawns)
+      throws ExecException, InterruptedException {
     actionExecutionContext.maybeReportSubcommand(spawn);
 
     final Duration timeout = Spawns.getTimeout(spawn);
@@ -112,17 +138,62 @@ public abstract class AbstractSpawnStrategy implements SandboxedSpawnActionConte
     if (cache == null) {
       cache = SpawnCache.NO_CACHE;
     }
-    SpawnResult spawnResult;
-    ExecException ex = null;
-    try (CacheHandle cacheHandle = cache.lookup(spawn, context)) {
+    CacheHandle cacheHandle;
+    try {
+      cacheHandle = cache.lookup(spawn, context);
+    } catch (IOException e) {
+      throw new EnvironmentalExecException(e);
+    }
+    FutureSpawn futureSpawn;
+    try {
       if (cacheHandle.hasResult()) {
-        spawnResult = Preconditions.checkNotNull(cacheHandle.getResult());
+        futureSpawn = FutureSpawn.immediate(Preconditions.checkNotNull(cacheHandle.getResult()));
       } else {
         // Actual execution.
-        spawnResult = spawnRunner.execAsync(spawn, context).get();
-        if (cacheHandle.willStore()) {
-          cacheHandle.store(spawnResult);
-        }
+        futureSpawn = spawnRunner.execAsync(spawn, context);
+      }
+    } catch (IOException e) {
+      futureSpawn =
+          new FutureSpawn(Futures.immediateFailedFuture(new EnvironmentalExecException(e)));
+    } catch (ExecException e) {
+      // Handled like a failure of the execution, so that a SpawnExecException is logged too.
+      futureSpawn = new FutureSpawn(Futures.immediateFailedFuture(e));
+    } catch (InterruptedException | RuntimeException e) {
+      closeQuietly(cacheHandle);
+      throw e;
+    }
+    FutureSpawn result = futureSpawn;
+    return new SpawnContinuation() {
+      @Override
+      public ListenableFuture<?> getFuture() {
+        return result.getFuture();
+      }
+
+      @Override
+      public SpawnContinuation execute() throws ExecException, InterruptedException {
+        return SpawnContinuation.immediate(
+            finishExecution(spawn, actionExecutionContext, context, cacheHandle, result));
+      }
+    };
+  }
+
+  /**
+   * Waits for the result of the spawn, stores it in the cache and logs the spawn. Closes the cache
+   * handle.
+   */
+  private SpawnResult finishExecution(
+      Spawn spawn,
+      ActionExecutionContext actionExecutionContext,
+      SpawnExecutionContext context,
+      CacheHandle cacheHandle,
+      FutureSpawn futureSpawn)
+      throws ExecException, InterruptedException {
+    SpawnResult spawnResult;
+    ExecException ex = null;
+    try (CacheHandle c = cacheHandle) {
+      spawnResult = futureSpawn.get();
+      if (!cacheHandle.hasResult() && cacheHandle.willStore()) {
+        cacheHandle.store(spawnResult);
       }
     } catch (IOException e) {
       throw new EnvironmentalExecException(e);
@@ -166,7 +237,15 @@ public abstract class AbstractSpawnStrategy implements SandboxedSpawnActionConte
                   spawn.getExecutionPlatform());
       throw new SpawnExecException(message, spawnResult, /*forciblyRunRemotely=*/false);
     }
-    return ImmutableList.of(spawnResult);
+    return spawnResult;
+  }
+
+  private static void closeQuietly(CacheHandle cacheHandle) {
+    try {
+      cacheHandle.close();
+    } catch (IOException e) {
+      // The spawn already failed, which is the more interesting error.
+    }
   }
 
   private final class SpawnExecutionContextImpl implements SpawnExecutionContext {
@@ -0,0 +1,445 @@
+// Copyright 2019 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.exec;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.Uninterruptibles;
+import com.google.devtools.build.lib.actions.ActionInput;
+import com.google.devtools.build.lib.actions.Artifact;
+import com.google.devtools.build.lib.actions.ExecException;
+import com.google.devtools.build.lib.actions.ExecutionStrategy;
+import com.google.devtools.build.lib.actions.MetadataProvider;
+import com.google.devtools.build.lib.actions.Spawn;
+import com.google.devtools.build.lib.actions.SpawnResult;
+import com.google.devtools.build.lib.actions.Spawns;
+import com.google.devtools.build.lib.collect.nestedset.NestedSet;
+import com.google.devtools.build.lib.concurrent.ThreadSafety.ThreadSafe;
+import com.google.devtools.build.lib.exec.Protos.Digest;
+import com.google.devtools.build.lib.exec.Protos.ExecLogEntry;
+import com.google.devtools.build.lib.exec.Protos.File;
+import com.google.devtools.build.lib.remote.options.RemoteOptions;
+import com.google.devtools.build.lib.util.io.MessageOutputStream;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.PathFragment;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeSet;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.annotation.Nullable;
+
+/**
+ * A {@link SpawnLogContext} that writes the log as {@link ExecLogEntry} protos, in which every
+ * path, digest and set of inputs is only written the first time a spawn refers to it.
+ *
+ * <p>The sets of inputs follow the nested sets of the actions' inputs, so that a set shared by
+ * many actions, e.g. the transitive headers of a library, is written once rather than once per
+ * spawn. Since an input file is only digested the first time it is logged, this also keeps the
+ * cost of logging a spawn proportional to what it adds to the log.
+ *
+ * <p>Only the outputs are listed while the spawn is being logged, everything else is done by a
+ * dedicated thread, which also owns all the tables of the entries written so far. Since the spawns
+ * waiting for that thread keep their inputs and metadata alive, only a bounded number of them may
+ * be pending, past which logging a spawn blocks until the thread catches up.
+ */
+@ExecutionStrategy(
+    name = {"spawn-log"},
+    contextType = SpawnLogContext.class
+)
+@ThreadSafe
+public class CompactSpawnLogContext extends SpawnLogContext {
+  private static final Logger logger = Logger.getLogger(CompactSpawnLogContext.class.getName());
+
+  private static final int MAX_PENDING_SPAWNS = 1000;
+
+  /** A spawn waiting for the writer thread. */
+  private static final class PendingSpawn {
+    /** The spawn with all the fields that are not IDs set. */
+    final ExecLogEntry.Spawn.Builder builder;
+
+    final List<String> listedOutputs;
+    final List<File> actualOutputs;
+    final Collection<ActionInput> inputs;
+    /** The inputs of the spawn's action, if they are a nested set. */
+    @Nullable final NestedSet<Artifact> actionInputs;
+
+    final MetadataProvider metadataProvider;
+
+    PendingSpawn(
+        ExecLogEntry.Spawn.Builder builder,
+        List<String> listedOutputs,
+        List<File> actualOutputs,
+        Collection<ActionInput> inputs,
+        @Nullable NestedSet<Artifact> actionInputs,
+        MetadataProvider metadataProvider) {
+      this.builder = builder;
+      this.listedOutputs = listedOutputs;
+      this.actualOutputs = actualOutputs;
+      this.inputs = inputs;
+      this.actionInputs = actionInputs;
+      this.metadataProvider = metadataProvider;
+    }
+  }
+
+  private static final PendingSpawn POISON_PILL =
+      new PendingSpawn(
+          ExecLogEntry.Spawn.newBuilder(),
+          ImmutableList.of(),
+          ImmutableList.of(),
+          ImmutableList.of(),
+          null,
+          null);
+
+  private final Path execRoot;
+  private final MessageOutputStream executionLog;
+  private final BlockingQueue<PendingSpawn> queue;
+  private final Thread writerThread;
+  // The first failure of the writer thread, after which it only drains the queue.
+  private final AtomicReference<IOException> exception = new AtomicReference<>();
+
+  // The state below is only accessed by the writer thread.
+  private int lastId;
+  private final Map<String, Integer> pathIds = new HashMap<>();
+  private final Map<String, Integer> digestIds = new HashMap<>();
+  private final Map<Long, Integer> fileIds = new HashMap<>();
+  // The latest file logged at each path, which is what a spawn reading the path saw.
+  private final Map<String, Integer> fileIdsByPath = new HashMap<>();
+  private final Map<String, Integer> directoryIds = new HashMap<>();
+  // Keyed by the children of the nested sets, which are shared between sets with equal contents.
+  private final Map<Object, Integer> nestedSetIds = new IdentityHashMap<>();
+
+  /** @param executionLog the stream to write the {@link ExecLogEntry} protos to */
+  public CompactSpawnLogContext(
+      Path execRoot, MessageOutputStream executionLog, @Nullable RemoteOptions remoteOptions) {
+    this(execRoot, executionLog, remoteOptions, MAX_PENDING_SPAWNS);
+  }
+
+  @VisibleForTesting
+  CompactSpawnLogContext(
+      Path execRoot,
+      MessageOutputStream executionLog,
+      @Nullable RemoteOptions remoteOptions,
+      int maxPendingSpawns) {
+    super(execRoot, executionLog, remoteOptions);
+    this.execRoot = execRoot;
+    this.executionLog = executionLog;
+    this.queue = new LinkedBlockingQueue<>(maxPendingSpawns);
+    this.writerThread = new Thread(this::runWriter, "compact-spawn-log-writer");
+    writerThread.setDaemon(true);
+    writerThread.start();
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public void logSpawn(
+      Spawn spawn,
+      MetadataProvider metadataProvider,
+      SortedMap<PathFragment, ActionInput> inputMap,
+      Duration timeout,
+      SpawnResult result)
+      throws IOException, ExecException {
+    IOException e = exception.get();
+    if (e != null) {
+      throw new IOException("Writing the execution log failed", e);
+    }
+    ExecLogEntry.Spawn.Builder builder = ExecLogEntry.Spawn.newBuilder();
+    builder.addAllCommandArgs(spawn.getArguments());
+
+    Map<String, String> env = spawn.getEnvironment();
+    // Sorting the environment pairs by variable name.
+    TreeSet<String> variables = new TreeSet<>(env.keySet());
+    for (String var : variables) {
+      builder.addEnvironmentVariablesBuilder().setName(var).setValue(env.get(var));
+    }
+
+    builder.setRemotable(Spawns.mayBeExecutedRemotely(spawn));
+    Protos.Platform execPlatform = getPlatform(spawn);
+    if (execPlatform != null) {
+      builder.setPlatform(execPlatform);
+    }
+    if (result.status() != SpawnResult.Status.SUCCESS) {
+      builder.setStatus(result.status().toString());
+    }
+    if (!timeout.isZero()) {
+      builder.setTimeoutMillis(timeout.toMillis());
+    }
+    builder.setCacheable(Spawns.mayBeCached(spawn));
+    builder.setExitCode(result.exitCode());
+    builder.setRemoteCacheHit(result.isCacheHit());
+    builder.setRunner(result.getRunnerName());
+    String progressMessage = spawn.getResourceOwner().getProgressMessage();
+    if (progressMessage != null) {
+      builder.setProgressMessage(progressMessage);
+    }
+    builder.setMnemonic(spawn.getMnemonic());
+
+    Iterable<Artifact> actionInputs = spawn.getResourceOwner().getInputs();
+    // The outputs are listed right away, later spawns of the same action may overwrite them.
+    Uninterruptibles.putUninterruptibly(
+        queue,
+        new PendingSpawn(
+            builder,
+            listOutputPaths(spawn),
+            listActualOutputs(spawn, metadataProvider),
+            inputMap.values(),
+            actionInputs instanceof NestedSet ? (NestedSet<Artifact>) actionInputs : null,
+            metadataProvider));
+  }
+
+  @Override
+  public void close() throws IOException {
+    Uninterruptibles.putUninterruptibly(queue, POISON_PILL);
+    Uninterruptibles.joinUninterruptibly(writerThread);
+    super.close();
+    IOException e = exception.get();
+    if (e != null) {
+      throw e;
+    }
+  }
+
+  private void runWriter() {
+    try {
+      try {
+        executionLog.write(
+            ExecLogEntry.newBuilder()
+                .setInvocation(
+                    ExecLogEntry.Invocation.newBuilder()
+                        .setHashFunctionName(
+                            execRoot.getFileSystem().getDigestFunction().toString()))
+                .build());
+      } catch (IOException e) {
+        exception.set(e);
+      }
+      PendingSpawn spawn;
+      while ((spawn = queue.take()) != POISON_PILL) {
+        if (exception.get() != null) {
+          // Keep draining the queue so that it doesn't hold on to the spawns.
+          continue;
+        }
+        try {
+          writeSpawn(spawn);
+        } catch (IOException e) {
+          exception.set(e);
+        } catch (RuntimeException e) {
+          exception.set(new IOException(e));
+        }
+      }
+    } catch (InterruptedException e) {
+      // Exit quietly.
+    } finally {
+      pathIds.clear();
+      digestIds.clear();
+      fileIds.clear();
+      fileIdsByPath.clear();
+      directoryIds.clear();
+      nestedSetIds.clear();
+    }
+  }
+
+  private void writeSpawn(PendingSpawn spawn) throws IOException {
+    ExecLogEntry.Spawn.Builder builder = spawn.builder;
+    builder.setInputSetId(logInputs(spawn));
+    for (String path : spawn.listedOutputs) {
+      builder.addListedOutputPathIds(logPath(path));
+      // Whatever was logged at the path before was replaced by the spawn.
+      fileIdsByPath.remove(path);
+      directoryIds.remove(path);
+    }
+    for (File output : spawn.actualOutputs) {
+      builder.addActualOutputFileIds(logFile(output));
+    }
+    executionLog.write(ExecLogEntry.newBuilder().setSpawn(builder).build());
+  }
+
+  /** Logs the inputs of a spawn and returns the ID of their set, or zero if it has none. */
+  private int logInputs(PendingSpawn spawn) throws IOException {
+    Map<String, ActionInput> inputs = new LinkedHashMap<>();
+    for (ActionInput input : spawn.inputs) {
+      inputs.putIfAbsent(input.getExecPathString(), input);
+    }
+    if (inputs.isEmpty()) {
+      return 0;
+    }
+
+    // The set of the action's inputs can be shared with other spawns if the spawn has all of them,
+    // in which case only the inputs the spawn has on top, e.g. runfiles, are left to log.
+    int actionInputSetId = 0;
+    if (spawn.actionInputs != null && !spawn.actionInputs.isEmpty()) {
+      Set<String> covered = new HashSet<>();
+      for (Artifact input : spawn.actionInputs.toList()) {
+        if (input.isMiddlemanArtifact()) {
+          continue;
+        }
+        if (!inputs.containsKey(input.getExecPathString())) {
+          covered = null;
+          break;
+        }
+        covered.add(input.getExecPathString());
+      }
+      if (covered != null) {
+        actionInputSetId =
+            logNestedSet(spawn.actionInputs.getChildrenUnsafe(), spawn.metadataProvider);
+        inputs.keySet().removeAll(covered);
+        if (inputs.isEmpty()) {
+          return actionInputSetId;
+        }
+      }
+    }
+
+    ExecLogEntry.InputSet.Builder builder = ExecLogEntry.InputSet.newBuilder();
+    for (ActionInput input : inputs.values()) {
+      logInput(input, builder, spawn.metadataProvider);
+    }
+    if (actionInputSetId != 0) {
+      builder.addTransitiveSetIds(actionInputSetId);
+    }
+    return writeEntry(ExecLogEntry.newBuilder().setInputSet(builder));
+  }
+
+  /** Logs the set with the given children, see {@link NestedSet#getChildrenUnsafe}. */
+  private int logNestedSet(Object children, MetadataProvider metadataProvider)
+      throws IOException {
+    Integer id = nestedSetIds.get(children);
+    if (id != null) {
+      return id;
+    }
+    ExecLogEntry.InputSet.Builder builder = ExecLogEntry.InputSet.newBuilder();
+    if (children instanceof Object[]) {
+      for (Object child : (Object[]) children) {
+        if (child instanceof Object[]) {
+          builder.addTransitiveSetIds(logNestedSet(child, metadataProvider));
+        } else {
+          logNestedSetLeaf((Artifact) child, builder, metadataProvider);
+        }
+      }
+    } else {
+      logNestedSetLeaf((Artifact) children, builder, metadataProvider);
+    }
+    id = writeEntry(ExecLogEntry.newBuilder().setInputSet(builder));
+    nestedSetIds.put(children, id);
+    return id;
+  }
+
+  private void logNestedSetLeaf(
+      Artifact input, ExecLogEntry.InputSet.Builder builder, MetadataProvider metadataProvider)
+      throws IOException {
+    // Middlemen are never inputs of spawns, see logInputs.
+    if (!input.isMiddlemanArtifact()) {
+      logInput(input, builder, metadataProvider);
+    }
+  }
+
+  /** Logs an input and adds it to the set, as a file or as a set of the files of a directory. */
+  private void logInput(
+      ActionInput input, ExecLogEntry.InputSet.Builder builder, MetadataProvider metadataProvider)
+      throws IOException {
+    String execPath = input.getExecPathString();
+    Integer id = fileIdsByPath.get(execPath);
+    if (id != null) {
+      builder.addFileIds(id);
+      return;
+    }
+    id = directoryIds.get(execPath);
+    if (id != null) {
+      builder.addTransitiveSetIds(id);
+      return;
+    }
+
+    Path path = execRoot.getRelative(execPath);
+    if (path.isDirectory()) {
+      List<File> files = new ArrayList<>();
+      listDirectoryContents(path, files::add, metadataProvider);
+      ExecLogEntry.InputSet.Builder directory = ExecLogEntry.InputSet.newBuilder();
+      for (File file : files) {
+        directory.addFileIds(logFile(file));
+      }
+      id = writeEntry(ExecLogEntry.newBuilder().setInputSet(directory));
+      directoryIds.put(execPath, id);
+      builder.addTransitiveSetIds(id);
+      return;
+    }
+
+    File.Builder file = File.newBuilder().setPath(execPath);
+    try {
+      file.setDigest(computeDigest(input, null, metadataProvider));
+    } catch (IOException e) {
+      logger.log(Level.WARNING, "Error computing spawn inputs", e);
+    }
+    builder.addFileIds(logFile(file.build()));
+  }
+
+  private int logFile(File file) throws IOException {
+    int pathId = logPath(file.getPath());
+    int digestId = file.hasDigest() ? logDigest(file.getDigest()) : 0;
+    long key = ((long) pathId << 32) | digestId;
+    Integer id = fileIds.get(key);
+    if (id == null) {
+      id =
+          writeEntry(
+              ExecLogEntry.newBuilder()
+                  .setFile(
+                      ExecLogEntry.File.newBuilder().setPathId(pathId).setDigestId(digestId)));
+      fileIds.put(key, id);
+    }
+    fileIdsByPath.put(file.getPath(), id);
+    return id;
+  }
+
+  private int logPath(String path) throws IOException {
+    Integer id = pathIds.get(path);
+    if (id == null) {
+      id =
+          writeEntry(
+              ExecLogEntry.newBuilder().setPath(ExecLogEntry.Path.newBuilder().setPath(path)));
+      pathIds.put(path, id);
+    }
+    return id;
+  }
+
+  private int logDigest(Digest digest) throws IOException {
+    String key = digest.getHash() + "/" + digest.getSizeBytes();
+    Integer id = digestIds.get(key);
+    if (id == null) {
+      id =
+          writeEntry(
+              ExecLogEntry.newBuilder()
+                  .setDigest(
+                      ExecLogEntry.Digest.newBuilder()
+                          .setHash(digest.getHash())
+                          .setSizeBytes(digest.getSizeBytes())));
+      digestIds.put(key, id);
+    }
+    return id;
+  }
+
+  private int writeEntry(ExecLogEntry.Builder entry) throws IOException {
+    int id = ++lastId;
+    executionLog.write(entry.setId(id).build());
+    return id;
+  }
+}
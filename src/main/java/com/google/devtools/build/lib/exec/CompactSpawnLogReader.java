@@ -0,0 +1,169 @@
+// Copyright 2019 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.exec;
+
+import com.google.devtools.build.lib.exec.Protos.Digest;
+import com.google.devtools.build.lib.exec.Protos.ExecLogEntry;
+import com.google.devtools.build.lib.exec.Protos.File;
+import com.google.devtools.build.lib.exec.Protos.SpawnExec;
+import com.google.devtools.build.lib.util.io.MessageInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import javax.annotation.Nullable;
+
+/**
+ * Reads a log written by {@link CompactSpawnLogContext} and expands it into the {@link SpawnExec}
+ * protos the same spawns would have been logged as by {@link SpawnLogContext}, except that the
+ * inputs are sorted by path and only listed once.
+ *
+ * <p>Only the entries that are referred to are kept in memory, so the memory needed to read a log
+ * is proportional to the number of distinct files in the build, not to the size of the log.
+ */
+public final class CompactSpawnLogReader implements MessageInputStream<SpawnExec> {
+  private final InputStream in;
+
+  private String hashFunctionName = "";
+  private final Map<Integer, String> paths = new HashMap<>();
+  private final Map<Integer, Digest> digests = new HashMap<>();
+  private final Map<Integer, File> files = new HashMap<>();
+  private final Map<Integer, ExecLogEntry.InputSet> inputSets = new HashMap<>();
+
+  public CompactSpawnLogReader(InputStream in) {
+    this.in = in;
+  }
+
+  @Override
+  @Nullable
+  public SpawnExec read() throws IOException {
+    ExecLogEntry entry;
+    while ((entry = ExecLogEntry.parseDelimitedFrom(in)) != null) {
+      switch (entry.getTypeCase()) {
+        case INVOCATION:
+          hashFunctionName = entry.getInvocation().getHashFunctionName();
+          break;
+        case PATH:
+          paths.put(entry.getId(), entry.getPath().getPath());
+          break;
+        case DIGEST:
+          digests.put(
+              entry.getId(),
+              Digest.newBuilder()
+                  .setHash(entry.getDigest().getHash())
+                  .setSizeBytes(entry.getDigest().getSizeBytes())
+                  .setHashFunctionName(hashFunctionName)
+                  .build());
+          break;
+        case FILE:
+          files.put(entry.getId(), getFile(entry.getFile()));
+          break;
+        case INPUT_SET:
+          inputSets.put(entry.getId(), entry.getInputSet());
+          break;
+        case SPAWN:
+          return getSpawnExec(entry.getSpawn());
+        case TYPE_NOT_SET:
+          // Written by a newer version, skip it.
+          break;
+      }
+    }
+    return null;
+  }
+
+  @Override
+  public void close() throws IOException {
+    in.close();
+  }
+
+  private File getFile(ExecLogEntry.File file) throws IOException {
+    File.Builder builder = File.newBuilder().setPath(getPath(file.getPathId()));
+    if (file.getDigestId() != 0) {
+      Digest digest = digests.get(file.getDigestId());
+      if (digest == null) {
+        throw new IOException("Unknown digest " + file.getDigestId());
+      }
+      builder.setDigest(digest);
+    }
+    return builder.build();
+  }
+
+  private String getPath(int id) throws IOException {
+    String path = paths.get(id);
+    if (path == null) {
+      throw new IOException("Unknown path " + id);
+    }
+    return path;
+  }
+
+  private File getFile(int id) throws IOException {
+    File file = files.get(id);
+    if (file == null) {
+      throw new IOException("Unknown file " + id);
+    }
+    return file;
+  }
+
+  private SpawnExec getSpawnExec(ExecLogEntry.Spawn spawn) throws IOException {
+    SpawnExec.Builder builder =
+        SpawnExec.newBuilder()
+            .addAllCommandArgs(spawn.getCommandArgsList())
+            .addAllEnvironmentVariables(spawn.getEnvironmentVariablesList())
+            .setRemotable(spawn.getRemotable())
+            .setCacheable(spawn.getCacheable())
+            .setTimeoutMillis(spawn.getTimeoutMillis())
+            .setProgressMessage(spawn.getProgressMessage())
+            .setMnemonic(spawn.getMnemonic())
+            .setRunner(spawn.getRunner())
+            .setRemoteCacheHit(spawn.getRemoteCacheHit())
+            .setStatus(spawn.getStatus())
+            .setExitCode(spawn.getExitCode());
+    if (spawn.hasPlatform()) {
+      builder.setPlatform(spawn.getPlatform());
+    }
+    if (spawn.getInputSetId() != 0) {
+      TreeMap<String, File> inputs = new TreeMap<>();
+      expandInputSet(spawn.getInputSetId(), new HashSet<>(), inputs);
+      builder.addAllInputs(inputs.values());
+    }
+    for (int id : spawn.getListedOutputPathIdsList()) {
+      builder.addListedOutputs(getPath(id));
+    }
+    for (int id : spawn.getActualOutputFileIdsList()) {
+      builder.addActualOutputs(getFile(id));
+    }
+    return builder.build();
+  }
+
+  private void expandInputSet(int id, Set<Integer> visited, Map<String, File> inputs)
+      throws IOException {
+    if (!visited.add(id)) {
+      return;
+    }
+    ExecLogEntry.InputSet inputSet = inputSets.get(id);
+    if (inputSet == null) {
+      throw new IOException("Unknown input set " + id);
+    }
+    for (int fileId : inputSet.getFileIdsList()) {
+      File file = getFile(fileId);
+      inputs.putIfAbsent(file.getPath(), file);
+    }
+    for (int transitiveId : inputSet.getTransitiveSetIdsList()) {
+      expandInputSet(transitiveId, visited, inputs);
+    }
+  }
+}
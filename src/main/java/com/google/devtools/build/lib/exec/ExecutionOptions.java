@@ -443,6 +443,20 @@ public class ExecutionOptions extends OptionsBase {
       help = "Log the executed spawns into this file as delimited Spawn protos.")
   public PathFragment executionLogFile;
 
+  @Option(
+      name = "experimental_execution_log_compact_file",
+      defaultValue = "null",
+      category = "verbosity",
+      documentationCategory = OptionDocumentationCategory.UNCATEGORIZED,
+      effectTags = {OptionEffectTag.UNKNOWN},
+      converter = OptionsUtils.PathFragmentConverter.class,
+      help =
+          "Log the executed spawns into this file as delimited ExecLogEntry protos, which refer to"
+              + " the files, digests and sets of inputs shared between spawns instead of repeating"
+              + " them. Takes the place of --experimental_execution_log_file as the log the"
+              + " --execution_log_binary_file and --execution_log_json_file logs are sorted from.")
+  public PathFragment executionLogCompactFile;
+
   @Option(
       name = "execution_log_binary_file",
       defaultValue = "null",
@@ -25,6 +25,7 @@ import com.google.devtools.build.lib.actions.MetadataProvider;
 import com.google.devtools.build.lib.actions.Spawn;
 import com.google.devtools.build.lib.actions.SpawnResult;
 import com.google.devtools.build.lib.actions.Spawns;
+import com.google.devtools.build.lib.actions.UserExecException;
 import com.google.devtools.build.lib.actions.cache.VirtualActionInput;
 import com.google.devtools.build.lib.analysis.platform.PlatformUtils;
 import com.google.devtools.build.lib.exec.Protos.Digest;
@@ -82,7 +83,6 @@ public class SpawnLogContext implements ActionContext {
       Duration timeout,
       SpawnResult result)
       throws IOException, ExecException {
-    SortedMap<Path, ActionInput> existingOutputs = listExistingOutputs(spawn);
     SpawnExec.Builder builder = SpawnExec.newBuilder();
     builder.addAllCommandArgs(spawn.getArguments());
 
@@ -107,31 +107,13 @@ public class SpawnLogContext implements ActionContext {
     } catch (IOException e) {
       logger.log(Level.WARNING, "Error computing spawn inputs", e);
     }
-    ArrayList<String> outputPaths = new ArrayList<>();
-    for (ActionInput output : spawn.getOutputFiles()) {
-      outputPaths.add(output.getExecPathString());
-    }
-    Collections.sort(outputPaths);
-    builder.addAllListedOutputs(outputPaths);
-    for (Map.Entry<Path, ActionInput> e : existingOutputs.entrySet()) {
-      Path path = e.getKey();
-      if (path.isDirectory()) {
-        listDirectoryContents(path, (file) -> builder.addActualOutputs(file), metadataProvider);
-      } else {
-        File.Builder outputBuilder = builder.addActualOutputsBuilder();
-        outputBuilder.setPath(path.relativeTo(execRoot).toString());
-        try {
-          outputBuilder.setDigest(computeDigest(e.getValue(), path, metadataProvider));
-        } catch (IOException ex) {
-          logger.log(Level.WARNING, "Error computing spawn event output properties", ex);
-        }
-      }
-    }
+    builder.addAllListedOutputs(listOutputPaths(spawn));
+    builder.addAllActualOutputs(listActualOutputs(spawn, metadataProvider));
     builder.setRemotable(Spawns.mayBeExecutedRemotely(spawn));
 
-    Platform execPlatform = PlatformUtils.getPlatformProto(spawn, remoteOptions);
+    Protos.Platform execPlatform = getPlatform(spawn);
     if (execPlatform != null) {
-      builder.setPlatform(buildPlatform(execPlatform));
+      builder.setPlatform(execPlatform);
     }
     if (result.status() != SpawnResult.Status.SUCCESS) {
       builder.setStatus(result.status().toString());
@@ -155,14 +137,51 @@ public class SpawnLogContext implements ActionContext {
     executionLog.close();
   }
 
-  private static Protos.Platform buildPlatform(Platform platform) {
+  /** Returns the execution platform of the spawn, or null if it has none. */
+  @Nullable
+  Protos.Platform getPlatform(Spawn spawn) throws UserExecException {
+    Platform execPlatform = PlatformUtils.getPlatformProto(spawn, remoteOptions);
+    if (execPlatform == null) {
+      return null;
+    }
     Protos.Platform.Builder platformBuilder = Protos.Platform.newBuilder();
-    for (Platform.Property p : platform.getPropertiesList()) {
+    for (Platform.Property p : execPlatform.getPropertiesList()) {
       platformBuilder.addPropertiesBuilder().setName(p.getName()).setValue(p.getValue());
     }
     return platformBuilder.build();
   }
 
+  /** Returns the sorted paths of the outputs the spawn declares. */
+  static List<String> listOutputPaths(Spawn spawn) {
+    ArrayList<String> outputPaths = new ArrayList<>();
+    for (ActionInput output : spawn.getOutputFiles()) {
+      outputPaths.add(output.getExecPathString());
+    }
+    Collections.sort(outputPaths);
+    return outputPaths;
+  }
+
+  /** Returns the output files the spawn actually created, with the contents of directories. */
+  List<File> listActualOutputs(Spawn spawn, MetadataProvider metadataProvider) {
+    List<File> outputs = new ArrayList<>();
+    for (Map.Entry<Path, ActionInput> e : listExistingOutputs(spawn).entrySet()) {
+      Path path = e.getKey();
+      if (path.isDirectory()) {
+        listDirectoryContents(path, outputs::add, metadataProvider);
+      } else {
+        File.Builder outputBuilder = File.newBuilder();
+        outputBuilder.setPath(path.relativeTo(execRoot).toString());
+        try {
+          outputBuilder.setDigest(computeDigest(e.getValue(), path, metadataProvider));
+        } catch (IOException ex) {
+          logger.log(Level.WARNING, "Error computing spawn event output properties", ex);
+        }
+        outputs.add(outputBuilder.build());
+      }
+    }
+    return outputs;
+  }
+
   private SortedMap<Path, ActionInput> listExistingOutputs(Spawn spawn) {
     TreeMap<Path, ActionInput> result = new TreeMap<>();
     for (ActionInput output : spawn.getOutputFiles()) {
@@ -175,7 +194,7 @@ public class SpawnLogContext implements ActionContext {
     return result;
   }
 
-  private void listDirectoryContents(
+  void listDirectoryContents(
       Path path, Consumer<File> addFile, MetadataProvider metadataProvider) {
     try {
       // TODO(olaola): once symlink API proposal is implemented, report symlinks here.
@@ -203,7 +222,7 @@ public class SpawnLogContext implements ActionContext {
    * Computes the digest of the given ActionInput or corresponding path. Will try to access the
    * Metadata cache first, if it is available, and fall back to digesting the contents manually.
    */
-  private Digest computeDigest(
+  Digest computeDigest(
       @Nullable ActionInput input, @Nullable Path path, MetadataProvider metadataProvider)
       throws IOException {
     Preconditions.checkArgument(input != null || path != null);
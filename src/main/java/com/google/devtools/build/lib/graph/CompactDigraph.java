@@ -0,0 +1,311 @@
+// Copyright 2019 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.devtools.build.lib.graph;
+
+import com.google.common.base.Preconditions;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+/**
+ * An immutable snapshot of a {@link Digraph} in compressed sparse row form.
+ *
+ * <p>Nodes are identified by dense integer ids in {@code [0, getNodeCount())}, assigned in the
+ * iteration order of {@link Digraph#getNodes()}. The successors of node {@code i} are stored
+ * contiguously in a single {@code int[]}, in the order returned by {@link Node#getSuccessors()}.
+ * This costs two ints per node and one int per edge, instead of a pair of adjacency sets per node,
+ * which makes whole-graph algorithms over large query results much cheaper.
+ *
+ * <p>All traversals are iterative, so they are not limited by the depth of the Java stack.
+ */
+public final class CompactDigraph<T> {
+
+  private final Object[] labels;
+
+  /** Successors of node {@code i} are {@code successors[offsets[i]..offsets[i + 1])}. */
+  private final int[] offsets;
+
+  private final int[] successors;
+
+  private CompactDigraph(Object[] labels, int[] offsets, int[] successors) {
+    this.labels = labels;
+    this.offsets = offsets;
+    this.successors = successors;
+  }
+
+  /** Creates a compact snapshot of {@code graph}. The graph must not change during the call. */
+  public static <T> CompactDigraph<T> of(Digraph<T> graph) {
+    Collection<Node<T>> nodeCollection = graph.getNodes();
+    @SuppressWarnings("unchecked")
+    Node<T>[] nodes = nodeCollection.toArray(new Node[0]);
+    int nodeCount = nodes.length;
+    Map<Node<T>, Integer> ids = new HashMap<>(nodeCount * 4 / 3 + 1);
+    Object[] labels = new Object[nodeCount];
+    for (int i = 0; i < nodeCount; i++) {
+      ids.put(nodes[i], i);
+      labels[i] = nodes[i].getLabel();
+    }
+
+    // Snapshot each adjacency set once, then size and fill the rows in parallel. Every row is
+    // written by exactly one task, so no synchronization is needed.
+    @SuppressWarnings("unchecked")
+    Node<T>[][] rows = new Node[nodeCount][];
+    IntStream.range(0, nodeCount)
+        .parallel()
+        .forEach(i -> rows[i] = nodes[i].getSuccessors().toArray(new Node[0]));
+    int[] offsets = new int[nodeCount + 1];
+    for (int i = 0; i < nodeCount; i++) {
+      offsets[i + 1] = offsets[i] + rows[i].length;
+    }
+    int[] successors = new int[offsets[nodeCount]];
+    IntStream.range(0, nodeCount)
+        .parallel()
+        .forEach(
+            i -> {
+              int pos = offsets[i];
+              for (Node<T> succ : rows[i]) {
+                successors[pos++] = Preconditions.checkNotNull(ids.get(succ), succ);
+              }
+            });
+    return new CompactDigraph<>(labels, offsets, successors);
+  }
+
+  /** Creates a graph directly from its rows. Used by tests and benchmarks. */
+  static <T> CompactDigraph<T> fromAdjacency(T[] labels, int[][] adjacency) {
+    Preconditions.checkArgument(labels.length == adjacency.length);
+    int[] offsets = new int[labels.length + 1];
+    for (int i = 0; i < labels.length; i++) {
+      offsets[i + 1] = offsets[i] + adjacency[i].length;
+    }
+    int[] successors = new int[offsets[labels.length]];
+    for (int i = 0; i < labels.length; i++) {
+      System.arraycopy(adjacency[i], 0, successors, offsets[i], adjacency[i].length);
+    }
+    return new CompactDigraph<>(
+        Arrays.copyOf(labels, labels.length, Object[].class), offsets, successors);
+  }
+
+  public int getNodeCount() {
+    return labels.length;
+  }
+
+  public int getEdgeCount() {
+    return successors.length;
+  }
+
+  @SuppressWarnings("unchecked")
+  public T getLabel(int node) {
+    return (T) labels[node];
+  }
+
+  public int getSuccessorCount(int node) {
+    return offsets[node + 1] - offsets[node];
+  }
+
+  /** Returns the {@code index}-th successor of {@code node}. */
+  public int getSuccessor(int node, int index) {
+    Preconditions.checkElementIndex(index, getSuccessorCount(node));
+    return successors[offsets[node] + index];
+  }
+
+  /**
+   * Returns the nodes in depth-first post-order: each node appears after all of its successors,
+   * except where a cycle makes that impossible. Roots are taken in increasing id order.
+   */
+  public int[] getPostorder() {
+    int nodeCount = labels.length;
+    int[] order = new int[nodeCount];
+    int orderSize = 0;
+    boolean[] visited = new boolean[nodeCount];
+    int[] nodeStack = new int[nodeCount];
+    int[] edgeStack = new int[nodeCount];
+    for (int root = 0; root < nodeCount; root++) {
+      if (visited[root]) {
+        continue;
+      }
+      visited[root] = true;
+      nodeStack[0] = root;
+      edgeStack[0] = offsets[root];
+      int depth = 1;
+      while (depth > 0) {
+        int node = nodeStack[depth - 1];
+        int edge = edgeStack[depth - 1];
+        if (edge < offsets[node + 1]) {
+          edgeStack[depth - 1] = edge + 1;
+          int succ = successors[edge];
+          if (!visited[succ]) {
+            visited[succ] = true;
+            nodeStack[depth] = succ;
+            edgeStack[depth] = offsets[succ];
+            depth++;
+          }
+        } else {
+          order[orderSize++] = node;
+          depth--;
+        }
+      }
+    }
+    return order;
+  }
+
+  /** Returns the nodes of an acyclic graph in topological order, i.e. reverse post-order. */
+  public int[] getTopologicalOrder() {
+    int[] order = getPostorder();
+    for (int i = 0, j = order.length - 1; i < j; i++, j--) {
+      int tmp = order[i];
+      order[i] = order[j];
+      order[j] = tmp;
+    }
+    return order;
+  }
+
+  /**
+   * Computes the strongly connected components of the graph using an iterative version of
+   * Tarjan's algorithm.
+   *
+   * <p>Returns an array mapping each node to its component number. Components are numbered in the
+   * order in which they are completed, which is a post-order of the strong component graph: for
+   * every edge {@code u -> v} between different components, {@code result[u] > result[v]}. The
+   * number of components is one more than the largest entry.
+   */
+  public int[] getStrongComponents() {
+    int nodeCount = labels.length;
+    int[] component = new int[nodeCount];
+    Arrays.fill(component, -1);
+    int[] index = new int[nodeCount];
+    Arrays.fill(index, -1);
+    int[] lowLink = new int[nodeCount];
+    // Nodes whose component is not yet known, in visitation order.
+    int[] pending = new int[nodeCount];
+    int pendingSize = 0;
+    int[] nodeStack = new int[nodeCount];
+    int[] edgeStack = new int[nodeCount];
+    int counter = 0;
+    int componentCount = 0;
+    for (int root = 0; root < nodeCount; root++) {
+      if (index[root] != -1) {
+        continue;
+      }
+      index[root] = lowLink[root] = counter++;
+      pending[pendingSize++] = root;
+      nodeStack[0] = root;
+      edgeStack[0] = offsets[root];
+      int depth = 1;
+      while (depth > 0) {
+        int node = nodeStack[depth - 1];
+        int edge = edgeStack[depth - 1];
+        if (edge < offsets[node + 1]) {
+          edgeStack[depth - 1] = edge + 1;
+          int succ = successors[edge];
+          if (index[succ] == -1) {
+            index[succ] = lowLink[succ] = counter++;
+            pending[pendingSize++] = succ;
+            nodeStack[depth] = succ;
+            edgeStack[depth] = offsets[succ];
+            depth++;
+          } else if (component[succ] == -1) {
+            lowLink[node] = Math.min(lowLink[node], index[succ]);
+          }
+        } else {
+          depth--;
+          if (lowLink[node] == index[node]) {
+            int member;
+            do {
+              member = pending[--pendingSize];
+              component[member] = componentCount;
+            } while (member != node);
+            componentCount++;
+          }
+          if (depth > 0) {
+            int parent = nodeStack[depth - 1];
+            lowLink[parent] = Math.min(lowLink[parent], lowLink[node]);
+          }
+        }
+      }
+    }
+    return component;
+  }
+
+  /**
+   * Returns, for each node, the length of the longest path in the strong component graph from a
+   * root to the node's component. All nodes of a cycle share a rank.
+   */
+  public int[] getMaxRanks() {
+    return getRanks(/*longest=*/ true);
+  }
+
+  /**
+   * Returns, for each node, the length of the shortest path in the strong component graph from a
+   * root to the node's component. All nodes of a cycle share a rank.
+   */
+  public int[] getMinRanks() {
+    return getRanks(/*longest=*/ false);
+  }
+
+  private int[] getRanks(boolean longest) {
+    int nodeCount = labels.length;
+    int[] component = getStrongComponents();
+    int componentCount = 0;
+    for (int c : component) {
+      componentCount = Math.max(componentCount, c + 1);
+    }
+
+    // Group the nodes by component with a counting sort.
+    int[] componentOffsets = new int[componentCount + 1];
+    for (int c : component) {
+      componentOffsets[c + 1]++;
+    }
+    for (int c = 0; c < componentCount; c++) {
+      componentOffsets[c + 1] += componentOffsets[c];
+    }
+    int[] members = new int[nodeCount];
+    int[] fill = Arrays.copyOf(componentOffsets, componentCount);
+    for (int node = 0; node < nodeCount; node++) {
+      members[fill[component[node]]++] = node;
+    }
+
+    // Components are numbered in post-order, so visiting them in decreasing order visits every
+    // component after all of its predecessors. A component still unranked by then is a root.
+    int[] componentRank = new int[componentCount];
+    Arrays.fill(componentRank, -1);
+    for (int c = componentCount - 1; c >= 0; c--) {
+      if (componentRank[c] == -1) {
+        componentRank[c] = 0;
+      }
+      int nextRank = componentRank[c] + 1;
+      for (int i = componentOffsets[c]; i < componentOffsets[c + 1]; i++) {
+        int node = members[i];
+        for (int edge = offsets[node]; edge < offsets[node + 1]; edge++) {
+          int succComponent = component[successors[edge]];
+          if (succComponent == c) {
+            continue;
+          }
+          int succRank = componentRank[succComponent];
+          if (succRank == -1 || (longest ? nextRank > succRank : nextRank < succRank)) {
+            componentRank[succComponent] = nextRank;
+          }
+        }
+      }
+    }
+
+    int[] ranks = new int[nodeCount];
+    for (int node = 0; node < nodeCount; node++) {
+      ranks[node] = componentRank[component[node]];
+    }
+    return ranks;
+  }
+}
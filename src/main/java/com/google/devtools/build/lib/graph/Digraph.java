@@ -437,11 +437,15 @@ public final class Digraph<T> implements Cloneable {
    * one strongly-connected component of the graph.
    */
   public Collection<Set<Node<T>>> getStronglyConnectedComponents() {
-    final List<Set<Node<T>>> sccs = new ArrayList<>();
-    NodeSetReceiver<T> r = sccs::add;
-    SccVisitor<T> v = new SccVisitor<>();
-    for (Node<T> node : nodes.values()) {
-      v.visit(r, node);
+    CompactDigraph<T> compact = CompactDigraph.of(this);
+    int[] component = compact.getStrongComponents();
+    // Components are numbered in post-order; keep returning them in that order.
+    List<Set<Node<T>>> sccs = new ArrayList<>();
+    for (int i = 0; i < component.length; i++) {
+      while (sccs.size() <= component[i]) {
+        sccs.add(new HashSet<>());
+      }
+      sccs.get(component[i]).add(nodes.get(compact.getLabel(i)));
     }
     return sccs;
   }
@@ -824,101 +828,6 @@ public final class Digraph<T> implements Cloneable {
     }
   }
 
-  @FunctionalInterface
-  private interface NodeSetReceiver<T> {
-    void accept(Set<Node<T>> nodes);
-  }
-
-  /**
-   * Find strongly connected components using path-based strong component
-   * algorithm. This has the advantage over the default method of returning
-   * the components in postorder.
-   *
-   * We visit nodes depth-first, keeping track of the order that
-   * we visit them in (preorder). Our goal is to find the smallest node (in
-   * this preorder of visitation) reachable from a given node. We keep track of the
-   * smallest node pointed to so far at the top of a stack. If we ever find an
-   * already-visited node, then if it is not already part of a component, we
-   * pop nodes from that stack until we reach this already-visited node's number
-   * or an even smaller one.
-   *
-   * Once the depth-first visitation of a node is complete, if this node's
-   * number is at the top of the stack, then it is the "first" element visited
-   * in its strongly connected component. Hence we pop all elements that were
-   * pushed onto the visitation stack and put them in a strongly connected
-   * component with this one, then send a passed-in {@link Digraph.NodeSetReceiver} this component.
-   */
-  private class SccVisitor<T> {
-    // Nodes already assigned to a strongly connected component.
-    private final Set<Node<T>> assigned = new HashSet<>();
-
-    // The order each node was visited in.
-    private final Map<Node<T>, Integer> preorder = new HashMap<>();
-
-    // Stack of all nodes visited whose SCC has not yet been determined. When an SCC is found,
-    // that SCC is an initial segment of this stack, and is popped off. Every time a new node is
-    // visited, it is put on this stack.
-    private final List<Node<T>> stack = new ArrayList<>();
-
-    // Stack of visited indices for the first-visited nodes in each of their known-so-far
-    // strongly connected components. A node pushes its index on when it is visited. If any of
-    // its successors have already been visited and are not in an already-found strongly connected
-    // component, then, since the successor was already visited, it and this node must be part of a
-    // cycle. So every node visited since the successor is actually in the same strongly connected
-    // component. In this case, preorderStack is popped until the top is at most the successor's
-    // index.
-    //
-    // After all descendants of a node have been visited, if the top element of preorderStack is
-    // still the current node's index, then it was the first element visited of the current strongly
-    // connected component. So all nodes on {@code stack} down to the current node are in its
-    // strongly connected component. And the node's index is popped from preorderStack.
-    private final List<Integer> preorderStack = new ArrayList<>();
-
-    // Index of node being visited.
-    private int counter = 0;
-
-    private void visit(NodeSetReceiver<T> visitor, Node<T> node) {
-      if (preorder.containsKey(node)) {
-        // This can only happen if this was a non-recursive call, and a previous
-        // visit call had already visited node.
-        return;
-      }
-      preorder.put(node, counter);
-      stack.add(node);
-      preorderStack.add(counter++);
-      int preorderLength = preorderStack.size();
-      for (Node<T> succ : node.getSuccessors()) {
-        Integer succPreorder = preorder.get(succ);
-        if (succPreorder == null) {
-          visit(visitor, succ);
-        } else {
-          // Does succ not already belong to an SCC? If it doesn't, then it
-          // must be in the same SCC as node. The "starting node" of this SCC
-          // must have been visited before succ (or is succ itself).
-          if (!assigned.contains(succ)) {
-            while (preorderStack.get(preorderStack.size() - 1) > succPreorder) {
-              preorderStack.remove(preorderStack.size() - 1);
-            }
-          }
-        }
-      }
-      if (preorderLength == preorderStack.size()) {
-        // If the length of the preorderStack is unchanged, we did not find any earlier-visited
-        // nodes that were part of a cycle with this node. So this node is the first-visited
-        // element in its strongly connected component, and we collect the component.
-        preorderStack.remove(preorderStack.size() - 1);
-        Set<Node<T>> scc = new HashSet<>();
-        Node<T> compNode;
-        do {
-          compNode = stack.remove(stack.size() - 1);
-          assigned.add(compNode);
-          scc.add(compNode);
-        } while (!node.equals(compNode));
-        visitor.accept(scc);
-      }
-    }
-  }
-
   /********************************************************************
    *                                                                  *
    *                    Orders, traversals and visitors               *
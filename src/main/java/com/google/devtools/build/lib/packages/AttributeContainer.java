@@ -13,6 +13,7 @@
 // limitations under the License.
 package com.google.devtools.build.lib.packages;
 
+import java.util.Arrays;
 import javax.annotation.Nullable;
 
 /**
@@ -31,8 +32,17 @@ public final class AttributeContainer {
 
   private final RuleClass ruleClass;
 
-  // Attribute values, keyed by attribute index:
-  private final Object[] attributeValues;
+  // Holds the indices of the attributes whose value differs from the rule class's shared default
+  // (see RuleClass#getSharedDefaultValue), in increasing order. Each index is stored minus 128, so
+  // that the signed order of the bytes is the order of the indices and the list can be binary
+  // searched. Only the first valueCount entries are used.
+  private byte[] valueIndices;
+
+  // The values of the attributes listed in valueIndices, in the same order.
+  private Object[] values;
+
+  // The number of entries used in valueIndices and values.
+  private int valueCount;
 
   // Holds a list of attribute indices.
   // The first byte gives the length of the list.
@@ -51,11 +61,14 @@ public final class AttributeContainer {
       throw new AssertionError("can't pack " + n + " rule indices into bytes");
     }
     this.ruleClass = ruleClass;
-    this.attributeValues = new Object[n];
+    this.valueIndices = EMPTY_VALUE_INDICES;
+    this.values = EMPTY_VALUES;
     this.state = EMPTY_STATE;
   }
 
   private static final byte[] EMPTY_STATE = {0};
+  private static final byte[] EMPTY_VALUE_INDICES = {};
+  private static final Object[] EMPTY_VALUES = {};
 
   /**
    * Returns an attribute value by name, or null on no match.
@@ -63,7 +76,7 @@ public final class AttributeContainer {
   @Nullable
   public Object getAttr(String attrName) {
     Integer idx = ruleClass.getAttributeIndex(attrName);
-    return idx != null ? attributeValues[idx] : null;
+    return idx != null ? getAttributeValue(idx) : null;
   }
 
   /**
@@ -130,7 +143,48 @@ public final class AttributeContainer {
   }
 
   Object getAttributeValue(int index) {
-    return attributeValues[index];
+    int pos = findValue(index);
+    return pos >= 0 ? values[pos] : ruleClass.getSharedDefaultValue(index);
+  }
+
+  /**
+   * Returns the position of attribute {@code index} in valueIndices[] if it has a value stored,
+   * else (-(insertion point) - 1).
+   */
+  private int findValue(int index) {
+    return Arrays.binarySearch(valueIndices, 0, valueCount, (byte) (index - 128));
+  }
+
+  private void putValue(int index, Object value) {
+    int pos = findValue(index);
+    if (value == ruleClass.getSharedDefaultValue(index)) {
+      if (pos >= 0) {
+        // Forget the previous value, so that the shared default shows through.
+        int n = valueCount;
+        System.arraycopy(valueIndices, pos + 1, valueIndices, pos, n - pos - 1);
+        System.arraycopy(values, pos + 1, values, pos, n - pos - 1);
+        values[n - 1] = null;
+        valueCount = n - 1;
+      }
+      return;
+    }
+    if (pos >= 0) {
+      values[pos] = value;
+      return;
+    }
+    pos = -pos - 1;
+    int n = valueCount;
+    if (n == valueIndices.length) {
+      // Grow four entries at a time, which bounds both the copying and the unused tail.
+      int newLength = (n | 3) + 1;
+      valueIndices = Arrays.copyOf(valueIndices, newLength);
+      values = Arrays.copyOf(values, newLength);
+    }
+    System.arraycopy(valueIndices, pos, valueIndices, pos + 1, n - pos);
+    System.arraycopy(values, pos, values, pos + 1, n - pos);
+    valueIndices[pos] = (byte) (index - 128);
+    values[pos] = value;
+    valueCount = n + 1;
   }
 
   void setAttributeValue(Attribute attribute, Object value, boolean explicit) {
@@ -139,7 +193,7 @@ public final class AttributeContainer {
     if (!explicit && getExplicit(index)) {
       throw new IllegalArgumentException("attribute " + name + " already explicitly set");
     }
-    attributeValues[index] = value;
+    putValue(index, value);
     if (explicit) {
       setExplicit(index);
     }
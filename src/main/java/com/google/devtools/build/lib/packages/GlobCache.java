@@ -30,6 +30,7 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -135,10 +136,7 @@ public class GlobCache {
       throws BadGlobException {
     Future<List<Path>> cached = globCache.get(Pair.of(pattern, excludeDirs));
     if (cached == null) {
-      if (maxDirectoriesToEagerlyVisit > -1
-          && !globalStarted.getAndSet(true)) {
-        packageDirectory.prefetchPackageAsync(maxDirectoriesToEagerlyVisit);
-      }
+      maybePrefetchPackage();
       cached = safeGlobUnsorted(pattern, excludeDirs);
       setGlobPaths(pattern, excludeDirs, cached);
     }
@@ -181,6 +179,44 @@ public class GlobCache {
     return result;
   }
 
+  /**
+   * Starts evaluating all the given patterns that are not cached yet, in a single traversal of
+   * this package's directory. Each pattern is then cached on its own.
+   *
+   * @throws BadGlobException if any of the patterns was syntactically invalid
+   */
+  private void startGlobsUnsortedAsync(Collection<String> patterns, boolean excludeDirs)
+      throws BadGlobException {
+    Set<String> uncached = new LinkedHashSet<>();
+    for (String pattern : patterns) {
+      if (!globCache.containsKey(Pair.of(pattern, excludeDirs))) {
+        checkPattern(pattern);
+        uncached.add(pattern);
+      }
+    }
+    if (uncached.isEmpty()) {
+      return;
+    }
+    maybePrefetchPackage();
+    Map<String, Future<List<Path>>> results =
+        UnixGlob.forPath(packageDirectory)
+            .addPatterns(uncached)
+            .setExcludeDirectories(excludeDirs)
+            .setDirectoryFilter(childDirectoryPredicate)
+            .setExecutor(globExecutor)
+            .setFilesystemCalls(syscalls)
+            .globAsyncByPattern();
+    for (Map.Entry<String, Future<List<Path>>> result : results.entrySet()) {
+      setGlobPaths(result.getKey(), excludeDirs, result.getValue());
+    }
+  }
+
+  private void maybePrefetchPackage() {
+    if (maxDirectoriesToEagerlyVisit > -1 && !globalStarted.getAndSet(true)) {
+      packageDirectory.prefetchPackageAsync(maxDirectoriesToEagerlyVisit);
+    }
+  }
+
   /** Adds glob entries to the cache. */
   private void setGlobPaths(String pattern, boolean excludeDirectories, Future<List<Path>> result) {
     globCache.put(Pair.of(pattern, excludeDirectories), result);
@@ -192,6 +228,17 @@ public class GlobCache {
    */
   @VisibleForTesting
   Future<List<Path>> safeGlobUnsorted(String pattern, boolean excludeDirs) throws BadGlobException {
+    checkPattern(pattern);
+    return UnixGlob.forPath(packageDirectory)
+        .addPattern(pattern)
+        .setExcludeDirectories(excludeDirs)
+        .setDirectoryFilter(childDirectoryPredicate)
+        .setExecutor(globExecutor)
+        .setFilesystemCalls(syscalls)
+        .globAsync();
+  }
+
+  private static void checkPattern(String pattern) throws BadGlobException {
     // Forbidden patterns:
     if (pattern.indexOf('?') != -1) {
       throw new BadGlobException("glob pattern '" + pattern + "' contains forbidden '?' wildcard");
@@ -201,13 +248,6 @@ public class GlobCache {
     if (error != null) {
       throw new BadGlobException(error + " (in glob pattern '" + pattern + "')");
     }
-    return UnixGlob.forPath(packageDirectory)
-        .addPattern(pattern)
-        .setExcludeDirectories(excludeDirs)
-        .setDirectoryFilter(childDirectoryPredicate)
-        .setExecutor(globExecutor)
-        .setFilesystemCalls(syscalls)
-        .globAsync();
   }
 
   /**
@@ -235,13 +275,10 @@ public class GlobCache {
   public List<String> globUnsorted(
       List<String> includes, List<String> excludes, boolean excludeDirs, boolean allowEmpty)
       throws IOException, BadGlobException, InterruptedException {
-    // Start globbing all patterns in parallel. The getGlob() calls below will
-    // block on an individual pattern's results, but the other globs can
+    // Start globbing all patterns in parallel, sharing a single traversal of the package. The
+    // getGlob() calls below will block on an individual pattern's results, but the other globs can
     // continue in the background.
-    for (String pattern : includes) {
-      @SuppressWarnings("unused") 
-      Future<?> possiblyIgnoredError = getGlobUnsortedAsync(pattern, excludeDirs);
-    }
+    startGlobsUnsortedAsync(includes, excludeDirs);
 
     HashSet<String> results = new HashSet<>();
     Preconditions.checkState(!results.contains(null), "glob returned null");
@@ -40,6 +40,7 @@ import com.google.devtools.build.lib.cmdline.Label;
 import com.google.devtools.build.lib.cmdline.LabelSyntaxException;
 import com.google.devtools.build.lib.cmdline.PackageIdentifier;
 import com.google.devtools.build.lib.cmdline.RepositoryName;
+import com.google.devtools.build.lib.concurrent.BlazeInterners;
 import com.google.devtools.build.lib.events.EventHandler;
 import com.google.devtools.build.lib.events.Location;
 import com.google.devtools.build.lib.events.NullEventHandler;
@@ -1480,6 +1481,12 @@ public class RuleClass {
    */
   private final ImmutableList<Attribute> attributes;
 
+  /**
+   * The value that every rule of this class has for each attribute, by attributeIndex value,
+   * unless set otherwise. See {@link #getSharedDefaultValue}.
+   */
+  private final Object[] sharedDefaultValues;
+
   /** Names of the non-configurable attributes of this rule class. */
   private final ImmutableList<String> nonConfigurableAttributes;
 
@@ -1660,8 +1667,10 @@ public class RuleClass {
     // Create the index and collect non-configurable attributes.
     int index = 0;
     attributeIndex = new HashMap<>(attributes.size());
+    sharedDefaultValues = new Object[attributes.size()];
     ImmutableList.Builder<String> nonConfigurableAttributesBuilder = ImmutableList.builder();
     for (Attribute attribute : attributes) {
+      sharedDefaultValues[index] = computeSharedDefaultValue(attribute);
       attributeIndex.put(attribute.getName(), index++);
       if (!attribute.isConfigurable()) {
         nonConfigurableAttributesBuilder.add(attribute.getName());
@@ -1670,6 +1679,18 @@ public class RuleClass {
     this.nonConfigurableAttributes = nonConfigurableAttributesBuilder.build();
   }
 
+  /**
+   * Returns the value {@link #populateDefaultRuleAttributeValues} sets for {@code attr} regardless
+   * of the rule and package, or null if that value is specific to the rule.
+   */
+  @Nullable
+  private static Object computeSharedDefaultValue(Attribute attr) {
+    if (attr.hasComputedDefault()) {
+      return null;
+    }
+    return attr.isLateBound() ? attr.getLateBoundDefault() : attr.getDefaultValue(null);
+  }
+
   private void validateNoClashInPublicNames(Iterable<Attribute> attributes) {
     Map<String, Attribute> publicToPrivateNames = new HashMap<>();
     for (Attribute attribute : attributes) {
@@ -1765,6 +1786,16 @@ public class RuleClass {
     return attributeIndex.get(attrName);
   }
 
+  /**
+   * Returns the value that rules of this class have for the attribute whose index is {@code
+   * attrIndex} when it is not specified otherwise, or null if there is no such value. This lets
+   * {@link AttributeContainer} store only the values that differ from it.
+   */
+  @Nullable
+  Object getSharedDefaultValue(int attrIndex) {
+    return sharedDefaultValues[attrIndex];
+  }
+
   /**
    * Returns the attribute whose index is 'attrIndex'.  Fails if attrIndex is
    * not in range.
@@ -2325,13 +2356,24 @@ public class RuleClass {
       }
       // It's common for multiple rule instances in the same package to have the same value for some
       // attributes. As a concrete example, consider a package having several 'java_test' instances,
-      // each with the same exact 'tags' attribute value.
-      converted = listInterner.intern(ImmutableList.copyOf((List<?>) converted));
+      // each with the same exact 'tags' attribute value. The values of 'visibility' and 'tags' are
+      // also commonly shared across packages, so they are interned globally.
+      ImmutableList<?> list = ImmutableList.copyOf((List<?>) converted);
+      converted =
+          COMMONLY_SHARED_LIST_ATTRIBUTES.contains(attr.getName())
+              ? commonlySharedListInterner.intern(list)
+              : listInterner.intern(list);
     }
 
     return converted;
   }
 
+  private static final ImmutableSet<String> COMMONLY_SHARED_LIST_ATTRIBUTES =
+      ImmutableSet.of("visibility", "tags");
+
+  private static final Interner<ImmutableList<?>> commonlySharedListInterner =
+      BlazeInterners.newWeakInterner();
+
   /**
    * Provides a {@link #toString()} description of the attribute being converted for
    * {@link BuildType#selectableConvert}. This is preferred over a raw string to avoid uselessly
@@ -0,0 +1,76 @@
+// Copyright 2019 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.devtools.build.lib.pkgcache;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableMap;
+import com.google.devtools.build.lib.cmdline.PackageIdentifier;
+import com.google.devtools.build.lib.events.ExtendedEventHandler;
+import com.google.devtools.build.lib.packages.NoSuchPackageException;
+import com.google.devtools.build.lib.packages.Package;
+import javax.annotation.Nullable;
+
+/**
+ * API for retrieving many packages at a time, so that they can be loaded in parallel. Unlike with
+ * {@link PackageProvider#getPackage}, concurrent calls are not needed for parallelism.
+ */
+public interface BulkPackageProvider {
+
+  /**
+   * Returns each of the given packages, or the exception loading it failed with.
+   *
+   * @param eventHandler the eventHandler on which to report warnings and errors associated with
+   *     loading the packages
+   * @param pkgIds the packages to load
+   * @param parallelThreads the number of threads to load the packages with
+   * @throws InterruptedException if the package loading was interrupted.
+   */
+  ImmutableMap<PackageIdentifier, PackageOrException> getPackages(
+      ExtendedEventHandler eventHandler, Iterable<PackageIdentifier> pkgIds, int parallelThreads)
+      throws InterruptedException;
+
+  /** A loaded package, or the exception loading it failed with. */
+  final class PackageOrException {
+    @Nullable private final Package pkg;
+    @Nullable private final NoSuchPackageException exception;
+
+    private PackageOrException(
+        @Nullable Package pkg, @Nullable NoSuchPackageException exception) {
+      Preconditions.checkState((pkg == null) != (exception == null));
+      this.pkg = pkg;
+      this.exception = exception;
+    }
+
+    public static PackageOrException of(Package pkg) {
+      return new PackageOrException(Preconditions.checkNotNull(pkg), null);
+    }
+
+    public static PackageOrException ofException(NoSuchPackageException exception) {
+      return new PackageOrException(null, Preconditions.checkNotNull(exception));
+    }
+
+    /**
+     * Returns the package, which may be in error (see {@link Package#containsErrors}).
+     *
+     * @throws NoSuchPackageException if there was a non-recoverable error loading the package.
+     */
+    public Package get() throws NoSuchPackageException {
+      if (pkg != null) {
+        return pkg;
+      }
+      throw exception;
+    }
+  }
+}
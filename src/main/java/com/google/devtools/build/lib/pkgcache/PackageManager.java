@@ -21,7 +21,8 @@ import java.io.PrintStream;
  * A PackageManager keeps state about loaded packages around for quick lookup, and provides related
  * functionality: Recursive package finding, loaded package checking, etc.
  */
-public interface PackageManager extends PackageProvider, CachingPackageLocator {
+public interface PackageManager
+    extends PackageProvider, BulkPackageProvider, CachingPackageLocator {
   PackageManagerStatistics getAndClearStatistics();
 
   /**
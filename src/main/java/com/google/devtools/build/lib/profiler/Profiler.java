@@ -1151,6 +1151,18 @@ public final class Profiler {
       }
     }
 
+    /** Returns the name of the series of values of a counter in the trace viewer. */
+    private static String getCounterName(ProfilerTask type) {
+      switch (type) {
+        case WORKER_COUNTS:
+          return "workers";
+        case WORKER_MEMORY:
+          return "rss_mb";
+        default:
+          return "cpu";
+      }
+    }
+
     private void writeTask(JsonWriter writer, TaskData data) throws IOException {
       String eventType = data.duration == 0 ? "i" : "X";
       writer.setIndent("  ");
@@ -1239,7 +1251,9 @@ public final class Profiler {
             }
 
             if (data.type == ProfilerTask.LOCAL_CPU_USAGE
-                || data.type == ProfilerTask.ACTION_COUNTS) {
+                || data.type == ProfilerTask.ACTION_COUNTS
+                || data.type == ProfilerTask.WORKER_COUNTS
+                || data.type == ProfilerTask.WORKER_MEMORY) {
               // Skip counts equal to zero. They will show up as a thin line in the profile.
               if ("0.0".equals(data.description)) {
                 continue;
@@ -1258,7 +1272,7 @@ public final class Profiler {
               writer.name("args");
 
               writer.beginObject();
-              writer.name("cpu").value(data.description);
+              writer.name(getCounterName(data.type)).value(data.description);
               writer.endObject();
 
               writer.endObject();
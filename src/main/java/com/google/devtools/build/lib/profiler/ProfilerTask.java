@@ -91,6 +91,10 @@ public enum ProfilerTask {
   ACTION_FS_STAGING("Staging per-action file system", 0x000000),
   REMOTE_CACHE_CHECK("remote action cache check", 0x9999CC),
   REMOTE_DOWNLOAD("remote output download", 0x9999CC),
+  WORKER_BORROW("waiting for a persistent worker", 0xCC9966),
+  WORKER_COUNTS("worker counters", 0x000000),
+  WORKER_MEMORY("worker memory counters", 0x000000),
+  REMOTE_DOWNLOAD_QUEUE("remote download queuing time", 0x9999CC),
   UNKNOWN("Unknown event",  0x339966);
 
   // Size of the ProfilerTask value space.
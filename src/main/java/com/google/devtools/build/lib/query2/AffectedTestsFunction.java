@@ -0,0 +1,83 @@
+// Copyright 2019 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.devtools.build.lib.query2;
+
+import com.google.common.collect.Iterables;
+import com.google.devtools.build.lib.packages.Target;
+import com.google.devtools.build.lib.query2.engine.Callback;
+import com.google.devtools.build.lib.query2.engine.QueryEnvironment;
+import com.google.devtools.build.lib.query2.engine.QueryEnvironment.Argument;
+import com.google.devtools.build.lib.query2.engine.QueryEnvironment.ArgumentType;
+import com.google.devtools.build.lib.query2.engine.QueryEnvironment.QueryFunction;
+import com.google.devtools.build.lib.query2.engine.QueryEnvironment.QueryTaskFuture;
+import com.google.devtools.build.lib.query2.engine.QueryException;
+import com.google.devtools.build.lib.query2.engine.QueryExpression;
+import com.google.devtools.build.lib.query2.engine.QueryExpressionContext;
+import com.google.devtools.build.lib.vfs.PathFragment;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * An "affectedtests" query expression, which computes the set of test rules in the universe that
+ * may be affected by changes to the given files. A test is affected if its reverse transitive
+ * closure contains the source file target of one of the files, or any target of a package that
+ * depends on one of the files as its BUILD file or through a load.
+ *
+ * <p>It is equivalent to, but much cheaper than, {@code tests(allrdeps(...))} over the source
+ * file targets of the changed files and the targets of {@code rbuildfiles(...)} of them, except
+ * that test suites are not expanded.
+ *
+ * <pre>expr ::= AFFECTEDTESTS '(' WORD, ... ')'</pre>
+ *
+ * <p>This expression can only be used with SkyQueryEnvironment.
+ */
+public class AffectedTestsFunction implements QueryFunction {
+
+  @Override
+  public String getName() {
+    return "affectedtests";
+  }
+
+  @Override
+  public int getMandatoryArguments() {
+    return 1;
+  }
+
+  @Override
+  public Iterable<ArgumentType> getArgumentTypes() {
+    return Iterables.cycle(ArgumentType.WORD);
+  }
+
+  @Override
+  @SuppressWarnings("unchecked") // Cast from <T> to <Target>. This will only be used with <Target>.
+  public <T> QueryTaskFuture<Void> eval(
+      QueryEnvironment<T> env,
+      QueryExpressionContext<T> context,
+      QueryExpression expression,
+      List<Argument> args,
+      Callback<T> callback) {
+    if (!(env instanceof SkyQueryEnvironment)) {
+      return env.immediateFailedFuture(
+          new QueryException("affectedtests can only be used with SkyQueryEnvironment"));
+    }
+    SkyQueryEnvironment skyEnv = ((SkyQueryEnvironment) env);
+    return skyEnv.getAffectedTests(
+        args.stream()
+            .map(argument -> PathFragment.create(argument.getWord()))
+            .collect(Collectors.toList()),
+        (QueryExpressionContext<Target>) context,
+        (Callback<Target>) callback);
+  }
+}
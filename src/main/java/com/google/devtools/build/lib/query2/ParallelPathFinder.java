@@ -0,0 +1,325 @@
+// Copyright 2019 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.devtools.build.lib.query2;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.devtools.build.lib.concurrent.ThreadSafety.ThreadSafe;
+import com.google.devtools.build.lib.query2.engine.Callback;
+import com.google.devtools.build.lib.query2.engine.QueryException;
+import com.google.devtools.build.skyframe.SkyKey;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Computes {@code somepath} and {@code allpaths} over the transitive traversal nodes of a {@link
+ * SkyQueryEnvironment}'s graph.
+ *
+ * <p>Nodes get dense int ids as they are discovered, so the visited sets of the forward and
+ * reverse searches are {@link BitSet}s over a shared id space. The searches proceed one BFS level
+ * at a time: the neighbors of a whole frontier are looked up in parallel batches, and are then
+ * merged into the visited sets on the calling thread. Working level by level is what lets {@code
+ * somepath} run a bidirectional search and stop after the level in which the two sides meet.
+ *
+ * <p>The batches run on a pool of their own rather than on the one shared by the query's {@link
+ * com.google.devtools.build.lib.concurrent.ParallelVisitor}s: the calling thread blocks until a
+ * whole level is done, and it may itself be one of that pool's threads.
+ *
+ * <p>Not thread-safe; each instance serves a single query function evaluation.
+ */
+final class ParallelPathFinder {
+  private static final ExecutorService NEIGHBOR_LOOKUP_EXECUTOR = createNeighborLookupExecutor();
+
+  /**
+   * Looks up the neighbors of nodes, like {@link
+   * SkyQueryEnvironment#getTransitiveTraversalNeighbors}.
+   */
+  @ThreadSafe
+  @VisibleForTesting
+  interface NeighborLookup {
+    Map<SkyKey, Collection<SkyKey>> getNeighbors(Iterable<SkyKey> keys, boolean reverse)
+        throws InterruptedException;
+  }
+
+  /**
+   * Returns the pool for the neighbor lookups. Its threads exit when idle, so that the pool holds
+   * no threads in the server between {@code somepath} and {@code allpaths} queries.
+   */
+  private static ExecutorService createNeighborLookupExecutor() {
+    ThreadPoolExecutor executor =
+        new ThreadPoolExecutor(
+            /*corePoolSize=*/ Math.max(1, SkyQueryEnvironment.DEFAULT_THREAD_COUNT),
+            /*maximumPoolSize=*/ Math.max(1, SkyQueryEnvironment.DEFAULT_THREAD_COUNT),
+            /*keepAliveTime=*/ 1,
+            /*units=*/ TimeUnit.SECONDS,
+            /*workQueue=*/ new LinkedBlockingQueue<>(),
+            new ThreadFactoryBuilder()
+                .setNameFormat("parallel-path-finder %d")
+                .setDaemon(true)
+                .build());
+    executor.allowCoreThreadTimeOut(true);
+    return executor;
+  }
+
+  private final NeighborLookup lookup;
+  private final Map<SkyKey, Integer> ids = new HashMap<>();
+  private final List<SkyKey> keys = new ArrayList<>();
+
+  ParallelPathFinder(SkyQueryEnvironment env) {
+    this(env::getTransitiveTraversalNeighbors);
+  }
+
+  @VisibleForTesting
+  ParallelPathFinder(NeighborLookup lookup) {
+    this.lookup = lookup;
+  }
+
+  /**
+   * Returns the nodes on some shortest path from a node in {@code from} to a node in {@code to},
+   * in path order, or an empty list if there is no such path.
+   *
+   * <p>Each step expands a whole level of one side, and the search stops after the first level
+   * that reaches nodes the other side has visited. All of these meeting points are equally far
+   * from this side's start nodes, and they are all in the other side's last level: a node of an
+   * earlier level has had all its neighbors visited by the other side, so a frontier node
+   * reaching it would have been a meeting point before. Every meeting point thus lies on a path
+   * of the same length, and a shorter path would have made the two sides meet in an earlier
+   * level.
+   */
+  ImmutableList<SkyKey> somePath(Iterable<SkyKey> from, Iterable<SkyKey> to)
+      throws InterruptedException {
+    BitSet forwardVisited = new BitSet();
+    BitSet reverseVisited = new BitSet();
+    // Parent pointers towards the "from" side, and towards the "to" side, respectively. Only
+    // entries of visited nodes are meaningful; -1 marks a start node.
+    int[] forwardParent = new int[0];
+    int[] reverseParent = new int[0];
+
+    List<Integer> forwardFrontier = new ArrayList<>();
+    for (SkyKey key : from) {
+      int id = idOf(key);
+      if (!forwardVisited.get(id)) {
+        forwardVisited.set(id);
+        forwardParent = set(forwardParent, id, -1);
+        forwardFrontier.add(id);
+      }
+    }
+    List<Integer> reverseFrontier = new ArrayList<>();
+    for (SkyKey key : to) {
+      int id = idOf(key);
+      if (forwardVisited.get(id)) {
+        return ImmutableList.of(key);
+      }
+      if (!reverseVisited.get(id)) {
+        reverseVisited.set(id);
+        reverseParent = set(reverseParent, id, -1);
+        reverseFrontier.add(id);
+      }
+    }
+
+    while (!forwardFrontier.isEmpty() && !reverseFrontier.isEmpty()) {
+      // Always expand the smaller side; this is what keeps a bidirectional search cheap.
+      boolean forward = forwardFrontier.size() <= reverseFrontier.size();
+      List<Integer> frontier = forward ? forwardFrontier : reverseFrontier;
+      BitSet visited = forward ? forwardVisited : reverseVisited;
+      BitSet otherVisited = forward ? reverseVisited : forwardVisited;
+      int[] parent = forward ? forwardParent : reverseParent;
+
+      Map<SkyKey, Collection<SkyKey>> neighbors = getNeighbors(frontier, /*reverse=*/ !forward);
+      List<Integer> next = new ArrayList<>();
+      int meeting = -1;
+      for (int node : frontier) {
+        Collection<SkyKey> nodeNeighbors = neighbors.get(keys.get(node));
+        if (nodeNeighbors == null) {
+          continue;
+        }
+        for (SkyKey neighbor : nodeNeighbors) {
+          int id = idOf(neighbor);
+          if (visited.get(id)) {
+            continue;
+          }
+          visited.set(id);
+          parent = set(parent, id, node);
+          if (otherVisited.get(id)) {
+            // Any meeting point of this level is on a shortest path, see above.
+            if (meeting == -1) {
+              meeting = id;
+            }
+          } else {
+            next.add(id);
+          }
+        }
+      }
+      if (forward) {
+        forwardParent = parent;
+        forwardFrontier = next;
+      } else {
+        reverseParent = parent;
+        reverseFrontier = next;
+      }
+      if (meeting != -1) {
+        return buildPath(meeting, forwardParent, reverseParent);
+      }
+    }
+    return ImmutableList.of();
+  }
+
+  /**
+   * Feeds {@code callback} every node that lies on a path from a node in {@code from} to a node in
+   * {@code to}, in batches of at most {@link SkyQueryEnvironment#BATCH_CALLBACK_SIZE}.
+   *
+   * <p>This is the intersection of the forward closure of {@code from} with the reverse closure of
+   * {@code to}; the reverse search only expands nodes that are inside the forward closure.
+   */
+  void allPaths(Iterable<SkyKey> from, Iterable<SkyKey> to, Callback<SkyKey> callback)
+      throws QueryException, InterruptedException {
+    BitSet forwardVisited = new BitSet();
+    List<Integer> frontier = new ArrayList<>();
+    for (SkyKey key : from) {
+      int id = idOf(key);
+      if (!forwardVisited.get(id)) {
+        forwardVisited.set(id);
+        frontier.add(id);
+      }
+    }
+    while (!frontier.isEmpty()) {
+      Map<SkyKey, Collection<SkyKey>> neighbors = getNeighbors(frontier, /*reverse=*/ false);
+      List<Integer> next = new ArrayList<>();
+      for (Collection<SkyKey> nodeNeighbors : neighbors.values()) {
+        for (SkyKey neighbor : nodeNeighbors) {
+          int id = idOf(neighbor);
+          if (!forwardVisited.get(id)) {
+            forwardVisited.set(id);
+            next.add(id);
+          }
+        }
+      }
+      frontier = next;
+    }
+
+    BitSet reverseVisited = new BitSet();
+    for (SkyKey key : to) {
+      int id = idOf(key);
+      if (forwardVisited.get(id) && !reverseVisited.get(id)) {
+        reverseVisited.set(id);
+        frontier.add(id);
+      }
+    }
+    while (!frontier.isEmpty()) {
+      processAll(frontier, callback);
+      Map<SkyKey, Collection<SkyKey>> neighbors = getNeighbors(frontier, /*reverse=*/ true);
+      List<Integer> next = new ArrayList<>();
+      for (Collection<SkyKey> nodeNeighbors : neighbors.values()) {
+        for (SkyKey neighbor : nodeNeighbors) {
+          Integer id = ids.get(neighbor);
+          // Nodes that were never reached by the forward search are not on any path.
+          if (id != null && forwardVisited.get(id) && !reverseVisited.get(id)) {
+            reverseVisited.set(id);
+            next.add(id);
+          }
+        }
+      }
+      frontier = next;
+    }
+  }
+
+  private int idOf(SkyKey key) {
+    Integer id = ids.get(key);
+    if (id == null) {
+      id = keys.size();
+      ids.put(key, id);
+      keys.add(key);
+    }
+    return id;
+  }
+
+  private static int[] set(int[] array, int index, int value) {
+    if (index >= array.length) {
+      array = Arrays.copyOf(array, Math.max(index + 1, array.length * 2));
+    }
+    array[index] = value;
+    return array;
+  }
+
+  private ImmutableList<SkyKey> buildPath(int meeting, int[] forwardParent, int[] reverseParent) {
+    List<SkyKey> head = new ArrayList<>();
+    for (int node = meeting; node != -1; node = forwardParent[node]) {
+      head.add(keys.get(node));
+    }
+    ImmutableList.Builder<SkyKey> path = ImmutableList.builder();
+    path.addAll(Lists.reverse(head));
+    for (int node = reverseParent[meeting]; node != -1; node = reverseParent[node]) {
+      path.add(keys.get(node));
+    }
+    return path.build();
+  }
+
+  private void processAll(List<Integer> nodes, Callback<SkyKey> callback)
+      throws QueryException, InterruptedException {
+    for (List<Integer> batch : Lists.partition(nodes, SkyQueryEnvironment.BATCH_CALLBACK_SIZE)) {
+      callback.process(ImmutableList.copyOf(Lists.transform(batch, keys::get)));
+    }
+  }
+
+  /**
+   * Looks up the (reverse) transitive traversal neighbors of {@code frontier}, splitting the work
+   * into batches that run in parallel.
+   */
+  private Map<SkyKey, Collection<SkyKey>> getNeighbors(List<Integer> frontier, boolean reverse)
+      throws InterruptedException {
+    List<SkyKey> frontierKeys = Lists.transform(frontier, keys::get);
+    int batchSize =
+        Math.min(
+            ParallelSkyQueryUtils.VISIT_BATCH_SIZE,
+            Math.max(1, frontier.size() / SkyQueryEnvironment.DEFAULT_THREAD_COUNT + 1));
+    if (frontier.size() <= batchSize) {
+      return lookup.getNeighbors(frontierKeys, reverse);
+    }
+    List<Future<Map<SkyKey, Collection<SkyKey>>>> futures = new ArrayList<>();
+    for (List<SkyKey> batch : Lists.partition(frontierKeys, batchSize)) {
+      ImmutableList<SkyKey> batchCopy = ImmutableList.copyOf(batch);
+      futures.add(
+          NEIGHBOR_LOOKUP_EXECUTOR.submit(() -> lookup.getNeighbors(batchCopy, reverse)));
+    }
+    Map<SkyKey, Collection<SkyKey>> result = new HashMap<>();
+    try {
+      for (Future<Map<SkyKey, Collection<SkyKey>>> future : futures) {
+        result.putAll(future.get());
+      }
+    } catch (ExecutionException e) {
+      Throwables.propagateIfPossible(e.getCause(), InterruptedException.class);
+      throw new IllegalStateException(e.getCause());
+    } finally {
+      for (Future<?> future : futures) {
+        future.cancel(/*mayInterruptIfRunning=*/ true);
+      }
+    }
+    return result;
+  }
+}
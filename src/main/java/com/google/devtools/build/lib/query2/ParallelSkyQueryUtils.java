@@ -17,10 +17,13 @@ import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Function;
 import com.google.common.base.Predicate;
 import com.google.common.base.Predicates;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
+import com.google.devtools.build.lib.cmdline.Label;
 import com.google.devtools.build.lib.concurrent.ThreadSafety.ThreadSafe;
 import com.google.devtools.build.lib.packages.Target;
+import com.google.devtools.build.lib.packages.TargetUtils;
 import com.google.devtools.build.lib.query2.engine.Callback;
 import com.google.devtools.build.lib.query2.engine.QueryEnvironment.QueryTaskFuture;
 import com.google.devtools.build.lib.query2.engine.QueryEnvironment.ThreadSafeMutableSet;
@@ -33,6 +36,7 @@ import com.google.devtools.build.lib.vfs.PathFragment;
 import com.google.devtools.build.skyframe.SkyKey;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
@@ -127,6 +131,25 @@ public class ParallelSkyQueryUtils {
     return env.transformAsync(universeValueFuture, getTransitiveClosureAsyncFunction);
   }
 
+  /**
+   * Returns the keys of all {@link com.google.devtools.build.lib.skyframe.TransitiveTraversalValue}
+   * nodes in the transitive closure of the given ones, visiting the graph synchronously.
+   */
+  static ImmutableSet<SkyKey> getTransitiveTraversalKeysInClosure(
+      SkyQueryEnvironment env,
+      Iterable<SkyKey> transitiveTraversalKeys,
+      int processResultsBatchSize,
+      int concurrencyLevel)
+      throws QueryException, InterruptedException {
+    ThreadSafeAggregateAllSkyKeysCallback aggregateAllCallback =
+        new ThreadSafeAggregateAllSkyKeysCallback(concurrencyLevel);
+    new UnfilteredSkyKeyTTVDTCVisitor.Factory(
+            env, env.createSkyKeyUniquifier(), processResultsBatchSize, aggregateAllCallback)
+        .create()
+        .visitAndWaitForCompletion(transitiveTraversalKeys);
+    return aggregateAllCallback.getResult();
+  }
+
   static QueryTaskFuture<Void> getRdepsInUniverseBoundedParallel(
       SkyQueryEnvironment env,
       QueryExpression expression,
@@ -157,6 +180,42 @@ public class ParallelSkyQueryUtils {
     visitor.visitAndWaitForCompletion(env.getFileStateKeysForFileFragments(fileIdentifiers));
   }
 
+  /** Specialized parallel variant of {@link SkyQueryEnvironment#getAffectedTests}. */
+  static void getAffectedTestsParallel(
+      SkyQueryEnvironment env,
+      Collection<PathFragment> fileIdentifiers,
+      QueryExpressionContext<Target> context,
+      Callback<Target> callback)
+      throws QueryException, InterruptedException {
+    // Every target of a package whose evaluation depends on one of the files, as its BUILD file or
+    // through a load, may have changed. Collect the packages before starting the rdeps visitation,
+    // which must not be kicked off from within another visitation's threads.
+    Set<Target> buildFiles = ConcurrentHashMap.newKeySet();
+    getRBuildFilesParallel(
+        env, fileIdentifiers, context, partialResult -> Iterables.addAll(buildFiles, partialResult));
+    Iterable<Target> startTargets =
+        Iterables.concat(
+            Iterables.concat(
+                Iterables.transform(
+                    buildFiles, buildFile -> buildFile.getPackage().getTargets().values())),
+            env.getTargets(env.getSourceFileLabelsForFileFragments(fileIdentifiers)).values());
+
+    // Only test rules are of interest, but any kind of target may lead to one, so the kind is
+    // checked when reporting results rather than when deciding what to visit.
+    Callback<Target> testsCallback =
+        partialResult -> {
+          ImmutableList<Target> tests =
+              ImmutableList.copyOf(Iterables.filter(partialResult, TargetUtils::isTestRule));
+          if (!tests.isEmpty()) {
+            callback.process(tests);
+          }
+        };
+    ParallelVisitorUtils.createParallelVisitorCallback(
+            new RdepsUnboundedVisitor.Factory(
+                env, /*unfilteredUniverse=*/ Predicates.alwaysTrue(), testsCallback))
+        .process(startTargets);
+  }
+
   static QueryTaskFuture<Void> getDepsUnboundedParallel(
       SkyQueryEnvironment env,
       QueryExpression expression,
@@ -170,6 +229,51 @@ public class ParallelSkyQueryUtils {
             new DepsUnboundedVisitor.Factory(env, callback, depsNeedFiltering, context)));
   }
 
+  /** Specialized parallel variant of {@code somepath(from, to)}. */
+  static void getSomePathParallel(
+      SkyQueryEnvironment env,
+      QueryExpression caller,
+      ThreadSafeMutableSet<Target> from,
+      ThreadSafeMutableSet<Target> to,
+      Callback<Target> callback)
+      throws QueryException, InterruptedException {
+    env.buildTransitiveClosure(caller, from, Integer.MAX_VALUE);
+    ImmutableList<SkyKey> path =
+        new ParallelPathFinder(env)
+            .somePath(
+                SkyQueryEnvironment.makeTransitiveTraversalKeysStrict(from),
+                SkyQueryEnvironment.makeTransitiveTraversalKeysStrict(to));
+    Map<Label, Target> targets =
+        env.getTargets(Iterables.transform(path, SkyQueryEnvironment.SKYKEY_TO_LABEL));
+    ImmutableList.Builder<Target> result = ImmutableList.builder();
+    for (SkyKey key : path) {
+      Target target = targets.get(SkyQueryEnvironment.SKYKEY_TO_LABEL.apply(key));
+      if (target != null) {
+        result.add(target);
+      }
+    }
+    callback.process(result.build());
+  }
+
+  /** Specialized parallel variant of {@code allpaths(from, to)}. */
+  static void getAllPathsParallel(
+      SkyQueryEnvironment env,
+      QueryExpression caller,
+      ThreadSafeMutableSet<Target> from,
+      ThreadSafeMutableSet<Target> to,
+      Callback<Target> callback)
+      throws QueryException, InterruptedException {
+    env.buildTransitiveClosure(caller, from, Integer.MAX_VALUE);
+    new ParallelPathFinder(env)
+        .allPaths(
+            SkyQueryEnvironment.makeTransitiveTraversalKeysStrict(from),
+            SkyQueryEnvironment.makeTransitiveTraversalKeysStrict(to),
+            keys ->
+                callback.process(
+                    env.getTargets(Iterables.transform(keys, SkyQueryEnvironment.SKYKEY_TO_LABEL))
+                        .values()));
+  }
+
   static class DepAndRdep {
     @Nullable final SkyKey dep;
     final SkyKey rdep;
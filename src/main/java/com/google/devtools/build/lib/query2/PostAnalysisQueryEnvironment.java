@@ -55,6 +55,8 @@ import com.google.devtools.build.lib.query2.engine.ThreadSafeOutputFormatterCall
 import com.google.devtools.build.lib.query2.engine.Uniquifier;
 import com.google.devtools.build.lib.rules.AliasConfiguredTarget;
 import com.google.devtools.build.lib.skyframe.BlacklistedPackagePrefixesValue;
+import com.google.devtools.build.lib.skyframe.BuildConfigurationValue;
+import com.google.devtools.build.lib.skyframe.ConfiguredTargetIndex;
 import com.google.devtools.build.lib.skyframe.ConfiguredTargetKey;
 import com.google.devtools.build.lib.skyframe.ConfiguredTargetValue;
 import com.google.devtools.build.lib.skyframe.GraphBackedRecursivePackageProvider;
@@ -115,6 +117,7 @@ public abstract class PostAnalysisQueryEnvironment<T> extends AbstractBlazeQuery
   }
 
   protected RecursivePackageProviderBackedTargetPatternResolver resolver;
+  @Nullable private ConfiguredTargetIndex configuredTargetIndex;
 
   public PostAnalysisQueryEnvironment(
       boolean keepGoing,
@@ -188,6 +191,15 @@ public abstract class PostAnalysisQueryEnvironment<T> extends AbstractBlazeQuery
     return hostConfiguration;
   }
 
+  /**
+   * Sets an index over the graph that is used to answer lookups of configured targets and
+   * configurations without going to the graph. The index must be kept up to date by the evaluator
+   * that produced the graph.
+   */
+  public void setConfiguredTargetIndex(@Nullable ConfiguredTargetIndex configuredTargetIndex) {
+    this.configuredTargetIndex = configuredTargetIndex;
+  }
+
   // TODO(bazel-team): It's weird that this untemplated function exists. Fix? Or don't implement?
   @Override
   public Target getTarget(Label label) throws TargetNotFoundException, InterruptedException {
@@ -223,9 +235,42 @@ public abstract class PostAnalysisQueryEnvironment<T> extends AbstractBlazeQuery
 
   @Nullable
   public ConfiguredTargetValue getConfiguredTargetValue(SkyKey key) throws InterruptedException {
+    if (configuredTargetIndex != null
+        && key instanceof ConfiguredTargetKey
+        && !configuredTargetIndex.contains((ConfiguredTargetKey) key)) {
+      // Never analyzed in this configuration, so there is no need to ask the graph.
+      return null;
+    }
     return (ConfiguredTargetValue) walkableGraphSupplier.get().getValue(key);
   }
 
+  /** Returns the configuration for {@code key}, which may be null for source files. */
+  @Nullable
+  protected BuildConfiguration getConfigurationFromKey(@Nullable BuildConfigurationValue.Key key)
+      throws InterruptedException {
+    if (key == null) {
+      return null;
+    }
+    if (configuredTargetIndex != null) {
+      BuildConfiguration configuration = configuredTargetIndex.getConfiguration(key);
+      if (configuration != null) {
+        return configuration;
+      }
+    }
+    return ((BuildConfigurationValue) graph.getValue(key)).getConfiguration();
+  }
+
+  /**
+   * Returns the configuration with the given checksum, or null if it is unknown or there is no
+   * index to look it up in.
+   */
+  @Nullable
+  protected BuildConfiguration getConfigurationByChecksum(String checksum) {
+    return configuredTargetIndex == null
+        ? null
+        : configuredTargetIndex.getConfigurationByChecksum(checksum);
+  }
+
   public ImmutableSet<PathFragment> getBlacklistedPackagePrefixesPathFragments()
       throws InterruptedException {
     return ((BlacklistedPackagePrefixesValue)
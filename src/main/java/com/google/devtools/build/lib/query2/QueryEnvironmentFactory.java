@@ -25,6 +25,7 @@ import com.google.devtools.build.lib.pkgcache.TargetPatternPreloader;
 import com.google.devtools.build.lib.pkgcache.TargetProvider;
 import com.google.devtools.build.lib.pkgcache.TransitivePackageLoader;
 import com.google.devtools.build.lib.query2.common.AbstractBlazeQueryEnvironment;
+import com.google.devtools.build.lib.query2.common.QueryResultCache;
 import com.google.devtools.build.lib.query2.engine.QueryEnvironment.QueryFunction;
 import com.google.devtools.build.lib.query2.engine.QueryEnvironment.Setting;
 import com.google.devtools.build.lib.query2.query.BlazeQueryEnvironment;
@@ -37,6 +38,13 @@ import javax.annotation.Nullable;
 
 /** A factory that creates instances of {@code AbstractBlazeQueryEnvironment<Target>}. */
 public class QueryEnvironmentFactory {
+  private final QueryResultCache<Target> resultCache = new QueryResultCache<>();
+
+  /** Returns the result cache shared by the query environments of all commands. */
+  public QueryResultCache<Target> getResultCache() {
+    return resultCache;
+  }
+
   /** Creates an appropriate {@link AbstractBlazeQueryEnvironment} based on the given options. */
   public AbstractBlazeQueryEnvironment<Target> create(
       TransitivePackageLoader transitivePackageLoader,
@@ -42,6 +42,7 @@ import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.devtools.build.lib.actions.FileStateValue;
 import com.google.devtools.build.lib.cmdline.Label;
 import com.google.devtools.build.lib.cmdline.LabelConstants;
+import com.google.devtools.build.lib.cmdline.LabelSyntaxException;
 import com.google.devtools.build.lib.cmdline.PackageIdentifier;
 import com.google.devtools.build.lib.cmdline.TargetParsingException;
 import com.google.devtools.build.lib.cmdline.TargetPattern;
@@ -76,6 +77,7 @@ import com.google.devtools.build.lib.query2.engine.QueryException;
 import com.google.devtools.build.lib.query2.engine.QueryExpression;
 import com.google.devtools.build.lib.query2.engine.QueryExpressionContext;
 import com.google.devtools.build.lib.query2.engine.QueryExpressionMapper;
+import com.google.devtools.build.lib.query2.engine.QueryUtil;
 import com.google.devtools.build.lib.query2.engine.QueryUtil.MinDepthUniquifierImpl;
 import com.google.devtools.build.lib.query2.engine.QueryUtil.MutableKeyExtractorBackedMapImpl;
 import com.google.devtools.build.lib.query2.engine.QueryUtil.NonExceptionalUniquifier;
@@ -111,6 +113,7 @@ import com.google.devtools.build.skyframe.WalkableGraph.WalkableGraphFactory;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
@@ -122,6 +125,7 @@ import java.util.concurrent.TimeUnit;
 import java.util.function.BiConsumer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import javax.annotation.Nullable;
 
 /**
  * {@link AbstractBlazeQueryEnvironment} that introspects the Skyframe graph to find forward and
@@ -162,6 +166,10 @@ public class SkyQueryEnvironment extends AbstractBlazeQueryEnvironment<Target>
   private RecursivePackageProviderBackedTargetPatternResolver resolver;
   protected final SkyKey universeKey;
 
+  private boolean useUniverseMembershipFilter;
+  // Built in #beforeEvaluateQuery for each new graph if useUniverseMembershipFilter is set.
+  @Nullable private UniverseMembershipFilter universeMembershipFilter;
+
   public SkyQueryEnvironment(
       boolean keepGoing,
       int loadingPhaseThreads,
@@ -228,6 +236,24 @@ public class SkyQueryEnvironment extends AbstractBlazeQueryEnvironment<Target>
     this.visibilityDepsAreAllowed = !settings.contains(Setting.NO_NODEP_DEPS);
   }
 
+  @Override
+  public boolean supportsResultCache() {
+    // Results only depend on the graph and on the universe scope.
+    return true;
+  }
+
+  /**
+   * Makes this environment build a {@link UniverseMembershipFilter} of the transitive closure of
+   * the universe before evaluating a query, and use it to skip the reverse deps that are outside of
+   * the universe without looking them up in the graph.
+   *
+   * <p>Building the filter takes a visitation of the whole universe, so this only pays off for
+   * queries that visit many reverse deps, and when graph lookups are expensive.
+   */
+  public void setUseUniverseMembershipFilter(boolean useUniverseMembershipFilter) {
+    this.useUniverseMembershipFilter = useUniverseMembershipFilter;
+  }
+
   @Override
   public void close() {
     if (executor != null) {
@@ -260,6 +286,7 @@ public class SkyQueryEnvironment extends AbstractBlazeQueryEnvironment<Target>
       checkEvaluationResult(roots, result);
       packageSemaphore = makeFreshPackageMultisetSemaphore();
       graph = result.getWalkableGraph();
+      universeMembershipFilter = null;
       blacklistPatternsSupplier = MemoizingInterruptibleSupplier.of(new BlacklistSupplier(graph));
       graphBackedRecursivePackageProvider =
           new GraphBackedRecursivePackageProvider(
@@ -285,6 +312,59 @@ public class SkyQueryEnvironment extends AbstractBlazeQueryEnvironment<Target>
             eventHandler,
             FilteringPolicies.NO_FILTER,
             packageSemaphore);
+    // The filter describes the closure of the universe key, so it is only correct if the universe
+    // key is what the graph was prepared for.
+    if (useUniverseMembershipFilter
+        && universeMembershipFilter == null
+        && roots.equals(ImmutableSet.of(universeKey))) {
+      try (AutoProfiler p = AutoProfiler.logged("building universe membership filter", logger)) {
+        universeMembershipFilter = buildUniverseMembershipFilter();
+      }
+    }
+  }
+
+  @Nullable
+  private UniverseMembershipFilter buildUniverseMembershipFilter()
+      throws QueryException, InterruptedException {
+    // Resolve the patterns the universe was prepared from, without reporting errors that were
+    // already reported (or deliberately blocked) when it was evaluated.
+    RecursivePackageProviderBackedTargetPatternResolver universeResolver =
+        new RecursivePackageProviderBackedTargetPatternResolver(
+            graphBackedRecursivePackageProvider,
+            universeEvalEventHandler,
+            FilteringPolicies.NO_FILTER,
+            packageSemaphore);
+    Set<Target> universeTargets = CompactHashSet.create();
+    for (TargetPatternKey targetPatternKey :
+        PrepareDepsOfPatternsFunction.getTargetPatternKeys(
+            PrepareDepsOfPatternsFunction.getSkyKeys(universeKey, universeEvalEventHandler))) {
+      // Negative patterns only exclude subdirectories of the preceding positive ones, which is
+      // already accounted for by their excluded subdirectories.
+      if (targetPatternKey.isNegative()) {
+        continue;
+      }
+      try {
+        targetPatternKey
+            .getParsedPattern()
+            .eval(
+                universeResolver,
+                getBlacklistedExcludes(targetPatternKey),
+                targetPatternKey.getExcludedSubdirectories(),
+                partialResult -> Iterables.addAll(universeTargets, partialResult),
+                QueryException.class);
+      } catch (TargetParsingException e) {
+        // A filter of part of the universe would wrongly drop the rest of it.
+        logger.info("Not using a universe membership filter: " + e.getMessage());
+        return null;
+      }
+    }
+    ImmutableSet<SkyKey> universeKeys =
+        ParallelSkyQueryUtils.getTransitiveTraversalKeysInClosure(
+            this,
+            makeTransitiveTraversalKeysStrict(universeTargets),
+            BATCH_CALLBACK_SIZE,
+            queryEvaluationParallelismLevel);
+    return UniverseMembershipFilter.create(universeKeys);
   }
 
   /** Returns the TargetPatterns corresponding to {@link #universeKey}. */
@@ -447,7 +527,28 @@ public class SkyQueryEnvironment extends AbstractBlazeQueryEnvironment<Target>
         callback,
         BATCH_CALLBACK_SIZE,
         createUniquifierForOuterBatchStreamedCallback(expr));
-    return super.evaluateQuery(expr, batchCallback);
+    try {
+      return super.evaluateQuery(expr, batchCallback);
+    } finally {
+      reportUniverseMembershipFilterStats();
+    }
+  }
+
+  private void reportUniverseMembershipFilterStats() {
+    if (universeMembershipFilter == null) {
+      return;
+    }
+    long lookups = universeMembershipFilter.getLookupCount();
+    if (lookups == 0) {
+      return;
+    }
+    eventHandler.handle(
+        Event.info(
+            String.format(
+                "Universe membership filter of %d targets: skipped %d of %d reverse dependencies",
+                universeMembershipFilter.size(),
+                universeMembershipFilter.getRejectedCount(),
+                lookups)));
   }
 
   private Map<SkyKey, Collection<Target>> targetifyValues(
@@ -481,7 +582,29 @@ public class SkyQueryEnvironment extends AbstractBlazeQueryEnvironment<Target>
 
   private Map<SkyKey, Collection<Target>> getRawReverseDeps(
       Iterable<SkyKey> transitiveTraversalKeys) throws InterruptedException {
-    return targetifyValues(graph.getReverseDeps(transitiveTraversalKeys));
+    return targetifyValues(getReverseDepsInUniverse(transitiveTraversalKeys));
+  }
+
+  /**
+   * Returns the reverse deps of the given keys like {@link WalkableGraph#getReverseDeps}, except
+   * that transitive traversal keys that are known to be outside the universe are left out, so that
+   * callers don't go on to look them up.
+   */
+  @ThreadSafe
+  Map<SkyKey, Iterable<SkyKey>> getReverseDepsInUniverse(Iterable<SkyKey> keys)
+      throws InterruptedException {
+    Map<SkyKey, Iterable<SkyKey>> reverseDeps = graph.getReverseDeps(keys);
+    UniverseMembershipFilter filter = universeMembershipFilter;
+    if (filter == null) {
+      return reverseDeps;
+    }
+    Map<SkyKey, Iterable<SkyKey>> result = Maps.newHashMapWithExpectedSize(reverseDeps.size());
+    for (Map.Entry<SkyKey, Iterable<SkyKey>> entry : reverseDeps.entrySet()) {
+      Iterable<SkyKey> rdepsInUniverse =
+          Iterables.filter(entry.getValue(), rdep -> !IS_TTV.apply(rdep) || filter.apply(rdep));
+      result.put(entry.getKey(), ImmutableList.copyOf(rdepsInUniverse));
+    }
+    return result;
   }
 
   private Set<Label> getAllowedDeps(Rule rule) throws InterruptedException {
@@ -548,6 +671,60 @@ public class SkyQueryEnvironment extends AbstractBlazeQueryEnvironment<Target>
     return builder.build();
   }
 
+  /**
+   * Returns the transitive traversal keys of the direct deps, or if {@code reverse} is set of the
+   * direct rdeps, of each of the given transitive traversal keys. Edges disallowed by the
+   * dependency filter are left out. Keys that are not in the graph are absent from the result.
+   */
+  @ThreadSafe
+  Map<SkyKey, Collection<SkyKey>> getTransitiveTraversalNeighbors(
+      Iterable<SkyKey> keys, boolean reverse) throws InterruptedException {
+    Map<SkyKey, Iterable<SkyKey>> rawNeighbors =
+        reverse ? getReverseDepsInUniverse(keys) : graph.getDirectDeps(keys);
+    Map<SkyKey, Collection<SkyKey>> result = Maps.newHashMapWithExpectedSize(rawNeighbors.size());
+    for (Map.Entry<SkyKey, Iterable<SkyKey>> entry : rawNeighbors.entrySet()) {
+      result.put(entry.getKey(), ImmutableList.copyOf(Iterables.filter(entry.getValue(), IS_TTV)));
+    }
+    if (dependencyFilter == DependencyFilter.ALL_DEPS) {
+      return result;
+    }
+
+    // Whether an edge is allowed is decided by the rule at its source, so those rules have to be
+    // targetified.
+    Set<Label> sourceLabels = CompactHashSet.create();
+    for (Map.Entry<SkyKey, Collection<SkyKey>> entry : result.entrySet()) {
+      if (reverse) {
+        Iterables.addAll(sourceLabels, Iterables.transform(entry.getValue(), SKYKEY_TO_LABEL));
+      } else {
+        sourceLabels.add(SKYKEY_TO_LABEL.apply(entry.getKey()));
+      }
+    }
+    Map<Label, Target> sources = getTargets(sourceLabels);
+    Map<Label, Set<Label>> allowedDepsCache = new HashMap<>();
+    for (Map.Entry<SkyKey, Collection<SkyKey>> entry : result.entrySet()) {
+      Label label = SKYKEY_TO_LABEL.apply(entry.getKey());
+      ImmutableList.Builder<SkyKey> allowed = ImmutableList.builder();
+      for (SkyKey neighbor : entry.getValue()) {
+        Label neighborLabel = SKYKEY_TO_LABEL.apply(neighbor);
+        Target source = sources.get(reverse ? neighborLabel : label);
+        if (!(source instanceof Rule)) {
+          allowed.add(neighbor);
+          continue;
+        }
+        Set<Label> allowedDeps = allowedDepsCache.get(source.getLabel());
+        if (allowedDeps == null) {
+          allowedDeps = getAllowedDeps((Rule) source);
+          allowedDepsCache.put(source.getLabel(), allowedDeps);
+        }
+        if (allowedDeps.contains(reverse ? label : neighborLabel)) {
+          allowed.add(neighbor);
+        }
+      }
+      entry.setValue(allowed.build());
+    }
+    return result;
+  }
+
   @Override
   public Collection<Target> getReverseDeps(
       Iterable<Target> targets, QueryExpressionContext<Target> context)
@@ -636,7 +813,7 @@ public class SkyQueryEnvironment extends AbstractBlazeQueryEnvironment<Target>
 
   @ThreadSafe
   @Override
-  public QueryTaskFuture<Void> eval(
+  protected QueryTaskFuture<Void> evalUncached(
       final QueryExpression expr,
       final QueryExpressionContext<Target> context,
       final Callback<Target> callback) {
@@ -1100,7 +1277,7 @@ public class SkyQueryEnvironment extends AbstractBlazeQueryEnvironment<Target>
    * (from the perspective of {@link #getRBuildFiles}) {@link FileStateValue} node in the graph for
    * {@code originalFileFragment}, which is assumed to be a file path.
    *
-   * <p>This is a helper function for {@link #getFileStateKeysForFileFragments}.
+   * <p>This is a helper function for {@link #getContainingPackages}.
    */
   private static Iterable<SkyKey> getPkgLookupKeysForFile(PathFragment originalFileFragment,
       PathFragment currentPathFragment) {
@@ -1128,16 +1305,72 @@ public class SkyQueryEnvironment extends AbstractBlazeQueryEnvironment<Target>
    * #getRBuildFiles}) FileStateValues in the graph corresponding to the given {@code
    * pathFragments}, which are assumed to be file paths.
    *
-   * <p>To do this, we emulate the {@link ContainingPackageLookupFunction} logic: for each given
-   * file path, we look for the nearest ancestor directory (starting with its parent directory), if
-   * any, that has a package. The {@link PackageLookupValue} for this package tells us the package
-   * root that we should use for the {@link RootedPath} for the {@link FileStateValue} key.
-   *
    * <p>Note that there may not be nodes in the graph corresponding to the returned SkyKeys.
    */
   protected Collection<SkyKey> getFileStateKeysForFileFragments(
       Iterable<PathFragment> pathFragments) throws InterruptedException {
     Set<SkyKey> result = new HashSet<>();
+    for (ContainingPackage containingPackage : getContainingPackages(pathFragments)) {
+      result.add(
+          FileStateValue.key(
+              RootedPath.toRootedPath(
+                  containingPackage.lookupValue.getRoot(), containingPackage.file)));
+    }
+    return result;
+  }
+
+  /**
+   * Returns the labels of the source file targets that the given {@code pathFragments}, which are
+   * assumed to be file paths, would have in their containing packages. The packages may not
+   * actually declare such targets.
+   */
+  protected Collection<Label> getSourceFileLabelsForFileFragments(
+      Iterable<PathFragment> pathFragments) throws InterruptedException {
+    Set<Label> result = new HashSet<>();
+    for (ContainingPackage containingPackage : getContainingPackages(pathFragments)) {
+      PathFragment packageFragment = containingPackage.packageId.getPackageFragment();
+      if (!containingPackage.file.startsWith(packageFragment)
+          || containingPackage.file.equals(packageFragment)) {
+        continue;
+      }
+      try {
+        result.add(
+            Label.create(
+                containingPackage.packageId,
+                containingPackage.file.relativeTo(packageFragment).getPathString()));
+      } catch (LabelSyntaxException e) {
+        // Not a valid target name, so not a source file of the package.
+      }
+    }
+    return result;
+  }
+
+  /** A file path together with the package that it would belong to. */
+  private static final class ContainingPackage {
+    private final PathFragment file;
+    private final PackageIdentifier packageId;
+    private final PackageLookupValue lookupValue;
+
+    private ContainingPackage(
+        PathFragment file, PackageIdentifier packageId, PackageLookupValue lookupValue) {
+      this.file = file;
+      this.packageId = packageId;
+      this.lookupValue = lookupValue;
+    }
+  }
+
+  /**
+   * Finds the packages containing the given {@code pathFragments}, which are assumed to be file
+   * paths, according to the {@link PackageLookupValue}s in the graph.
+   *
+   * <p>To do this, we emulate the {@link ContainingPackageLookupFunction} logic: for each given
+   * file path, we look for the nearest ancestor directory (starting with its parent directory), if
+   * any, that has a package. The {@link PackageLookupValue} for this package tells us the package
+   * root that we should use for the {@link RootedPath} for the {@link FileStateValue} key.
+   */
+  private List<ContainingPackage> getContainingPackages(Iterable<PathFragment> pathFragments)
+      throws InterruptedException {
+    List<ContainingPackage> result = new ArrayList<>();
     Multimap<PathFragment, PathFragment> currentToOriginal = ArrayListMultimap.create();
     for (PathFragment pathFragment : pathFragments) {
       currentToOriginal.put(pathFragment, pathFragment);
@@ -1163,8 +1396,11 @@ public class SkyQueryEnvironment extends AbstractBlazeQueryEnvironment<Target>
               packageLookupKeysToOriginal.get(packageLookupKey);
           Preconditions.checkState(!originalFiles.isEmpty(), entry);
           for (PathFragment fileName : originalFiles) {
-            result.add(FileStateValue.key(
-                RootedPath.toRootedPath(packageLookupValue.getRoot(), fileName)));
+            result.add(
+                new ContainingPackage(
+                    fileName,
+                    (PackageIdentifier) packageLookupKey.argument(),
+                    packageLookupValue));
           }
           for (PathFragment current : packageLookupKeysToCurrent.get(packageLookupKey)) {
             currentToOriginal.removeAll(current);
@@ -1215,12 +1451,32 @@ public class SkyQueryEnvironment extends AbstractBlazeQueryEnvironment<Target>
             }));
   }
 
+  /**
+   * Calculates the test targets whose reverse transitive closure contains a source file or package
+   * affected by the contents of the specified paths, streaming them to {@code callback} as they
+   * are found.
+   */
+  @ThreadSafe
+  QueryTaskFuture<Void> getAffectedTests(
+      Collection<PathFragment> fileIdentifiers,
+      QueryExpressionContext<Target> context,
+      Callback<Target> callback) {
+    return QueryTaskFutureImpl.ofDelegate(
+        safeSubmit(
+            () -> {
+              ParallelSkyQueryUtils.getAffectedTestsParallel(
+                  SkyQueryEnvironment.this, fileIdentifiers, context, callback);
+              return null;
+            }));
+  }
+
   @Override
   public Iterable<QueryFunction> getFunctions() {
     return ImmutableList.<QueryFunction>builder()
         .addAll(super.getFunctions())
         .add(new AllRdepsFunction())
         .add(new RBuildFilesFunction())
+        .add(new AffectedTestsFunction())
         .build();
   }
 
@@ -1394,6 +1650,54 @@ public class SkyQueryEnvironment extends AbstractBlazeQueryEnvironment<Target>
         /*depsNeedFiltering=*/ !dependencyFilter.equals(DependencyFilter.ALL_DEPS));
   }
 
+  @Override
+  public QueryTaskFuture<Void> getSomePathParallel(
+      QueryExpression caller,
+      QueryExpression from,
+      QueryExpression to,
+      QueryExpressionContext<Target> context,
+      Callback<Target> callback) {
+    QueryTaskFuture<ThreadSafeMutableSet<Target>> fromValueFuture =
+        QueryUtil.evalAll(this, context, from);
+    QueryTaskFuture<ThreadSafeMutableSet<Target>> toValueFuture =
+        QueryUtil.evalAll(this, context, to);
+    return whenAllSucceedCall(
+        ImmutableList.of(fromValueFuture, toValueFuture),
+        () -> {
+          ParallelSkyQueryUtils.getSomePathParallel(
+              this,
+              caller,
+              fromValueFuture.getIfSuccessful(),
+              toValueFuture.getIfSuccessful(),
+              callback);
+          return null;
+        });
+  }
+
+  @Override
+  public QueryTaskFuture<Void> getAllPathsParallel(
+      QueryExpression caller,
+      QueryExpression from,
+      QueryExpression to,
+      QueryExpressionContext<Target> context,
+      Callback<Target> callback) {
+    QueryTaskFuture<ThreadSafeMutableSet<Target>> fromValueFuture =
+        QueryUtil.evalAll(this, context, from);
+    QueryTaskFuture<ThreadSafeMutableSet<Target>> toValueFuture =
+        QueryUtil.evalAll(this, context, to);
+    return whenAllSucceedCall(
+        ImmutableList.of(fromValueFuture, toValueFuture),
+        () -> {
+          ParallelSkyQueryUtils.getAllPathsParallel(
+              this,
+              caller,
+              fromValueFuture.getIfSuccessful(),
+              toValueFuture.getIfSuccessful(),
+              callback);
+          return null;
+        });
+  }
+
   @ThreadSafe
   @Override
   public QueryTaskFuture<Void> getRdepsBoundedParallel(
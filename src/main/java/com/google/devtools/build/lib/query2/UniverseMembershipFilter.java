@@ -0,0 +1,90 @@
+// Copyright 2019 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.query2;
+
+import com.google.common.base.Predicate;
+import com.google.common.hash.BloomFilter;
+import com.google.common.hash.Funnel;
+import com.google.devtools.build.lib.concurrent.ThreadSafety.ThreadSafe;
+import com.google.devtools.build.skyframe.SkyKey;
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A compact, approximate set of the {@link com.google.devtools.build.lib.skyframe
+ * TransitiveTraversalValue} keys in the transitive closure of a query universe.
+ *
+ * <p>The filter never rejects a key that is in the universe, but it accepts a small fraction of the
+ * keys that are not. It is therefore only useful to drop keys early, before they are looked up in
+ * the graph; callers that need an exact answer must still check membership some other way.
+ *
+ * <p>Keeps count of the keys it is asked about and of the ones it rejects, so that the number of
+ * graph lookups it saved can be reported.
+ */
+@ThreadSafe
+final class UniverseMembershipFilter implements Predicate<SkyKey> {
+  private static final double FALSE_POSITIVE_PROBABILITY = 0.01;
+
+  // Transitive traversal keys are interned and hash their label, so the hash code is as good a
+  // summary of a key as any, and much cheaper to compute than a serialized form.
+  private static final Funnel<SkyKey> SKY_KEY_FUNNEL =
+      (key, sink) -> sink.putInt(key.hashCode());
+
+  private final BloomFilter<SkyKey> filter;
+  private final int size;
+  private final AtomicLong lookups = new AtomicLong();
+  private final AtomicLong rejections = new AtomicLong();
+
+  private UniverseMembershipFilter(BloomFilter<SkyKey> filter, int size) {
+    this.filter = filter;
+    this.size = size;
+  }
+
+  /** Creates a filter that accepts all of {@code universe}. */
+  static UniverseMembershipFilter create(Collection<SkyKey> universe) {
+    BloomFilter<SkyKey> filter =
+        BloomFilter.create(
+            SKY_KEY_FUNNEL, Math.max(universe.size(), 1), FALSE_POSITIVE_PROBABILITY);
+    for (SkyKey key : universe) {
+      filter.put(key);
+    }
+    return new UniverseMembershipFilter(filter, universe.size());
+  }
+
+  /** Returns false if {@code key} is definitely not in the universe. */
+  @Override
+  public boolean apply(SkyKey key) {
+    lookups.incrementAndGet();
+    if (filter.mightContain(key)) {
+      return true;
+    }
+    rejections.incrementAndGet();
+    return false;
+  }
+
+  /** Returns the number of keys the filter was built from. */
+  int size() {
+    return size;
+  }
+
+  /** Returns the number of keys that were checked against the filter. */
+  long getLookupCount() {
+    return lookups.get();
+  }
+
+  /** Returns the number of keys the filter rejected, i.e. of graph lookups it saved. */
+  long getRejectedCount() {
+    return rejections.get();
+  }
+}
@@ -18,12 +18,14 @@ import com.google.devtools.build.lib.actions.CommandLineExpansionException;
 import com.google.devtools.build.lib.analysis.AnalysisProtos;
 import com.google.devtools.build.lib.analysis.AnalysisProtos.ActionGraphContainer;
 import com.google.devtools.build.lib.analysis.configuredtargets.RuleConfiguredTarget;
+import com.google.devtools.build.lib.concurrent.OrderedParallelWriter;
 import com.google.devtools.build.lib.events.ExtendedEventHandler;
 import com.google.devtools.build.lib.query2.engine.QueryEnvironment.TargetAccessor;
 import com.google.devtools.build.lib.skyframe.AspectValue;
 import com.google.devtools.build.lib.skyframe.ConfiguredTargetValue;
 import com.google.devtools.build.lib.skyframe.SkyframeExecutor;
 import com.google.devtools.build.lib.skyframe.actiongraph.ActionGraphDump;
+import com.google.protobuf.CodedOutputStream;
 import com.google.protobuf.TextFormat;
 import java.io.IOException;
 import java.io.OutputStream;
@@ -31,10 +33,21 @@ import java.io.OutputStream;
 /** Default output callback for aquery, prints proto output. */
 public class ActionGraphProtoOutputFormatterCallback extends AqueryThreadsafeCallback {
 
+  /** Number of actions after which a fragment is handed off for streamed output. */
+  private static final int STREAMED_FRAGMENT_ACTION_COUNT = 1000;
+
+  /** Number of serialized fragments that may be held in memory before output blocks. */
+  private static final int STREAMED_MAX_PENDING_FRAGMENTS = 16;
+
   /** Defines the types of proto output this class can handle. */
   public enum OutputType {
     BINARY("proto"),
-    TEXT("textproto");
+    TEXT("textproto"),
+    /**
+     * A sequence of length-delimited {@link ActionGraphContainer} fragments, written while the
+     * query is still running. Merging all fragments yields the same container as {@link #BINARY}.
+     */
+    STREAMED_BINARY("streamed_proto");
 
     private final String formatName;
 
@@ -50,6 +63,7 @@ public class ActionGraphProtoOutputFormatterCallback extends AqueryThreadsafeCal
   private final OutputType outputType;
   private final ActionGraphDump actionGraphDump;
   private final AqueryActionFilter actionFilters;
+  private OrderedParallelWriter<ActionGraphContainer> streamWriter;
 
   ActionGraphProtoOutputFormatterCallback(
       ExtendedEventHandler eventHandler,
@@ -91,6 +105,10 @@ public class ActionGraphProtoOutputFormatterCallback extends AqueryThreadsafeCal
             }
           }
         }
+        if (isStreamed()
+            && actionGraphDump.getPendingActionCount() >= STREAMED_FRAGMENT_ACTION_COUNT) {
+          getStreamWriter().write(actionGraphDump.flush());
+        }
       }
     } catch (CommandLineExpansionException e) {
       throw new IOException(e.getMessage());
@@ -98,7 +116,20 @@ public class ActionGraphProtoOutputFormatterCallback extends AqueryThreadsafeCal
   }
 
   @Override
-  public void close(boolean failFast) throws IOException {
+  public void close(boolean failFast) throws IOException, InterruptedException {
+    if (isStreamed()) {
+      try {
+        if (!failFast) {
+          getStreamWriter().write(actionGraphDump.flush());
+          getStreamWriter().flush();
+        }
+      } finally {
+        if (streamWriter != null) {
+          streamWriter.close();
+        }
+      }
+      return;
+    }
     if (!failFast && printStream != null) {
       ActionGraphContainer actionGraphContainer = actionGraphDump.build();
 
@@ -116,6 +147,33 @@ public class ActionGraphProtoOutputFormatterCallback extends AqueryThreadsafeCal
     }
   }
 
+  private boolean isStreamed() {
+    return outputType == OutputType.STREAMED_BINARY && printStream != null;
+  }
+
+  private OrderedParallelWriter<ActionGraphContainer> getStreamWriter() {
+    if (streamWriter == null) {
+      streamWriter =
+          new OrderedParallelWriter<>(
+              printStream,
+              ActionGraphProtoOutputFormatterCallback::serializeDelimited,
+              Runtime.getRuntime().availableProcessors(),
+              STREAMED_MAX_PENDING_FRAGMENTS,
+              "aquery-proto-writer %d");
+    }
+    return streamWriter;
+  }
+
+  private static byte[] serializeDelimited(ActionGraphContainer fragment) throws IOException {
+    int size = fragment.getSerializedSize();
+    byte[] bytes = new byte[CodedOutputStream.computeUInt32SizeNoTag(size) + size];
+    CodedOutputStream codedOut = CodedOutputStream.newInstance(bytes);
+    codedOut.writeUInt32NoTag(size);
+    fragment.writeTo(codedOut);
+    codedOut.checkNoSpaceLeft();
+    return bytes;
+  }
+
   @VisibleForTesting
   public AnalysisProtos.ActionGraphContainer getProtoResult() {
     return actionGraphDump.build();
@@ -45,7 +45,6 @@ import com.google.devtools.build.lib.query2.engine.QueryException;
 import com.google.devtools.build.lib.query2.engine.QueryExpression;
 import com.google.devtools.build.lib.query2.engine.QueryUtil.ThreadSafeMutableKeyExtractorBackedSetImpl;
 import com.google.devtools.build.lib.rules.AliasConfiguredTarget;
-import com.google.devtools.build.lib.skyframe.BuildConfigurationValue;
 import com.google.devtools.build.lib.skyframe.ConfiguredTargetKey;
 import com.google.devtools.build.lib.skyframe.ConfiguredTargetValue;
 import com.google.devtools.build.lib.skyframe.SkyframeExecutor;
@@ -95,19 +94,9 @@ public class ActionGraphQueryEnvironment
         walkableGraphSupplier,
         settings);
     this.configuredTargetKeyExtractor =
-        configuredTargetValue -> {
-          try {
-            ConfiguredTarget element = configuredTargetValue.getConfiguredTarget();
-            return ConfiguredTargetKey.of(
-                element,
-                element.getConfigurationKey() == null
-                    ? null
-                    : ((BuildConfigurationValue) graph.getValue(element.getConfigurationKey()))
-                        .getConfiguration());
-          } catch (InterruptedException e) {
-            throw new IllegalStateException("Interruption unexpected in configured query", e);
-          }
-        };
+        configuredTargetValue ->
+            ConfiguredTargetKey.of(
+                configuredTargetValue.getConfiguredTarget(), getConfiguration(configuredTargetValue));
     this.accessor =
         new ConfiguredTargetValueAccessor(
             walkableGraphSupplier.get(), this.configuredTargetKeyExtractor);
@@ -176,6 +165,14 @@ public class ActionGraphQueryEnvironment
             accessor,
             OutputType.TEXT,
             actionFilters),
+        new ActionGraphProtoOutputFormatterCallback(
+            eventHandler,
+            aqueryOptions,
+            out,
+            skyframeExecutor,
+            accessor,
+            OutputType.STREAMED_BINARY,
+            actionFilters),
         new ActionGraphTextOutputFormatterCallback(
             eventHandler, aqueryOptions, out, skyframeExecutor, accessor, actionFilters));
   }
@@ -255,10 +252,7 @@ public class ActionGraphQueryEnvironment
   protected BuildConfiguration getConfiguration(ConfiguredTargetValue configuredTargetValue) {
     ConfiguredTarget target = configuredTargetValue.getConfiguredTarget();
     try {
-      return target.getConfigurationKey() == null
-          ? null
-          : ((BuildConfigurationValue) graph.getValue(target.getConfigurationKey()))
-              .getConfiguration();
+      return getConfigurationFromKey(target.getConfigurationKey());
     } catch (InterruptedException e) {
       throw new IllegalStateException("Unexpected interruption during aquery", e);
     }
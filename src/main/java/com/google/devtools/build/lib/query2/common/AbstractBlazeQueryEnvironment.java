@@ -29,6 +29,7 @@ import com.google.devtools.build.lib.packages.Target;
 import com.google.devtools.build.lib.profiler.Profiler;
 import com.google.devtools.build.lib.profiler.SilentCloseable;
 import com.google.devtools.build.lib.query2.engine.AbstractQueryEnvironment;
+import com.google.devtools.build.lib.query2.engine.Callback;
 import com.google.devtools.build.lib.query2.engine.KeyExtractor;
 import com.google.devtools.build.lib.query2.engine.OutputFormatterCallback;
 import com.google.devtools.build.lib.query2.engine.QueryEnvironment;
@@ -43,8 +44,13 @@ import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongSupplier;
 import java.util.logging.Logger;
+import javax.annotation.Nullable;
 
 /**
  * {@link QueryEnvironment} that can evaluate queries to produce a result, and implements as much of
@@ -65,6 +71,17 @@ public abstract class AbstractBlazeQueryEnvironment<T> extends AbstractQueryEnvi
   private static final Logger logger =
       Logger.getLogger(AbstractBlazeQueryEnvironment.class.getName());
 
+  @Nullable private QueryResultCache<T> resultCache;
+  private long resultCacheMaxSize;
+  private String resultCacheScope;
+  private LongSupplier graphVersionSupplier;
+  private long graphVersion;
+  private final AtomicInteger resultCacheHits = new AtomicInteger();
+  private final AtomicInteger resultCacheMisses = new AtomicInteger();
+  // Results computed during the current evaluation; only cached if the whole evaluation succeeds.
+  private final Map<String, ImmutableList<T>> pendingResultCacheEntries =
+      new ConcurrentHashMap<>();
+
   protected AbstractBlazeQueryEnvironment(
       boolean keepGoing,
       boolean strictScope,
@@ -84,6 +101,71 @@ public abstract class AbstractBlazeQueryEnvironment<T> extends AbstractQueryEnvi
   @Override
   public abstract void close();
 
+  /**
+   * Returns whether subexpression results of this environment only depend on the package graph and
+   * on the arguments this environment was created with, so that they can be reused by later
+   * environments through a {@link QueryResultCache}.
+   */
+  public boolean supportsResultCache() {
+    return false;
+  }
+
+  /**
+   * Makes this environment look up and store subexpression results in {@code cache}.
+   *
+   * @param maxSize the maximum number of result elements the cache may hold
+   * @param scope a string that differs between any two environments that may produce different
+   *     results for the same expression
+   * @param graphVersionSupplier supplies the current version of the package graph
+   */
+  public void setResultCache(
+      QueryResultCache<T> cache, long maxSize, String scope, LongSupplier graphVersionSupplier) {
+    Preconditions.checkState(supportsResultCache(), this);
+    this.resultCache = cache;
+    this.resultCacheMaxSize = maxSize;
+    this.resultCacheScope = scope;
+    this.graphVersionSupplier = graphVersionSupplier;
+  }
+
+  @Override
+  public QueryTaskFuture<Void> eval(
+      QueryExpression expr, QueryExpressionContext<T> context, Callback<T> callback) {
+    if (resultCache == null || !QueryResultCache.isCacheable(expr)) {
+      return evalUncached(expr, context, callback);
+    }
+    String key = resultCacheScope + expr;
+    ImmutableList<T> cached = resultCache.get(key, graphVersion);
+    if (cached != null) {
+      resultCacheHits.incrementAndGet();
+      return execute(
+          () -> {
+            callback.process(cached);
+            return null;
+          });
+    }
+    resultCacheMisses.incrementAndGet();
+    ResultCollectingCallback<T> collectingCallback =
+        new ResultCollectingCallback<>(callback, resultCacheMaxSize);
+    return whenSucceedsCall(
+        evalUncached(expr, context, collectingCallback),
+        () -> {
+          ImmutableList<T> result = collectingCallback.getResult();
+          if (result != null) {
+            pendingResultCacheEntries.put(key, result);
+          }
+          return null;
+        });
+  }
+
+  /**
+   * Evaluates {@code expr} without consulting the result cache. Environments customize evaluation
+   * by overriding this method rather than {@link #eval}.
+   */
+  protected QueryTaskFuture<Void> evalUncached(
+      QueryExpression expr, QueryExpressionContext<T> context, Callback<T> callback) {
+    return super.eval(expr, context, callback);
+  }
+
   private static DependencyFilter constructDependencyFilter(
       Set<Setting> settings) {
     DependencyFilter specifiedFilter =
@@ -143,6 +225,12 @@ public abstract class AbstractBlazeQueryEnvironment<T> extends AbstractQueryEnvi
       // Unfortunately, by evaluating the patterns in parallel, we lose some location information.
       throw new QueryException(expr, e.getMessage());
     }
+    if (resultCache != null) {
+      // Preloading applied this command's pending invalidations, so the version is up to date.
+      graphVersion = graphVersionSupplier.getAsLong();
+      resultCache.startEvaluation(graphVersion, resultCacheMaxSize);
+      pendingResultCacheEntries.clear();
+    }
     IOException ioExn = null;
     boolean failFast = true;
     try {
@@ -179,7 +267,13 @@ public abstract class AbstractBlazeQueryEnvironment<T> extends AbstractQueryEnvi
         eventHandler.handle(Event.warn("--keep_going specified, ignoring errors.  "
             + "Results may be inaccurate"));
       }
+    } else if (resultCache != null) {
+      for (Map.Entry<String, ImmutableList<T>> entry : pendingResultCacheEntries.entrySet()) {
+        resultCache.put(entry.getKey(), entry.getValue(), graphVersionSupplier.getAsLong());
+      }
     }
+    pendingResultCacheEntries.clear();
+    reportResultCacheStats();
 
     return new QueryEvalResult(!eventHandler.hasErrors(), emptySensingCallback.isEmpty());
   }
@@ -189,6 +283,57 @@ public abstract class AbstractBlazeQueryEnvironment<T> extends AbstractQueryEnvi
     return evaluateQuery(QueryExpression.parse(query, this), callback);
   }
 
+  private void reportResultCacheStats() {
+    int hits = resultCacheHits.getAndSet(0);
+    int misses = resultCacheMisses.getAndSet(0);
+    if (resultCache == null || hits + misses == 0) {
+      return;
+    }
+    eventHandler.handle(
+        Event.info(
+            String.format(
+                "Query result cache: %d hits, %d misses (%.1f%% hit rate)",
+                hits, misses, 100.0 * hits / (hits + misses))));
+  }
+
+  /**
+   * Forwards results to a delegate while keeping a copy of them, unless there turn out to be more
+   * than {@code maxSize}.
+   */
+  private static class ResultCollectingCallback<T> implements Callback<T> {
+    private final Callback<T> delegate;
+    private final long maxSize;
+    private final ConcurrentLinkedQueue<T> results = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger size = new AtomicInteger();
+    private volatile boolean overflowed;
+
+    private ResultCollectingCallback(Callback<T> delegate, long maxSize) {
+      this.delegate = delegate;
+      this.maxSize = maxSize;
+    }
+
+    @Override
+    public void process(Iterable<T> partialResult) throws QueryException, InterruptedException {
+      if (!overflowed) {
+        for (T element : partialResult) {
+          if (size.incrementAndGet() > maxSize) {
+            overflowed = true;
+            results.clear();
+            break;
+          }
+          results.add(element);
+        }
+      }
+      delegate.process(partialResult);
+    }
+
+    /** Returns the collected results, or null if there were too many of them. */
+    @Nullable
+    ImmutableList<T> getResult() {
+      return overflowed ? null : ImmutableList.copyOf(results);
+    }
+  }
+
   private static class EmptinessSensingCallback<T> extends OutputFormatterCallback<T> {
     private final OutputFormatterCallback<T> callback;
     private final AtomicBoolean empty = new AtomicBoolean(true);
@@ -0,0 +1,162 @@
+// Copyright 2019 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.devtools.build.lib.query2.common;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Sets;
+import com.google.devtools.build.lib.query2.engine.AggregatingQueryExpressionVisitor;
+import com.google.devtools.build.lib.query2.engine.BinaryOperatorExpression;
+import com.google.devtools.build.lib.query2.engine.FunctionExpression;
+import com.google.devtools.build.lib.query2.engine.LetExpression;
+import com.google.devtools.build.lib.query2.engine.QueryExpression;
+import com.google.devtools.build.lib.query2.engine.TargetLiteral;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import javax.annotation.Nullable;
+
+/**
+ * A server-lifetime cache of the results of query subexpressions.
+ *
+ * <p>Entries are keyed on a scope string, which captures everything about the query environment
+ * that affects results (e.g. the universe scope and the dependency filter), plus the canonical
+ * string form of the expression. The cache is valid for a single version of the package graph:
+ * every lookup names the current graph version, and the first lookup after the version changed
+ * drops all entries.
+ *
+ * <p>The total number of cached result elements is bounded; the least recently used entries are
+ * evicted first. Results that alone exceed the bound are never cached.
+ *
+ * <p>All methods are thread-safe.
+ */
+public final class QueryResultCache<T> {
+
+  private final LinkedHashMap<String, ImmutableList<T>> entries =
+      new LinkedHashMap<>(16, 0.75f, /*accessOrder=*/ true);
+
+  private long graphVersion = -1;
+  private long maxSize;
+  private long size;
+
+  /**
+   * Prepares the cache for a query evaluation against {@code graphVersion}, dropping everything if
+   * the graph changed since the last evaluation, and evicting entries to honor {@code maxSize}.
+   */
+  public synchronized void startEvaluation(long graphVersion, long maxSize) {
+    if (graphVersion != this.graphVersion) {
+      this.graphVersion = graphVersion;
+      clear();
+    }
+    this.maxSize = maxSize;
+    evict();
+  }
+
+  /**
+   * Returns the cached result of the expression with the given key, or null if there is none or
+   * the graph moved past {@code graphVersion}.
+   */
+  @Nullable
+  synchronized ImmutableList<T> get(String key, long graphVersion) {
+    return graphVersion == this.graphVersion ? entries.get(key) : null;
+  }
+
+  /** Caches {@code result} unless the graph moved past {@code graphVersion}. */
+  synchronized void put(String key, ImmutableList<T> result, long graphVersion) {
+    if (graphVersion != this.graphVersion || result.size() > maxSize) {
+      return;
+    }
+    ImmutableList<T> previous = entries.put(key, result);
+    if (previous != null) {
+      size -= previous.size();
+    }
+    size += result.size();
+    evict();
+  }
+
+  /** Returns the largest result, in elements, that could be cached. */
+  synchronized long getMaxSize() {
+    return maxSize;
+  }
+
+  public synchronized void clear() {
+    entries.clear();
+    size = 0;
+  }
+
+  synchronized int getEntryCount() {
+    return entries.size();
+  }
+
+  private void evict() {
+    Iterator<Map.Entry<String, ImmutableList<T>>> it = entries.entrySet().iterator();
+    while (size > maxSize && it.hasNext()) {
+      size -= it.next().getValue().size();
+      it.remove();
+    }
+  }
+
+  /**
+   * Returns whether the result of {@code expr} only depends on the package graph and on the
+   * environment, and is worth caching.
+   *
+   * <p>Target literals are cheap to evaluate on their own, and anything that refers to a variable
+   * bound by an enclosing {@code let} depends on the evaluation context, so neither is cached.
+   */
+  static boolean isCacheable(QueryExpression expr) {
+    if (!(expr instanceof FunctionExpression
+        || expr instanceof BinaryOperatorExpression
+        || expr instanceof LetExpression)) {
+      return false;
+    }
+    return !hasFreeVariable(expr);
+  }
+
+  private static boolean hasFreeVariable(QueryExpression expr) {
+    return !expr.accept(new FreeVariablesVisitor(), null).isEmpty();
+  }
+
+  /** Returns the names of the variables an expression refers to without binding them. */
+  private static class FreeVariablesVisitor
+      extends AggregatingQueryExpressionVisitor<ImmutableSet<String>, Void> {
+
+    @Override
+    public ImmutableSet<String> visit(TargetLiteral targetLiteral, Void context) {
+      return targetLiteral.isVariableReference()
+          ? ImmutableSet.of(LetExpression.getNameFromReference(targetLiteral.getPattern()))
+          : ImmutableSet.of();
+    }
+
+    @Override
+    public ImmutableSet<String> visit(LetExpression letExpression, Void context) {
+      ImmutableSet<String> bodyVariables = letExpression.getBodyExpr().accept(this, context);
+      return ImmutableSet.<String>builder()
+          .addAll(letExpression.getVarExpr().accept(this, context))
+          .addAll(Sets.difference(bodyVariables, ImmutableSet.of(letExpression.getVarName())))
+          .build();
+    }
+
+    @Override
+    protected ImmutableSet<String> aggregate(
+        ImmutableMap<QueryExpression, ImmutableSet<String>> resultMap) {
+      ImmutableSet.Builder<String> variables = ImmutableSet.builder();
+      for (ImmutableSet<String> subexpressionVariables : resultMap.values()) {
+        variables.addAll(subexpressionVariables);
+      }
+      return variables.build();
+    }
+  }
+}
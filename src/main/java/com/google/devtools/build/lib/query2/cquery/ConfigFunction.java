@@ -30,8 +30,9 @@ import java.util.List;
 
 /**
  * A "config" query expression for cquery. The first argument is the expression to be evaluated. The
- * second argument is either "host", "target", or "null" to specify which configuration the
- * user is seeking to query in. If some but not all results of expr can be found in the specified
+ * second argument is either "host", "target", "null", or the checksum of a configuration (as
+ * printed by cquery's default output) to specify which configuration the user is seeking to query
+ * in. If some but not all results of expr can be found in the specified
  * config, then the subset that can be is returned. If no results of expr can be found in the
  * specified config, then an error is thrown.
  *
@@ -42,7 +42,6 @@ import com.google.devtools.build.lib.query2.engine.QueryExpression;
 import com.google.devtools.build.lib.query2.engine.QueryUtil.ThreadSafeMutableKeyExtractorBackedSetImpl;
 import com.google.devtools.build.lib.query2.query.aspectresolvers.AspectResolver;
 import com.google.devtools.build.lib.rules.AliasConfiguredTarget;
-import com.google.devtools.build.lib.skyframe.BuildConfigurationValue;
 import com.google.devtools.build.lib.skyframe.ConfiguredTargetKey;
 import com.google.devtools.build.lib.skyframe.ConfiguredTargetValue;
 import com.google.devtools.build.lib.skyframe.SkyframeExecutor;
@@ -106,18 +105,7 @@ public class ConfiguredTargetQueryEnvironment
         settings);
     this.accessor = new ConfiguredTargetAccessor(walkableGraphSupplier.get(), this);
     this.configuredTargetKeyExtractor =
-        element -> {
-          try {
-            return ConfiguredTargetKey.of(
-                element,
-                element.getConfigurationKey() == null
-                    ? null
-                    : ((BuildConfigurationValue) graph.getValue(element.getConfigurationKey()))
-                        .getConfiguration());
-          } catch (InterruptedException e) {
-            throw new IllegalStateException("Interruption unexpected in configured query", e);
-          }
-        };
+        element -> ConfiguredTargetKey.of(element, getConfiguration(element));
   }
 
   public ConfiguredTargetQueryEnvironment(
@@ -312,8 +300,18 @@ public class ConfiguredTargetQueryEnvironment
               configuredTarget = getNullConfiguredTarget(label);
               break;
             default:
-              throw new QueryException(
-                  "the second argument of the config function must be 'target', 'host', or 'null'");
+              // Like the cases above, the word arrives in quotes.
+              BuildConfiguration checksumConfiguration =
+                  getConfigurationByChecksum(
+                      configuration.substring(1, configuration.length() - 1));
+              if (checksumConfiguration == null) {
+                throw new QueryException(
+                    "the second argument of the config function must be 'target', 'host', 'null',"
+                        + " or the checksum of a configuration in the graph");
+              }
+              configuredTarget =
+                  getValueFromKey(ConfiguredTargetValue.key(label, checksumConfiguration));
+              break;
           }
           if (configuredTarget != null) {
             transformedResult.add(configuredTarget);
@@ -389,10 +387,7 @@ public class ConfiguredTargetQueryEnvironment
   @Override
   protected BuildConfiguration getConfiguration(ConfiguredTarget target) {
     try {
-      return target.getConfigurationKey() == null
-          ? null
-          : ((BuildConfigurationValue) graph.getValue(target.getConfigurationKey()))
-              .getConfiguration();
+      return getConfigurationFromKey(target.getConfigurationKey());
     } catch (InterruptedException e) {
       throw new IllegalStateException("Unexpected interruption during configured target query", e);
     }
@@ -45,4 +45,26 @@ public interface StreamableQueryEnvironment<T> extends QueryEnvironment<T> {
       QueryExpression expression,
       QueryExpressionContext<T> context,
       Callback<T> callback);
+
+  /**
+   * Evaluates {@code somepath(from, to)}. {@code caller} is the whole {@code somepath} expression,
+   * used for error reporting.
+   */
+  QueryTaskFuture<Void> getSomePathParallel(
+      QueryExpression caller,
+      QueryExpression from,
+      QueryExpression to,
+      QueryExpressionContext<T> context,
+      Callback<T> callback);
+
+  /**
+   * Evaluates {@code allpaths(from, to)}. {@code caller} is the whole {@code allpaths} expression,
+   * used for error reporting.
+   */
+  QueryTaskFuture<Void> getAllPathsParallel(
+      QueryExpression caller,
+      QueryExpression from,
+      QueryExpression to,
+      QueryExpressionContext<T> context,
+      Callback<T> callback);
 }
@@ -13,6 +13,7 @@
 // limitations under the License.
 package com.google.devtools.build.lib.query2.query;
 
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Predicate;
 import com.google.common.collect.Sets;
 import com.google.devtools.build.lib.cmdline.Label;
@@ -26,6 +27,7 @@ import com.google.devtools.build.lib.packages.CachingPackageLocator;
 import com.google.devtools.build.lib.packages.NoSuchThingException;
 import com.google.devtools.build.lib.packages.Package;
 import com.google.devtools.build.lib.packages.Target;
+import com.google.devtools.build.lib.pkgcache.BulkPackageProvider;
 import com.google.devtools.build.lib.pkgcache.TargetEdgeObserver;
 import com.google.devtools.build.lib.pkgcache.TargetPatternPreloader;
 import com.google.devtools.build.lib.pkgcache.TargetProvider;
@@ -72,6 +74,9 @@ import javax.annotation.Nullable;
 public class GraphlessBlazeQueryEnvironment extends AbstractBlazeQueryEnvironment<Target>
     implements CustomFunctionQueryEnvironment<Target> {
   private static final int MAX_DEPTH_FULL_SCAN_LIMIT = 20;
+  // Bounds the number of packages a streaming deps visitation holds on to at a time.
+  private static final int MAX_PACKAGES_PER_LOAD = 1000;
+  private static final int STREAMED_DEPS_BATCH_SIZE = 10000;
   private final Map<String, Collection<Target>> resolvedTargetPatterns = new HashMap<>();
   private final TargetPatternPreloader targetPatternPreloader;
   private final PathFragment relativeWorkingDirectory;
@@ -81,6 +86,9 @@ public class GraphlessBlazeQueryEnvironment extends AbstractBlazeQueryEnvironmen
   private final ErrorPrintingTargetEdgeErrorObserver errorObserver;
   private final LabelVisitor labelVisitor;
   protected final int loadingPhaseThreads;
+  @Nullable private BulkPackageProvider streamingPackageProvider;
+  private int maxPackagesPerLoad = MAX_PACKAGES_PER_LOAD;
+  private int streamedDepsBatchSize = STREAMED_DEPS_BATCH_SIZE;
 
   private final BlazeTargetAccessor accessor = new BlazeTargetAccessor(this);
 
@@ -120,15 +128,43 @@ public class GraphlessBlazeQueryEnvironment extends AbstractBlazeQueryEnvironmen
     this.labelVisitor = new LabelVisitor(targetProvider, dependencyFilter);
   }
 
+  /**
+   * Makes unbounded {@code deps} stream the transitive closure to the callback as it is visited,
+   * instead of collecting it first, if {@code packageProvider} is not null. The visitation then
+   * keeps one bit per target of each reached package rather than a map from label to depth, and
+   * loads the packages of the closure through {@code packageProvider}, a bounded number at a time,
+   * instead of preloading the whole closure. That way, even {@code deps(//...)} runs in a
+   * constrained heap. The results are the same in either mode.
+   */
+  public void setStreamDeps(@Nullable BulkPackageProvider packageProvider) {
+    this.streamingPackageProvider = packageProvider;
+  }
+
+  /**
+   * Overrides the number of packages a streaming {@code deps} visitation loads at a time, and the
+   * number of targets passed to the callback at a time.
+   */
+  @VisibleForTesting
+  public void setStreamingLimitsForTesting(int maxPackagesPerLoad, int streamedDepsBatchSize) {
+    this.maxPackagesPerLoad = maxPackagesPerLoad;
+    this.streamedDepsBatchSize = streamedDepsBatchSize;
+  }
+
   @Override
-  public QueryTaskFuture<Void> eval(
+  protected QueryTaskFuture<Void> evalUncached(
       QueryExpression expr, QueryExpressionContext<Target> context, Callback<Target> callback) {
-    // The graphless query implementation does not perform any streaming at this point, and all
-    // operators only make a single call to the callback, so it is perfectly safe to pass the
-    // callback to the expression eval call. This is also a lot cheaper than making a copy here.
+    // The graphless query implementation never calls a callback from more than one thread at a
+    // time, so it is perfectly safe to pass the callback to the expression eval call. This is also
+    // a lot cheaper than making a copy here.
     return expr.eval(this, context, callback);
   }
 
+  @Override
+  public boolean supportsResultCache() {
+    // Unlike BlazeQueryEnvironment, no state is accumulated across subexpressions.
+    return true;
+  }
+
   @Override
   public void close() {
     // BlazeQueryEnvironment has no resources that need to be cleaned up.
@@ -194,8 +230,15 @@ public class GraphlessBlazeQueryEnvironment extends AbstractBlazeQueryEnvironmen
   public void deps(
       Iterable<Target> from, int maxDepth, QueryExpression caller, Callback<Target> callback)
       throws InterruptedException, QueryException {
+    if (streamingPackageProvider != null && maxDepth == Integer.MAX_VALUE) {
+      // Loads the packages itself, many at a time, so there is no need to preload the closure.
+      depsUnbounded(from, caller, callback);
+      return;
+    }
     // TODO(ulfjack): There's no need to visit the transitive closure twice. Ideally, preloading
     //  would return the list of targets, but it currently only returns the list of labels.
+    // The preload loads the packages in parallel, while the LabelVisitor below would load them one
+    // at a time, as the target provider serializes package lookups.
     try (SilentCloseable closeable = Profiler.instance().profile("preloadTransitiveClosure")) {
       preloadTransitiveClosure(from, maxDepth);
     }
@@ -229,6 +272,90 @@ public class GraphlessBlazeQueryEnvironment extends AbstractBlazeQueryEnvironmen
     callback.process(result);
   }
 
+  /**
+   * Streams the transitive closure of {@code from} to {@code callback} as it is visited, keeping
+   * neither the closure nor a map of the visited targets in memory. See {@link #setStreamDeps}.
+   */
+  private void depsUnbounded(
+      Iterable<Target> from, QueryExpression caller, Callback<Target> callback)
+      throws InterruptedException, QueryException {
+    StreamingNodeObserver streamingObserver =
+        new StreamingNodeObserver(callback, streamedDepsBatchSize);
+    try (SilentCloseable closeable = Profiler.instance().profile("syncUncachedCompact")) {
+      new LabelVisitor(targetProvider, dependencyFilter)
+          .syncUncachedCompact(
+              eventHandler,
+              streamingPackageProvider,
+              from,
+              loadingPhaseThreads,
+              maxPackagesPerLoad,
+              errorObserver,
+              streamingObserver);
+    }
+    if (errorObserver.hasErrors()) {
+      reportBuildFileError(caller, "errors were encountered while computing transitive closure");
+    }
+    streamingObserver.finish();
+  }
+
+  /**
+   * Passes the targets reached by a {@link LabelVisitor} on to a callback in batches, one batch at
+   * a time.
+   */
+  private static final class StreamingNodeObserver implements TargetEdgeObserver {
+    private final Callback<Target> callback;
+    private final int batchSize;
+    private List<Target> batch = new ArrayList<>();
+    @Nullable private QueryException queryException;
+    private boolean interrupted;
+
+    StreamingNodeObserver(Callback<Target> callback, int batchSize) {
+      this.callback = callback;
+      this.batchSize = batchSize;
+    }
+
+    @Override
+    public void edge(Target from, Attribute attribute, Target to) {}
+
+    @Override
+    public void missingEdge(@Nullable Target target, Label to, NoSuchThingException e) {}
+
+    @Override
+    public synchronized void node(Target node) {
+      if (queryException != null || interrupted) {
+        return;
+      }
+      batch.add(node);
+      if (batch.size() >= batchSize) {
+        try {
+          flush();
+        } catch (QueryException e) {
+          queryException = e;
+        } catch (InterruptedException e) {
+          interrupted = true;
+          Thread.currentThread().interrupt();
+        }
+      }
+    }
+
+    /** Passes on the remaining targets, or throws the error the callback failed with, if any. */
+    synchronized void finish() throws QueryException, InterruptedException {
+      if (queryException != null) {
+        throw queryException;
+      }
+      if (interrupted) {
+        throw new InterruptedException();
+      }
+      flush();
+    }
+
+    private void flush() throws QueryException, InterruptedException {
+      List<Target> toProcess = batch;
+      batch = new ArrayList<>();
+      callback.process(toProcess);
+    }
+  }
+
   @Override
   public void somePath(
       Iterable<Target> from, Iterable<Target> to, QueryExpression caller, Callback<Target> callback)
@@ -14,11 +14,15 @@
 
 package com.google.devtools.build.lib.query2.query;
 
+import com.google.common.base.Preconditions;
 import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.devtools.build.lib.cmdline.Label;
+import com.google.devtools.build.lib.cmdline.PackageIdentifier;
 import com.google.devtools.build.lib.concurrent.AbstractQueueVisitor;
 import com.google.devtools.build.lib.concurrent.ErrorClassifier;
 import com.google.devtools.build.lib.concurrent.NamedForkJoinPool;
@@ -26,22 +30,39 @@ import com.google.devtools.build.lib.concurrent.QuiescingExecutor;
 import com.google.devtools.build.lib.concurrent.ThreadSafety.ThreadSafe;
 import com.google.devtools.build.lib.events.ErrorSensingEventHandler;
 import com.google.devtools.build.lib.events.ExtendedEventHandler;
+import com.google.devtools.build.lib.packages.AdvertisedProviderSet;
 import com.google.devtools.build.lib.packages.Aspect;
 import com.google.devtools.build.lib.packages.AspectDefinition;
 import com.google.devtools.build.lib.packages.Attribute;
 import com.google.devtools.build.lib.packages.DependencyFilter;
 import com.google.devtools.build.lib.packages.LabelVisitationUtils;
+import com.google.devtools.build.lib.packages.NoSuchPackageException;
+import com.google.devtools.build.lib.packages.NoSuchTargetException;
 import com.google.devtools.build.lib.packages.NoSuchThingException;
 import com.google.devtools.build.lib.packages.OutputFile;
+import com.google.devtools.build.lib.packages.Package;
 import com.google.devtools.build.lib.packages.Rule;
 import com.google.devtools.build.lib.packages.Target;
+import com.google.devtools.build.lib.pkgcache.BulkPackageProvider;
+import com.google.devtools.build.lib.pkgcache.BulkPackageProvider.PackageOrException;
 import com.google.devtools.build.lib.pkgcache.TargetEdgeObserver;
 import com.google.devtools.build.lib.pkgcache.TargetProvider;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import javax.annotation.Nullable;
 
 /**
  * Visit the transitive closure of a label. Primarily used to "fault in" packages to the
@@ -141,7 +162,7 @@ final class LabelVisitor {
    */
   private final TargetProvider targetProvider;
   private final DependencyFilter edgeFilter;
-  private final ConcurrentMap<Label, Integer> visitedTargets = new ConcurrentHashMap<>();
+  private VisitedTargets visitedTargets = new DepthMap(0);
 
   private VisitationAttributes lastVisitation;
 
@@ -193,6 +214,47 @@ final class LabelVisitor {
     redoVisitation(eventHandler, targetsToVisit, keepGoing, parallelThreads, maxDepth, observers);
   }
 
+  /**
+   * Performs an unbounded transitive closure visitation like {@link #syncUncached}, but keeps the
+   * memory used for the visitation itself bounded, so that it scales to very large closures:
+   *
+   * <ul>
+   *   <li>Visited targets are recorded as one bit per target of each package that was reached,
+   *       keyed by the sorted target names of the package, rather than in a map from label to
+   *       depth.
+   *   <li>The closure is visited package by package rather than label by label. The packages
+   *       reached next are loaded through {@code packageProvider}, at most {@code
+   *       maxPackagesPerLoad} at a time and in parallel. Only the names of the targets still to be
+   *       visited are kept for the packages that are not loaded yet, and only the labels each
+   *       target depends on are kept for the packages that were, so that no package is held in
+   *       memory beyond the load it came with.
+   * </ul>
+   *
+   * <p>Each reached target is passed to {@link TargetEdgeObserver#node} exactly once, as soon as it
+   * is reached, so observers can stream the closure rather than collect it. Observers are called
+   * from the calling thread only, and are not told about edges.
+   */
+  public void syncUncachedCompact(
+      ExtendedEventHandler eventHandler,
+      BulkPackageProvider packageProvider,
+      Iterable<Target> targetsToVisit,
+      int parallelThreads,
+      int maxPackagesPerLoad,
+      TargetEdgeObserver... observers)
+      throws InterruptedException {
+    lastVisitation = NONE;
+    PackageBitSets visitedPackages = new PackageBitSets(edgeFilter);
+    visitedTargets = visitedPackages;
+    new CompactVisitor(
+            eventHandler,
+            packageProvider,
+            visitedPackages,
+            parallelThreads,
+            maxPackagesPerLoad,
+            observers)
+        .run(targetsToVisit);
+  }
+
   // Does a bounded transitive visitation starting at the given top-level targets.
   private boolean redoVisitation(
       ExtendedEventHandler eventHandler,
@@ -202,7 +264,7 @@ final class LabelVisitor {
       int maxDepth,
       TargetEdgeObserver... observers)
       throws InterruptedException {
-    visitedTargets.clear();
+    visitedTargets = new DepthMap(maxDepth);
 
     Visitor visitor = new Visitor(eventHandler, keepGoing, parallelThreads, maxDepth, observers);
 
@@ -222,7 +284,478 @@ final class LabelVisitor {
   }
 
   public boolean hasVisited(Label target) {
-    return visitedTargets.containsKey(target);
+    return visitedTargets.contains(target);
+  }
+
+  /** The targets reached by a visitation. */
+  private interface VisitedTargets {
+    /**
+     * Records that {@code target} was reached at {@code depth}, and returns whether it needs to be
+     * visited, i.e. whether it was not reached before at the same or a smaller depth.
+     */
+    boolean add(Target target, int depth);
+
+    boolean contains(Label label);
+  }
+
+  /** Keeps the smallest depth at which each target was reached. */
+  private static final class DepthMap implements VisitedTargets {
+    private final ConcurrentMap<Label, Integer> depths = new ConcurrentHashMap<>();
+    private final int maxDepth;
+
+    DepthMap(int maxDepth) {
+      this.maxDepth = maxDepth;
+    }
+
+    @Override
+    public boolean add(Target target, int depth) {
+      Integer minTargetDepth = depths.putIfAbsent(target.getLabel(), depth);
+      if (minTargetDepth == null) {
+        return true;
+      }
+      // The target was already visited at a greater depth.
+      // The closure we are about to build is therefore a subset of what
+      // has already been built, and we can skip it.
+      // Also special case MAX_VALUE, where we never want to revisit targets.
+      // (This avoids loading phase overhead outside of queries).
+      if (maxDepth == Integer.MAX_VALUE || minTargetDepth <= depth) {
+        return false;
+      }
+      // Check again in case it was overwritten by another thread.
+      synchronized (depths) {
+        if (depths.get(target.getLabel()) <= depth) {
+          return false;
+        }
+        depths.put(target.getLabel(), depth);
+      }
+      return true;
+    }
+
+    @Override
+    public boolean contains(Label label) {
+      return depths.containsKey(label);
+    }
+  }
+
+  /**
+   * Keeps a bit for each target of each reached package, at the position of the name of the target
+   * among the sorted names of the targets of the package, along with the edges of each target. Does
+   * not keep depths, so only suitable for unbounded visitations. Not thread-safe.
+   */
+  private static final class PackageBitSets implements VisitedTargets {
+    private final DependencyFilter edgeFilter;
+    private final Map<PackageIdentifier, VisitedPackage> packages = new HashMap<>();
+
+    PackageBitSets(DependencyFilter edgeFilter) {
+      this.edgeFilter = edgeFilter;
+    }
+
+    @Override
+    public boolean add(Target target, int depth) {
+      VisitedPackage visitedPackage = getOrAdd(target.getPackage());
+      return visitedPackage.visit(visitedPackage.indexOf(target.getName()));
+    }
+
+    @Override
+    public boolean contains(Label label) {
+      VisitedPackage pkg = packages.get(label.getPackageIdentifier());
+      return pkg != null && pkg.contains(label.getName());
+    }
+
+    @Nullable
+    VisitedPackage get(PackageIdentifier pkgId) {
+      return packages.get(pkgId);
+    }
+
+    VisitedPackage getOrAdd(Package pkg) {
+      return packages.computeIfAbsent(
+          pkg.getPackageIdentifier(), id -> new VisitedPackage(pkg, edgeFilter));
+    }
+  }
+
+  /**
+   * The targets of a package that were reached, and the edges of all targets of the package. Only
+   * keeps the names of the targets and the labels they depend on, so that it does not keep the
+   * package itself in memory, yet the visitation can go on from any target of the package once the
+   * package is dropped.
+   */
+  private static final class VisitedPackage {
+    private static final Label[] NO_DEPS = new Label[0];
+
+    private final String[] names;
+    private final BitSet visited;
+    // The labels each target depends on, by the position of its name.
+    private final Label[][] deps;
+    // The providers each rule advertises, by the position of its name; null for other targets.
+    private final AdvertisedProviderSet[] advertisedProviders;
+    // The edges that entail aspect dependencies, by the position of the name of the target they
+    // start from. Few targets have any.
+    private final Map<Integer, ImmutableList<AspectEdge>> aspectEdges = new HashMap<>();
+
+    VisitedPackage(Package pkg, DependencyFilter edgeFilter) {
+      Map<String, Target> targets = pkg.getTargets();
+      this.names = targets.keySet().toArray(new String[0]);
+      Arrays.sort(names);
+      this.visited = new BitSet(names.length);
+      this.deps = new Label[names.length][];
+      this.advertisedProviders = new AdvertisedProviderSet[names.length];
+      for (int i = 0; i < names.length; i++) {
+        Target target = targets.get(names[i]);
+        List<Label> targetDeps = new ArrayList<>();
+        ImmutableList.Builder<AspectEdge> targetAspectEdges = ImmutableList.builder();
+        LabelVisitationUtils.visitTarget(
+            target,
+            edgeFilter,
+            (from, attribute, to) -> {
+              targetDeps.add(to);
+              ImmutableList<AspectDeps> aspectDeps = getAspectDeps(from, attribute, edgeFilter);
+              if (!aspectDeps.isEmpty()) {
+                targetAspectEdges.add(new AspectEdge(to, aspectDeps));
+              }
+            });
+        deps[i] = targetDeps.isEmpty() ? NO_DEPS : targetDeps.toArray(NO_DEPS);
+        ImmutableList<AspectEdge> edges = targetAspectEdges.build();
+        if (!edges.isEmpty()) {
+          aspectEdges.put(i, edges);
+        }
+        if (target instanceof Rule) {
+          advertisedProviders[i] = ((Rule) target).getRuleClassObject().getAdvertisedProviders();
+        }
+      }
+    }
+
+    /** Returns the position of the target with the given name, or a negative number if none. */
+    int indexOf(String name) {
+      return Arrays.binarySearch(names, name);
+    }
+
+    /** Marks the target at {@code index} as visited, and returns whether it was not before. */
+    boolean visit(int index) {
+      if (index < 0) {
+        throw new IllegalStateException("Target is not among the targets of its package");
+      }
+      if (visited.get(index)) {
+        return false;
+      }
+      visited.set(index);
+      return true;
+    }
+
+    boolean contains(String name) {
+      int index = indexOf(name);
+      return index >= 0 && visited.get(index);
+    }
+
+    private static ImmutableList<AspectDeps> getAspectDeps(
+        Target from, @Nullable Attribute attribute, DependencyFilter edgeFilter) {
+      if (attribute == null || !(from instanceof Rule)) {
+        return ImmutableList.of();
+      }
+      Rule fromRule = (Rule) from;
+      ImmutableList.Builder<AspectDeps> aspectDeps = ImmutableList.builder();
+      for (Aspect aspect : attribute.getAspects(fromRule)) {
+        ImmutableList.Builder<Label> labels = ImmutableList.builder();
+        AspectDefinition.forEachLabelDepFromAllAttributesOfAspect(
+            fromRule,
+            aspect,
+            edgeFilter,
+            (aspectAttribute, aspectLabel) -> labels.add(aspectLabel));
+        aspectDeps.add(new AspectDeps(aspect, labels.build()));
+      }
+      return aspectDeps.build();
+    }
+  }
+
+  /**
+   * The dependencies an aspect entails for an edge, if the target the edge points to is a rule that
+   * satisfies the aspect.
+   */
+  private static final class AspectDeps {
+    private final Aspect aspect;
+    private final ImmutableList<Label> labels;
+
+    AspectDeps(Aspect aspect, ImmutableList<Label> labels) {
+      this.aspect = aspect;
+      this.labels = labels;
+    }
+  }
+
+  /** An edge that entails aspect dependencies. */
+  private static final class AspectEdge {
+    private final Label to;
+    private final ImmutableList<AspectDeps> aspectDeps;
+
+    AspectEdge(Label to, ImmutableList<AspectDeps> aspectDeps) {
+      this.to = to;
+      this.aspectDeps = aspectDeps;
+    }
+  }
+
+  /** The targets reached in a package that was not visited yet. */
+  private static final class PendingPackage {
+    // The targets, each mapped to the first target that was found to depend on it.
+    private final Map<Label, Label> targets = new LinkedHashMap<>();
+    // Aspect edges into the package, each mapped to the target it starts from.
+    private final List<Map.Entry<Label, AspectEdge>> aspectEdges = new ArrayList<>();
+  }
+
+  /** An edge to a target that does not exist. */
+  private static final class MissingEdge {
+    private final Label from;
+    private final Label to;
+    // Null if the package of the target exists, in which case the exception is that of the lookup
+    // of the target in the package.
+    @Nullable private final NoSuchPackageException exception;
+
+    MissingEdge(Label from, Label to, @Nullable NoSuchPackageException exception) {
+      this.from = from;
+      this.to = to;
+      this.exception = exception;
+    }
+  }
+
+  /**
+   * Visits the transitive closure package by package for {@link #syncUncachedCompact}.
+   *
+   * <p>The first time a package is reached, it is loaded and its targets and their edges are
+   * recorded in a {@link VisitedPackage}. From then on, the visitation follows the edges of the
+   * targets of the package without loading it. Only the packages of the current load are held in
+   * memory: a target that is reached in any other package is recorded as pending for its package,
+   * by label.
+   *
+   * <p>The packages that were not visited yet are loaded first, until the whole closure is visited.
+   * Those that had targets reached once they were dropped are then loaded once more, to pass these
+   * targets on to the observers. Thus each package is loaded at most twice.
+   */
+  private class CompactVisitor {
+    private final ExtendedEventHandler eventHandler;
+    private final BulkPackageProvider packageProvider;
+    private final PackageBitSets visitedPackages;
+    private final int parallelThreads;
+    private final int maxPackagesPerLoad;
+    private final ImmutableList<TargetEdgeObserver> observers;
+    // The packages at hand, which the targets reached in are passed on right away.
+    private final Map<PackageIdentifier, Package> loadedPackages = new HashMap<>();
+    private final Map<PackageIdentifier, PendingPackage> packagesToVisit = new LinkedHashMap<>();
+    // Targets visited while their package was not loaded, which are yet to be observed.
+    private final Map<PackageIdentifier, Set<Label>> targetsToObserve = new LinkedHashMap<>();
+    // Targets visited whose edges are yet to be followed.
+    private final ArrayDeque<Label> targetsToFollow = new ArrayDeque<>();
+    private final List<MissingEdge> missingEdges = new ArrayList<>();
+
+    CompactVisitor(
+        ExtendedEventHandler eventHandler,
+        BulkPackageProvider packageProvider,
+        PackageBitSets visitedPackages,
+        int parallelThreads,
+        int maxPackagesPerLoad,
+        TargetEdgeObserver... observers) {
+      this.eventHandler = eventHandler;
+      this.packageProvider = packageProvider;
+      this.visitedPackages = visitedPackages;
+      this.parallelThreads = parallelThreads;
+      this.maxPackagesPerLoad = maxPackagesPerLoad;
+      this.observers = ImmutableList.copyOf(observers);
+    }
+
+    void run(Iterable<Target> roots) throws InterruptedException {
+      for (Target root : roots) {
+        loadedPackages.put(root.getLabel().getPackageIdentifier(), root.getPackage());
+        visitedPackages.getOrAdd(root.getPackage());
+      }
+      for (Target root : roots) {
+        visit(/*from=*/ null, root.getLabel());
+      }
+      followEdges();
+      loadedPackages.clear();
+      while (!packagesToVisit.isEmpty()) {
+        loadAndVisit(takeBatch(packagesToVisit));
+      }
+      while (!targetsToObserve.isEmpty()) {
+        loadAndObserve(takeBatch(targetsToObserve));
+      }
+      reportMissingEdges();
+    }
+
+    private <V> Map<PackageIdentifier, V> takeBatch(Map<PackageIdentifier, V> pending)
+        throws InterruptedException {
+      if (Thread.interrupted()) {
+        throw new InterruptedException();
+      }
+      Map<PackageIdentifier, V> batch = new LinkedHashMap<>();
+      Iterator<Map.Entry<PackageIdentifier, V>> entries = pending.entrySet().iterator();
+      while (entries.hasNext() && batch.size() < maxPackagesPerLoad) {
+        Map.Entry<PackageIdentifier, V> entry = entries.next();
+        batch.put(entry.getKey(), entry.getValue());
+        entries.remove();
+      }
+      return batch;
+    }
+
+    private void loadAndVisit(Map<PackageIdentifier, PendingPackage> batch)
+        throws InterruptedException {
+      ImmutableMap<PackageIdentifier, PackageOrException> packages =
+          packageProvider.getPackages(eventHandler, batch.keySet(), parallelThreads);
+      for (Map.Entry<PackageIdentifier, PackageOrException> entry : packages.entrySet()) {
+        try {
+          Package pkg = entry.getValue().get();
+          loadedPackages.put(entry.getKey(), pkg);
+          visitedPackages.getOrAdd(pkg);
+        } catch (NoSuchPackageException e) {
+          for (Map.Entry<Label, Label> target : batch.get(entry.getKey()).targets.entrySet()) {
+            missingEdges.add(new MissingEdge(target.getValue(), target.getKey(), e));
+          }
+        }
+      }
+      for (Map.Entry<PackageIdentifier, PendingPackage> entry : batch.entrySet()) {
+        if (!loadedPackages.containsKey(entry.getKey())) {
+          continue;
+        }
+        for (Map.Entry<Label, Label> target : entry.getValue().targets.entrySet()) {
+          visit(target.getValue(), target.getKey());
+        }
+        for (Map.Entry<Label, AspectEdge> aspectEdge : entry.getValue().aspectEdges) {
+          visitAspectDeps(aspectEdge.getKey(), aspectEdge.getValue());
+        }
+      }
+      followEdges();
+      // Let go of the packages of this load before loading the next ones.
+      loadedPackages.clear();
+    }
+
+    private void loadAndObserve(Map<PackageIdentifier, Set<Label>> batch)
+        throws InterruptedException {
+      ImmutableMap<PackageIdentifier, PackageOrException> packages =
+          packageProvider.getPackages(eventHandler, batch.keySet(), parallelThreads);
+      for (Map.Entry<PackageIdentifier, Set<Label>> entry : batch.entrySet()) {
+        Package pkg;
+        try {
+          pkg = packages.get(entry.getKey()).get();
+        } catch (NoSuchPackageException e) {
+          // The package was loaded before, so it must have been changed or deleted since.
+          throw new IllegalStateException(
+              "Package " + entry.getKey() + " could not be loaded again: " + e.getMessage(), e);
+        }
+        for (Label label : entry.getValue()) {
+          observeNode(Preconditions.checkNotNull(pkg.getTargets().get(label.getName()), label));
+        }
+      }
+    }
+
+    /** Visits the target {@code to}, reached from {@code from}, or records it as pending. */
+    private void visit(@Nullable Label from, Label to) {
+      PackageIdentifier pkgId = to.getPackageIdentifier();
+      VisitedPackage visitedPackage = visitedPackages.get(pkgId);
+      if (visitedPackage == null) {
+        packagesToVisit.computeIfAbsent(pkgId, id -> new PendingPackage()).targets.putIfAbsent(
+            to, from);
+        return;
+      }
+      int index = visitedPackage.indexOf(to.getName());
+      if (index < 0) {
+        missingEdges.add(new MissingEdge(from, to, /*exception=*/ null));
+        return;
+      }
+      if (!visitedPackage.visit(index)) {
+        return;
+      }
+      Package pkg = loadedPackages.get(pkgId);
+      if (pkg != null) {
+        observeNode(pkg.getTargets().get(to.getName()));
+      } else {
+        targetsToObserve.computeIfAbsent(pkgId, id -> new LinkedHashSet<>()).add(to);
+      }
+      targetsToFollow.add(to);
+    }
+
+    private void followEdges() {
+      Label from;
+      while ((from = targetsToFollow.pollLast()) != null) {
+        VisitedPackage visitedPackage = visitedPackages.get(from.getPackageIdentifier());
+        int index = visitedPackage.indexOf(from.getName());
+        for (Label to : visitedPackage.deps[index]) {
+          visit(from, to);
+        }
+        for (AspectEdge aspectEdge :
+            visitedPackage.aspectEdges.getOrDefault(index, ImmutableList.of())) {
+          visitAspectDeps(from, aspectEdge);
+        }
+      }
+    }
+
+    private void visitAspectDeps(Label from, AspectEdge aspectEdge) {
+      VisitedPackage visitedPackage = visitedPackages.get(aspectEdge.to.getPackageIdentifier());
+      if (visitedPackage == null) {
+        packagesToVisit
+            .computeIfAbsent(aspectEdge.to.getPackageIdentifier(), id -> new PendingPackage())
+            .aspectEdges
+            .add(Maps.immutableEntry(from, aspectEdge));
+        return;
+      }
+      int index = visitedPackage.indexOf(aspectEdge.to.getName());
+      if (index < 0 || visitedPackage.advertisedProviders[index] == null) {
+        return;
+      }
+      for (AspectDeps deps : aspectEdge.aspectDeps) {
+        if (AspectDefinition.satisfies(deps.aspect, visitedPackage.advertisedProviders[index])) {
+          for (Label label : deps.labels) {
+            visit(from, label);
+          }
+        }
+      }
+    }
+
+    private void observeNode(Target target) {
+      for (TargetEdgeObserver observer : observers) {
+        observer.node(target);
+      }
+    }
+
+    /**
+     * Reports the edges to targets that do not exist, with the packages of the targets they start
+     * from loaded again.
+     */
+    private void reportMissingEdges() throws InterruptedException {
+      if (missingEdges.isEmpty()) {
+        return;
+      }
+      Set<PackageIdentifier> pkgIds = new LinkedHashSet<>();
+      for (MissingEdge missingEdge : missingEdges) {
+        pkgIds.add(missingEdge.from.getPackageIdentifier());
+        if (missingEdge.exception == null) {
+          pkgIds.add(missingEdge.to.getPackageIdentifier());
+        }
+      }
+      ImmutableMap<PackageIdentifier, PackageOrException> packages =
+          packageProvider.getPackages(eventHandler, pkgIds, parallelThreads);
+      for (MissingEdge missingEdge : missingEdges) {
+        Target from = null;
+        NoSuchThingException exception = missingEdge.exception;
+        try {
+          from =
+              packages
+                  .get(missingEdge.from.getPackageIdentifier())
+                  .get()
+                  .getTarget(missingEdge.from.getName());
+        } catch (NoSuchPackageException | NoSuchTargetException e) {
+          // Report the missing edge without the target it starts from.
+        }
+        if (exception == null) {
+          try {
+            packages
+                .get(missingEdge.to.getPackageIdentifier())
+                .get()
+                .getTarget(missingEdge.to.getName());
+            throw new IllegalStateException(missingEdge.to + " exists after all");
+          } catch (NoSuchPackageException | NoSuchTargetException e) {
+            exception = e;
+          }
+        }
+        for (TargetEdgeObserver observer : observers) {
+          observer.missingEdge(from, missingEdge.to, exception);
+        }
+      }
+    }
   }
 
   private class Visitor {
@@ -383,23 +916,8 @@ final class LabelVisitor {
      * @param target the target to visit
      */
     private void visitTargetNode(Target target, int depth, int count) throws InterruptedException {
-      Integer minTargetDepth = visitedTargets.putIfAbsent(target.getLabel(), depth);
-      if (minTargetDepth != null) {
-        // The target was already visited at a greater depth.
-        // The closure we are about to build is therefore a subset of what
-        // has already been built, and we can skip it.
-        // Also special case MAX_VALUE, where we never want to revisit targets.
-        // (This avoids loading phase overhead outside of queries).
-        if (maxDepth == Integer.MAX_VALUE || minTargetDepth <= depth) {
-          return;
-        }
-        // Check again in case it was overwritten by another thread.
-        synchronized (visitedTargets) {
-          if (visitedTargets.get(target.getLabel()) <= depth) {
-            return;
-          }
-          visitedTargets.put(target.getLabel(), depth);
-        }
+      if (!visitedTargets.add(target, depth)) {
+        return;
       }
 
       observeNode(target);
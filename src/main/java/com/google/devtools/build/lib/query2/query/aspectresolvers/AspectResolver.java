@@ -15,6 +15,7 @@ package com.google.devtools.build.lib.query2.query.aspectresolvers;
 
 import com.google.common.collect.ImmutableMultimap;
 import com.google.devtools.build.lib.cmdline.Label;
+import com.google.devtools.build.lib.concurrent.ThreadSafety.ThreadSafe;
 import com.google.devtools.build.lib.events.ExtendedEventHandler;
 import com.google.devtools.build.lib.packages.Attribute;
 import com.google.devtools.build.lib.packages.DependencyFilter;
@@ -23,7 +24,13 @@ import com.google.devtools.build.lib.packages.Target;
 import com.google.devtools.build.lib.pkgcache.PackageProvider;
 import java.util.Set;
 
-/** Utility class that determines additional dependencies of a target from its aspects. */
+/**
+ * Utility class that determines additional dependencies of a target from its aspects.
+ *
+ * <p>Implementations must be thread-safe: the proto output formatters convert several targets
+ * at once, and call into the resolver from each of their worker threads.
+ */
+@ThreadSafe
 public interface AspectResolver {
 
   /**
@@ -18,6 +18,7 @@ import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.LinkedHashMultimap;
 import com.google.common.collect.Multimap;
 import com.google.devtools.build.lib.cmdline.Label;
+import com.google.devtools.build.lib.concurrent.ThreadSafety.ThreadSafe;
 import com.google.devtools.build.lib.packages.Aspect;
 import com.google.devtools.build.lib.packages.AspectDefinition;
 import com.google.devtools.build.lib.packages.Attribute;
@@ -32,6 +33,7 @@ import java.util.Set;
  *
  * <p>Does not need to load any packages other than the one containing the target being processed.
  */
+@ThreadSafe
 public class ConservativeAspectResolver implements AspectResolver {
   @Override
   public ImmutableMultimap<Attribute, Label> computeAspectDependencies(
@@ -16,6 +16,7 @@ package com.google.devtools.build.lib.query2.query.aspectresolvers;
 import com.google.common.collect.ImmutableMultimap;
 import com.google.common.collect.ImmutableSet;
 import com.google.devtools.build.lib.cmdline.Label;
+import com.google.devtools.build.lib.concurrent.ThreadSafety.ThreadSafe;
 import com.google.devtools.build.lib.packages.Attribute;
 import com.google.devtools.build.lib.packages.DependencyFilter;
 import com.google.devtools.build.lib.packages.Package;
@@ -27,6 +28,7 @@ import java.util.Set;
  *
  * <p>Simple, fast, wrong.
  */
+@ThreadSafe
 public class NullAspectResolver implements AspectResolver {
   @Override
   public ImmutableMultimap<Attribute, Label> computeAspectDependencies(
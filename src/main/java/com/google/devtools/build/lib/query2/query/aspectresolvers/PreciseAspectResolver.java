@@ -19,6 +19,7 @@ import com.google.common.collect.Multimap;
 import com.google.devtools.build.lib.cmdline.Label;
 import com.google.devtools.build.lib.cmdline.LabelSyntaxException;
 import com.google.devtools.build.lib.cmdline.PackageIdentifier;
+import com.google.devtools.build.lib.concurrent.ThreadSafety.ThreadSafe;
 import com.google.devtools.build.lib.events.ExtendedEventHandler;
 import com.google.devtools.build.lib.packages.Aspect;
 import com.google.devtools.build.lib.packages.AspectDefinition;
@@ -38,7 +39,12 @@ import java.util.Set;
  * classes of direct dependencies.
  *
  * <p>Needs to load the packages that contain dependencies through attributes with aspects.
+ *
+ * <p>Thread-safe as long as the {@link PackageProvider} is. Those of the query commands and of
+ * genquery are; Skyframe serializes its package lookups, so concurrent callers that need packages
+ * which are not loaded yet take turns.
  */
+@ThreadSafe
 public class PreciseAspectResolver implements AspectResolver {
   private final PackageProvider packageProvider;
   private final ExtendedEventHandler eventHandler;
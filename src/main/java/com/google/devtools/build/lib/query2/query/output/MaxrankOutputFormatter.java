@@ -16,8 +16,8 @@ package com.google.devtools.build.lib.query2.query.output;
 
 import static java.util.Comparator.comparingInt;
 
+import com.google.devtools.build.lib.graph.CompactDigraph;
 import com.google.devtools.build.lib.graph.Digraph;
-import com.google.devtools.build.lib.graph.Node;
 import com.google.devtools.build.lib.packages.Target;
 import com.google.devtools.build.lib.query2.query.aspectresolvers.AspectResolver;
 import com.google.devtools.build.lib.query2.query.output.QueryOptions.OrderOutput;
@@ -26,10 +26,7 @@ import java.io.OutputStream;
 import java.io.PrintStream;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
-import java.util.Set;
 
 /**
  * An output formatter that prints the labels in maximum rank order, preceded
@@ -53,38 +50,16 @@ class MaxrankOutputFormatter extends OutputFormatter {
   public void output(
       QueryOptions options, Digraph<Target> result, OutputStream out, AspectResolver aspectResolver)
       throws IOException {
-    // In order to handle cycles correctly, we need work on the strong
-    // component graph, as cycles should be treated a "clump" of nodes all on
-    // the same rank. Graphs may contain cycles because there are errors in BUILD files.
-
-    // Dynamic programming algorithm:
-    // rank(x) = max(rank(p)) + 1 foreach p in preds(x)
-    // TODO(bazel-team): Move to Digraph.
-    class DP {
-      final Map<Node<Set<Node<Target>>>, Integer> ranks = new HashMap<>();
-
-      int rank(Node<Set<Node<Target>>> node) {
-        Integer rank = ranks.get(node);
-        if (rank == null) {
-          int maxPredRank = -1;
-          for (Node<Set<Node<Target>>> p : node.getPredecessors()) {
-            maxPredRank = Math.max(maxPredRank, rank(p));
-          }
-          rank = maxPredRank + 1;
-          ranks.put(node, rank);
-        }
-        return rank;
-      }
-    }
-    DP dp = new DP();
+    // In order to handle cycles correctly, ranks are computed on the strong component graph, as
+    // cycles should be treated a "clump" of nodes all on the same rank. Graphs may contain cycles
+    // because there are errors in BUILD files.
+    CompactDigraph<Target> graph = CompactDigraph.of(result);
+    int[] ranks = graph.getMaxRanks();
 
     // Now sort by rank...
-    List<RankAndLabel> output = new ArrayList<>();
-    for (Node<Set<Node<Target>>> x : result.getStrongComponentGraph().getNodes()) {
-      int rank = dp.rank(x);
-      for (Node<Target> y : x.getLabel()) {
-        output.add(new RankAndLabel(rank, y.getLabel().getLabel()));
-      }
+    List<RankAndLabel> output = new ArrayList<>(ranks.length);
+    for (int node = 0; node < ranks.length; node++) {
+      output.add(new RankAndLabel(ranks[node], graph.getLabel(node).getLabel()));
     }
     if (options.orderOutput == OrderOutput.FULL) {
       // Use the natural order for RankAndLabels, which breaks ties alphabetically.
@@ -15,8 +15,8 @@
 package com.google.devtools.build.lib.query2.query.output;
 
 import com.google.devtools.build.lib.cmdline.Label;
+import com.google.devtools.build.lib.graph.CompactDigraph;
 import com.google.devtools.build.lib.graph.Digraph;
-import com.google.devtools.build.lib.graph.Node;
 import com.google.devtools.build.lib.packages.Target;
 import com.google.devtools.build.lib.query2.query.aspectresolvers.AspectResolver;
 import com.google.devtools.build.lib.query2.query.output.QueryOptions.OrderOutput;
@@ -24,11 +24,9 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.io.PrintStream;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
-import java.util.HashSet;
-import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.Set;
 import javax.annotation.Nullable;
 
 /**
@@ -66,37 +64,36 @@ class MinrankOutputFormatter extends OutputFormatter {
       QueryOptions options, Digraph<Target> result, OutputStream out, AspectResolver aspectResolver)
       throws IOException {
     PrintStream printStream = new PrintStream(out);
-    // getRoots() isn't defined for cyclic graphs, so in order to handle
-    // cycles correctly, we need work on the strong component graph, as
-    // cycles should be treated a "clump" of nodes all on the same rank.
-    // Graphs may contain cycles because there are errors in BUILD files.
-
     List<RankAndLabel> outputToOrder =
         options.orderOutput == OrderOutput.FULL ? new ArrayList<>() : null;
-    Digraph<Set<Node<Target>>> scGraph = result.getStrongComponentGraph();
-    Set<Node<Set<Node<Target>>>> rankNodes = scGraph.getRoots();
-    Set<Node<Set<Node<Target>>>> seen = new HashSet<>();
-    seen.addAll(rankNodes);
-    final String lineTerm = options.getLineTerminator();
-    for (int rank = 0; !rankNodes.isEmpty(); rank++) {
-      // Print out this rank:
-      for (Node<Set<Node<Target>>> xScc : rankNodes) {
-        for (Node<Target> x : xScc.getLabel()) {
-          outputToStreamOrSave(
-              rank, x.getLabel().getLabel(), printStream, outputToOrder, lineTerm);
-        }
-      }
+    // In order to handle cycles correctly, ranks are computed on the strong component graph, as
+    // cycles should be treated a "clump" of nodes all on the same rank. Graphs may contain cycles
+    // because there are errors in BUILD files.
+    CompactDigraph<Target> graph = CompactDigraph.of(result);
+    int[] ranks = graph.getMinRanks();
 
-      // Find the next rank:
-      Set<Node<Set<Node<Target>>>> nextRankNodes = new LinkedHashSet<>();
-      for (Node<Set<Node<Target>>> x : rankNodes) {
-        for (Node<Set<Node<Target>>> y : x.getSuccessors()) {
-          if (seen.add(y)) {
-            nextRankNodes.add(y);
-          }
-        }
-      }
-      rankNodes = nextRankNodes;
+    // Bucket the nodes by rank, so that they can be printed one rank at a time.
+    int maxRank = -1;
+    for (int rank : ranks) {
+      maxRank = Math.max(maxRank, rank);
+    }
+    int[] rankOffsets = new int[maxRank + 2];
+    for (int rank : ranks) {
+      rankOffsets[rank + 1]++;
+    }
+    for (int rank = 0; rank <= maxRank; rank++) {
+      rankOffsets[rank + 1] += rankOffsets[rank];
+    }
+    int[] byRank = new int[ranks.length];
+    int[] fill = Arrays.copyOf(rankOffsets, maxRank + 1);
+    for (int node = 0; node < ranks.length; node++) {
+      byRank[fill[ranks[node]]++] = node;
+    }
+
+    final String lineTerm = options.getLineTerminator();
+    for (int node : byRank) {
+      outputToStreamOrSave(
+          ranks[node], graph.getLabel(node).getLabel(), printStream, outputToOrder, lineTerm);
     }
     if (outputToOrder != null) {
       Collections.sort(outputToOrder);
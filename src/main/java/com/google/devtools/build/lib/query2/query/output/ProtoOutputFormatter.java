@@ -29,6 +29,7 @@ import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Maps;
 import com.google.devtools.build.lib.cmdline.Label;
+import com.google.devtools.build.lib.concurrent.OrderedParallelWriter;
 import com.google.devtools.build.lib.graph.Digraph;
 import com.google.devtools.build.lib.graph.Node;
 import com.google.devtools.build.lib.packages.AggregatingAttributeMapper;
@@ -57,6 +58,7 @@ import com.google.devtools.build.lib.query2.proto.proto2api.Build.SourceFile;
 import com.google.devtools.build.lib.query2.query.aspectresolvers.AspectResolver;
 import com.google.devtools.build.lib.query2.query.output.QueryOptions.OrderOutput;
 import com.google.protobuf.CodedOutputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.util.ArrayList;
@@ -483,41 +485,101 @@ public class ProtoOutputFormatter extends AbstractUnorderedFormatter {
     throw new AssertionError("Unknown type: " + attrType);
   }
 
+  /**
+   * Writes {@code targetPb} to {@code codedOut} with its tag (field number), as if it was
+   * serialized as part of a {@link QueryResult} proto.
+   */
+  protected void writeTarget(Build.Target targetPb, CodedOutputStream codedOut)
+      throws IOException {
+    // The assumptions we make about this being compatible with actually constructing and
+    // serializing a QueryResult proto are protected by test coverage and proto best practices.
+    codedOut.writeMessage(QueryResult.TARGET_FIELD_NUMBER, targetPb);
+  }
+
   /**
    * Specialized {@link OutputFormatterCallback} implementation which produces a valid {@link
    * QueryResult} in streaming fashion. Internally this class makes some reasonably sound and stable
    * assumptions about the format of serialized protos in order to improve memory overhead and
    * performance.
+   *
+   * <p>Targets are grouped into chunks, which are converted and serialized in parallel by an {@link
+   * OrderedParallelWriter}, so the output is the same as if targets were written one by one.
    */
   private class StreamedQueryResultFormatter extends OutputFormatterCallback<Target> {
 
     /**
-     * Pseudo-arbitrarily chosen buffer size for output. Chosen to be large enough to fit a handful
-     * of targets without needing to flush to the underlying output, which may not be buffered.
+     * Pseudo-arbitrarily chosen buffer size for a chunk. Chosen to be large enough to fit a handful
+     * of targets without needing to grow the buffer.
      */
     private static final int OUTPUT_BUFFER_SIZE = 16384;
 
-    private final CodedOutputStream codedOut;
+    /** Number of targets converted by a worker in one go. */
+    private static final int TARGETS_PER_CHUNK = 256;
+
+    /** Number of chunks that may be in flight before output blocks. */
+    private static final int MAX_PENDING_CHUNKS = 64;
+
+    private final OutputStream out;
+    private List<Target> chunk = new ArrayList<>(TARGETS_PER_CHUNK);
+    // Created on first use, so that no threads are started for empty outputs.
+    @Nullable private OrderedParallelWriter<List<Target>> writer;
 
     private StreamedQueryResultFormatter(OutputStream out) {
-      this.codedOut = CodedOutputStream.newInstance(out, OUTPUT_BUFFER_SIZE);
+      this.out = out;
     }
 
     @Override
     public void processOutput(Iterable<Target> partialResult)
         throws IOException, InterruptedException {
-      // Write out targets with their tag (field number) as if they were serialized as part of a
-      // QueryResult proto. The assumptions we make about this being compatible with actually
-      // constructing and serializing a QueryResult proto are protected by test coverage and proto
-      // best practices.
       for (Target target : partialResult) {
-        codedOut.writeMessage(QueryResult.TARGET_FIELD_NUMBER, toTargetProtoBuffer(target));
+        chunk.add(target);
+        if (chunk.size() >= TARGETS_PER_CHUNK) {
+          getWriter().write(chunk);
+          chunk = new ArrayList<>(TARGETS_PER_CHUNK);
+        }
       }
     }
 
     @Override
-    public void close(boolean failFast) throws IOException {
+    public void close(boolean failFast) throws IOException, InterruptedException {
+      try {
+        if (!chunk.isEmpty()) {
+          getWriter().write(chunk);
+          chunk = new ArrayList<>(TARGETS_PER_CHUNK);
+        }
+        if (writer != null) {
+          writer.flush();
+        }
+      } finally {
+        if (writer != null) {
+          writer.close();
+        }
+      }
+    }
+
+    private OrderedParallelWriter<List<Target>> getWriter() {
+      if (writer == null) {
+        writer =
+            new OrderedParallelWriter<>(
+                out,
+                this::serialize,
+                Runtime.getRuntime().availableProcessors(),
+                MAX_PENDING_CHUNKS,
+                "query-proto-output %d");
+      }
+      return writer;
+    }
+
+    // Runs on the writer's threads. Converting a target only reads the formatter's options, and
+    // the AspectResolver is thread-safe.
+    private byte[] serialize(List<Target> targets) throws IOException, InterruptedException {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream(OUTPUT_BUFFER_SIZE);
+      CodedOutputStream codedOut = CodedOutputStream.newInstance(bytes, OUTPUT_BUFFER_SIZE);
+      for (Target target : targets) {
+        writeTarget(toTargetProtoBuffer(target), codedOut);
+      }
       codedOut.flush();
+      return bytes.toByteArray();
     }
   }
 }
@@ -207,6 +207,56 @@ public class QueryOptions extends CommonQueryOptions {
               + " output formatters.")
   public boolean useGraphlessQuery;
 
+  @Option(
+      name = "experimental_graphless_query_stream_deps",
+      defaultValue = "false",
+      documentationCategory = OptionDocumentationCategory.QUERY,
+      effectTags = {OptionEffectTag.HOST_MACHINE_RESOURCE_OPTIMIZATIONS},
+      help =
+          "If true, --experimental_graphless_query streams the results of unbounded deps() as it"
+              + " visits the transitive closure, instead of collecting them first, and keeps the"
+              + " memory used by the visitation itself small. This lets very large closures be"
+              + " queried in a constrained heap.")
+  public boolean graphlessQueryStreamDeps;
+
+  @Option(
+      name = "experimental_graphless_query_discard_packages",
+      defaultValue = "false",
+      documentationCategory = OptionDocumentationCategory.QUERY,
+      effectTags = {OptionEffectTag.HOST_MACHINE_RESOURCE_OPTIMIZATIONS},
+      help =
+          "If true, --experimental_graphless_query_stream_deps loads the packages of the"
+              + " transitive closure outside of the Skyframe graph and drops each of them once"
+              + " its edges are recorded, so that no package of the closure is kept in memory."
+              + " Packages loaded this way are not cached across queries, and external"
+              + " repositories are not fetched: they must have been fetched before. Only applies"
+              + " with a single --package_path entry.")
+  public boolean graphlessQueryDiscardPackages;
+
+  @Option(
+      name = "experimental_query_result_cache_size",
+      defaultValue = "0",
+      documentationCategory = OptionDocumentationCategory.QUERY,
+      effectTags = {OptionEffectTag.HOST_MACHINE_RESOURCE_OPTIMIZATIONS},
+      help =
+          "If positive, the server keeps the results of query subexpressions across invocations"
+              + " until a package they may depend on changes, holding at most this many targets"
+              + " in total. Only applies to queries with --universe_scope or"
+              + " --experimental_graphless_query.")
+  public long resultCacheSize;
+
+  @Option(
+      name = "experimental_universe_membership_filter",
+      defaultValue = "false",
+      documentationCategory = OptionDocumentationCategory.QUERY,
+      effectTags = {OptionEffectTag.HOST_MACHINE_RESOURCE_OPTIMIZATIONS},
+      help =
+          "If true, queries with --universe_scope first build a compact filter of the transitive"
+              + " closure of the universe, and skip reverse dependencies outside of it without"
+              + " looking them up. This pays off for rdeps-heavy queries, when graph lookups are"
+              + " expensive.")
+  public boolean universeMembershipFilter;
+
   /** Ugly workaround since line terminator option default has to be constant expression. */
   public String getLineTerminator() {
     if (lineTerminatorNull) {
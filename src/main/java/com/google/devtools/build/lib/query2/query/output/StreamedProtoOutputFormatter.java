@@ -13,10 +13,9 @@
 // limitations under the License.
 package com.google.devtools.build.lib.query2.query.output;
 
-import com.google.devtools.build.lib.packages.Target;
-import com.google.devtools.build.lib.query2.engine.OutputFormatterCallback;
+import com.google.devtools.build.lib.query2.proto.proto2api.Build;
+import com.google.protobuf.CodedOutputStream;
 import java.io.IOException;
-import java.io.OutputStream;
 
 /**
  * An output formatter that outputs a protocol buffer representation of a query result and outputs
@@ -30,16 +29,9 @@ public class StreamedProtoOutputFormatter extends ProtoOutputFormatter {
   }
 
   @Override
-  public OutputFormatterCallback<Target> createPostFactoStreamCallback(
-      final OutputStream out, final QueryOptions options) {
-    return new OutputFormatterCallback<Target>() {
-      @Override
-      public void processOutput(Iterable<Target> partialResult)
-          throws IOException, InterruptedException {
-        for (Target target : partialResult) {
-          toTargetProtoBuffer(target).writeDelimitedTo(out);
-        }
-      }
-    };
+  protected void writeTarget(Build.Target targetPb, CodedOutputStream codedOut)
+      throws IOException {
+    codedOut.writeUInt32NoTag(targetPb.getSerializedSize());
+    targetPb.writeTo(codedOut);
   }
 }
@@ -106,11 +106,22 @@ public abstract class AbstractRemoteActionCache implements MissingDigestsFinder,
   protected final RemoteOptions options;
   protected final DigestUtil digestUtil;
 
+  /** Schedules the downloads of the outputs of spawns, if set. */
+  @Nullable private volatile RemoteDownloadScheduler downloadScheduler;
+
   public AbstractRemoteActionCache(RemoteOptions options, DigestUtil digestUtil) {
     this.options = options;
     this.digestUtil = digestUtil;
   }
 
+  /**
+   * Makes {@link #download} fetch the output files through the given scheduler, as {@link
+   * RemoteDownloadScheduler.Priority#TOPLEVEL_OUTPUT}. The scheduler is not used if null.
+   */
+  void setDownloadScheduler(@Nullable RemoteDownloadScheduler downloadScheduler) {
+    this.downloadScheduler = downloadScheduler;
+  }
+
   /**
    * Attempts to look up the given action in the remote cache and return its result, if present.
    * Returns {@code null} if there is no such entry. Note that a successful result from this method
@@ -311,8 +322,31 @@ public abstract class AbstractRemoteActionCache implements MissingDigestsFinder,
       FileOutErr origOutErr,
       OutputFilesLocker outputFilesLocker)
       throws ExecException, IOException, InterruptedException {
-    ActionResultMetadata metadata = parseActionResultMetadata(result, execRoot);
+    finishDownload(getFromFuture(downloadAsync(result, execRoot, origOutErr)), outputFilesLocker);
+  }
+
+  /**
+   * Starts downloading the output files and directory trees of a remotely executed action, as well
+   * as stdout and stderr, without waiting for them. The output files are downloaded to temporary
+   * locations until they are moved to their final location by {@link #finishDownload}, which must
+   * be called once the downloads are done.
+   *
+   * <p>The returned future completes once the downloads of all files are started, i.e. once the
+   * contents of the output directories are known.
+   */
+  public ListenableFuture<OutputDownload> downloadAsync(
+      ActionResult result, Path execRoot, @Nullable FileOutErr origOutErr) {
+    return Futures.transform(
+        parseActionResultMetadataAsync(result, execRoot),
+        (metadata) -> startDownload(result, execRoot, origOutErr, metadata),
+        directExecutor());
+  }
 
+  private OutputDownload startDownload(
+      ActionResult result,
+      Path execRoot,
+      @Nullable FileOutErr origOutErr,
+      ActionResultMetadata metadata) {
     List<ListenableFuture<FileMetadata>> downloads =
         Stream.concat(
                 metadata.files().stream(),
@@ -322,7 +356,7 @@ public abstract class AbstractRemoteActionCache implements MissingDigestsFinder,
                 (file) -> {
                   try {
                     ListenableFuture<Void> download =
-                        downloadFile(toTmpDownloadPath(file.path()), file.digest());
+                        downloadOutputFile(toTmpDownloadPath(file.path()), file.digest());
                     return Futures.transform(download, (d) -> file, directExecutor());
                   } catch (IOException e) {
                     return Futures.<FileMetadata>immediateFailedFuture(e);
@@ -330,13 +364,7 @@ public abstract class AbstractRemoteActionCache implements MissingDigestsFinder,
                 })
             .collect(Collectors.toList());
 
-    // Subsequently we need to wait for *every* download to finish, even if we already know that
-    // one failed. That's so that when exiting this method we can be sure that all downloads have
-    // finished and don't race with the cleanup routine.
-    // TODO(buchgr): Look into cancellation.
-
     IOException downloadException = null;
-    InterruptedException interruptedException = null;
     FileOutErr tmpOutErr = null;
     try {
       if (origOutErr != null) {
@@ -346,11 +374,41 @@ public abstract class AbstractRemoteActionCache implements MissingDigestsFinder,
     } catch (IOException e) {
       downloadException = e;
     }
+    return new OutputDownload(
+        result, execRoot, metadata, downloads, origOutErr, tmpOutErr, downloadException);
+  }
+
+  /**
+   * Moves the outputs downloaded by {@link #downloadAsync} to their final location, once all
+   * downloads are done, or deletes them if any of the downloads failed.
+   *
+   * <p>In case of failure, this method deletes any output files it might have already created.
+   *
+   * @param outputFilesLocker ensures that we are the only ones writing to the output files when
+   *     using the dynamic spawn strategy.
+   * @throws IOException in case of a cache miss or if the remote cache is unavailable.
+   * @throws ExecException in case clean up after a failed download failed.
+   */
+  public void finishDownload(OutputDownload download, OutputFilesLocker outputFilesLocker)
+      throws ExecException, IOException, InterruptedException {
+    ActionResult result = download.result;
+    Path execRoot = download.execRoot;
+    ActionResultMetadata metadata = download.metadata;
+    List<ListenableFuture<FileMetadata>> downloads = download.downloads;
+    FileOutErr origOutErr = download.origOutErr;
+    FileOutErr tmpOutErr = download.tmpOutErr;
+
+    // Subsequently we need to wait for *every* download to finish, even if we already know that
+    // one failed. That's so that when exiting this method we can be sure that all downloads have
+    // finished and don't race with the cleanup routine.
+    // TODO(buchgr): Look into cancellation.
 
-    for (ListenableFuture<FileMetadata> download : downloads) {
+    IOException downloadException = download.outErrException;
+    InterruptedException interruptedException = null;
+    for (ListenableFuture<FileMetadata> fileDownload : downloads) {
       try {
         // Wait for all downloads to finish.
-        getFromFuture(download);
+        getFromFuture(fileDownload);
       } catch (IOException e) {
         if (downloadException == null) {
           downloadException = e;
@@ -479,6 +537,14 @@ public abstract class AbstractRemoteActionCache implements MissingDigestsFinder,
     }
   }
 
+  private ListenableFuture<Void> downloadOutputFile(Path path, Digest digest) throws IOException {
+    RemoteDownloadScheduler scheduler = downloadScheduler;
+    if (scheduler != null) {
+      return scheduler.download(path, digest, RemoteDownloadScheduler.Priority.TOPLEVEL_OUTPUT);
+    }
+    return downloadFile(path, digest);
+  }
+
   /** Download a file (that is not a directory). The content is fetched from the digest. */
   public ListenableFuture<Void> downloadFile(Path path, Digest digest) throws IOException {
     Preconditions.checkNotNull(path.getParentDirectory()).createDirectoryAndParents();
@@ -703,6 +769,11 @@ public abstract class AbstractRemoteActionCache implements MissingDigestsFinder,
 
   private ActionResultMetadata parseActionResultMetadata(ActionResult actionResult, Path execRoot)
       throws IOException, InterruptedException {
+    return getFromFuture(parseActionResultMetadataAsync(actionResult, execRoot));
+  }
+
+  private ListenableFuture<ActionResultMetadata> parseActionResultMetadataAsync(
+      ActionResult actionResult, Path execRoot) {
     Preconditions.checkNotNull(actionResult, "actionResult");
     Map<Path, ListenableFuture<Tree>> dirMetadataDownloads =
         Maps.newHashMapWithExpectedSize(actionResult.getOutputDirectoriesCount());
@@ -721,11 +792,22 @@ public abstract class AbstractRemoteActionCache implements MissingDigestsFinder,
               directExecutor()));
     }
 
+    return Futures.whenAllSucceed(dirMetadataDownloads.values())
+        .call(
+            () -> parseActionResultMetadata(actionResult, execRoot, dirMetadataDownloads),
+            directExecutor());
+  }
+
+  private ActionResultMetadata parseActionResultMetadata(
+      ActionResult actionResult,
+      Path execRoot,
+      Map<Path, ListenableFuture<Tree>> dirMetadataDownloads)
+      throws IOException, ExecutionException {
     ImmutableMap.Builder<Path, DirectoryMetadata> directories = ImmutableMap.builder();
     for (Map.Entry<Path, ListenableFuture<Tree>> metadataDownload :
         dirMetadataDownloads.entrySet()) {
       Path path = metadataDownload.getKey();
-      Tree directoryTree = getFromFuture(metadataDownload.getValue());
+      Tree directoryTree = Futures.getDone(metadataDownload.getValue());
       Map<Digest, Directory> childrenMap = new HashMap<>();
       for (Directory childDir : directoryTree.getChildrenList()) {
         childrenMap.put(digestUtil.compute(childDir), childDir);
@@ -1059,6 +1141,39 @@ public abstract class AbstractRemoteActionCache implements MissingDigestsFinder,
     }
   }
 
+  /** The outputs of an action being downloaded, see {@link #downloadAsync}. */
+  public static final class OutputDownload {
+    private final ActionResult result;
+    private final Path execRoot;
+    private final ActionResultMetadata metadata;
+    private final List<ListenableFuture<FileMetadata>> downloads;
+    @Nullable private final FileOutErr origOutErr;
+    @Nullable private final FileOutErr tmpOutErr;
+    @Nullable private final IOException outErrException;
+
+    private OutputDownload(
+        ActionResult result,
+        Path execRoot,
+        ActionResultMetadata metadata,
+        List<ListenableFuture<FileMetadata>> downloads,
+        @Nullable FileOutErr origOutErr,
+        @Nullable FileOutErr tmpOutErr,
+        @Nullable IOException outErrException) {
+      this.result = result;
+      this.execRoot = execRoot;
+      this.metadata = metadata;
+      this.downloads = downloads;
+      this.origOutErr = origOutErr;
+      this.tmpOutErr = tmpOutErr;
+      this.outErrException = outErrException;
+    }
+
+    /** Returns a future that completes once all downloads are done, successfully or not. */
+    public ListenableFuture<Void> getFuture() {
+      return Futures.whenAllComplete(downloads).call(() -> null, directExecutor());
+    }
+  }
+
   /** In-memory representation of action result metadata. */
   static class ActionResultMetadata {
 
@@ -180,6 +180,25 @@ class ByteStreamUploader extends AbstractReferenceCounted {
     }
   }
 
+  /**
+   * Asynchronous version of {@link #uploadBlobs}. The returned future fails as soon as one of the
+   * uploads fails.
+   */
+  public ListenableFuture<Void> uploadBlobsAsync(
+      Map<HashCode, Chunker> chunkers, boolean forceUpload) {
+    List<ListenableFuture<Void>> uploads = new ArrayList<>();
+
+    for (Map.Entry<HashCode, Chunker> chunkerEntry : chunkers.entrySet()) {
+      uploads.add(uploadBlobAsync(chunkerEntry.getKey(), chunkerEntry.getValue(), forceUpload));
+    }
+
+    return Futures.catchingAsync(
+        Futures.whenAllSucceed(uploads).call(() -> null, MoreExecutors.directExecutor()),
+        StatusRuntimeException.class,
+        (e) -> Futures.immediateFailedFuture(new IOException(e)),
+        MoreExecutors.directExecutor());
+  }
+
   /**
    * Cancels all running uploads. The method returns immediately and does NOT wait for the uploads
    * to be cancelled.
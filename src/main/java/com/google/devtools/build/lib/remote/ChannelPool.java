@@ -0,0 +1,206 @@
+// Copyright 2019 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.remote;
+
+import build.bazel.remote.execution.v2.ContentAddressableStorageGrpc;
+import com.google.bytestream.ByteStreamGrpc;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import io.grpc.CallOptions;
+import io.grpc.ClientCall;
+import io.grpc.ForwardingClientCall.SimpleForwardingClientCall;
+import io.grpc.ForwardingClientCallListener.SimpleForwardingClientCallListener;
+import io.grpc.ManagedChannel;
+import io.grpc.Metadata;
+import io.grpc.MethodDescriptor;
+import io.grpc.Status;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * A {@link ManagedChannel} that spreads its calls over several channels, each with its own
+ * connection, so that the calls are not limited by the number of concurrent streams the server
+ * allows on one HTTP/2 connection.
+ *
+ * <p>The channels are split into two pools: the bulk transfers of the {@code
+ * ContentAddressableStorage} and {@code ByteStream} services go to one, and all other calls, e.g.
+ * to the action cache and the execution service, go to the other, so that they are not queued
+ * behind large uploads and downloads. Within a pool, a call goes to the channel with the fewest
+ * calls in flight.
+ */
+class ChannelPool extends ManagedChannel {
+  private final Pool bulkTransfers;
+  private final Pool rpcs;
+
+  ChannelPool(List<ManagedChannel> bulkTransferChannels, List<ManagedChannel> rpcChannels) {
+    this.bulkTransfers = new Pool(bulkTransferChannels);
+    this.rpcs = new Pool(rpcChannels);
+  }
+
+  @VisibleForTesting
+  static boolean isBulkTransfer(MethodDescriptor<?, ?> method) {
+    String service = MethodDescriptor.extractFullServiceName(method.getFullMethodName());
+    return ContentAddressableStorageGrpc.SERVICE_NAME.equals(service)
+        || ByteStreamGrpc.SERVICE_NAME.equals(service);
+  }
+
+  @Override
+  public <RequestT, ResponseT> ClientCall<RequestT, ResponseT> newCall(
+      MethodDescriptor<RequestT, ResponseT> method, CallOptions callOptions) {
+    return (isBulkTransfer(method) ? bulkTransfers : rpcs).newCall(method, callOptions);
+  }
+
+  @Override
+  public String authority() {
+    return rpcs.channels.get(0).authority();
+  }
+
+  @Override
+  public ManagedChannel shutdown() {
+    bulkTransfers.shutdown();
+    rpcs.shutdown();
+    return this;
+  }
+
+  @Override
+  public ManagedChannel shutdownNow() {
+    bulkTransfers.shutdownNow();
+    rpcs.shutdownNow();
+    return this;
+  }
+
+  @Override
+  public boolean isShutdown() {
+    return bulkTransfers.isShutdown() && rpcs.isShutdown();
+  }
+
+  @Override
+  public boolean isTerminated() {
+    return bulkTransfers.isTerminated() && rpcs.isTerminated();
+  }
+
+  @Override
+  public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+    long deadline = System.nanoTime() + unit.toNanos(timeout);
+    return bulkTransfers.awaitTermination(deadline) && rpcs.awaitTermination(deadline);
+  }
+
+  /** Returns the number of calls in flight on each channel, bulk transfers first. */
+  @VisibleForTesting
+  int[] getCallsInFlight() {
+    int[] result = new int[bulkTransfers.channels.size() + rpcs.channels.size()];
+    for (int i = 0; i < bulkTransfers.channels.size(); i++) {
+      result[i] = bulkTransfers.callsInFlight.get(i);
+    }
+    for (int i = 0; i < rpcs.channels.size(); i++) {
+      result[bulkTransfers.channels.size() + i] = rpcs.callsInFlight.get(i);
+    }
+    return result;
+  }
+
+  /** Channels that calls are balanced over by the number of calls in flight. */
+  private static final class Pool {
+    private final ImmutableList<ManagedChannel> channels;
+    private final AtomicIntegerArray callsInFlight;
+    /** Where to start looking for the least loaded channel, so that ties are spread evenly. */
+    private final AtomicInteger next = new AtomicInteger();
+
+    private Pool(List<ManagedChannel> channels) {
+      Preconditions.checkArgument(!channels.isEmpty(), "A pool needs at least one channel");
+      this.channels = ImmutableList.copyOf(channels);
+      this.callsInFlight = new AtomicIntegerArray(channels.size());
+    }
+
+    private int leastLoaded() {
+      int size = channels.size();
+      int start = Math.floorMod(next.getAndIncrement(), size);
+      int best = start;
+      for (int i = 1; i < size; i++) {
+        int index = (start + i) % size;
+        if (callsInFlight.get(index) < callsInFlight.get(best)) {
+          best = index;
+        }
+      }
+      return best;
+    }
+
+    private <RequestT, ResponseT> ClientCall<RequestT, ResponseT> newCall(
+        MethodDescriptor<RequestT, ResponseT> method, CallOptions callOptions) {
+      int index = leastLoaded();
+      return new SimpleForwardingClientCall<RequestT, ResponseT>(
+          channels.get(index).newCall(method, callOptions)) {
+        private final AtomicBoolean finished = new AtomicBoolean();
+
+        @Override
+        public void start(Listener<ResponseT> responseListener, Metadata headers) {
+          callsInFlight.incrementAndGet(index);
+          try {
+            super.start(
+                new SimpleForwardingClientCallListener<ResponseT>(responseListener) {
+                  @Override
+                  public void onClose(Status status, Metadata trailers) {
+                    finish();
+                    super.onClose(status, trailers);
+                  }
+                },
+                headers);
+          } catch (RuntimeException e) {
+            finish();
+            throw e;
+          }
+        }
+
+        private void finish() {
+          if (finished.compareAndSet(false, true)) {
+            callsInFlight.decrementAndGet(index);
+          }
+        }
+      };
+    }
+
+    private void shutdown() {
+      for (ManagedChannel channel : channels) {
+        channel.shutdown();
+      }
+    }
+
+    private void shutdownNow() {
+      for (ManagedChannel channel : channels) {
+        channel.shutdownNow();
+      }
+    }
+
+    private boolean isShutdown() {
+      return channels.stream().allMatch(ManagedChannel::isShutdown);
+    }
+
+    private boolean isTerminated() {
+      return channels.stream().allMatch(ManagedChannel::isTerminated);
+    }
+
+    private boolean awaitTermination(long deadlineNanos) throws InterruptedException {
+      for (ManagedChannel channel : channels) {
+        long remaining = deadlineNanos - System.nanoTime();
+        if (!channel.awaitTermination(Math.max(0, remaining), TimeUnit.NANOSECONDS)) {
+          return false;
+        }
+      }
+      return true;
+    }
+  }
+}
@@ -19,6 +19,7 @@ import static java.lang.String.format;
 
 import build.bazel.remote.execution.v2.ActionCacheGrpc;
 import build.bazel.remote.execution.v2.ActionCacheGrpc.ActionCacheBlockingStub;
+import build.bazel.remote.execution.v2.ActionCacheGrpc.ActionCacheFutureStub;
 import build.bazel.remote.execution.v2.ActionResult;
 import build.bazel.remote.execution.v2.ContentAddressableStorageGrpc;
 import build.bazel.remote.execution.v2.ContentAddressableStorageGrpc.ContentAddressableStorageFutureStub;
@@ -51,6 +52,7 @@ import com.google.devtools.build.lib.remote.RemoteRetrier.ProgressiveBackoff;
 import com.google.devtools.build.lib.remote.common.SimpleBlobStore.ActionKey;
 import com.google.devtools.build.lib.remote.merkletree.MerkleTree;
 import com.google.devtools.build.lib.remote.options.RemoteOptions;
+import com.google.devtools.build.lib.remote.util.BandwidthThrottle;
 import com.google.devtools.build.lib.remote.util.DigestUtil;
 import com.google.devtools.build.lib.remote.util.TracingMetadataUtils;
 import com.google.devtools.build.lib.remote.util.Utils;
@@ -61,12 +63,14 @@ import io.grpc.CallCredentials;
 import io.grpc.Context;
 import io.grpc.Status;
 import io.grpc.StatusRuntimeException;
-import io.grpc.stub.StreamObserver;
+import io.grpc.stub.ClientCallStreamObserver;
+import io.grpc.stub.ClientResponseObserver;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
@@ -133,6 +137,13 @@ public class GrpcRemoteCache extends AbstractRemoteActionCache {
         .withDeadlineAfter(options.remoteTimeout, TimeUnit.SECONDS);
   }
 
+  private ActionCacheFutureStub acFutureStub() {
+    return ActionCacheGrpc.newFutureStub(channel)
+        .withInterceptors(TracingMetadataUtils.attachMetadataFromContextInterceptor())
+        .withCallCredentials(credentials)
+        .withDeadlineAfter(options.remoteTimeout, TimeUnit.SECONDS);
+  }
+
   private ActionCacheBlockingStub acBlockingStub() {
     return ActionCacheGrpc.newBlockingStub(channel)
         .withInterceptors(TracingMetadataUtils.attachMetadataFromContextInterceptor())
@@ -213,41 +224,55 @@ public class GrpcRemoteCache extends AbstractRemoteActionCache {
   public void ensureInputsPresent(
       MerkleTree merkleTree, Map<Digest, Message> additionalInputs, Path execRoot)
       throws IOException, InterruptedException {
+    Utils.getFromFuture(ensureInputsPresentAsync(merkleTree, additionalInputs, execRoot));
+  }
+
+  /** Asynchronous version of {@link #ensureInputsPresent}. */
+  public ListenableFuture<Void> ensureInputsPresentAsync(
+      MerkleTree merkleTree, Map<Digest, Message> additionalInputs, Path execRoot) {
     Iterable<Digest> allDigests =
         Iterables.concat(merkleTree.getAllDigests(), additionalInputs.keySet());
-    ImmutableSet<Digest> missingDigests = Utils.getFromFuture(findMissingDigests(allDigests));
-    Map<HashCode, Chunker> inputsToUpload = Maps.newHashMapWithExpectedSize(missingDigests.size());
-    for (Digest missingDigest : missingDigests) {
-      Directory node = merkleTree.getDirectoryByDigest(missingDigest);
-      HashCode hash = HashCode.fromString(missingDigest.getHash());
-      if (node != null) {
-        Chunker c = Chunker.builder().setInput(node.toByteArray()).build();
-        inputsToUpload.put(hash, c);
-        continue;
-      }
+    // The uploads are started from the thread that receives the missing digests, so they must be
+    // started in the current context to send the same request metadata.
+    Executor withCurrentContext =
+        Context.current().fixedContextExecutor(MoreExecutors.directExecutor());
+    return Futures.transformAsync(
+        findMissingDigests(allDigests),
+        (missingDigests) -> {
+          Map<HashCode, Chunker> inputsToUpload =
+              Maps.newHashMapWithExpectedSize(missingDigests.size());
+          for (Digest missingDigest : missingDigests) {
+            inputsToUpload.put(
+                HashCode.fromString(missingDigest.getHash()),
+                newChunker(merkleTree, additionalInputs, execRoot, missingDigest));
+          }
+          return uploader.uploadBlobsAsync(inputsToUpload, /* forceUpload= */ true);
+        },
+        withCurrentContext);
+  }
 
-      ActionInput file = merkleTree.getInputByDigest(missingDigest);
-      if (file != null) {
-        Chunker c =
-            Chunker.builder().setInput(missingDigest.getSizeBytes(), file, execRoot).build();
-        inputsToUpload.put(hash, c);
-        continue;
-      }
+  private static Chunker newChunker(
+      MerkleTree merkleTree, Map<Digest, Message> additionalInputs, Path execRoot, Digest digest)
+      throws IOException {
+    Directory node = merkleTree.getDirectoryByDigest(digest);
+    if (node != null) {
+      return Chunker.builder().setInput(node.toByteArray()).build();
+    }
 
-      Message message = additionalInputs.get(missingDigest);
-      if (message != null) {
-        Chunker c = Chunker.builder().setInput(message.toByteArray()).build();
-        inputsToUpload.put(hash, c);
-        continue;
-      }
+    ActionInput file = merkleTree.getInputByDigest(digest);
+    if (file != null) {
+      return Chunker.builder().setInput(digest.getSizeBytes(), file, execRoot).build();
+    }
 
-      throw new IOException(
-          format(
-              "findMissingDigests returned a missing digest that has not been requested: %s",
-              missingDigest));
+    Message message = additionalInputs.get(digest);
+    if (message != null) {
+      return Chunker.builder().setInput(message.toByteArray()).build();
     }
 
-    uploader.uploadBlobs(inputsToUpload, /* forceUpload= */ true);
+    throw new IOException(
+        format(
+            "findMissingDigests returned a missing digest that has not been requested: %s",
+            digest));
   }
 
   @Override
@@ -318,14 +343,27 @@ public class GrpcRemoteCache extends AbstractRemoteActionCache {
       OutputStream out,
       @Nullable Supplier<HashCode> hashSupplier) {
     SettableFuture<Void> future = SettableFuture.create();
+    @Nullable BandwidthThrottle throttle = BandwidthThrottle.fromCurrentContext();
     bsAsyncStub()
         .read(
             ReadRequest.newBuilder()
                 .setResourceName(resourceName)
                 .setReadOffset(offset.get())
                 .build(),
-            new StreamObserver<ReadResponse>() {
+            new ClientResponseObserver<ReadRequest, ReadResponse>() {
+              private ClientCallStreamObserver<ReadRequest> requestStream;
+
               @Override
+              public void beforeStart(ClientCallStreamObserver<ReadRequest> requestStream) {
+                this.requestStream = requestStream;
+                if (throttle != null) {
+                  // The next message is only requested once the throttle allows it.
+                  requestStream.disableAutoInboundFlowControl();
+                }
+              }
+
+              @Override
+              @SuppressWarnings("FutureReturnValueIgnored")
               public void onNext(ReadResponse readResponse) {
                 ByteString data = readResponse.getData();
                 try {
@@ -338,6 +376,16 @@ public class GrpcRemoteCache extends AbstractRemoteActionCache {
                 }
                 // reset the stall backoff because we've made progress or been kept alive
                 progressiveBackoff.reset();
+                if (throttle != null) {
+                  long delayNanos = throttle.reserve(data.size());
+                  if (delayNanos > 0) {
+                    retrier
+                        .getRetryService()
+                        .schedule(() -> requestStream.request(1), delayNanos, TimeUnit.NANOSECONDS);
+                  } else {
+                    requestStream.request(1);
+                  }
+                }
               }
 
               @Override
@@ -406,6 +454,30 @@ public class GrpcRemoteCache extends AbstractRemoteActionCache {
     }
   }
 
+  /**
+   * Asynchronous version of {@link #getCachedActionResult}. The future's value is null on a cache
+   * miss.
+   */
+  public ListenableFuture<ActionResult> getCachedActionResultAsync(ActionKey actionKey) {
+    GetActionResultRequest request =
+        GetActionResultRequest.newBuilder()
+            .setInstanceName(options.remoteInstanceName)
+            .setActionDigest(actionKey.getDigest())
+            .build();
+    Context ctx = Context.current();
+    return Futures.catchingAsync(
+        retrier.executeAsync(() -> ctx.call(() -> acFutureStub().getActionResult(request))),
+        StatusRuntimeException.class,
+        (e) -> {
+          if (e.getStatus().getCode() == Status.Code.NOT_FOUND) {
+            // Return null to indicate that it was a cache miss.
+            return Futures.immediateFuture(null);
+          }
+          return Futures.immediateFailedFuture(new IOException(e));
+        },
+        MoreExecutors.directExecutor());
+  }
+
   @Override
   protected void setCachedActionResult(ActionKey actionKey, ActionResult result)
       throws IOException, InterruptedException {
@@ -17,18 +17,25 @@ package com.google.devtools.build.lib.remote;
 import build.bazel.remote.execution.v2.ExecuteRequest;
 import build.bazel.remote.execution.v2.ExecuteResponse;
 import build.bazel.remote.execution.v2.ExecutionGrpc;
-import build.bazel.remote.execution.v2.ExecutionGrpc.ExecutionBlockingStub;
+import build.bazel.remote.execution.v2.ExecutionGrpc.ExecutionStub;
 import build.bazel.remote.execution.v2.WaitExecutionRequest;
 import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
 import com.google.devtools.build.lib.concurrent.ThreadSafety.ThreadSafe;
 import com.google.devtools.build.lib.remote.util.TracingMetadataUtils;
+import com.google.devtools.build.lib.remote.util.Utils;
 import com.google.longrunning.Operation;
 import com.google.rpc.Status;
 import io.grpc.CallCredentials;
+import io.grpc.Context;
 import io.grpc.Status.Code;
 import io.grpc.StatusRuntimeException;
+import io.grpc.stub.ClientCallStreamObserver;
+import io.grpc.stub.ClientResponseObserver;
 import java.io.IOException;
-import java.util.Iterator;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicReference;
 import javax.annotation.Nullable;
@@ -52,8 +59,8 @@ class GrpcRemoteExecutor {
     this.retrier = retrier;
   }
 
-  private ExecutionBlockingStub execBlockingStub() {
-    return ExecutionGrpc.newBlockingStub(channel)
+  private ExecutionStub execAsyncStub() {
+    return ExecutionGrpc.newStub(channel)
         .withInterceptors(TracingMetadataUtils.attachMetadataFromContextInterceptor())
         .withCallCredentials(callCredentials);
   }
@@ -103,6 +110,21 @@ class GrpcRemoteExecutor {
    * */
   public ExecuteResponse executeRemotely(ExecuteRequest request)
       throws IOException, InterruptedException {
+    ListenableFuture<ExecuteResponse> response = executeRemotelyAsync(request);
+    try {
+      return Utils.getFromFuture(response);
+    } catch (InterruptedException e) {
+      response.cancel(/* mayInterruptIfRunning= */ true);
+      throw e;
+    }
+  }
+
+  /**
+   * Asynchronous version of {@link #executeRemotely}: follows the same protocol, but without
+   * holding a thread while the action executes. Cancelling the returned future cancels the
+   * current Execute or WaitExecution call.
+   */
+  public ListenableFuture<ExecuteResponse> executeRemotelyAsync(ExecuteRequest request) {
     // Execute has two components: the Execute call and (optionally) the WaitExecution call.
     // This is the simple flow without any errors:
     //
@@ -126,67 +148,100 @@ class GrpcRemoteExecutor {
         new AtomicReference<>(Operation.getDefaultInstance());
     final AtomicBoolean waitExecution =
         new AtomicBoolean(false); // Whether we should call WaitExecution.
-    try {
-      return retrier.execute(
-          () -> {
-            // Retry calls to Execute()/WaitExecute() "infinitely" if the server terminates one of
-            // them status OK and an Operation that does not have done=True set. This is legal
-            // according to the remote execution protocol i.e. if the execution takes longer
-            // than a connection timeout. This is not an error condition and is thus handled
-            // outside of the retrier.
-            while (true) {
-              final Iterator<Operation> replies;
-              if (waitExecution.get()) {
-                WaitExecutionRequest wr =
-                    WaitExecutionRequest.newBuilder().setName(operation.get().getName()).build();
-                replies = execBlockingStub().waitExecution(wr);
-              } else {
-                replies = execBlockingStub().execute(request);
+    // The calls may be retried from other threads, which must send the same request metadata.
+    Context ctx = Context.current();
+    ListenableFuture<ExecuteResponse> response =
+        retrier.executeAsync(() -> ctx.call(() -> call(request, operation, waitExecution, ctx)));
+    return Futures.catchingAsync(
+        response,
+        StatusRuntimeException.class,
+        (e) -> Futures.immediateFailedFuture(new IOException(e)),
+        MoreExecutors.directExecutor());
+  }
+
+  /**
+   * Makes a single Execute or WaitExecution call, and follows it up with WaitExecution calls for
+   * as long as the server terminates them with status OK before the operation is done. This is
+   * legal according to the remote execution protocol i.e. if the execution takes longer than a
+   * connection timeout. This is not an error condition and is thus handled outside of the retrier.
+   */
+  private ListenableFuture<ExecuteResponse> call(
+      ExecuteRequest request,
+      AtomicReference<Operation> operation,
+      AtomicBoolean waitExecution,
+      Context ctx) {
+    SettableFuture<ExecuteResponse> response = SettableFuture.create();
+    ClientResponseObserver<Object, Operation> observer =
+        new ClientResponseObserver<Object, Operation>() {
+          @Override
+          public void beforeStart(ClientCallStreamObserver<Object> requestStream) {
+            response.addListener(
+                () -> {
+                  if (response.isCancelled()) {
+                    requestStream.cancel("Remote execution was cancelled", null);
+                  }
+                },
+                MoreExecutors.directExecutor());
+          }
+
+          @Override
+          public void onNext(Operation o) {
+            if (response.isDone()) {
+              return;
+            }
+            operation.set(o);
+            waitExecution.set(!o.getDone());
+            try {
+              ExecuteResponse r = getOperationResponse(o);
+              if (r != null) {
+                response.set(r);
               }
+            } catch (IOException | RuntimeException e) {
+              response.setException(e);
+            }
+          }
+
+          @Override
+          public void onError(Throwable t) {
+            if (t instanceof StatusRuntimeException
+                && ((StatusRuntimeException) t).getStatus().getCode() == Code.NOT_FOUND) {
+              // Operation was lost on the server. Retry Execute.
+              waitExecution.set(false);
+            }
+            response.setException(t);
+          }
+
+          @Override
+          public void onCompleted() {
+            if (response.isDone()) {
+              return;
+            }
+            if (waitExecution.get()) {
+              Context previous = ctx.attach();
               try {
-                while (replies.hasNext()) {
-                  Operation o = replies.next();
-                  operation.set(o);
-                  waitExecution.set(!operation.get().getDone());
-                  ExecuteResponse r = getOperationResponse(o);
-                  if (r != null) {
-                    return r;
-                  }
-                }
-                // The operation completed successfully but without a result.
-                if (!waitExecution.get()) {
-                  throw new IOException(
+                response.setFuture(call(request, operation, waitExecution, ctx));
+              } finally {
+                ctx.detach(previous);
+              }
+            } else {
+              // The operation completed successfully but without a result.
+              response.setException(
+                  new IOException(
                       String.format(
                           "Remote server error: execution request for %s terminated with no"
                               + " result.",
-                          operation.get().getName()));
-                }
-              } catch (StatusRuntimeException e) {
-                if (e.getStatus().getCode() == Code.NOT_FOUND) {
-                  // Operation was lost on the server. Retry Execute.
-                  waitExecution.set(false);
-                }
-                throw e;
-              } finally {
-                // The blocking streaming call closes correctly only when trailers and a Status
-                // are received from the server so that onClose() is called on this call's
-                // CallListener. Under normal circumstances (no cancel/errors), these are
-                // guaranteed to be sent by the server only if replies.hasNext() has been called
-                // after all replies from the stream have been consumed.
-                try {
-                  while (replies.hasNext()) {
-                    replies.next();
-                  }
-                } catch (StatusRuntimeException e) {
-                  // Cleanup: ignore exceptions, because the meaningful errors have already been
-                  // propagated.
-                }
-              }
+                          operation.get().getName())));
             }
-          });
-    } catch (StatusRuntimeException e) {
-      throw new IOException(e);
+          }
+        };
+    if (waitExecution.get()) {
+      WaitExecutionRequest wr =
+          WaitExecutionRequest.newBuilder().setName(operation.get().getName()).build();
+      execAsyncStub().waitExecution(wr, observer);
+    } else {
+      execAsyncStub().execute(request, observer);
     }
+    return response;
   }
 
   public void close() {
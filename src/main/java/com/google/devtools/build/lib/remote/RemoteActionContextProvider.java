@@ -35,6 +35,7 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.SortedSet;
 import java.util.TreeSet;
+import java.util.concurrent.Executor;
 import java.util.concurrent.atomic.AtomicReference;
 import javax.annotation.Nullable;
 
@@ -48,8 +49,10 @@ final class RemoteActionContextProvider extends ActionContextProvider {
   private final RemoteRetrier retrier;
   private final DigestUtil digestUtil;
   @Nullable private final Path logDir;
+  @Nullable private final Executor pipelineExecutor;
   private final AtomicReference<SpawnRunner> fallbackRunner = new AtomicReference<>();
   private ImmutableSet<ActionInput> filesToDownload = ImmutableSet.of();
+  @Nullable private RemoteTopDownActionCache topDownActionCache;
 
   private RemoteActionContextProvider(
       CommandEnvironment env,
@@ -57,13 +60,15 @@ final class RemoteActionContextProvider extends ActionContextProvider {
       @Nullable GrpcRemoteExecutor executor,
       RemoteRetrier retrier,
       DigestUtil digestUtil,
-      @Nullable Path logDir) {
+      @Nullable Path logDir,
+      @Nullable Executor pipelineExecutor) {
     this.env = Preconditions.checkNotNull(env, "env");
     this.cache = Preconditions.checkNotNull(cache, "cache");
     this.executor = executor;
     this.retrier = retrier;
     this.digestUtil = digestUtil;
     this.logDir = logDir;
+    this.pipelineExecutor = pipelineExecutor;
   }
 
   public static RemoteActionContextProvider createForRemoteCaching(
@@ -72,7 +77,13 @@ final class RemoteActionContextProvider extends ActionContextProvider {
       RemoteRetrier retrier,
       DigestUtil digestUtil) {
     return new RemoteActionContextProvider(
-        env, cache, /*executor=*/ null, retrier, digestUtil, /*logDir=*/ null);
+        env,
+        cache,
+        /*executor=*/ null,
+        retrier,
+        digestUtil,
+        /*logDir=*/ null,
+        /*pipelineExecutor=*/ null);
   }
 
   public static RemoteActionContextProvider createForRemoteExecution(
@@ -81,8 +92,10 @@ final class RemoteActionContextProvider extends ActionContextProvider {
       GrpcRemoteExecutor executor,
       RemoteRetrier retrier,
       DigestUtil digestUtil,
-      Path logDir) {
-    return new RemoteActionContextProvider(env, cache, executor, retrier, digestUtil, logDir);
+      Path logDir,
+      Executor pipelineExecutor) {
+    return new RemoteActionContextProvider(
+        env, cache, executor, retrier, digestUtil, logDir, pipelineExecutor);
   }
 
   @Override
@@ -121,7 +134,8 @@ final class RemoteActionContextProvider extends ActionContextProvider {
               retrier,
               digestUtil,
               logDir,
-              filesToDownload);
+              filesToDownload,
+              pipelineExecutor);
       return ImmutableList.of(new RemoteSpawnStrategy(env.getExecRoot(), spawnRunner));
     }
   }
@@ -175,8 +189,21 @@ final class RemoteActionContextProvider extends ActionContextProvider {
     this.filesToDownload = Preconditions.checkNotNull(topLevelOutputs, "filesToDownload");
   }
 
+  /** Sets the top-down action cache that stores its entries in {@code cache}. */
+  void setTopDownActionCache(RemoteTopDownActionCache topDownActionCache) {
+    this.topDownActionCache = Preconditions.checkNotNull(topDownActionCache, "topDownActionCache");
+  }
+
   @Override
   public void executionPhaseEnding() {
+    if (topDownActionCache != null) {
+      // The entries must be stored before the cache is closed.
+      try {
+        topDownActionCache.shutdown();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
     if (cache != null) {
       cache.close();
     }
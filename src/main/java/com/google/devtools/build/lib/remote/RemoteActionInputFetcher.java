@@ -29,6 +29,7 @@ import com.google.devtools.build.lib.actions.cache.VirtualActionInput;
 import com.google.devtools.build.lib.profiler.Profiler;
 import com.google.devtools.build.lib.profiler.ProfilerTask;
 import com.google.devtools.build.lib.profiler.SilentCloseable;
+import com.google.devtools.build.lib.remote.RemoteDownloadScheduler.Priority;
 import com.google.devtools.build.lib.remote.util.DigestUtil;
 import com.google.devtools.build.lib.remote.util.Utils;
 import com.google.devtools.build.lib.vfs.Path;
@@ -64,12 +65,12 @@ class RemoteActionInputFetcher implements ActionInputPrefetcher {
   @GuardedBy("lock")
   final Map<Path, ListenableFuture<Void>> downloadsInProgress = new HashMap<>();
 
-  private final AbstractRemoteActionCache remoteCache;
+  private final RemoteDownloadScheduler downloadScheduler;
   private final Path execRoot;
   private final Context ctx;
 
-  RemoteActionInputFetcher(AbstractRemoteActionCache remoteCache, Path execRoot, Context ctx) {
-    this.remoteCache = Preconditions.checkNotNull(remoteCache);
+  RemoteActionInputFetcher(RemoteDownloadScheduler downloadScheduler, Path execRoot, Context ctx) {
+    this.downloadScheduler = Preconditions.checkNotNull(downloadScheduler);
     this.execRoot = Preconditions.checkNotNull(execRoot);
     this.ctx = Preconditions.checkNotNull(ctx);
   }
@@ -109,7 +110,8 @@ class RemoteActionInputFetcher implements ActionInputPrefetcher {
             if (downloadedPaths.contains(path)) {
               continue;
             }
-            ListenableFuture<Void> download = downloadFileAsync(path, metadata);
+            ListenableFuture<Void> download =
+                downloadFileAsync(path, metadata, Priority.ACTION_INPUT);
             downloadsToWaitFor.putIfAbsent(path, download);
           }
         }
@@ -151,10 +153,14 @@ class RemoteActionInputFetcher implements ActionInputPrefetcher {
     }
   }
 
+  /**
+   * Downloads a remotely stored file that an action reads while it runs. The download is started
+   * before the prefetches of other spawns, as the action is blocked until it completes.
+   */
   void downloadFile(Path path, FileArtifactValue metadata)
       throws IOException, InterruptedException {
     try {
-      downloadFileAsync(path, metadata).get();
+      downloadFileAsync(path, metadata, Priority.CRITICAL_PATH_INPUT).get();
     } catch (ExecutionException e) {
       if (e.getCause() instanceof IOException) {
         throw (IOException) e.getCause();
@@ -163,19 +169,22 @@ class RemoteActionInputFetcher implements ActionInputPrefetcher {
     }
   }
 
-  private ListenableFuture<Void> downloadFileAsync(Path path, FileArtifactValue metadata)
-      throws IOException {
+  private ListenableFuture<Void> downloadFileAsync(
+      Path path, FileArtifactValue metadata, Priority priority) throws IOException {
     synchronized (lock) {
       if (downloadedPaths.contains(path)) {
         return Futures.immediateFuture(null);
       }
 
+      Digest digest = DigestUtil.buildDigest(metadata.getDigest(), metadata.getSize());
       ListenableFuture<Void> download = downloadsInProgress.get(path);
-      if (download == null) {
+      if (download != null) {
+        // The file may be needed more urgently than when its download was requested.
+        downloadScheduler.prioritize(digest, priority);
+      } else {
         Context prevCtx = ctx.attach();
         try {
-          Digest digest = DigestUtil.buildDigest(metadata.getDigest(), metadata.getSize());
-          download = remoteCache.downloadFile(path, digest);
+          download = downloadScheduler.download(path, digest, priority);
           downloadsInProgress.put(path, download);
           Futures.addCallback(
               download,
@@ -0,0 +1,290 @@
+// Copyright 2019 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.remote;
+
+import build.bazel.remote.execution.v2.Digest;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.devtools.build.lib.concurrent.ThreadSafety.ThreadSafe;
+import com.google.devtools.build.lib.profiler.Profiler;
+import com.google.devtools.build.lib.profiler.ProfilerTask;
+import com.google.devtools.build.lib.remote.util.BandwidthThrottle;
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
+import com.google.devtools.build.lib.vfs.Path;
+import io.grpc.Context;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+
+/**
+ * Schedules the downloads of files from the remote cache, so that the files an action is waiting
+ * for are not queued behind bulk downloads.
+ *
+ * <p>Downloads are started in the order of their {@link Priority}, and in the order they were
+ * requested within a priority. At most {@code maxConcurrentDownloads} are in flight at a time.
+ * Without that limit, every download starts as soon as it is requested and the priorities have no
+ * effect. The time a download spent in the queue is recorded in the profile as {@link
+ * ProfilerTask#REMOTE_DOWNLOAD_QUEUE}.
+ *
+ * <p>The bandwidth of the downloads can be capped, in which case they are started with a {@link
+ * BandwidthThrottle}, which the remote cache applies through the flow control of its transport.
+ * Downloads of {@link Priority#CRITICAL_PATH_INPUT} are exempt, so that an action is never stalled
+ * behind the cap.
+ *
+ * <p>Requests for a digest that is already being downloaded are coalesced: the blob is only
+ * fetched once, and copied to the paths of the other requests before any of them completes.
+ */
+@ThreadSafe
+class RemoteDownloadScheduler {
+
+  /** The priority classes of downloads, the most urgent first. */
+  enum Priority {
+    /** Files that a running action is blocked on, e.g. reads through the action file system. */
+    CRITICAL_PATH_INPUT,
+    /** Inputs that are fetched before a spawn is executed locally. */
+    ACTION_INPUT,
+    /** Outputs of spawns that are downloaded in bulk, e.g. the top-level outputs. */
+    TOPLEVEL_OUTPUT
+  }
+
+  private final AbstractRemoteActionCache remoteCache;
+  private final int maxConcurrentDownloads;
+  /** Limits the bandwidth of all but the {@link Priority#CRITICAL_PATH_INPUT} downloads. */
+  @Nullable private final BandwidthThrottle bandwidth;
+
+  private final Object lock = new Object();
+
+  @GuardedBy("lock")
+  private final PriorityQueue<Request> queue = new PriorityQueue<>();
+
+  /** Requests that are queued or in flight, by digest. */
+  @GuardedBy("lock")
+  private final Map<Digest, Request> requests = new HashMap<>();
+
+  @GuardedBy("lock")
+  private int inFlight;
+
+  @GuardedBy("lock")
+  private long sequenceNumber;
+
+  /**
+   * @param maxConcurrentDownloads the maximum number of downloads in flight, or 0 for no limit
+   * @param maxMegabytesPerSecond the maximum bandwidth of the downloads, or 0 for no limit
+   */
+  RemoteDownloadScheduler(
+      AbstractRemoteActionCache remoteCache,
+      int maxConcurrentDownloads,
+      int maxMegabytesPerSecond) {
+    Preconditions.checkArgument(maxConcurrentDownloads >= 0, "maxConcurrentDownloads < 0");
+    Preconditions.checkArgument(maxMegabytesPerSecond >= 0, "maxMegabytesPerSecond < 0");
+    this.remoteCache = Preconditions.checkNotNull(remoteCache);
+    this.maxConcurrentDownloads = maxConcurrentDownloads;
+    this.bandwidth =
+        maxMegabytesPerSecond > 0
+            ? new BandwidthThrottle(maxMegabytesPerSecond * 1024L * 1024L)
+            : null;
+  }
+
+  /**
+   * Downloads the blob with the given digest to {@code path}, once the downloads that are more
+   * urgent or were requested earlier have been started.
+   *
+   * <p>The download is started in the {@link Context} of the caller.
+   */
+  ListenableFuture<Void> download(Path path, Digest digest, Priority priority)
+      throws IOException {
+    if (digest.getSizeBytes() == 0) {
+      // Empty files are written locally.
+      return remoteCache.downloadFile(path, digest);
+    }
+    SettableFuture<Void> result = SettableFuture.create();
+    synchronized (lock) {
+      Request request = requests.get(digest);
+      if (request != null) {
+        prioritize(request, priority);
+        request.waiters.add(new Waiter(path, result));
+        return result;
+      }
+      request = new Request(digest, priority, sequenceNumber++, Context.current());
+      request.waiters.add(new Waiter(path, result));
+      requests.put(digest, request);
+      queue.add(request);
+    }
+    startNext();
+    return result;
+  }
+
+  /** Raises the priority of the download of {@code digest} if it is queued. */
+  void prioritize(Digest digest, Priority priority) {
+    synchronized (lock) {
+      Request request = requests.get(digest);
+      if (request != null) {
+        prioritize(request, priority);
+      }
+    }
+  }
+
+  @GuardedBy("lock")
+  private void prioritize(Request request, Priority priority) {
+    if (priority.compareTo(request.priority) < 0 && queue.remove(request)) {
+      request.priority = priority;
+      queue.add(request);
+    }
+  }
+
+  /** Cancels the downloads that were not started yet. */
+  void shutdown() {
+    List<Request> cancelled;
+    synchronized (lock) {
+      cancelled = new ArrayList<>(queue);
+      queue.clear();
+      for (Request request : cancelled) {
+        requests.remove(request.digest);
+      }
+    }
+    for (Request request : cancelled) {
+      for (Waiter waiter : request.waiters) {
+        waiter.future.cancel(/* mayInterruptIfRunning= */ false);
+      }
+    }
+  }
+
+  @VisibleForTesting
+  int getQueueSize() {
+    synchronized (lock) {
+      return queue.size();
+    }
+  }
+
+  private void startNext() {
+    Request request;
+    Path path;
+    Priority priority;
+    synchronized (lock) {
+      if (queue.isEmpty() || (maxConcurrentDownloads > 0 && inFlight >= maxConcurrentDownloads)) {
+        return;
+      }
+      request = queue.poll();
+      path = request.waiters.get(0).path;
+      priority = request.priority;
+      inFlight++;
+    }
+    Profiler.instance()
+        .logSimpleTask(
+            request.queuedNanos,
+            ProfilerTask.REMOTE_DOWNLOAD_QUEUE,
+            priority + " " + request.digest.getHash());
+
+    ListenableFuture<Void> download;
+    Context ctx =
+        bandwidth != null && priority != Priority.CRITICAL_PATH_INPUT
+            ? BandwidthThrottle.withThrottle(request.ctx, bandwidth)
+            : request.ctx;
+    Context previous = ctx.attach();
+    try {
+      download = remoteCache.downloadFile(path, request.digest);
+    } catch (IOException e) {
+      download = Futures.immediateFailedFuture(e);
+    } finally {
+      ctx.detach(previous);
+    }
+    Futures.addCallback(
+        download,
+        new FutureCallback<Void>() {
+          @Override
+          public void onSuccess(Void v) {
+            finish(request, path, null);
+          }
+
+          @Override
+          public void onFailure(Throwable t) {
+            finish(request, path, t);
+          }
+        },
+        MoreExecutors.directExecutor());
+  }
+
+  private void finish(Request request, Path downloaded, @Nullable Throwable failure) {
+    List<Waiter> waiters;
+    synchronized (lock) {
+      // No more waiters can be added once the request is removed.
+      requests.remove(request.digest);
+      waiters = request.waiters;
+      inFlight--;
+    }
+    // Copy the blob to the paths of the coalesced requests before completing any of them, as the
+    // first requester may move the downloaded file once its download is complete.
+    for (Waiter waiter : waiters) {
+      if (failure != null) {
+        waiter.future.setException(failure);
+        continue;
+      }
+      if (!waiter.path.equals(downloaded)) {
+        try {
+          Preconditions.checkNotNull(waiter.path.getParentDirectory()).createDirectoryAndParents();
+          FileSystemUtils.copyFile(downloaded, waiter.path);
+        } catch (IOException e) {
+          waiter.future.setException(e);
+        }
+      }
+    }
+    for (Waiter waiter : waiters) {
+      waiter.future.set(null);
+    }
+    startNext();
+  }
+
+  private static final class Waiter {
+    private final Path path;
+    private final SettableFuture<Void> future;
+
+    private Waiter(Path path, SettableFuture<Void> future) {
+      this.path = path;
+      this.future = future;
+    }
+  }
+
+  private static final class Request implements Comparable<Request> {
+    private final Digest digest;
+    private final long sequenceNumber;
+    private final long queuedNanos = Profiler.nanoTimeMaybe();
+    private final Context ctx;
+    // Guarded by the lock of the scheduler.
+    private Priority priority;
+    private final List<Waiter> waiters = new ArrayList<>();
+
+    private Request(Digest digest, Priority priority, long sequenceNumber, Context ctx) {
+      this.digest = digest;
+      this.priority = priority;
+      this.sequenceNumber = sequenceNumber;
+      this.ctx = ctx;
+    }
+
+    @Override
+    public int compareTo(Request other) {
+      int result = priority.compareTo(other.priority);
+      return result != 0 ? result : Long.compare(sequenceNumber, other.sequenceNumber);
+    }
+  }
+}
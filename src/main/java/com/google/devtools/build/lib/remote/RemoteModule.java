@@ -21,8 +21,10 @@ import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
+import com.google.common.eventbus.Subscribe;
 import com.google.common.util.concurrent.ListeningScheduledExecutorService;
 import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.devtools.build.lib.actions.ActionInput;
 import com.google.devtools.build.lib.actions.Artifact;
 import com.google.devtools.build.lib.analysis.ConfiguredTarget;
@@ -38,10 +40,12 @@ import com.google.devtools.build.lib.authandtls.GoogleAuthUtils;
 import com.google.devtools.build.lib.buildeventstream.BuildEventArtifactUploader;
 import com.google.devtools.build.lib.buildeventstream.LocalFilesArtifactUploader;
 import com.google.devtools.build.lib.buildtool.BuildRequest;
+import com.google.devtools.build.lib.buildtool.buildevent.BuildCompleteEvent;
 import com.google.devtools.build.lib.events.Event;
 import com.google.devtools.build.lib.events.Reporter;
 import com.google.devtools.build.lib.exec.ExecutorBuilder;
 import com.google.devtools.build.lib.packages.TargetUtils;
+import com.google.devtools.build.lib.remote.disk.LruOnDiskBlobStore;
 import com.google.devtools.build.lib.remote.logging.LoggingInterceptor;
 import com.google.devtools.build.lib.remote.options.RemoteOptions;
 import com.google.devtools.build.lib.remote.options.RemoteOutputsMode;
@@ -54,6 +58,7 @@ import com.google.devtools.build.lib.runtime.Command;
 import com.google.devtools.build.lib.runtime.CommandEnvironment;
 import com.google.devtools.build.lib.runtime.ServerBuilder;
 import com.google.devtools.build.lib.skyframe.AspectValue;
+import com.google.devtools.build.lib.skyframe.TopDownActionCache;
 import com.google.devtools.build.lib.util.AbruptExitException;
 import com.google.devtools.build.lib.util.ExitCode;
 import com.google.devtools.build.lib.util.io.AsynchronousFileOutputStream;
@@ -69,11 +74,13 @@ import com.google.rpc.PreconditionFailure.Violation;
 import io.grpc.CallCredentials;
 import io.grpc.ClientInterceptor;
 import io.grpc.Context;
+import io.grpc.ManagedChannel;
 import io.grpc.Status.Code;
 import io.grpc.protobuf.StatusProto;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.function.Predicate;
 import java.util.logging.Level;
@@ -88,11 +95,20 @@ public final class RemoteModule extends BlazeModule {
 
   private final ListeningScheduledExecutorService retryScheduler =
       MoreExecutors.listeningDecorator(Executors.newScheduledThreadPool(1));
+  // Runs the steps of asynchronously executed remote spawns that touch the local file system.
+  private final ExecutorService pipelineExecutor =
+      Executors.newCachedThreadPool(
+          new ThreadFactoryBuilder().setNameFormat("remote-pipeline-%d").setDaemon(true).build());
 
   private RemoteActionContextProvider actionContextProvider;
   private RemoteActionInputFetcher actionInputFetcher;
+  private RemoteDownloadScheduler downloadScheduler;
   private RemoteOutputsMode remoteOutputsMode;
   private RemoteOutputService remoteOutputService;
+  private RemoteTopDownActionCache topDownActionCache;
+  // Only set when the top-down action cache is kept in the output base.
+  private AbstractRemoteActionCache localTopDownActionCacheStore;
+  private Reporter reporter;
 
   private final BuildEventArtifactUploaderFactoryDelegate
       buildEventArtifactUploaderFactoryDelegate = new BuildEventArtifactUploaderFactoryDelegate();
@@ -168,7 +184,17 @@ public final class RemoteModule extends BlazeModule {
           ExitCode.COMMAND_LINE_ERROR);
     }
 
+    if (remoteOptions.experimentalTopDownActionCache
+        && remoteOptions.experimentalTopDownActionCacheMaxUploads < 1) {
+      throw new AbruptExitException(
+          "--experimental_top_down_action_cache_max_uploads must be at least 1",
+          ExitCode.COMMAND_LINE_ERROR);
+    }
+
     if (!enableBlobStoreCache && !enableGrpcCache && !enableRemoteExecution) {
+      if (remoteOptions.experimentalTopDownActionCache) {
+        initLocalTopDownActionCache(env, remoteOptions, digestUtil);
+      }
       // Quit if no remote caching or execution was enabled.
       return;
     }
@@ -197,11 +223,8 @@ public final class RemoteModule extends BlazeModule {
       // Initialize the gRPC channels and capabilities service, when relevant.
       if (!Strings.isNullOrEmpty(remoteOptions.remoteExecutor)) {
         execChannel =
-            new ReferenceCountedChannel(
-                GoogleAuthUtils.newChannel(
-                    remoteOptions.remoteExecutor,
-                    authAndTlsOptions,
-                    interceptors.toArray(new ClientInterceptor[0])));
+            newChannel(
+                remoteOptions.remoteExecutor, remoteOptions, authAndTlsOptions, interceptors);
       }
       RemoteRetrier executeRetrier = null;
       AbstractRemoteActionCache cache = null;
@@ -215,11 +238,7 @@ public final class RemoteModule extends BlazeModule {
         if (!Strings.isNullOrEmpty(remoteOptions.remoteCache)
             && !remoteOptions.remoteCache.equals(remoteOptions.remoteExecutor)) {
           cacheChannel =
-              new ReferenceCountedChannel(
-                  GoogleAuthUtils.newChannel(
-                      remoteOptions.remoteCache,
-                      authAndTlsOptions,
-                      interceptors.toArray(new ClientInterceptor[0])));
+              newChannel(remoteOptions.remoteCache, remoteOptions, authAndTlsOptions, interceptors);
         } else {  // Assume --remote_cache is equal to --remote_executor by default.
           cacheChannel = execChannel.retain(); // execChannel is guaranteed to be defined here.
         }
@@ -288,6 +307,10 @@ public final class RemoteModule extends BlazeModule {
                 digestUtil);
       }
 
+      if (cache != null && remoteOptions.experimentalTopDownActionCache) {
+        initTopDownActionCache(env, remoteOptions, cache, digestUtil);
+      }
+
       GrpcRemoteExecutor executor = null;
       if (enableRemoteExecution) {
         RemoteRetrier retrier =
@@ -307,12 +330,21 @@ public final class RemoteModule extends BlazeModule {
             "Only the gRPC cache is support for remote execution");
         actionContextProvider =
             RemoteActionContextProvider.createForRemoteExecution(
-                env, (GrpcRemoteCache) cache, executor, executeRetrier, digestUtil, logDir);
+                env,
+                (GrpcRemoteCache) cache,
+                executor,
+                executeRetrier,
+                digestUtil,
+                logDir,
+                pipelineExecutor);
       } else if (cache != null) {
         actionContextProvider =
             RemoteActionContextProvider.createForRemoteCaching(
                 env, cache, executeRetrier, digestUtil);
       }
+      if (actionContextProvider != null && topDownActionCache != null) {
+        actionContextProvider.setTopDownActionCache(topDownActionCache);
+      }
     } catch (IOException e) {
       env.getReporter().handle(Event.error(e.getMessage()));
       env.getBlazeModuleEnvironment()
@@ -322,6 +354,69 @@ public final class RemoteModule extends BlazeModule {
     }
   }
 
+  /**
+   * Keeps the top-down action cache in the output base, for builds that use neither a remote cache
+   * nor a disk cache. The cache is trimmed to {@code
+   * --experimental_top_down_action_cache_max_size_mb} before the build.
+   */
+  private void initLocalTopDownActionCache(
+      CommandEnvironment env, RemoteOptions remoteOptions, DigestUtil digestUtil)
+      throws AbruptExitException {
+    Path cacheDir = env.getOutputBase().getRelative("top-down-action-cache");
+    try {
+      cacheDir.createDirectoryAndParents();
+    } catch (IOException e) {
+      throw new AbruptExitException(
+          "Could not create the top-down action cache directory " + cacheDir,
+          ExitCode.LOCAL_ENVIRONMENTAL_ERROR,
+          e);
+    }
+    LruOnDiskBlobStore blobStore =
+        new LruOnDiskBlobStore(
+            cacheDir, remoteOptions.experimentalTopDownActionCacheMaxSizeMb * 1024 * 1024);
+    try {
+      blobStore.trim();
+    } catch (IOException e) {
+      throw new AbruptExitException(
+          "Could not trim the top-down action cache directory " + cacheDir,
+          ExitCode.LOCAL_ENVIRONMENTAL_ERROR,
+          e);
+    }
+    localTopDownActionCacheStore =
+        new SimpleBlobStoreActionCache(remoteOptions, blobStore, digestUtil);
+    env.getEventBus().register(this);
+    initTopDownActionCache(env, remoteOptions, localTopDownActionCacheStore, digestUtil);
+  }
+
+  private void initTopDownActionCache(
+      CommandEnvironment env,
+      RemoteOptions remoteOptions,
+      AbstractRemoteActionCache cache,
+      DigestUtil digestUtil) {
+    reporter = env.getReporter();
+    topDownActionCache =
+        new RemoteTopDownActionCache(
+            cache,
+            digestUtil,
+            env.getExecRoot(),
+            env.getReporter(),
+            env.getBuildRequestId(),
+            env.getCommandId().toString(),
+            remoteOptions.experimentalTopDownActionCacheMaxUploads);
+  }
+
+  @Subscribe
+  public void buildComplete(BuildCompleteEvent event) {
+    if (topDownActionCache != null) {
+      try {
+        topDownActionCache.shutdown();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      reporter.handle(Event.info(topDownActionCache.getSummary()));
+    }
+  }
+
   private static ImmutableList<Artifact> getRunfiles(ConfiguredTarget buildTarget) {
     FilesToRunProvider runfilesProvider = buildTarget.getProvider(FilesToRunProvider.class);
     if (runfilesProvider == null) {
@@ -443,9 +538,27 @@ public final class RemoteModule extends BlazeModule {
       failure = e;
     }
 
+    if (topDownActionCache != null) {
+      try {
+        topDownActionCache.shutdown();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+    if (localTopDownActionCacheStore != null) {
+      localTopDownActionCacheStore.close();
+      localTopDownActionCacheStore = null;
+    }
+    topDownActionCache = null;
+    reporter = null;
+
     buildEventArtifactUploaderFactoryDelegate.reset();
     actionContextProvider = null;
     actionInputFetcher = null;
+    if (downloadScheduler != null) {
+      downloadScheduler.shutdown();
+      downloadScheduler = null;
+    }
     remoteOutputsMode = null;
     remoteOutputService = null;
 
@@ -505,14 +618,24 @@ public final class RemoteModule extends BlazeModule {
       Context ctx =
           TracingMetadataUtils.contextWithMetadata(
               env.getBuildRequestId(), env.getCommandId().toString(), "fetch-remote-inputs");
-      actionInputFetcher =
-          new RemoteActionInputFetcher(
-              actionContextProvider.getRemoteCache(), env.getExecRoot(), ctx);
+      AbstractRemoteActionCache remoteCache = actionContextProvider.getRemoteCache();
+      downloadScheduler =
+          new RemoteDownloadScheduler(
+              remoteCache,
+              remoteOptions.remoteDownloadMaxConcurrency,
+              remoteOptions.remoteDownloadBandwidth);
+      remoteCache.setDownloadScheduler(downloadScheduler);
+      actionInputFetcher = new RemoteActionInputFetcher(downloadScheduler, env.getExecRoot(), ctx);
       builder.setActionInputPrefetcher(actionInputFetcher);
       remoteOutputService.setActionInputFetcher(actionInputFetcher);
     }
   }
 
+  @Override
+  public TopDownActionCache getTopDownActionCache() {
+    return topDownActionCache;
+  }
+
   @Override
   public OutputService getOutputService() {
     Preconditions.checkState(remoteOutputService == null, "remoteOutputService must be null");
@@ -529,6 +652,41 @@ public final class RemoteModule extends BlazeModule {
         : ImmutableList.of();
   }
 
+  /**
+   * Creates a channel to a gRPC remote cache or executor. Uses a {@link ChannelPool} if more than
+   * one connection is requested.
+   */
+  private static ReferenceCountedChannel newChannel(
+      String target,
+      RemoteOptions remoteOptions,
+      AuthAndTLSOptions authAndTlsOptions,
+      List<ClientInterceptor> interceptors)
+      throws IOException {
+    ClientInterceptor[] interceptorArray = interceptors.toArray(new ClientInterceptor[0]);
+    if (remoteOptions.remoteGrpcBulkConnections <= 1
+        && remoteOptions.remoteGrpcRpcConnections <= 1) {
+      return new ReferenceCountedChannel(
+          GoogleAuthUtils.newChannel(target, authAndTlsOptions, interceptorArray));
+    }
+    List<ManagedChannel> bulkTransferChannels = new ArrayList<>();
+    List<ManagedChannel> rpcChannels = new ArrayList<>();
+    try {
+      for (int i = 0; i < Math.max(1, remoteOptions.remoteGrpcBulkConnections); i++) {
+        bulkTransferChannels.add(
+            GoogleAuthUtils.newChannel(target, authAndTlsOptions, interceptorArray));
+      }
+      for (int i = 0; i < Math.max(1, remoteOptions.remoteGrpcRpcConnections); i++) {
+        rpcChannels.add(GoogleAuthUtils.newChannel(target, authAndTlsOptions, interceptorArray));
+      }
+    } catch (IOException e) {
+      for (ManagedChannel channel : Iterables.concat(bulkTransferChannels, rpcChannels)) {
+        channel.shutdownNow();
+      }
+      throw e;
+    }
+    return new ReferenceCountedChannel(new ChannelPool(bulkTransferChannels, rpcChannels));
+  }
+
   static RemoteRetrier createExecuteRetrier(
       RemoteOptions options, ListeningScheduledExecutorService retryService) {
     return new RemoteRetrier(
@@ -38,10 +38,15 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
 import com.google.devtools.build.lib.actions.ActionInput;
 import com.google.devtools.build.lib.actions.Artifact;
 import com.google.devtools.build.lib.actions.CommandLines.ParamFileActionInput;
+import com.google.devtools.build.lib.actions.EnvironmentalExecException;
 import com.google.devtools.build.lib.actions.ExecException;
+import com.google.devtools.build.lib.actions.FutureSpawn;
 import com.google.devtools.build.lib.actions.Spawn;
 import com.google.devtools.build.lib.actions.SpawnResult;
 import com.google.devtools.build.lib.actions.SpawnResult.Status;
@@ -82,6 +87,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.SortedMap;
 import java.util.TreeSet;
+import java.util.concurrent.Executor;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicReference;
 import javax.annotation.Nullable;
@@ -112,6 +118,9 @@ public class RemoteSpawnRunner implements SpawnRunner {
    */
   private final ImmutableSet<ActionInput> filesToDownload;
 
+  /** Runs the steps of {@link #execAsync} that touch the local file system. */
+  private final Executor pipelineExecutor;
+
   // Used to ensure that a warning is reported only once.
   private final AtomicBoolean warningReported = new AtomicBoolean();
 
@@ -129,7 +138,8 @@ public class RemoteSpawnRunner implements SpawnRunner {
       @Nullable RemoteRetrier retrier,
       DigestUtil digestUtil,
       Path logDir,
-      ImmutableSet<ActionInput> filesToDownload) {
+      ImmutableSet<ActionInput> filesToDownload,
+      Executor pipelineExecutor) {
     this.execRoot = execRoot;
     this.remoteOptions = remoteOptions;
     this.executionOptions = executionOptions;
@@ -144,6 +154,7 @@ public class RemoteSpawnRunner implements SpawnRunner {
     this.digestUtil = digestUtil;
     this.logDir = logDir;
     this.filesToDownload = Preconditions.checkNotNull(filesToDownload, "filesToDownload");
+    this.pipelineExecutor = pipelineExecutor;
   }
 
   @Override
@@ -161,25 +172,14 @@ public class RemoteSpawnRunner implements SpawnRunner {
 
     context.report(ProgressStatus.EXECUTING, getName());
     RemoteOutputsMode remoteOutputsMode = remoteOptions.remoteOutputsMode;
-    SortedMap<PathFragment, ActionInput> inputMap = context.getInputMapping(true);
-    final MerkleTree merkleTree =
-        MerkleTree.build(inputMap, context.getMetadataProvider(), execRoot, digestUtil);
-    maybeWriteParamFilesLocally(spawn);
-
-    // Get the remote platform properties.
-    Platform platform = PlatformUtils.getPlatformProto(spawn, remoteOptions);
-
-    Command command =
-        buildCommand(
-            spawn.getOutputFiles(), spawn.getArguments(), spawn.getEnvironment(), platform);
-    Digest commandHash = digestUtil.compute(command);
-    Action action =
-        buildAction(
-            commandHash, merkleTree.getRootDigest(), context.getTimeout(), spawnCacheableRemotely);
-    ActionKey actionKey = digestUtil.computeActionKey(action);
+    RemoteAction remoteAction = prepareRemoteAction(spawn, context, spawnCacheableRemotely);
+    SortedMap<PathFragment, ActionInput> inputMap = remoteAction.inputMap;
+    final MerkleTree merkleTree = remoteAction.merkleTree;
+    Command command = remoteAction.command;
+    Digest commandHash = remoteAction.commandHash;
+    Action action = remoteAction.action;
+    ActionKey actionKey = remoteAction.actionKey;
 
-    Preconditions.checkArgument(
-        Spawns.mayBeExecutedRemotely(spawn), "Spawn can't be executed remotely. This is a bug.");
     // Look up action cache, and reuse the action output if it is found.
     Context withMetadata =
         TracingMetadataUtils.contextWithMetadata(buildRequestId, commandId, actionKey);
@@ -214,21 +214,7 @@ public class RemoteSpawnRunner implements SpawnRunner {
             spawn, context, inputMap, actionKey, action, command, uploadLocalResults, e);
       }
 
-      ExecuteRequest.Builder requestBuilder =
-          ExecuteRequest.newBuilder()
-              .setInstanceName(remoteOptions.remoteInstanceName)
-              .setActionDigest(actionKey.getDigest())
-              .setSkipCacheLookup(!acceptCachedResult);
-      if (remoteOptions.remoteResultCachePriority != 0) {
-        requestBuilder
-            .getResultsCachePolicyBuilder()
-            .setPriority(remoteOptions.remoteResultCachePriority);
-      }
-      if (remoteOptions.remoteExecutionPriority != 0) {
-        requestBuilder
-            .getExecutionPolicyBuilder()
-            .setPriority(remoteOptions.remoteExecutionPriority);
-      }
+      ExecuteRequest.Builder requestBuilder = newExecuteRequest(actionKey, acceptCachedResult);
       try {
         return retrier.execute(
             () -> {
@@ -278,6 +264,287 @@ public class RemoteSpawnRunner implements SpawnRunner {
     }
   }
 
+  /**
+   * Executes the spawn as a pipeline of asynchronous steps if {@link
+   * RemoteOptions#experimentalRemoteExecutionAsync} is set, and like {@link #exec} otherwise.
+   *
+   * <p>The inputs are prepared in the calling thread. Then the action cache lookup, the upload of
+   * the missing inputs, the execution and the download of the outputs are started from the
+   * callbacks of the previous steps, so that no thread waits for the remote service. The steps
+   * that write to the local file system and the local fallback run in the pipeline executor.
+   */
+  @Override
+  public FutureSpawn execAsync(Spawn spawn, SpawnExecutionContext context)
+      throws ExecException, InterruptedException, IOException {
+    if (!remoteOptions.experimentalRemoteExecutionAsync) {
+      return FutureSpawn.immediate(exec(spawn, context));
+    }
+    boolean spawnCacheableRemotely = Spawns.mayBeCachedRemotely(spawn);
+    boolean uploadLocalResults = remoteOptions.remoteUploadLocalResults && spawnCacheableRemotely;
+    boolean acceptCachedResult = remoteOptions.remoteAcceptCached && spawnCacheableRemotely;
+
+    context.report(ProgressStatus.EXECUTING, getName());
+    RemoteAction remoteAction = prepareRemoteAction(spawn, context, spawnCacheableRemotely);
+    Context withMetadata =
+        TracingMetadataUtils.contextWithMetadata(
+            buildRequestId, commandId, remoteAction.actionKey);
+    Executor network = withMetadata.fixedContextExecutor(MoreExecutors.directExecutor());
+    Executor local = withMetadata.fixedContextExecutor(pipelineExecutor);
+    ListenableFuture<ActionResult> cachedResult = Futures.immediateFuture(null);
+    if (acceptCachedResult) {
+      Context previous = withMetadata.attach();
+      try {
+        cachedResult =
+            profileAsync(
+                Profiler.nanoTimeMaybe(),
+                remoteCache.getCachedActionResultAsync(remoteAction.actionKey),
+                ProfilerTask.REMOTE_CACHE_CHECK,
+                "check cache hit");
+      } finally {
+        withMetadata.detach(previous);
+      }
+    }
+    ListenableFuture<SpawnResult> result =
+        Futures.transformAsync(
+            cachedResult,
+            (r) -> {
+              if (r == null || r.getExitCode() != 0) {
+                // Failed actions are treated as a cache miss mostly in order to avoid caching
+                // flaky actions (tests).
+                return executeRemotelyAsync(
+                    spawn, context, remoteAction, acceptCachedResult && r == null, withMetadata);
+              }
+              return Futures.catchingAsync(
+                  downloadOutputsAsync(r, /* cacheHit= */ true, spawn, context, withMetadata),
+                  CacheNotFoundException.class,
+                  // No cache hit, so we fall through to remote execution.
+                  (e) ->
+                      executeRemotelyAsync(
+                          spawn,
+                          context,
+                          remoteAction,
+                          /* acceptCachedResult= */ false,
+                          withMetadata),
+                  network);
+            },
+            network);
+    result =
+        Futures.catchingAsync(
+            result,
+            IOException.class,
+            (e) ->
+                Futures.immediateFuture(
+                    execLocallyAndUploadOrFail(
+                        spawn,
+                        context,
+                        remoteAction.inputMap,
+                        remoteAction.actionKey,
+                        remoteAction.action,
+                        remoteAction.command,
+                        uploadLocalResults,
+                        e)),
+            local);
+    // The caller expects the failures of the spawn as exec exceptions.
+    result =
+        Futures.catchingAsync(
+            result,
+            IOException.class,
+            (e) -> Futures.immediateFailedFuture(new EnvironmentalExecException(e)),
+            MoreExecutors.directExecutor());
+    return new FutureSpawn(result);
+  }
+
+  private ListenableFuture<SpawnResult> executeRemotelyAsync(
+      Spawn spawn,
+      SpawnExecutionContext context,
+      RemoteAction remoteAction,
+      boolean acceptCachedResult,
+      Context withMetadata) {
+    Executor network = withMetadata.fixedContextExecutor(MoreExecutors.directExecutor());
+    Executor local = withMetadata.fixedContextExecutor(pipelineExecutor);
+    ExecuteRequest.Builder requestBuilder =
+        newExecuteRequest(remoteAction.actionKey, acceptCachedResult);
+    Map<Digest, Message> additionalInputs = Maps.newHashMapWithExpectedSize(2);
+    additionalInputs.put(remoteAction.actionKey.getDigest(), remoteAction.action);
+    additionalInputs.put(remoteAction.commandHash, remoteAction.command);
+    // Retries are started from the retry scheduler, so the calls must be wrapped in the context.
+    return retrier.executeAsync(
+        () ->
+            withMetadata.call(
+                () -> {
+                  ExecuteRequest request = requestBuilder.build();
+                  ListenableFuture<ExecuteResponse> reply =
+                      Futures.transformAsync(
+                          profileAsync(
+                              Profiler.nanoTimeMaybe(),
+                              remoteCache.ensureInputsPresentAsync(
+                                  remoteAction.merkleTree, additionalInputs, execRoot),
+                              UPLOAD_TIME,
+                              "upload missing inputs"),
+                          (unused) ->
+                              profileAsync(
+                                  Profiler.nanoTimeMaybe(),
+                                  remoteExecutor.executeRemotelyAsync(request),
+                                  REMOTE_EXECUTION,
+                                  "execute remotely"),
+                          network);
+                  return Futures.transformAsync(
+                      reply,
+                      (r) -> {
+                        FileOutErr outErr = context.getFileOutErr();
+                        String message = r.getMessage();
+                        ActionResult actionResult = r.getResult();
+                        if ((actionResult.getExitCode() != 0
+                                || r.getStatus().getCode() != Code.OK.value())
+                            && !message.isEmpty()) {
+                          outErr.printErr(message + "\n");
+                        }
+                        try (SilentCloseable c =
+                            Profiler.instance().profile(REMOTE_DOWNLOAD, "download server logs")) {
+                          maybeDownloadServerLogs(r, remoteAction.actionKey);
+                        }
+                        return Futures.catchingAsync(
+                            downloadOutputsAsync(
+                                actionResult, r.getCachedResult(), spawn, context, withMetadata),
+                            CacheNotFoundException.class,
+                            (e) -> {
+                              // No cache hit, so if we retry this execution, we must no longer
+                              // accept cached results, it must be reexecuted
+                              requestBuilder.setSkipCacheLookup(true);
+                              throw e;
+                            },
+                            MoreExecutors.directExecutor());
+                      },
+                      local);
+                }));
+  }
+
+  /**
+   * Asynchronous version of {@link #downloadAndFinalizeSpawnResult}, which starts to download the
+   * outputs as soon as the action result is known.
+   */
+  private ListenableFuture<SpawnResult> downloadOutputsAsync(
+      ActionResult actionResult,
+      boolean cacheHit,
+      Spawn spawn,
+      SpawnExecutionContext context,
+      Context withMetadata) {
+    Executor network = withMetadata.fixedContextExecutor(MoreExecutors.directExecutor());
+    Executor local = withMetadata.fixedContextExecutor(pipelineExecutor);
+    boolean downloadOutputs =
+        shouldDownloadAllSpawnOutputs(
+            remoteOptions.remoteOutputsMode,
+            /* exitCode = */ actionResult.getExitCode(),
+            hasFilesToDownload(spawn.getOutputFiles(), filesToDownload));
+    if (!downloadOutputs) {
+      // Only the in-memory output is downloaded, which is not worth a pipeline of its own.
+      return Futures.submitAsync(
+          () ->
+              Futures.immediateFuture(
+                  downloadAndFinalizeSpawnResult(
+                      actionResult, cacheHit, spawn, context, remoteOptions.remoteOutputsMode)),
+          local);
+    }
+    return profileAsync(
+        Profiler.nanoTimeMaybe(),
+        Futures.transformAsync(
+            remoteCache.downloadAsync(actionResult, execRoot, context.getFileOutErr()),
+            (download) ->
+                Futures.transformAsync(
+                    download.getFuture(),
+                    (unused) -> {
+                      remoteCache.finishDownload(download, context::lockOutputFiles);
+                      return Futures.immediateFuture(
+                          createSpawnResult(actionResult.getExitCode(), cacheHit, getName(), null));
+                    },
+                    local),
+            network),
+        REMOTE_DOWNLOAD,
+        "download outputs");
+  }
+
+  /**
+   * Records the time from {@code startTime} until the completion of the future in the profile, as
+   * {@link Profiler#profile} does for a blocking call.
+   */
+  private static <T> ListenableFuture<T> profileAsync(
+      long startTime, ListenableFuture<T> future, ProfilerTask type, String description) {
+    future.addListener(
+        () -> Profiler.instance().logSimpleTask(startTime, type, description),
+        MoreExecutors.directExecutor());
+    return future;
+  }
+
+  /** The protos sent to the remote service for a spawn, and the inputs they are built from. */
+  private static final class RemoteAction {
+    private final SortedMap<PathFragment, ActionInput> inputMap;
+    private final MerkleTree merkleTree;
+    private final Command command;
+    private final Digest commandHash;
+    private final Action action;
+    private final ActionKey actionKey;
+
+    private RemoteAction(
+        SortedMap<PathFragment, ActionInput> inputMap,
+        MerkleTree merkleTree,
+        Command command,
+        Digest commandHash,
+        Action action,
+        ActionKey actionKey) {
+      this.inputMap = inputMap;
+      this.merkleTree = merkleTree;
+      this.command = command;
+      this.commandHash = commandHash;
+      this.action = action;
+      this.actionKey = actionKey;
+    }
+  }
+
+  private RemoteAction prepareRemoteAction(
+      Spawn spawn, SpawnExecutionContext context, boolean spawnCacheableRemotely)
+      throws ExecException, IOException {
+    SortedMap<PathFragment, ActionInput> inputMap = context.getInputMapping(true);
+    final MerkleTree merkleTree =
+        MerkleTree.build(inputMap, context.getMetadataProvider(), execRoot, digestUtil);
+    maybeWriteParamFilesLocally(spawn);
+
+    // Get the remote platform properties.
+    Platform platform = PlatformUtils.getPlatformProto(spawn, remoteOptions);
+
+    Command command =
+        buildCommand(
+            spawn.getOutputFiles(), spawn.getArguments(), spawn.getEnvironment(), platform);
+    Digest commandHash = digestUtil.compute(command);
+    Action action =
+        buildAction(
+            commandHash, merkleTree.getRootDigest(), context.getTimeout(), spawnCacheableRemotely);
+    ActionKey actionKey = digestUtil.computeActionKey(action);
+
+    Preconditions.checkArgument(
+        Spawns.mayBeExecutedRemotely(spawn), "Spawn can't be executed remotely. This is a bug.");
+    return new RemoteAction(inputMap, merkleTree, command, commandHash, action, actionKey);
+  }
+
+  private ExecuteRequest.Builder newExecuteRequest(
+      ActionKey actionKey, boolean acceptCachedResult) {
+    ExecuteRequest.Builder requestBuilder =
+        ExecuteRequest.newBuilder()
+            .setInstanceName(remoteOptions.remoteInstanceName)
+            .setActionDigest(actionKey.getDigest())
+            .setSkipCacheLookup(!acceptCachedResult);
+    if (remoteOptions.remoteResultCachePriority != 0) {
+      requestBuilder
+          .getResultsCachePolicyBuilder()
+          .setPriority(remoteOptions.remoteResultCachePriority);
+    }
+    if (remoteOptions.remoteExecutionPriority != 0) {
+      requestBuilder
+          .getExecutionPolicyBuilder()
+          .setPriority(remoteOptions.remoteExecutionPriority);
+    }
+    return requestBuilder;
+  }
+
   private SpawnResult downloadAndFinalizeSpawnResult(
       ActionResult actionResult,
       boolean cacheHit,
@@ -0,0 +1,367 @@
+// Copyright 2019 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.remote;
+
+import static com.google.common.base.Strings.isNullOrEmpty;
+
+import build.bazel.remote.execution.v2.ActionResult;
+import build.bazel.remote.execution.v2.Digest;
+import build.bazel.remote.execution.v2.OutputFile;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.devtools.build.lib.actions.Action;
+import com.google.devtools.build.lib.actions.Artifact;
+import com.google.devtools.build.lib.actions.FileArtifactValue;
+import com.google.devtools.build.lib.actions.FileContentsProxy;
+import com.google.devtools.build.lib.actions.FileStateType;
+import com.google.devtools.build.lib.actionsketch.ActionSketch;
+import com.google.devtools.build.lib.concurrent.ThreadSafety.ThreadSafe;
+import com.google.devtools.build.lib.events.Event;
+import com.google.devtools.build.lib.events.ExtendedEventHandler;
+import com.google.devtools.build.lib.profiler.Profiler;
+import com.google.devtools.build.lib.profiler.ProfilerTask;
+import com.google.devtools.build.lib.profiler.SilentCloseable;
+import com.google.devtools.build.lib.remote.common.SimpleBlobStore.ActionKey;
+import com.google.devtools.build.lib.remote.util.DigestUtil;
+import com.google.devtools.build.lib.remote.util.TracingMetadataUtils;
+import com.google.devtools.build.lib.remote.util.Utils;
+import com.google.devtools.build.lib.skyframe.ActionExecutionValue;
+import com.google.devtools.build.lib.skyframe.TopDownActionCache;
+import com.google.devtools.build.lib.vfs.FileStatus;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.protobuf.ByteString;
+import io.grpc.Context;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.annotation.Nullable;
+
+/**
+ * A {@link TopDownActionCache} that stores the outputs of actions in an {@link
+ * AbstractRemoteActionCache}, under a key derived from the {@link ActionSketch} of the action.
+ *
+ * <p>An entry is an {@link ActionResult} listing the output files of the action, whose contents are
+ * in the CAS. On a hit, the outputs that are missing locally or differ are downloaded.
+ *
+ * <p>Only actions whose outputs are all regular files are cached; in particular, actions with tree
+ * artifact, middleman or fileset outputs, and actions that discover modules, are always executed.
+ *
+ * <p>Entries are stored in the background, so that the Skyframe thread that executed an action does
+ * not wait for the upload of its outputs. At most {@code maxStoresInFlight} entries are stored at a
+ * time; the entries of actions that complete while that many are in flight are not stored.
+ */
+@ThreadSafe
+public final class RemoteTopDownActionCache implements TopDownActionCache {
+  /** Keeps the keys of the entries apart from those of the regular action cache. */
+  private static final ByteString KEY_PREFIX = ByteString.copyFromUtf8("top-down-action-cache:");
+
+  private final AbstractRemoteActionCache cache;
+  private final DigestUtil digestUtil;
+  private final Path execRoot;
+  private final ExtendedEventHandler reporter;
+  private final String buildRequestId;
+  private final String commandId;
+  private final int maxStoresInFlight;
+  private final Semaphore storesInFlight;
+  private final ExecutorService storeExecutor;
+
+  private final AtomicInteger hits = new AtomicInteger();
+  private final AtomicInteger misses = new AtomicInteger();
+  private final AtomicInteger stored = new AtomicInteger();
+  private final AtomicInteger notStored = new AtomicInteger();
+  private final AtomicInteger errors = new AtomicInteger();
+
+  public RemoteTopDownActionCache(
+      AbstractRemoteActionCache cache,
+      DigestUtil digestUtil,
+      Path execRoot,
+      ExtendedEventHandler reporter,
+      String buildRequestId,
+      String commandId,
+      int maxStoresInFlight) {
+    this.cache = cache;
+    this.digestUtil = digestUtil;
+    this.execRoot = execRoot;
+    this.reporter = reporter;
+    this.buildRequestId = buildRequestId;
+    this.commandId = commandId;
+    this.maxStoresInFlight = maxStoresInFlight;
+    this.storesInFlight = new Semaphore(maxStoresInFlight);
+    this.storeExecutor =
+        Executors.newFixedThreadPool(
+            maxStoresInFlight,
+            new ThreadFactoryBuilder()
+                .setNameFormat("top-down-action-cache-store-%d")
+                .setDaemon(true)
+                .build());
+  }
+
+  @Nullable
+  @Override
+  public ActionExecutionValue get(ActionSketch sketch, Action action) throws InterruptedException {
+    if (!isCacheable(action)) {
+      return null;
+    }
+    ActionKey key = computeKey(sketch);
+    Context withMetadata = TracingMetadataUtils.contextWithMetadata(buildRequestId, commandId, key);
+    Context previous = withMetadata.attach();
+    try (SilentCloseable c =
+        Profiler.instance().profile(ProfilerTask.REMOTE_CACHE_CHECK, "top-down cache lookup")) {
+      ActionResult result = cache.getCachedActionResult(key);
+      ActionExecutionValue value = result == null ? null : materialize(action, result);
+      if (value == null) {
+        misses.incrementAndGet();
+      } else {
+        hits.incrementAndGet();
+      }
+      return value;
+    } catch (CacheNotFoundException e) {
+      // An output was evicted from the cache.
+      misses.incrementAndGet();
+      return null;
+    } catch (IOException e) {
+      // Fall back to executing the action.
+      reportError("Reading from the top-down action cache", e);
+      misses.incrementAndGet();
+      return null;
+    } finally {
+      withMetadata.detach(previous);
+    }
+  }
+
+  @Override
+  public void put(ActionSketch sketch, Action action, ActionExecutionValue value) {
+    if (!isCacheable(action)) {
+      return;
+    }
+    Map<Digest, Path> digestToFile = new HashMap<>();
+    ActionResult.Builder result = ActionResult.newBuilder();
+    for (Artifact output : action.getOutputs()) {
+      FileArtifactValue metadata = value.getArtifactValue(output);
+      if (metadata == null
+          || metadata.getType() != FileStateType.REGULAR_FILE
+          || metadata.getDigest() == null
+          || metadata.isRemote()) {
+        return;
+      }
+      Digest digest = DigestUtil.buildDigest(metadata.getDigest(), metadata.getSize());
+      Path path = output.getPath();
+      digestToFile.put(digest, path);
+      result.addOutputFilesBuilder()
+          .setPath(output.getExecPathString())
+          .setDigest(digest)
+          .setIsExecutable(isExecutable(path));
+    }
+
+    if (!storesInFlight.tryAcquire()) {
+      notStored.incrementAndGet();
+      return;
+    }
+    ActionKey key = computeKey(sketch);
+    ActionResult entry = result.build();
+    storeExecutor.execute(
+        () -> {
+          try {
+            store(key, digestToFile, entry);
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          } finally {
+            storesInFlight.release();
+          }
+        });
+  }
+
+  private void store(ActionKey key, Map<Digest, Path> digestToFile, ActionResult result)
+      throws InterruptedException {
+    Context withMetadata = TracingMetadataUtils.contextWithMetadata(buildRequestId, commandId, key);
+    Context previous = withMetadata.attach();
+    try (SilentCloseable c =
+        Profiler.instance().profile(ProfilerTask.UPLOAD_TIME, "top-down cache upload")) {
+      ImmutableSet<Digest> missing =
+          Utils.getFromFuture(cache.findMissingDigests(digestToFile.keySet()));
+      List<ListenableFuture<Void>> uploads = new ArrayList<>();
+      for (Digest digest : missing) {
+        uploads.add(cache.uploadFile(digest, digestToFile.get(digest)));
+      }
+      for (ListenableFuture<Void> upload : uploads) {
+        Utils.getFromFuture(upload);
+      }
+      cache.setCachedActionResult(key, result);
+      stored.incrementAndGet();
+    } catch (IOException e) {
+      reportError("Writing to the top-down action cache", e);
+    } finally {
+      withMetadata.detach(previous);
+    }
+  }
+
+  /** Waits for the entries that are being stored to be stored. */
+  public void awaitPendingStores() throws InterruptedException {
+    storesInFlight.acquire(maxStoresInFlight);
+    storesInFlight.release(maxStoresInFlight);
+  }
+
+  /** Waits for the entries that are being stored, and releases the threads storing them. */
+  public void shutdown() throws InterruptedException {
+    try {
+      awaitPendingStores();
+    } finally {
+      storeExecutor.shutdownNow();
+    }
+  }
+
+  /**
+   * Makes the outputs of {@code action} listed in {@code result} present in the exec root, and
+   * returns their metadata, or null if {@code result} does not match the outputs of {@code action}.
+   */
+  @Nullable
+  private ActionExecutionValue materialize(Action action, ActionResult result)
+      throws IOException, InterruptedException {
+    ImmutableSet<Artifact> outputs = action.getOutputs();
+    if (result.getOutputFilesCount() != outputs.size()
+        || result.getOutputDirectoriesCount() > 0
+        || result.getOutputFileSymlinksCount() > 0
+        || result.getOutputDirectorySymlinksCount() > 0) {
+      return null;
+    }
+    Map<String, Artifact> outputsByExecPath = new HashMap<>();
+    for (Artifact output : outputs) {
+      outputsByExecPath.put(output.getExecPathString(), output);
+    }
+
+    List<ListenableFuture<Void>> downloads = new ArrayList<>();
+    List<OutputFile> downloaded = new ArrayList<>();
+    for (OutputFile file : result.getOutputFilesList()) {
+      Artifact output = outputsByExecPath.get(file.getPath());
+      if (output == null) {
+        return null;
+      }
+      Path path = execRoot.getRelative(file.getPath());
+      if (!isUpToDate(path, file.getDigest())) {
+        path.delete();
+        downloads.add(cache.downloadFile(path, file.getDigest()));
+        downloaded.add(file);
+      }
+    }
+    try (SilentCloseable c =
+        Profiler.instance().profile(ProfilerTask.REMOTE_DOWNLOAD, "top-down cache download")) {
+      for (ListenableFuture<Void> download : downloads) {
+        Utils.getFromFuture(download);
+      }
+    } catch (IOException e) {
+      for (OutputFile file : downloaded) {
+        execRoot.getRelative(file.getPath()).delete();
+      }
+      throw e;
+    }
+
+    ImmutableMap.Builder<Artifact, FileArtifactValue> artifactData = ImmutableMap.builder();
+    for (OutputFile file : result.getOutputFilesList()) {
+      Path path = execRoot.getRelative(file.getPath());
+      path.setExecutable(file.getIsExecutable());
+      FileStatus stat = path.stat();
+      artifactData.put(
+          outputsByExecPath.get(file.getPath()),
+          FileArtifactValue.createForNormalFile(
+              DigestUtil.toBinaryDigest(file.getDigest()),
+              FileContentsProxy.create(stat),
+              stat.getSize(),
+              /*isShareable=*/ true));
+    }
+    return ActionExecutionValue.create(
+        artifactData.build(),
+        /*treeArtifactData=*/ ImmutableMap.of(),
+        /*outputSymlinks=*/ null,
+        /*discoveredModules=*/ null,
+        /*actionDependsOnBuildId=*/ false);
+  }
+
+  private boolean isUpToDate(Path path, Digest digest) throws IOException {
+    FileStatus stat = path.statIfFound();
+    return stat != null
+        && stat.isFile()
+        && stat.getSize() == digest.getSizeBytes()
+        && digestUtil.compute(path, stat.getSize()).equals(digest);
+  }
+
+  private static boolean isExecutable(Path path) {
+    try {
+      return path.isExecutable();
+    } catch (IOException e) {
+      return false;
+    }
+  }
+
+  private static boolean isCacheable(Action action) {
+    if (action.discoversInputs()) {
+      return false;
+    }
+    for (Artifact output : action.getOutputs()) {
+      if (output.isTreeArtifact()
+          || output.isMiddlemanArtifact()
+          || output.isFileset()
+          || output.isConstantMetadata()) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @VisibleForTesting
+  ActionKey computeKey(ActionSketch sketch) {
+    return digestUtil.asActionKey(
+        digestUtil.compute(KEY_PREFIX.concat(sketch.toBytes()).toByteArray()));
+  }
+
+  private void reportError(String what, IOException e) {
+    // Only report the first error, the cache is likely to be unavailable for the rest of the build.
+    if (errors.getAndIncrement() == 0) {
+      String message = Utils.grpcAwareErrorMessage(e);
+      if (isNullOrEmpty(message)) {
+        message = e.getClass().getSimpleName();
+      }
+      reporter.handle(Event.warn(what + ":\n" + message));
+    }
+  }
+
+  /** Returns the number of actions that were found in the cache, culling their inputs. */
+  public int getHitCount() {
+    return hits.get();
+  }
+
+  /** Returns a one-line summary of the use of the cache during the build. */
+  public String getSummary() {
+    String summary =
+        String.format(
+            "Top-down action cache: %d actions cached with their transitive inputs, %d misses, "
+                + "%d actions stored",
+            hits.get(), misses.get(), stored.get());
+    if (notStored.get() > 0) {
+      summary +=
+          String.format(
+              ", %d actions not stored because %d entries were being stored already",
+              notStored.get(), maxStoresInFlight);
+    }
+    return summary;
+  }
+}
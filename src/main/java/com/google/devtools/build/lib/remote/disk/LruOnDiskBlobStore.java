@@ -0,0 +1,111 @@
+// Copyright 2019 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.remote.disk;
+
+import build.bazel.remote.execution.v2.Digest;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.devtools.build.lib.vfs.FileStatus;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.Symlinks;
+import com.google.protobuf.ByteString;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * An {@link OnDiskBlobStore} that can be trimmed to a maximum size, deleting the least recently
+ * used entries first.
+ *
+ * <p>The modification time of an entry records its last use: it is updated whenever the entry is
+ * read, or written again.
+ */
+public final class LruOnDiskBlobStore extends OnDiskBlobStore {
+  private final Path root;
+  private final long maxSizeBytes;
+
+  public LruOnDiskBlobStore(Path root, long maxSizeBytes) {
+    super(root);
+    this.root = root;
+    this.maxSizeBytes = maxSizeBytes;
+  }
+
+  @Override
+  public ListenableFuture<Boolean> get(String key, OutputStream out) {
+    touch(toPath(key, /* actionResult= */ false));
+    return super.get(key, out);
+  }
+
+  @Override
+  public ListenableFuture<Void> uploadFile(Digest digest, Path file) {
+    touch(toPath(digest.getHash(), /* actionResult= */ false));
+    return super.uploadFile(digest, file);
+  }
+
+  @Override
+  public ListenableFuture<Void> uploadBlob(Digest digest, ByteString data) {
+    touch(toPath(digest.getHash(), /* actionResult= */ false));
+    return super.uploadBlob(digest, data);
+  }
+
+  /**
+   * Deletes the least recently used entries until the store is no larger than the maximum size.
+   *
+   * <p>Must not be called while the store is in use.
+   *
+   * @return the number of bytes deleted
+   */
+  public long trim() throws IOException {
+    List<Entry> entries = new ArrayList<>();
+    long size = 0;
+    for (Path path : root.getDirectoryEntries()) {
+      FileStatus stat = path.statIfFound(Symlinks.NOFOLLOW);
+      if (stat != null && stat.isFile()) {
+        entries.add(new Entry(path, stat.getLastModifiedTime(), stat.getSize()));
+        size += stat.getSize();
+      }
+    }
+    long deleted = 0;
+    entries.sort(Comparator.comparingLong(entry -> entry.lastUsed));
+    for (Entry entry : entries) {
+      if (size - deleted <= maxSizeBytes) {
+        break;
+      }
+      entry.path.delete();
+      deleted += entry.size;
+    }
+    return deleted;
+  }
+
+  private static void touch(Path path) {
+    try {
+      path.setLastModifiedTime(-1L);
+    } catch (IOException e) {
+      // Not in the store.
+    }
+  }
+
+  private static final class Entry {
+    private final Path path;
+    private final long lastUsed;
+    private final long size;
+
+    Entry(Path path, long lastUsed, long size) {
+      this.path = path;
+      this.lastUsed = lastUsed;
+      this.size = size;
+    }
+  }
+}
@@ -14,8 +14,10 @@
 package com.google.devtools.build.lib.remote.http;
 
 import com.google.common.base.Preconditions;
+import com.google.devtools.build.lib.remote.util.BandwidthThrottle;
 import java.io.OutputStream;
 import java.net.URI;
+import javax.annotation.Nullable;
 
 /** Object sent through the channel pipeline to start a download. */
 final class DownloadCommand {
@@ -24,12 +26,23 @@ final class DownloadCommand {
   private final boolean casDownload;
   private final String hash;
   private final OutputStream out;
+  @Nullable private final BandwidthThrottle throttle;
 
   protected DownloadCommand(URI uri, boolean casDownload, String hash, OutputStream out) {
+    this(uri, casDownload, hash, out, /* throttle= */ null);
+  }
+
+  protected DownloadCommand(
+      URI uri,
+      boolean casDownload,
+      String hash,
+      OutputStream out,
+      @Nullable BandwidthThrottle throttle) {
     this.uri = Preconditions.checkNotNull(uri);
     this.casDownload = casDownload;
     this.hash = Preconditions.checkNotNull(hash);
     this.out = Preconditions.checkNotNull(out);
+    this.throttle = throttle;
   }
 
   public URI uri() {
@@ -47,4 +60,10 @@ final class DownloadCommand {
   public OutputStream out() {
     return out;
   }
+
+  /** Returns the throttle that limits the bandwidth of the download, if any. */
+  @Nullable
+  public BandwidthThrottle throttle() {
+    return throttle;
+  }
 }
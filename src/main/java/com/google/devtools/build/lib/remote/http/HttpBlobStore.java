@@ -21,6 +21,7 @@ import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.SettableFuture;
 import com.google.devtools.build.lib.remote.common.SimpleBlobStore;
+import com.google.devtools.build.lib.remote.util.BandwidthThrottle;
 import com.google.devtools.build.lib.vfs.Path;
 import com.google.protobuf.ByteString;
 import io.netty.bootstrap.Bootstrap;
@@ -446,7 +447,9 @@ public final class HttpBlobStore implements SimpleBlobStore {
             out.flush();
           }
         };
-    DownloadCommand download = new DownloadCommand(uri, casDownload, key, wrappedOut);
+    DownloadCommand download =
+        new DownloadCommand(
+            uri, casDownload, key, wrappedOut, BandwidthThrottle.fromCurrentContext());
     SettableFuture<Boolean> outerF = SettableFuture.create();
     acquireDownloadChannel()
         .addListener(
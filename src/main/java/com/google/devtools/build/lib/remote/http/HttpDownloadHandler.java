@@ -17,6 +17,7 @@ import static com.google.common.base.Preconditions.checkState;
 
 import com.google.auth.Credentials;
 import com.google.common.collect.ImmutableList;
+import com.google.devtools.build.lib.remote.util.BandwidthThrottle;
 import io.netty.buffer.ByteBuf;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelPromise;
@@ -38,6 +39,8 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.util.Map.Entry;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.Nullable;
 
 /** ChannelHandler for downloads. */
 final class HttpDownloadHandler extends AbstractHttpHandler<HttpObject> {
@@ -46,6 +49,7 @@ final class HttpDownloadHandler extends AbstractHttpHandler<HttpObject> {
   private boolean keepAlive = HttpVersion.HTTP_1_1.isKeepAliveDefault();
   private boolean downloadSucceeded;
   private HttpResponse response;
+  @Nullable private BandwidthThrottle throttle;
 
   private long bytesReceived;
   private long contentLength = -1;
@@ -107,6 +111,9 @@ final class HttpDownloadHandler extends AbstractHttpHandler<HttpObject> {
       int readableBytes = content.readableBytes();
       content.readBytes(out, readableBytes);
       bytesReceived += readableBytes;
+      if (throttle != null && downloadSucceeded && !(msg instanceof LastHttpContent)) {
+        pauseReading(ctx, throttle.reserve(readableBytes));
+      }
       if (msg instanceof LastHttpContent) {
         if (downloadSucceeded) {
           succeedAndReset(ctx);
@@ -136,6 +143,7 @@ final class HttpDownloadHandler extends AbstractHttpHandler<HttpObject> {
     }
     DownloadCommand cmd = (DownloadCommand) msg;
     out = cmd.out();
+    throttle = cmd.throttle();
     path = constructPath(cmd.uri(), cmd.hash(), cmd.casDownload());
     HttpRequest request = buildRequest(path, constructHost(cmd.uri()));
     addCredentialHeaders(request, cmd.uri());
@@ -159,6 +167,22 @@ final class HttpDownloadHandler extends AbstractHttpHandler<HttpObject> {
     }
   }
 
+  /**
+   * Stops reading from the connection for {@code delayNanos}, so that TCP flow control slows down
+   * the server without blocking the event loop.
+   */
+  @SuppressWarnings("FutureReturnValueIgnored")
+  private static void pauseReading(ChannelHandlerContext ctx, long delayNanos) {
+    if (delayNanos <= 0) {
+      return;
+    }
+    ctx.channel().config().setAutoRead(false);
+    // Turning auto read back on also reads from the connection.
+    ctx.executor()
+        .schedule(
+            () -> ctx.channel().config().setAutoRead(true), delayNanos, TimeUnit.NANOSECONDS);
+  }
+
   private HttpRequest buildRequest(String path, String host) {
     HttpRequest httpRequest =
         new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, path);
@@ -201,6 +225,7 @@ final class HttpDownloadHandler extends AbstractHttpHandler<HttpObject> {
       }
     } finally {
       out = null;
+      throttle = null;
       keepAlive = HttpVersion.HTTP_1_1.isKeepAliveDefault();
       downloadSucceeded = false;
       response = null;
@@ -358,6 +358,107 @@ public final class RemoteOptions extends OptionsBase {
               + " discard the remotely cached values if they don't match the expected value.")
   public boolean remoteVerifyDownloads;
 
+  @Option(
+      name = "experimental_top_down_action_cache",
+      defaultValue = "false",
+      documentationCategory = OptionDocumentationCategory.REMOTE,
+      effectTags = {OptionEffectTag.EXECUTION},
+      help =
+          "If set to true, the outputs of actions are also cached under a transitive key of the "
+              + "action, which covers the contents of all the sources and the keys of all the "
+              + "actions it depends on. An action whose transitive key is found is not executed, "
+              + "and neither are the actions it transitively depends on. The entries are stored in "
+              + "the remote cache or disk cache if one is configured, and in the output base "
+              + "otherwise.")
+  public boolean experimentalTopDownActionCache;
+
+  @Option(
+      name = "experimental_top_down_action_cache_max_uploads",
+      defaultValue = "32",
+      documentationCategory = OptionDocumentationCategory.REMOTE,
+      effectTags = {OptionEffectTag.HOST_MACHINE_RESOURCE_OPTIMIZATIONS},
+      help =
+          "The maximum number of entries of the top-down action cache that are stored in the "
+              + "background at the same time. The entries of actions that complete while this "
+              + "many are being stored are not stored.")
+  public int experimentalTopDownActionCacheMaxUploads;
+
+  @Option(
+      name = "experimental_top_down_action_cache_max_size_mb",
+      defaultValue = "5120",
+      documentationCategory = OptionDocumentationCategory.REMOTE,
+      effectTags = {OptionEffectTag.HOST_MACHINE_RESOURCE_OPTIMIZATIONS},
+      help =
+          "The maximum size, in megabytes, of the top-down action cache when it is kept in the "
+              + "output base. At the start of each build, the least recently used entries and "
+              + "outputs are deleted until the cache fits. Has no effect when the entries are "
+              + "stored in a remote cache or disk cache.")
+  public long experimentalTopDownActionCacheMaxSizeMb;
+
+  @Option(
+      name = "experimental_remote_execution_async",
+      defaultValue = "false",
+      documentationCategory = OptionDocumentationCategory.REMOTE,
+      effectTags = {OptionEffectTag.EXECUTION},
+      help =
+          "If set to true, remotely executed spawns are run as a pipeline of asynchronous steps: "
+              + "the action cache lookup, the upload of missing inputs, the execution and the "
+              + "download of the outputs no longer block a thread while waiting for the remote "
+              + "service, and the downloads start as soon as the action result is known. The "
+              + "Skyframe thread still computes the input tree of each spawn, and is only released "
+              + "while the spawn waits if --experimental_async_execution is set and the action "
+              + "supports asynchronous execution. Other actions, as well as the writing of the "
+              + "outputs and the local fallback, still block a thread.")
+  public boolean experimentalRemoteExecutionAsync;
+
+  @Option(
+      name = "experimental_remote_download_max_concurrency",
+      defaultValue = "100",
+      documentationCategory = OptionDocumentationCategory.REMOTE,
+      effectTags = {OptionEffectTag.HOST_MACHINE_RESOURCE_OPTIMIZATIONS},
+      help =
+          "The maximum number of files downloaded from the remote cache at the same time with "
+              + "--remote_download_minimal or --remote_download_toplevel. The files that running "
+              + "actions wait for are downloaded first, then the inputs of local actions, then "
+              + "the top-level outputs. 0 means no limit, in which case all downloads start "
+              + "right away and their priorities have no effect.")
+  public int remoteDownloadMaxConcurrency;
+
+  @Option(
+      name = "experimental_remote_download_bandwidth",
+      defaultValue = "0",
+      documentationCategory = OptionDocumentationCategory.REMOTE,
+      effectTags = {OptionEffectTag.HOST_MACHINE_RESOURCE_OPTIMIZATIONS},
+      help =
+          "The maximum bandwidth, in megabytes per second, of the downloads from the remote cache "
+              + "with --remote_download_minimal or --remote_download_toplevel. The files that "
+              + "running actions wait for are exempt. 0 means no limit.")
+  public int remoteDownloadBandwidth;
+
+  @Option(
+      name = "experimental_remote_grpc_bulk_connections",
+      defaultValue = "1",
+      documentationCategory = OptionDocumentationCategory.REMOTE,
+      effectTags = {OptionEffectTag.HOST_MACHINE_RESOURCE_OPTIMIZATIONS},
+      help =
+          "The number of connections to each gRPC remote cache or executor that are used for the "
+              + "uploads and downloads of the ContentAddressableStorage and ByteStream services. "
+              + "Each call goes to the connection with the fewest calls in flight. If this flag or "
+              + "--experimental_remote_grpc_rpc_connections is greater than 1, the transfers and "
+              + "the other calls use separate connections.")
+  public int remoteGrpcBulkConnections;
+
+  @Option(
+      name = "experimental_remote_grpc_rpc_connections",
+      defaultValue = "1",
+      documentationCategory = OptionDocumentationCategory.REMOTE,
+      effectTags = {OptionEffectTag.HOST_MACHINE_RESOURCE_OPTIMIZATIONS},
+      help =
+          "The number of connections to each gRPC remote cache or executor that are used for the "
+              + "calls other than uploads and downloads, e.g. to the action cache and the "
+              + "execution service. See --experimental_remote_grpc_bulk_connections.")
+  public int remoteGrpcRpcConnections;
+
   // The below options are not configurable by users, only tests.
   // This is part of the effort to reduce the overall number of flags.
 
@@ -0,0 +1,78 @@
+// Copyright 2019 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.remote.util;
+
+import com.google.common.base.Preconditions;
+import com.google.devtools.build.lib.clock.BlazeClock;
+import com.google.devtools.build.lib.clock.Clock;
+import com.google.devtools.build.lib.concurrent.ThreadSafety.ThreadSafe;
+import io.grpc.Context;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+
+/**
+ * Limits the bandwidth of downloads without blocking the threads that receive their data.
+ *
+ * <p>A download reports the data it received with {@link #reserve}, which returns how long to wait
+ * before reading more. The download waits by not asking its transport for more data, so that the
+ * flow control of the transport slows down the sender, e.g. by not reading from the socket of an
+ * HTTP connection or by not requesting the next message of a gRPC stream.
+ *
+ * <p>The throttle of a download is passed to the remote cache in the {@link Context} the download
+ * is started in.
+ */
+@ThreadSafe
+public final class BandwidthThrottle {
+  private static final Context.Key<BandwidthThrottle> CONTEXT_KEY =
+      Context.key("remote-download-bandwidth-throttle");
+
+  private final Clock clock;
+  private final double nanosPerByte;
+
+  /** The time at which the data received so far is paid for. */
+  @GuardedBy("this")
+  private long paidUntilNanos;
+
+  public BandwidthThrottle(long bytesPerSecond) {
+    this(BlazeClock.instance(), bytesPerSecond);
+  }
+
+  public BandwidthThrottle(Clock clock, long bytesPerSecond) {
+    Preconditions.checkArgument(bytesPerSecond > 0, "bytesPerSecond <= 0");
+    this.clock = clock;
+    this.nanosPerByte = 1e9 / bytesPerSecond;
+    this.paidUntilNanos = clock.nanoTime();
+  }
+
+  /**
+   * Accounts for {@code bytes} of received data, and returns the number of nanoseconds to wait
+   * before receiving more data, or 0 if it can be received right away.
+   */
+  public synchronized long reserve(long bytes) {
+    long now = clock.nanoTime();
+    paidUntilNanos = Math.max(paidUntilNanos, now) + (long) (bytes * nanosPerByte);
+    return Math.max(0, paidUntilNanos - now);
+  }
+
+  /** Returns a new context derived from {@code ctx}, in which downloads use {@code throttle}. */
+  public static Context withThrottle(Context ctx, BandwidthThrottle throttle) {
+    return ctx.withValue(CONTEXT_KEY, Preconditions.checkNotNull(throttle));
+  }
+
+  /** Returns the throttle of the downloads started in the current context, if any. */
+  @Nullable
+  public static BandwidthThrottle fromCurrentContext() {
+    return CONTEXT_KEY.get();
+  }
+}
@@ -31,6 +31,7 @@ import com.google.devtools.build.lib.cmdline.Label;
 import com.google.devtools.build.lib.exec.ExecutorBuilder;
 import com.google.devtools.build.lib.packages.Package;
 import com.google.devtools.build.lib.packages.PackageFactory;
+import com.google.devtools.build.lib.pkgcache.BulkPackageProvider;
 import com.google.devtools.build.lib.skyframe.AspectValue;
 import com.google.devtools.build.lib.skyframe.PrecomputedValue;
 import com.google.devtools.build.lib.skyframe.TopDownActionCache;
@@ -348,6 +349,18 @@ public abstract class BlazeModule {
     return null;
   }
 
+  /**
+   * Returns a {@link BulkPackageProvider} that does not keep the packages it returns, which the
+   * query command loads through with {@code --experimental_graphless_query_discard_packages}, or
+   * null if the module cannot provide one for this command.
+   *
+   * <p>It is an error if multiple modules return non-null values.
+   */
+  @Nullable
+  public BulkPackageProvider getDiscardingPackageProvider(CommandEnvironment env) {
+    return null;
+  }
+
   /**
    * Returns a helper that the {@link PackageFactory} will use during package loading. If the module
    * does not provide any helper, it should return null. Note that only one helper per Bazel/Blaze
@@ -20,16 +20,21 @@ import com.google.devtools.build.lib.analysis.NoBuildEvent;
 import com.google.devtools.build.lib.analysis.NoBuildRequestFinishedEvent;
 import com.google.devtools.build.lib.events.Event;
 import com.google.devtools.build.lib.packages.Target;
+import com.google.devtools.build.lib.pkgcache.BulkPackageProvider;
+import com.google.devtools.build.lib.query2.SkyQueryEnvironment;
 import com.google.devtools.build.lib.query2.common.AbstractBlazeQueryEnvironment;
+import com.google.devtools.build.lib.query2.common.QueryResultCache;
 import com.google.devtools.build.lib.query2.engine.QueryEnvironment;
 import com.google.devtools.build.lib.query2.engine.QueryEnvironment.Setting;
 import com.google.devtools.build.lib.query2.engine.QueryEvalResult;
+import com.google.devtools.build.lib.query2.query.GraphlessBlazeQueryEnvironment;
 import com.google.devtools.build.lib.query2.query.output.OutputFormatter;
 import com.google.devtools.build.lib.query2.query.output.OutputFormatters;
 import com.google.devtools.build.lib.query2.query.output.QueryOptions;
 import com.google.devtools.build.lib.query2.query.output.QueryOutputUtils;
 import com.google.devtools.build.lib.runtime.BlazeCommand;
 import com.google.devtools.build.lib.runtime.BlazeCommandResult;
+import com.google.devtools.build.lib.runtime.BlazeModule;
 import com.google.devtools.build.lib.runtime.BlazeRuntime;
 import com.google.devtools.build.lib.runtime.CommandEnvironment;
 import com.google.devtools.build.lib.runtime.KeepGoingOption;
@@ -63,6 +68,42 @@ public abstract class QueryEnvironmentBasedCommand implements BlazeCommand {
   @Override
   public void editOptions(OptionsParser optionsParser) { }
 
+  /**
+   * Returns the provider unbounded {@code deps} loads its packages through when streamed: the
+   * package manager, unless {@code --experimental_graphless_query_discard_packages} is given and a
+   * module provides a provider that does not keep the packages it returns.
+   */
+  private static BulkPackageProvider getStreamingPackageProvider(
+      CommandEnvironment env, QueryOptions queryOptions) {
+    if (!queryOptions.graphlessQueryDiscardPackages) {
+      return env.getPackageManager();
+    }
+    BulkPackageProvider packageProvider = null;
+    BlazeModule providingModule = null;
+    for (BlazeModule module : env.getRuntime().getBlazeModules()) {
+      BulkPackageProvider moduleProvider = module.getDiscardingPackageProvider(env);
+      if (moduleProvider != null) {
+        if (packageProvider != null) {
+          throw new IllegalStateException(
+              String.format(
+                  "More than one module (%s and %s) returns a discarding package provider",
+                  module.getClass(), providingModule.getClass()));
+        }
+        packageProvider = moduleProvider;
+        providingModule = module;
+      }
+    }
+    if (packageProvider == null) {
+      env.getReporter()
+          .handle(
+              Event.warn(
+                  "--experimental_graphless_query_discard_packages is not supported with this"
+                      + " --package_path; packages are kept in the Skyframe graph"));
+      return env.getPackageManager();
+    }
+    return packageProvider;
+  }
+
   /**
    * Exit codes:
    *   0   on successful evaluation.
@@ -166,6 +207,18 @@ public abstract class QueryEnvironmentBasedCommand implements BlazeCommand {
               options.getOptions(LoadingPhaseThreadsOption.class).threads,
               settings,
               queryOptions.useGraphlessQuery)) {
+        setUpResultCache(env, queryOptions, settings, queryEnv);
+        if (queryEnv instanceof SkyQueryEnvironment) {
+          ((SkyQueryEnvironment) queryEnv)
+              .setUseUniverseMembershipFilter(queryOptions.universeMembershipFilter);
+        }
+        if (queryEnv instanceof GraphlessBlazeQueryEnvironment) {
+          ((GraphlessBlazeQueryEnvironment) queryEnv)
+              .setStreamDeps(
+                  queryOptions.graphlessQueryStreamDeps
+                      ? getStreamingPackageProvider(env, queryOptions)
+                      : null);
+        }
         result =
             doQuery(
                 query, env, queryOptions, streamResults, formatter, queryEnv, queryRuntimeHelper);
@@ -198,6 +251,35 @@ public abstract class QueryEnvironmentBasedCommand implements BlazeCommand {
     }
   }
 
+  private static void setUpResultCache(
+      CommandEnvironment env,
+      QueryOptions queryOptions,
+      Set<Setting> settings,
+      AbstractBlazeQueryEnvironment<Target> queryEnv) {
+    QueryResultCache<Target> resultCache =
+        env.getRuntime().getQueryEnvironmentFactory().getResultCache();
+    if (queryOptions.resultCacheSize <= 0) {
+      resultCache.clear();
+      return;
+    }
+    if (!queryEnv.supportsResultCache()) {
+      return;
+    }
+    // Everything besides the expression itself that may affect the results.
+    String scope =
+        String.format(
+            "%s %s %s %s: ",
+            queryEnv.getClass().getName(),
+            env.getRelativeWorkingDirectory(),
+            queryOptions.universeScope,
+            settings);
+    queryEnv.setResultCache(
+        resultCache,
+        queryOptions.resultCacheSize,
+        scope,
+        env.getSkyframeExecutor()::getPackageGraphVersion);
+  }
+
   protected abstract Either<BlazeCommandResult, QueryEvalResult> doQuery(
       String query,
       CommandEnvironment env,
@@ -64,6 +64,9 @@ public final class LinuxSandboxUtil {
     private Set<Path> writableFilesAndDirectories = ImmutableSet.of();
     private Set<Path> tmpfsDirectories = ImmutableSet.of();
     private Map<Path, Path> bindMounts = ImmutableMap.of();
+    private List<Path> overlayLowerDirs = ImmutableList.of();
+    private Path overlayUpperDir;
+    private Path overlayWorkDir;
     private Path statisticsPath;
     private boolean useFakeHostname = false;
     private boolean createNetworkNamespace = false;
@@ -137,6 +140,19 @@ public final class LinuxSandboxUtil {
       return this;
     }
 
+    /**
+     * Sets the directories of an overlay to mount on the working directory: the read-only {@code
+     * lowerDirs} providing its contents, topmost first, the {@code upperDir} receiving all writes
+     * to it, and the {@code workDir} the kernel needs on the same filesystem as {@code upperDir}.
+     */
+    public CommandLineBuilder setOverlay(List<Path> lowerDirs, Path upperDir, Path workDir) {
+      Preconditions.checkArgument(!lowerDirs.isEmpty());
+      this.overlayLowerDirs = lowerDirs;
+      this.overlayUpperDir = upperDir;
+      this.overlayWorkDir = workDir;
+      return this;
+    }
+
     /** Sets the path for writing execution statistics (e.g. resource usage). */
     public CommandLineBuilder setStatisticsPath(Path statisticsPath) {
       this.statisticsPath = statisticsPath;
@@ -221,6 +237,13 @@ public final class LinuxSandboxUtil {
           commandLineBuilder.add("-m", bindMountTarget.getPathString());
         }
       }
+      if (!overlayLowerDirs.isEmpty()) {
+        for (Path lowerDir : overlayLowerDirs) {
+          commandLineBuilder.add("-O", lowerDir.getPathString());
+        }
+        commandLineBuilder.add("-P", overlayUpperDir.getPathString());
+        commandLineBuilder.add("-K", overlayWorkDir.getPathString());
+      }
       if (statisticsPath != null) {
         commandLineBuilder.add("-S", statisticsPath.getPathString());
       }
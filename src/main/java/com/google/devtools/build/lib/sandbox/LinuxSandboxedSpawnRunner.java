@@ -25,12 +25,14 @@ import com.google.devtools.build.lib.actions.Spawn;
 import com.google.devtools.build.lib.actions.Spawns;
 import com.google.devtools.build.lib.actions.UserExecException;
 import com.google.devtools.build.lib.analysis.BlazeDirectories;
+import com.google.devtools.build.lib.events.Event;
 import com.google.devtools.build.lib.exec.TreeDeleter;
 import com.google.devtools.build.lib.exec.local.LocalEnvProvider;
 import com.google.devtools.build.lib.exec.local.PosixLocalEnvProvider;
 import com.google.devtools.build.lib.profiler.Profiler;
 import com.google.devtools.build.lib.profiler.SilentCloseable;
 import com.google.devtools.build.lib.runtime.CommandEnvironment;
+import com.google.devtools.build.lib.sandbox.SandboxHelpers.SandboxInputs;
 import com.google.devtools.build.lib.sandbox.SandboxHelpers.SandboxOutputs;
 import com.google.devtools.build.lib.shell.Command;
 import com.google.devtools.build.lib.shell.CommandException;
@@ -85,6 +87,63 @@ final class LinuxSandboxedSpawnRunner extends AbstractSandboxSpawnRunner {
     return true;
   }
 
+  // Since checking if overlays are supported is expensive, we remember what we've checked.
+  private static final Map<Path, Boolean> isOverlaySupportedMap = new HashMap<>();
+
+  /**
+   * Returns whether the linux sandbox can mount an overlay on the execroot, which most kernels
+   * before 5.11 do not allow in user namespaces, by running a small command with one.
+   */
+  private static synchronized boolean isOverlaySupported(
+      CommandEnvironment cmdEnv, Path sandboxBase) {
+    Path linuxSandbox = LinuxSandboxUtil.getLinuxSandbox(cmdEnv);
+    Boolean supported = isOverlaySupportedMap.get(linuxSandbox);
+    if (supported == null) {
+      supported = computeIsOverlaySupported(cmdEnv, linuxSandbox, sandboxBase);
+      isOverlaySupportedMap.put(linuxSandbox, supported);
+    }
+    return supported;
+  }
+
+  private static boolean computeIsOverlaySupported(
+      CommandEnvironment cmdEnv, Path linuxSandbox, Path sandboxBase) {
+    Path checkDir = sandboxBase.getRelative("overlay-check");
+    try (SilentCloseable c =
+        Profiler.instance().profile("LinuxSandboxedSpawnRunner.isOverlaySupported")) {
+      Path mountPoint = checkDir.getRelative("execroot");
+      Path lowerDir = checkDir.getRelative("lower");
+      Path upperDir = checkDir.getRelative("upper");
+      Path workDir = checkDir.getRelative("work");
+      for (Path dir : ImmutableList.of(mountPoint, lowerDir, upperDir, workDir)) {
+        dir.createDirectoryAndParents();
+      }
+      ImmutableList<String> linuxSandboxArgv =
+          LinuxSandboxUtil.commandLineBuilder(linuxSandbox, ImmutableList.of("/bin/true"))
+              .setWorkingDirectory(mountPoint)
+              .setOverlay(ImmutableList.of(lowerDir), upperDir, workDir)
+              .build();
+      Command cmd =
+          new Command(
+              linuxSandboxArgv.toArray(new String[0]),
+              ImmutableMap.of(),
+              cmdEnv.getExecRoot().getPathFile());
+      cmd.execute(ByteStreams.nullOutputStream(), ByteStreams.nullOutputStream());
+      return true;
+    } catch (CommandException | IOException e) {
+      return false;
+    } finally {
+      try {
+        checkDir.deleteTree();
+      } catch (IOException e) {
+        // Deleted along with the sandbox base at the latest.
+      }
+    }
+  }
+
+  // The number of unused input trees to keep around for later spawns: those of the input groups of
+  // a few spawns.
+  private static final int MAX_UNUSED_INPUT_TEMPLATES = 4 * SandboxInputTemplates.MAX_GROUPS;
+
   private final FileSystem fileSystem;
   private final BlazeDirectories blazeDirs;
   private final Path execRoot;
@@ -98,6 +157,8 @@ final class LinuxSandboxedSpawnRunner extends AbstractSandboxSpawnRunner {
   private final @Nullable SandboxfsProcess sandboxfsProcess;
   private final boolean sandboxfsMapSymlinkTargets;
   private final TreeDeleter treeDeleter;
+  private final @Nullable SandboxInputTemplates inputTemplates;
+  private final @Nullable SandboxDirectoryPool directoryPool;
 
   /**
    * Creates a sandboxed spawn runner that uses the {@code linux-sandbox} tool.
@@ -134,16 +195,44 @@ final class LinuxSandboxedSpawnRunner extends AbstractSandboxSpawnRunner {
     this.sandboxfsMapSymlinkTargets = sandboxfsMapSymlinkTargets;
     this.localEnvProvider = new PosixLocalEnvProvider(cmdEnv.getClientEnv());
     this.treeDeleter = treeDeleter;
+    if (getSandboxOptions().linuxSandboxOverlayInputs && sandboxfsProcess == null) {
+      if (isOverlaySupported(cmdEnv, sandboxBase)) {
+        this.inputTemplates =
+            new SandboxInputTemplates(
+                sandboxBase.getRelative(getName()).getRelative("inputs"),
+                MAX_UNUSED_INPUT_TEMPLATES,
+                treeDeleter);
+      } else {
+        cmdEnv
+            .getReporter()
+            .handle(
+                Event.warn(
+                    "--experimental_linux_sandbox_overlay_inputs is ignored, because the kernel "
+                        + "does not allow the linux sandbox to mount overlays"));
+        this.inputTemplates = null;
+      }
+    } else {
+      this.inputTemplates = null;
+    }
+    this.directoryPool =
+        getSandboxOptions().reuseSandboxDirectories
+                && sandboxfsProcess == null
+                && inputTemplates == null
+            ? new SandboxDirectoryPool(sandboxBase.getRelative(getName()))
+            : null;
   }
 
   @Override
   protected SandboxedSpawn prepareSpawn(Spawn spawn, SpawnExecutionContext context)
       throws IOException, ExecException {
-    // Each invocation of "exec" gets its own sandbox base.
+    // Each invocation of "exec" gets its own sandbox base, unless it takes over one from an earlier
+    // invocation.
     // Note that the value returned by context.getId() is only unique inside one given SpawnRunner,
     // so we have to prefix our name to turn it into a globally unique value.
     Path sandboxPath =
-        sandboxBase.getRelative(getName()).getRelative(Integer.toString(context.getId()));
+        directoryPool != null
+            ? directoryPool.acquire()
+            : sandboxBase.getRelative(getName()).getRelative(Integer.toString(context.getId()));
     sandboxPath.getParentDirectory().createDirectory();
     sandboxPath.createDirectory();
 
@@ -205,6 +294,29 @@ final class LinuxSandboxedSpawnRunner extends AbstractSandboxSpawnRunner {
           sandboxfsMapSymlinkTargets,
           treeDeleter,
           statisticsPath);
+    } else if (inputTemplates != null) {
+      ImmutableList<SandboxInputs> inputGroups =
+          SandboxInputTemplates.splitIntoGroups(
+              SandboxHelpers.processInputFiles(
+                  spawn,
+                  context,
+                  execRoot,
+                  getSandboxOptions().symlinkedSandboxExpandsTreeArtifactsInRunfilesTree));
+      OverlaySandboxedSpawn.OverlayDirs overlayDirs =
+          OverlaySandboxedSpawn.getOverlayDirs(sandboxPath, inputGroups.size());
+      commandLineBuilder.setOverlay(
+          overlayDirs.lowerDirs, overlayDirs.upperDir, overlayDirs.workDir);
+      return new OverlaySandboxedSpawn(
+          sandboxPath,
+          sandboxExecRoot,
+          commandLineBuilder.build(),
+          environment,
+          inputGroups,
+          outputs,
+          writableDirs,
+          inputTemplates,
+          treeDeleter,
+          statisticsPath);
     } else {
       return new SymlinkedSandboxedSpawn(
           sandboxPath,
@@ -219,7 +331,8 @@ final class LinuxSandboxedSpawnRunner extends AbstractSandboxSpawnRunner {
           outputs,
           writableDirs,
           treeDeleter,
-          statisticsPath);
+          statisticsPath,
+          directoryPool);
     }
   }
 
@@ -326,6 +439,13 @@ final class LinuxSandboxedSpawnRunner extends AbstractSandboxSpawnRunner {
 
   @Override
   public void cleanupSandboxBase(Path sandboxBase, TreeDeleter treeDeleter) throws IOException {
+    if (inputTemplates != null) {
+      inputTemplates.clear();
+    }
+    if (directoryPool != null) {
+      directoryPool.clear();
+    }
+
     // Delete the inaccessible files synchronously, bypassing the treeDeleter. They are only a
     // couple of files that can be deleted fast, and ensuring they are gone at the end of every
     // build avoids annoying permission denied errors if the user happens to run "rm -rf" on the
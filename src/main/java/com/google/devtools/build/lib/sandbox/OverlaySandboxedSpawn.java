@@ -0,0 +1,191 @@
+// Copyright 2019 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.devtools.build.lib.sandbox;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
+import com.google.devtools.build.lib.exec.TreeDeleter;
+import com.google.devtools.build.lib.sandbox.SandboxHelpers.SandboxInputs;
+import com.google.devtools.build.lib.sandbox.SandboxHelpers.SandboxOutputs;
+import com.google.devtools.build.lib.sandbox.SandboxInputTemplates.Template;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.PathFragment;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import javax.annotation.Nullable;
+
+/**
+ * Creates an execRoot for a Spawn by mounting an overlay on it, whose read-only layers are trees of
+ * groups of the inputs, each shared with the other spawns that have the same inputs in that group.
+ *
+ * <p>Only the parent directories of the outputs are created for each spawn, in the overlay's upper
+ * directory, which is where the writes of the spawn end up too. This keeps the cost of setting up
+ * and deleting the sandbox proportional to the outputs, not to the inputs.
+ *
+ * <p>The overlay is mounted by {@code linux-sandbox} in the spawn's mount namespace, from
+ * directories that {@link #getOverlayDirs} names before the file system is created.
+ */
+final class OverlaySandboxedSpawn implements SandboxedSpawn {
+
+  /** The directories of the overlay for a spawn, relative to its sandbox path. */
+  static final class OverlayDirs {
+    /**
+     * Symlinks to the trees of the input groups, one per group, which only exist once the file
+     * system was created.
+     */
+    final ImmutableList<Path> lowerDirs;
+
+    final Path upperDir;
+    final Path workDir;
+
+    private OverlayDirs(Path sandboxPath, int inputGroupCount) {
+      ImmutableList.Builder<Path> lowerDirs = ImmutableList.builder();
+      for (int i = 0; i < inputGroupCount; i++) {
+        lowerDirs.add(sandboxPath.getRelative("inputs-" + i));
+      }
+      this.lowerDirs = lowerDirs.build();
+      this.upperDir = sandboxPath.getRelative("upper");
+      this.workDir = sandboxPath.getRelative("overlay-work");
+    }
+  }
+
+  static OverlayDirs getOverlayDirs(Path sandboxPath, int inputGroupCount) {
+    return new OverlayDirs(sandboxPath, inputGroupCount);
+  }
+
+  private final Path sandboxPath;
+  private final Path sandboxExecRoot;
+  private final OverlayDirs overlayDirs;
+  private final List<String> arguments;
+  private final Map<String, String> environment;
+  private final ImmutableList<SandboxInputs> inputGroups;
+  private final SandboxOutputs outputs;
+  private final Set<Path> writableDirs;
+  private final SandboxInputTemplates inputTemplates;
+  private final TreeDeleter treeDeleter;
+  private final Path statisticsPath;
+
+  private final List<Template> templates = new ArrayList<>();
+
+  OverlaySandboxedSpawn(
+      Path sandboxPath,
+      Path sandboxExecRoot,
+      List<String> arguments,
+      Map<String, String> environment,
+      List<SandboxInputs> inputGroups,
+      SandboxOutputs outputs,
+      Set<Path> writableDirs,
+      SandboxInputTemplates inputTemplates,
+      TreeDeleter treeDeleter,
+      @Nullable Path statisticsPath) {
+    this.sandboxPath = sandboxPath;
+    this.sandboxExecRoot = sandboxExecRoot;
+    this.overlayDirs = getOverlayDirs(sandboxPath, inputGroups.size());
+    this.arguments = arguments;
+    this.environment = environment;
+    this.inputGroups = ImmutableList.copyOf(inputGroups);
+    this.outputs = outputs;
+    this.writableDirs = writableDirs;
+    this.inputTemplates = inputTemplates;
+    this.treeDeleter = treeDeleter;
+    this.statisticsPath = statisticsPath;
+  }
+
+  @Override
+  public Path getSandboxExecRoot() {
+    return sandboxExecRoot;
+  }
+
+  @Override
+  public List<String> getArguments() {
+    return arguments;
+  }
+
+  @Override
+  public Map<String, String> getEnvironment() {
+    return environment;
+  }
+
+  @Override
+  @Nullable
+  public Path getStatisticsPath() {
+    return statisticsPath;
+  }
+
+  /** Returns the directory where the spawn's writes to its execroot end up. */
+  private Path getUpperExecRoot() {
+    return overlayDirs.upperDir;
+  }
+
+  @Override
+  public void createFileSystem() throws IOException {
+    for (int i = 0; i < inputGroups.size(); i++) {
+      Template template = inputTemplates.acquire(inputGroups.get(i));
+      templates.add(template);
+      overlayDirs.lowerDirs.get(i).createSymbolicLink(template.getRoot());
+    }
+    overlayDirs.workDir.createDirectory();
+
+    Path upperExecRoot = getUpperExecRoot();
+    Set<Path> dirsToCreate = new LinkedHashSet<>();
+    dirsToCreate.add(upperExecRoot);
+    for (PathFragment path : Iterables.concat(outputs.files(), outputs.dirs())) {
+      Preconditions.checkArgument(!path.isAbsolute());
+      Preconditions.checkArgument(!path.containsUplevelReferences());
+      for (int i = 0; i < path.segmentCount(); i++) {
+        dirsToCreate.add(upperExecRoot.getRelative(path.subFragment(0, i)));
+      }
+    }
+    for (PathFragment path : outputs.dirs()) {
+      dirsToCreate.add(upperExecRoot.getRelative(path));
+    }
+    for (Path path : dirsToCreate) {
+      path.createDirectory();
+    }
+
+    // The writable directories below the execroot are bind-mounted after the overlay is, so they
+    // must show up in it.
+    for (Path dir : writableDirs) {
+      if (dir.startsWith(sandboxExecRoot) && !dir.equals(sandboxExecRoot)) {
+        upperExecRoot.getRelative(dir.relativeTo(sandboxExecRoot)).createDirectoryAndParents();
+      }
+    }
+  }
+
+  @Override
+  public void copyOutputs(Path execRoot) throws IOException {
+    // The overlay is gone along with the spawn's mount namespace, but its writes remain.
+    AbstractContainerizingSandboxedSpawn.moveOutputs(outputs, getUpperExecRoot(), execRoot);
+  }
+
+  @Override
+  public void delete() {
+    for (Template template : templates) {
+      inputTemplates.release(template);
+    }
+    templates.clear();
+    try {
+      treeDeleter.deleteTree(sandboxPath);
+    } catch (IOException e) {
+      // See AbstractContainerizingSandboxedSpawn#delete: the SandboxModule tries again at the end
+      // of the build.
+    }
+  }
+}
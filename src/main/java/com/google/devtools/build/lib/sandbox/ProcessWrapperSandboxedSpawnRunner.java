@@ -25,6 +25,7 @@ import com.google.devtools.build.lib.vfs.Path;
 import java.io.IOException;
 import java.time.Duration;
 import java.util.Map;
+import javax.annotation.Nullable;
 
 /** Strategy that uses sandboxing to execute a process. */
 final class ProcessWrapperSandboxedSpawnRunner extends AbstractSandboxSpawnRunner {
@@ -39,6 +40,7 @@ final class ProcessWrapperSandboxedSpawnRunner extends AbstractSandboxSpawnRunne
   private final LocalEnvProvider localEnvProvider;
   private final Duration timeoutKillDelay;
   private final TreeDeleter treeDeleter;
+  private final @Nullable SandboxDirectoryPool directoryPool;
 
   /**
    * Creates a sandboxed spawn runner that uses the {@code process-wrapper} tool.
@@ -61,16 +63,23 @@ final class ProcessWrapperSandboxedSpawnRunner extends AbstractSandboxSpawnRunne
     this.sandboxBase = sandboxBase;
     this.timeoutKillDelay = timeoutKillDelay;
     this.treeDeleter = treeDeleter;
+    this.directoryPool =
+        getSandboxOptions().reuseSandboxDirectories
+            ? new SandboxDirectoryPool(sandboxBase.getRelative(getName()))
+            : null;
   }
 
   @Override
   protected SandboxedSpawn prepareSpawn(Spawn spawn, SpawnExecutionContext context)
       throws IOException, ExecException {
-    // Each invocation of "exec" gets its own sandbox base.
+    // Each invocation of "exec" gets its own sandbox base, unless it takes over one from an earlier
+    // invocation.
     // Note that the value returned by context.getId() is only unique inside one given SpawnRunner,
     // so we have to prefix our name to turn it into a globally unique value.
     Path sandboxPath =
-        sandboxBase.getRelative(getName()).getRelative(Integer.toString(context.getId()));
+        directoryPool != null
+            ? directoryPool.acquire()
+            : sandboxBase.getRelative(getName()).getRelative(Integer.toString(context.getId()));
     sandboxPath.getParentDirectory().createDirectory();
     sandboxPath.createDirectory();
 
@@ -109,11 +118,20 @@ final class ProcessWrapperSandboxedSpawnRunner extends AbstractSandboxSpawnRunne
         SandboxHelpers.getOutputs(spawn),
         getWritableDirs(sandboxExecRoot, environment),
         treeDeleter,
-        statisticsPath);
+        statisticsPath,
+        directoryPool);
   }
 
   @Override
   public String getName() {
     return "processwrapper-sandbox";
   }
+
+  @Override
+  public void cleanupSandboxBase(Path sandboxBase, TreeDeleter treeDeleter) throws IOException {
+    if (directoryPool != null) {
+      directoryPool.clear();
+    }
+    super.cleanupSandboxBase(sandboxBase, treeDeleter);
+  }
 }
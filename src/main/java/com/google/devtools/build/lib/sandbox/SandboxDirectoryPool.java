@@ -0,0 +1,68 @@
+// Copyright 2019 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.devtools.build.lib.sandbox;
+
+import com.google.devtools.build.lib.vfs.Path;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Pool of sandbox directories that spawns take over from earlier spawns instead of each creating
+ * and deleting its own. There are as many directories as spawns ever ran at once.
+ *
+ * <p>The pool does not look into the directories: a spawn taking one over is responsible for
+ * cleaning up whatever the previous one left in it, see {@link SymlinkedSandboxedSpawn}.
+ */
+@ThreadSafe
+final class SandboxDirectoryPool {
+  private final Path baseDir;
+  private final AtomicInteger lastId = new AtomicInteger();
+
+  /** The idle directories, the most recently used one first. */
+  @GuardedBy("this")
+  private final Deque<Path> idle = new ArrayDeque<>();
+
+  /** @param baseDir the directory to create the sandbox directories in */
+  SandboxDirectoryPool(Path baseDir) {
+    this.baseDir = baseDir;
+  }
+
+  /**
+   * Returns a sandbox directory for a spawn, which may still contain the files of the previous
+   * spawn that used it, or may not exist yet.
+   */
+  Path acquire() {
+    synchronized (this) {
+      if (!idle.isEmpty()) {
+        return idle.pop();
+      }
+    }
+    // The prefix keeps the directories apart from the numbered ones of spawns not using the pool.
+    return baseDir.getRelative("reusable-" + lastId.incrementAndGet());
+  }
+
+  /** Returns a directory obtained from {@link #acquire} for other spawns to use. */
+  synchronized void release(Path sandboxPath) {
+    idle.push(sandboxPath);
+  }
+
+  /** Forgets all idle directories, e.g. because they are about to be deleted. */
+  synchronized void clear() {
+    idle.clear();
+  }
+}
@@ -0,0 +1,344 @@
+// Copyright 2019 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.devtools.build.lib.sandbox;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Iterables;
+import com.google.devtools.build.lib.exec.TreeDeleter;
+import com.google.devtools.build.lib.sandbox.SandboxHelpers.SandboxInputs;
+import com.google.devtools.build.lib.util.Fingerprint;
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.PathFragment;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Cache of read-only trees of spawn inputs, so that spawns with the same inputs can share one tree
+ * instead of each creating, and then deleting, one symlink per input.
+ *
+ * <p>Input files are symlinked into the trees, just like {@link SymlinkedSandboxedSpawn} does, so
+ * a tree always shows the current contents of its inputs and can be keyed by the inputs' paths
+ * alone. Hard links are not an option: {@code link(2)} updates the ctime of the linked file, which
+ * would both change the key on every use and make the file look modified to the action cache.
+ *
+ * <p>Spawns rarely have exactly the same inputs, but often share most of them, such as the files of
+ * a toolchain. So the inputs of a spawn are first {@linkplain #splitIntoGroups split into groups},
+ * and each group gets a tree of its own. The trees are stacked as the layers of the spawn's
+ * overlay, so a spawn only creates the trees of the groups no other spawn had.
+ */
+@ThreadSafe
+final class SandboxInputTemplates {
+  private static final Logger logger = Logger.getLogger(SandboxInputTemplates.class.getName());
+
+  /**
+   * The most groups the inputs of a spawn are split into. Each group is one layer of the spawn's
+   * overlay, and the paths of all layers must fit in the mount options, which are limited to a
+   * page.
+   */
+  static final int MAX_GROUPS = 16;
+
+  /** A tree of inputs. Trees in use are only deleted once all their users released them. */
+  static final class Template {
+    private final Path root;
+
+    @GuardedBy("SandboxInputTemplates.this")
+    private int users;
+
+    @GuardedBy("SandboxInputTemplates.this")
+    private boolean evicted;
+
+    private Template(Path root) {
+      this.root = root;
+    }
+
+    /** The directory that corresponds to the execroot. */
+    Path getRoot() {
+      return root;
+    }
+  }
+
+  private final Path templatesDir;
+  private final int maxTemplates;
+  private final TreeDeleter treeDeleter;
+  private final AtomicInteger lastId = new AtomicInteger();
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+
+  /** The templates by key, least recently used first. */
+  @GuardedBy("this")
+  private final Map<String, Template> templates = new LinkedHashMap<>(16, 0.75f, true);
+
+  /**
+   * @param templatesDir the directory to create the trees in
+   * @param maxTemplates the number of trees to keep when they are not in use
+   */
+  SandboxInputTemplates(Path templatesDir, int maxTemplates, TreeDeleter treeDeleter) {
+    Preconditions.checkArgument(maxTemplates >= 0);
+    this.templatesDir = templatesDir;
+    this.maxTemplates = maxTemplates;
+    this.treeDeleter = treeDeleter;
+  }
+
+  /**
+   * Returns a tree containing {@code inputs}, creating it if needed. The caller must {@link
+   * #release} it once it no longer uses it.
+   */
+  Template acquire(SandboxInputs inputs) throws IOException {
+    String key = computeKey(inputs);
+    synchronized (this) {
+      Template template = templates.get(key);
+      if (template != null) {
+        template.users++;
+        hits.incrementAndGet();
+        return template;
+      }
+    }
+    misses.incrementAndGet();
+
+    // Create the tree without holding the lock, concurrent spawns with the same inputs may race to
+    // create it and all but one of the trees are thrown away.
+    Path root = templatesDir.getRelative(key + "-" + lastId.incrementAndGet());
+    try {
+      createTree(root, inputs);
+    } catch (IOException e) {
+      deleteTree(root);
+      throw e;
+    }
+    Template created = new Template(root);
+    List<Template> toDelete = new ArrayList<>();
+    Template result;
+    synchronized (this) {
+      result = templates.get(key);
+      if (result == null) {
+        result = created;
+        templates.put(key, created);
+      } else {
+        toDelete.add(created);
+      }
+      result.users++;
+      evictUnused(toDelete);
+    }
+    for (Template template : toDelete) {
+      deleteTree(template.root);
+    }
+    return result;
+  }
+
+  /** Returns how many calls to {@link #acquire} found their tree. */
+  long getHits() {
+    return hits.get();
+  }
+
+  /** Returns how many calls to {@link #acquire} had to create their tree. */
+  long getMisses() {
+    return misses.get();
+  }
+
+  /** Releases a tree returned by {@link #acquire}. */
+  void release(Template template) {
+    List<Template> toDelete = new ArrayList<>();
+    synchronized (this) {
+      Preconditions.checkState(template.users > 0, template.root);
+      template.users--;
+      if (template.users == 0 && template.evicted) {
+        toDelete.add(template);
+      } else {
+        evictUnused(toDelete);
+      }
+    }
+    for (Template unused : toDelete) {
+      deleteTree(unused.root);
+    }
+  }
+
+  /** Forgets all trees; the ones still in use are deleted once released. */
+  void clear() {
+    List<Template> toDelete = new ArrayList<>();
+    synchronized (this) {
+      for (Template template : templates.values()) {
+        template.evicted = true;
+        if (template.users == 0) {
+          toDelete.add(template);
+        }
+      }
+      templates.clear();
+    }
+    for (Template template : toDelete) {
+      deleteTree(template.root);
+    }
+  }
+
+  @GuardedBy("this")
+  private void evictUnused(List<Template> toDelete) {
+    int unused = 0;
+    for (Template template : templates.values()) {
+      if (template.users == 0) {
+        unused++;
+      }
+    }
+    for (Iterator<Template> it = templates.values().iterator();
+        unused > maxTemplates && it.hasNext(); ) {
+      Template template = it.next();
+      if (template.users == 0) {
+        it.remove();
+        template.evicted = true;
+        toDelete.add(template);
+        unused--;
+      }
+    }
+  }
+
+  private void deleteTree(Path root) {
+    try {
+      treeDeleter.deleteTree(root);
+    } catch (IOException e) {
+      // Whatever is left is deleted along with the sandbox base.
+      logger.warning("Failed to delete sandbox input tree " + root + ": " + e);
+    }
+  }
+
+  /**
+   * Splits {@code inputs} into the groups to create a tree for each, in a stable order. An input
+   * belongs to the group of its directory, up to the first two segments: the inputs of an external
+   * repository or of a top-level directory tend to be used together. If there are more than {@link
+   * #MAX_GROUPS} groups, the smallest ones are merged into one. There always is at least one group,
+   * which may be empty.
+   */
+  static ImmutableList<SandboxInputs> splitIntoGroups(SandboxInputs inputs) {
+    Map<PathFragment, Map<PathFragment, Path>> files = new TreeMap<>();
+    for (Map.Entry<PathFragment, Path> entry : inputs.getFiles().entrySet()) {
+      // A TreeMap, because it allows null values, which stand for empty files.
+      files.computeIfAbsent(groupOf(entry.getKey()), group -> new TreeMap<>()).put(
+          entry.getKey(), entry.getValue());
+    }
+    Map<PathFragment, Map<PathFragment, PathFragment>> symlinks = new TreeMap<>();
+    for (Map.Entry<PathFragment, PathFragment> entry : inputs.getSymlinks().entrySet()) {
+      symlinks.computeIfAbsent(groupOf(entry.getKey()), group -> new TreeMap<>()).put(
+          entry.getKey(), entry.getValue());
+    }
+    Set<PathFragment> groups = new TreeSet<>(files.keySet());
+    groups.addAll(symlinks.keySet());
+    if (groups.size() <= 1) {
+      return ImmutableList.of(inputs);
+    }
+
+    // Keep the largest groups on their own, and merge the rest into the last one.
+    List<PathFragment> bySize = new ArrayList<>(groups);
+    bySize.sort(
+        Comparator.<PathFragment>comparingInt(
+                group ->
+                    files.getOrDefault(group, ImmutableMap.of()).size()
+                        + symlinks.getOrDefault(group, ImmutableMap.of()).size())
+            .reversed()
+            .thenComparing(Comparator.naturalOrder()));
+    Set<PathFragment> ownGroups =
+        new HashSet<>(bySize.subList(0, Math.min(bySize.size(), MAX_GROUPS - 1)));
+    ImmutableList.Builder<SandboxInputs> result = ImmutableList.builder();
+    Map<PathFragment, Path> mergedFiles = new TreeMap<>();
+    Map<PathFragment, PathFragment> mergedSymlinks = new TreeMap<>();
+    for (PathFragment group : groups) {
+      Map<PathFragment, Path> groupFiles = files.getOrDefault(group, ImmutableMap.of());
+      Map<PathFragment, PathFragment> groupSymlinks =
+          symlinks.getOrDefault(group, ImmutableMap.of());
+      if (ownGroups.contains(group)) {
+        result.add(new SandboxInputs(groupFiles, groupSymlinks));
+      } else {
+        mergedFiles.putAll(groupFiles);
+        mergedSymlinks.putAll(groupSymlinks);
+      }
+    }
+    if (!mergedFiles.isEmpty() || !mergedSymlinks.isEmpty()) {
+      result.add(new SandboxInputs(mergedFiles, mergedSymlinks));
+    }
+    return result.build();
+  }
+
+  private static PathFragment groupOf(PathFragment execPath) {
+    return execPath.subFragment(0, Math.min(execPath.segmentCount() - 1, 2));
+  }
+
+  /** Computes the key of the tree for {@code inputs}. */
+  private static String computeKey(SandboxInputs inputs) {
+    Fingerprint fp = new Fingerprint();
+    // The maps are sorted, so equal inputs always produce the same key.
+    fp.addInt(inputs.getFiles().size());
+    for (Map.Entry<PathFragment, Path> entry : inputs.getFiles().entrySet()) {
+      fp.addPath(entry.getKey());
+      Path source = entry.getValue();
+      if (source == null) {
+        fp.addBoolean(false);
+        continue;
+      }
+      fp.addBoolean(true);
+      fp.addPath(source.asFragment());
+    }
+    fp.addInt(inputs.getSymlinks().size());
+    for (Map.Entry<PathFragment, PathFragment> entry : inputs.getSymlinks().entrySet()) {
+      fp.addPath(entry.getKey());
+      fp.addPath(entry.getValue());
+    }
+    return fp.hexDigestAndReset();
+  }
+
+  private void createTree(Path root, SandboxInputs inputs) throws IOException {
+    Set<Path> dirsToCreate = new LinkedHashSet<>();
+    dirsToCreate.add(root);
+    for (PathFragment path :
+        Iterables.concat(inputs.getFiles().keySet(), inputs.getSymlinks().keySet())) {
+      Preconditions.checkArgument(!path.isAbsolute());
+      Preconditions.checkArgument(!path.containsUplevelReferences());
+      for (int i = 0; i < path.segmentCount(); i++) {
+        dirsToCreate.add(root.getRelative(path.subFragment(0, i)));
+      }
+    }
+    root.getParentDirectory().createDirectoryAndParents();
+    for (Path dir : dirsToCreate) {
+      dir.createDirectory();
+    }
+
+    for (Map.Entry<PathFragment, Path> entry : inputs.getFiles().entrySet()) {
+      Path target = root.getRelative(entry.getKey());
+      Path source = entry.getValue();
+      // A null value means that we're supposed to create an empty file as the input.
+      if (source == null) {
+        FileSystemUtils.createEmptyFile(target);
+      } else {
+        target.createSymbolicLink(source);
+      }
+    }
+
+    for (Map.Entry<PathFragment, PathFragment> entry : inputs.getSymlinks().entrySet()) {
+      root.getRelative(entry.getKey()).createSymbolicLink(entry.getValue());
+    }
+  }
+}
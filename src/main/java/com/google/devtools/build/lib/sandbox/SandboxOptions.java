@@ -342,6 +342,32 @@ public class SandboxOptions extends OptionsBase {
               + "are contained in the tree artifact will be symlinked as individual files.")
   public boolean symlinkedSandboxExpandsTreeArtifactsInRunfilesTree;
 
+  @Option(
+      name = "experimental_linux_sandbox_overlay_inputs",
+      defaultValue = "false",
+      documentationCategory = OptionDocumentationCategory.EXECUTION_STRATEGY,
+      effectTags = {OptionEffectTag.EXECUTION},
+      help =
+          "If true, the linux sandbox stages the inputs of actions in trees of symlinks, one "
+              + "per group of inputs of the same directory, that actions with the same inputs in "
+              + "the group share, and stacks them read-only on each action's execroot with an "
+              + "overlay. This avoids creating and deleting one symlink per "
+              + "input for every action. Requires a kernel that allows overlay mounts in user "
+              + "namespaces, otherwise inputs are symlinked as usual.")
+  public boolean linuxSandboxOverlayInputs;
+
+  @Option(
+      name = "experimental_reuse_sandbox_directories",
+      defaultValue = "false",
+      documentationCategory = OptionDocumentationCategory.EXECUTION_STRATEGY,
+      effectTags = {OptionEffectTag.EXECUTION},
+      help =
+          "If true, the symlinked linux and processwrapper sandboxes reuse the sandbox "
+              + "directories of earlier actions instead of creating and deleting one per action. "
+              + "Only the inputs that differ from the earlier action's are created or deleted, "
+              + "and its outputs and any other files it left are deleted.")
+  public boolean reuseSandboxDirectories;
+
   @Option(
       name = "experimental_sandbox_async_tree_delete_idle_threads",
       defaultValue = "0",
@@ -14,21 +14,43 @@
 
 package com.google.devtools.build.lib.sandbox;
 
+import com.google.common.collect.Iterables;
 import com.google.devtools.build.lib.exec.TreeDeleter;
 import com.google.devtools.build.lib.sandbox.SandboxHelpers.SandboxInputs;
 import com.google.devtools.build.lib.sandbox.SandboxHelpers.SandboxOutputs;
+import com.google.devtools.build.lib.vfs.Dirent;
 import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.PathFragment;
+import com.google.devtools.build.lib.vfs.Symlinks;
 import java.io.IOException;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.logging.Logger;
 import javax.annotation.Nullable;
 
 /**
  * Creates an execRoot for a Spawn that contains input files as symlinks to their original
  * destination.
+ *
+ * <p>If given a {@link SandboxDirectoryPool}, the spawn takes over a sandbox directory of an
+ * earlier spawn and returns it to the pool when done, instead of deleting it. It then only deletes
+ * what it does not need from the earlier spawn's files, including any outputs and stray files, and
+ * only creates the symlinks that are missing.
  */
 public class SymlinkedSandboxedSpawn extends AbstractContainerizingSandboxedSpawn {
+  private static final Logger logger = Logger.getLogger(SymlinkedSandboxedSpawn.class.getName());
+
+  private final Path sandboxPath;
+  private final SandboxInputs inputs;
+  private final SandboxOutputs outputs;
+  private final Set<Path> writableDirs;
+  @Nullable private final SandboxDirectoryPool directoryPool;
+
+  /** The inputs that the previous spawn using the sandbox directory left in place. */
+  private final Set<PathFragment> reusedInputs = new HashSet<>();
 
   public SymlinkedSandboxedSpawn(
       Path sandboxPath,
@@ -40,6 +62,30 @@ public class SymlinkedSandboxedSpawn extends AbstractContainerizingSandboxedSpaw
       Set<Path> writableDirs,
       TreeDeleter treeDeleter,
       @Nullable Path statisticsPath) {
+    this(
+        sandboxPath,
+        sandboxExecRoot,
+        arguments,
+        environment,
+        inputs,
+        outputs,
+        writableDirs,
+        treeDeleter,
+        statisticsPath,
+        /* directoryPool= */ null);
+  }
+
+  public SymlinkedSandboxedSpawn(
+      Path sandboxPath,
+      Path sandboxExecRoot,
+      List<String> arguments,
+      Map<String, String> environment,
+      SandboxInputs inputs,
+      SandboxOutputs outputs,
+      Set<Path> writableDirs,
+      TreeDeleter treeDeleter,
+      @Nullable Path statisticsPath,
+      @Nullable SandboxDirectoryPool directoryPool) {
     super(
         sandboxPath,
         sandboxExecRoot,
@@ -50,10 +96,128 @@ public class SymlinkedSandboxedSpawn extends AbstractContainerizingSandboxedSpaw
         writableDirs,
         treeDeleter,
         statisticsPath);
+    this.sandboxPath = sandboxPath;
+    this.inputs = inputs;
+    this.outputs = outputs;
+    this.writableDirs = writableDirs;
+    this.directoryPool = directoryPool;
+  }
+
+  @Override
+  public void createFileSystem() throws IOException {
+    if (directoryPool != null) {
+      try {
+        cleanUpPreviousSpawn();
+      } catch (IOException e) {
+        // E.g. the previous spawn made some directory unreadable. Start over from scratch.
+        logger.warning("Failed to reuse sandbox directory " + sandboxPath + ": " + e);
+        reusedInputs.clear();
+        sandboxPath.deleteTree();
+        getSandboxExecRoot().createDirectoryAndParents();
+      }
+    }
+    super.createFileSystem();
+  }
+
+  /**
+   * Deletes the files of the previous spawn that used the sandbox directory, except for the input
+   * symlinks that this spawn needs too.
+   */
+  private void cleanUpPreviousSpawn() throws IOException {
+    Path sandboxExecRoot = getSandboxExecRoot();
+    // Everything outside of the execroot, e.g. statistics, belongs to the previous spawn.
+    for (Path dir = sandboxExecRoot; !dir.equals(sandboxPath); dir = dir.getParentDirectory()) {
+      Path parent = dir.getParentDirectory();
+      for (Path sibling : parent.getDirectoryEntries()) {
+        if (!sibling.equals(dir)) {
+          sibling.deleteTree();
+        }
+      }
+    }
+
+    Set<PathFragment> dirsToKeep = new HashSet<>();
+    for (PathFragment path :
+        Iterables.concat(
+            inputs.getFiles().keySet(),
+            inputs.getSymlinks().keySet(),
+            outputs.files(),
+            outputs.dirs())) {
+      for (int i = 0; i < path.segmentCount(); i++) {
+        dirsToKeep.add(path.subFragment(0, i));
+      }
+    }
+    for (Path dir : writableDirs) {
+      if (dir.startsWith(sandboxExecRoot)) {
+        for (PathFragment path = dir.relativeTo(sandboxExecRoot);
+            path != null;
+            path = path.getParentDirectory()) {
+          dirsToKeep.add(path);
+        }
+      }
+    }
+    cleanUpDirectory(sandboxExecRoot, PathFragment.EMPTY_FRAGMENT, dirsToKeep);
+  }
+
+  private void cleanUpDirectory(Path dir, PathFragment execPath, Set<PathFragment> dirsToKeep)
+      throws IOException {
+    for (Dirent dirent : dir.readdir(Symlinks.NOFOLLOW)) {
+      PathFragment childExecPath = execPath.getRelative(dirent.getName());
+      Path child = dir.getChild(dirent.getName());
+      if (dirent.getType() == Dirent.Type.DIRECTORY && dirsToKeep.contains(childExecPath)) {
+        cleanUpDirectory(child, childExecPath, dirsToKeep);
+        continue;
+      }
+      if (dirent.getType() == Dirent.Type.SYMLINK && isInput(childExecPath, child)) {
+        reusedInputs.add(childExecPath);
+        continue;
+      }
+      child.deleteTree();
+    }
+  }
+
+  /** Returns whether {@code symlink} is the input at {@code execPath}, as this spawn needs it. */
+  private boolean isInput(PathFragment execPath, Path symlink) throws IOException {
+    Path source = inputs.getFiles().get(execPath);
+    if (source != null) {
+      return symlink.readSymbolicLink().equals(source.asFragment());
+    }
+    PathFragment target = inputs.getSymlinks().get(execPath);
+    return target != null && symlink.readSymbolicLink().equals(target);
+  }
+
+  @Override
+  protected void createInputs(SandboxInputs inputs) throws IOException {
+    if (reusedInputs.isEmpty()) {
+      super.createInputs(inputs);
+      return;
+    }
+    Map<PathFragment, Path> files = new TreeMap<>();
+    for (Map.Entry<PathFragment, Path> entry : inputs.getFiles().entrySet()) {
+      if (!reusedInputs.contains(entry.getKey())) {
+        files.put(entry.getKey(), entry.getValue());
+      }
+    }
+    Map<PathFragment, PathFragment> symlinks = new TreeMap<>();
+    for (Map.Entry<PathFragment, PathFragment> entry : inputs.getSymlinks().entrySet()) {
+      if (!reusedInputs.contains(entry.getKey())) {
+        symlinks.put(entry.getKey(), entry.getValue());
+      }
+    }
+    super.createInputs(new SandboxInputs(files, symlinks));
   }
 
   @Override
   protected void copyFile(Path source, Path target) throws IOException {
     target.createSymbolicLink(source);
   }
+
+  @Override
+  public void delete() {
+    if (directoryPool != null) {
+      // The next spawn using the directory cleans it up.
+      directoryPool.release(sandboxPath);
+    } else {
+      super.delete();
+    }
+  }
 }
@@ -106,6 +106,16 @@ public class JavaSubprocessFactory implements SubprocessFactory {
       return process.getInputStream();
     }
 
+    @Override
+    public long getProcessId() {
+      // TODO(bazel-team): Call Process.pid() directly once we can rely on Java 9.
+      try {
+        return (Long) Process.class.getMethod("pid").invoke(process);
+      } catch (ReflectiveOperationException e) {
+        return -1;
+      }
+    }
+
     @Override
     public void close() {
       // java.lang.Process doesn't give us a way to clean things up other than #destroy(), which was
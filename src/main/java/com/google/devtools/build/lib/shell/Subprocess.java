@@ -65,6 +65,13 @@ public interface Subprocess extends Closeable {
    */
   InputStream getErrorStream();
 
+  /**
+   * Returns the operating system's id of the process, or -1 if the implementation cannot tell.
+   */
+  default long getProcessId() {
+    return -1;
+  }
+
   /*
    * Terminates the process as thoroughly as the underlying implementation allows and releases
    * native data structures associated with the process.
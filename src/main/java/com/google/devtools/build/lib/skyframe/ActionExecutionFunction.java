@@ -164,7 +164,7 @@ public class ActionExecutionFunction implements SkyFunction {
       if (sketch == null) {
         return null;
       }
-      ActionExecutionValue actionExecutionValue = topDownActionCache.get(sketch);
+      ActionExecutionValue actionExecutionValue = topDownActionCache.get(sketch, action);
       if (actionExecutionValue != null) {
         return actionExecutionValue.transformForSharedAction(action.getOutputs());
       }
@@ -306,7 +306,7 @@ public class ActionExecutionFunction implements SkyFunction {
     // Remove action from state map in case it's there (won't be unless it discovers inputs).
     stateMap.remove(action);
     if (sketch != null && result.dataIsShareable()) {
-      topDownActionCache.put(sketch, result);
+      topDownActionCache.put(sketch, action, result);
     }
     return result;
   }
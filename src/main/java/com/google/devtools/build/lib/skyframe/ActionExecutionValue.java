@@ -117,7 +117,7 @@ public class ActionExecutionValue implements SkyValue {
         actionDependsOnBuildId);
   }
 
-  static ActionExecutionValue create(
+  public static ActionExecutionValue create(
       Map<Artifact, FileArtifactValue> artifactData,
       Map<Artifact, TreeArtifactValue> treeArtifactData,
       @Nullable ImmutableList<FilesetOutputSymlink> outputSymlinks,
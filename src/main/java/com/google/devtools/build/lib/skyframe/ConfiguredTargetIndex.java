@@ -0,0 +1,127 @@
+// Copyright 2019 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.skyframe;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.devtools.build.lib.analysis.config.BuildConfiguration;
+import com.google.devtools.build.lib.cmdline.Label;
+import com.google.devtools.build.lib.concurrent.ThreadSafety.ThreadSafe;
+import com.google.devtools.build.skyframe.EvaluationProgressReceiver.EvaluationState;
+import com.google.devtools.build.skyframe.EvaluationProgressReceiver.InvalidationState;
+import com.google.devtools.build.skyframe.SkyKey;
+import com.google.devtools.build.skyframe.SkyValue;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.annotation.Nullable;
+
+/**
+ * Indices over the analysis nodes that are done in the Skyframe graph, for the use of the
+ * post-analysis queries.
+ *
+ * <p>The index is kept up to date incrementally by the {@link SkyframeExecutor}'s progress
+ * receiver: a node is added when it is evaluated with a value, and removed when it is deleted or
+ * re-evaluated to an error. A node that is only dirtied keeps its entry, since it is either
+ * re-verified as clean, which the receiver reports without a value, or re-evaluated. Since the
+ * index sees every evaluation from the creation of the evaluator on, a configured target that is
+ * not in the index is not done in the graph, so lookups of labels that were never analyzed in a
+ * given configuration need not touch the graph.
+ */
+@ThreadSafe
+public final class ConfiguredTargetIndex {
+  private final Map<Label, Set<ConfiguredTargetKey>> keysByLabel = new ConcurrentHashMap<>();
+  private final Map<BuildConfigurationValue.Key, BuildConfiguration> configurationsByKey =
+      new ConcurrentHashMap<>();
+  private final Map<String, BuildConfiguration> configurationsByChecksum =
+      new ConcurrentHashMap<>();
+
+  /**
+   * Records that {@code key} is done in the graph with the given value, which is null if the node
+   * is in error or was re-verified as clean.
+   */
+  void evaluated(SkyKey key, @Nullable SkyValue value, EvaluationState state) {
+    if (value == null) {
+      if (state == EvaluationState.BUILT) {
+        remove(key);
+      }
+      return;
+    }
+    if (key instanceof ConfiguredTargetKey) {
+      ConfiguredTargetKey ctKey = (ConfiguredTargetKey) key;
+      keysByLabel
+          .computeIfAbsent(ctKey.getLabel(), k -> ConcurrentHashMap.newKeySet())
+          .add(ctKey);
+    } else if (key instanceof BuildConfigurationValue.Key) {
+      BuildConfiguration configuration = ((BuildConfigurationValue) value).getConfiguration();
+      BuildConfiguration previous =
+          configurationsByKey.put((BuildConfigurationValue.Key) key, configuration);
+      if (previous != null) {
+        configurationsByChecksum.remove(previous.checksum(), previous);
+      }
+      configurationsByChecksum.put(configuration.checksum(), configuration);
+    }
+  }
+
+  /** Records that {@code key} was invalidated in the graph. */
+  void invalidated(SkyKey key, InvalidationState state) {
+    if (state == InvalidationState.DELETED) {
+      remove(key);
+    }
+  }
+
+  private void remove(SkyKey key) {
+    if (key instanceof ConfiguredTargetKey) {
+      ConfiguredTargetKey ctKey = (ConfiguredTargetKey) key;
+      Set<ConfiguredTargetKey> keys = keysByLabel.get(ctKey.getLabel());
+      if (keys != null) {
+        keys.remove(ctKey);
+      }
+    } else if (key instanceof BuildConfigurationValue.Key) {
+      BuildConfiguration configuration = configurationsByKey.remove(key);
+      if (configuration != null) {
+        configurationsByChecksum.remove(configuration.checksum(), configuration);
+      }
+    }
+  }
+
+  void clear() {
+    keysByLabel.clear();
+    configurationsByKey.clear();
+    configurationsByChecksum.clear();
+  }
+
+  /** Returns whether the configured target {@code key} may be done in the graph. */
+  public boolean contains(ConfiguredTargetKey key) {
+    Set<ConfiguredTargetKey> keys = keysByLabel.get(key.getLabel());
+    return keys != null && keys.contains(key);
+  }
+
+  /** Returns the keys of all configured targets of {@code label} that are done in the graph. */
+  public ImmutableSet<ConfiguredTargetKey> getKeys(Label label) {
+    Set<ConfiguredTargetKey> keys = keysByLabel.get(label);
+    return keys == null ? ImmutableSet.of() : ImmutableSet.copyOf(keys);
+  }
+
+  /** Returns the configuration for {@code key}, or null if it is not done in the graph. */
+  @Nullable
+  public BuildConfiguration getConfiguration(BuildConfigurationValue.Key key) {
+    return configurationsByKey.get(key);
+  }
+
+  /** Returns the configuration with the given checksum, or null if there is none in the graph. */
+  @Nullable
+  public BuildConfiguration getConfigurationByChecksum(String checksum) {
+    return configurationsByChecksum.get(checksum);
+  }
+}
@@ -14,7 +14,9 @@
 package com.google.devtools.build.lib.skyframe;
 
 import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Interner;
+import com.google.common.collect.Maps;
 import com.google.devtools.build.lib.concurrent.BlazeInterners;
 import com.google.devtools.build.lib.concurrent.ThreadSafety.ThreadSafe;
 import com.google.devtools.build.lib.skyframe.serialization.autocodec.AutoCodec;
@@ -30,7 +32,9 @@ import java.util.Arrays;
 import java.util.BitSet;
 import java.util.Collection;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.Map;
 import java.util.Objects;
 import javax.annotation.Nullable;
 
@@ -116,6 +120,13 @@ public final class DirectoryListingStateValue implements SkyValue {
     private final String[] names;
     private final BitSet packedTypes;
 
+    /**
+     * Positions of the entries by extension, built on the first call to {@link #withExtension}.
+     * Many globs of many packages ask a directory for the same few extensions, and the index lives
+     * exactly as long as the listing, so it never needs to be updated in place.
+     */
+    @Nullable private transient volatile Map<String, int[]> extensionIndex;
+
     private CompactSortedDirents(String[] names, BitSet packedTypes) {
       this.names = names;
       this.packedTypes = packedTypes;
@@ -168,6 +179,50 @@ public final class DirectoryListingStateValue implements SkyValue {
       return pos < 0 ? null : direntAt(pos);
     }
 
+    @Override
+    public Iterable<Dirent> withExtension(String extension) {
+      Map<String, int[]> index = extensionIndex;
+      if (index == null) {
+        index = buildExtensionIndex(names);
+        extensionIndex = index;
+      }
+      int[] positions = index.get(extension);
+      if (positions == null) {
+        return ImmutableList.of();
+      }
+      ImmutableList.Builder<Dirent> result = ImmutableList.builderWithExpectedSize(positions.length);
+      for (int pos : positions) {
+        result.add(direntAt(pos));
+      }
+      return result.build();
+    }
+
+    private static Map<String, int[]> buildExtensionIndex(String[] names) {
+      Map<String, Integer> counts = new HashMap<>();
+      for (String name : names) {
+        String extension = getExtension(name);
+        if (extension != null) {
+          counts.merge(extension, 1, Integer::sum);
+        }
+      }
+      Map<String, int[]> index = Maps.newHashMapWithExpectedSize(counts.size());
+      // Fill each array back to front, using the remaining count as the next free slot.
+      for (int i = names.length - 1; i >= 0; i--) {
+        String extension = getExtension(names[i]);
+        if (extension != null) {
+          int[] positions = index.computeIfAbsent(extension, e -> new int[counts.get(e)]);
+          positions[counts.merge(extension, -1, Integer::sum)] = i;
+        }
+      }
+      return index;
+    }
+
+    @Nullable
+    private static String getExtension(String name) {
+      int lastDot = name.lastIndexOf('.');
+      return lastDot == -1 ? null : name.substring(lastDot + 1);
+    }
+
     @Override
     public Iterator<Dirent> iterator() {
       return new Iterator<Dirent>() {
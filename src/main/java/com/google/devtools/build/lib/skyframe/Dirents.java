@@ -27,5 +27,11 @@ public interface Dirents extends Iterable<Dirent> {
 
   @Nullable
   Dirent maybeGetDirent(String baseName);
+
+  /**
+   * Returns the entries whose basename has the given extension, that is, whose part after the last
+   * '.' is {@code extension}, in iteration order.
+   */
+  Iterable<Dirent> withExtension(String extension);
 }
 
@@ -166,7 +166,7 @@ public final class GlobFunction implements SkyFunction {
       Map<Dirent, Object> sortedResultMap = Maps.newTreeMap();
       String subdirPattern = patternHeadIsStarStar ? glob.getPattern() : patternTail;
       // First pass: do normal files and collect SkyKeys to request for subdirectories and symlinks.
-      for (Dirent dirent : listingValue.getDirents()) {
+      for (Dirent dirent : getCandidateDirents(listingValue.getDirents(), patternHead)) {
         Dirent.Type direntType = dirent.getType();
         String fileName = dirent.getName();
         if (!UnixGlob.matches(patternHead, fileName, regexPatternCache)) {
@@ -297,6 +297,20 @@ public final class GlobFunction implements SkyFunction {
     }
   }
 
+  /**
+   * Returns the dirents that may match {@code pattern}. When the pattern ends with a literal
+   * extension, as in "*.java" or "foo*.pb.h", only the dirents with that extension are returned,
+   * using the per-directory index that is shared by all the globs over this directory listing.
+   */
+  private static Iterable<Dirent> getCandidateDirents(Dirents dirents, String pattern) {
+    int lastWildcard = Math.max(pattern.lastIndexOf('*'), pattern.lastIndexOf('?'));
+    int lastDot = pattern.lastIndexOf('.');
+    if (lastDot <= lastWildcard) {
+      return dirents;
+    }
+    return dirents.withExtension(pattern.substring(lastDot + 1));
+  }
+
   /** Returns true if the given pattern contains globs. */
   private static boolean containsGlobs(String pattern) {
     return pattern.contains("*") || pattern.contains("?");
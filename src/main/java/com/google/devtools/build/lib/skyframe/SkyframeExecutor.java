@@ -119,6 +119,7 @@ import com.google.devtools.build.lib.packages.RuleClassProvider;
 import com.google.devtools.build.lib.packages.RuleVisibility;
 import com.google.devtools.build.lib.packages.StarlarkSemanticsOptions;
 import com.google.devtools.build.lib.packages.WorkspaceFileValue;
+import com.google.devtools.build.lib.pkgcache.BulkPackageProvider.PackageOrException;
 import com.google.devtools.build.lib.pkgcache.LoadingOptions;
 import com.google.devtools.build.lib.pkgcache.PackageCacheOptions;
 import com.google.devtools.build.lib.pkgcache.PackageManager;
@@ -206,6 +207,7 @@ import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Consumer;
 import java.util.function.Supplier;
@@ -263,6 +265,8 @@ public abstract class SkyframeExecutor implements WalkableGraphFactory {
   private final Cache<PackageIdentifier, AstParseResult> astCache = newAstCache();
 
   private final AtomicInteger numPackagesLoaded = new AtomicInteger(0);
+  private final AtomicLong packageGraphVersion = new AtomicLong();
+  private final ConfiguredTargetIndex configuredTargetIndex = new ConfiguredTargetIndex();
   @Nullable private final PackageProgressReceiver packageProgress;
   @Nullable private final ConfiguredTargetProgressReceiver configuredTargetProgress;
 
@@ -756,6 +760,7 @@ public abstract class SkyframeExecutor implements WalkableGraphFactory {
    * factory methods and as an implementation detail of {@link #resetEvaluator}).
    */
   protected void init() {
+    configuredTargetIndex.clear();
     progressReceiver = newSkyframeProgressReceiver();
     ImmutableMap<SkyFunctionName, SkyFunction> skyFunctions = skyFunctions(pkgFactory);
     memoizingEvaluator =
@@ -810,6 +815,7 @@ public abstract class SkyframeExecutor implements WalkableGraphFactory {
 
   /** Reinitializes the Skyframe evaluator, dropping all previously computed values. */
   public void resetEvaluator() {
+    packageGraphVersion.incrementAndGet();
     init();
     emittedEventState.clear();
     clearTrimmingCache();
@@ -964,6 +970,20 @@ public abstract class SkyframeExecutor implements WalkableGraphFactory {
           SkyFunctions.AST_FILE_LOOKUP,
           SkyFunctions.GLOB);
 
+  /**
+   * Types whose invalidation may change the package graph as seen by query: the contents of
+   * packages, which packages exist, and what target patterns expand to. Invalidation propagates
+   * eagerly to reverse deps, so any change that can affect these values dirties one of them.
+   */
+  private static final ImmutableSet<SkyFunctionName> PACKAGE_GRAPH_TYPES =
+      ImmutableSet.of(
+          SkyFunctions.PACKAGE,
+          SkyFunctions.PACKAGE_LOOKUP,
+          SkyFunctions.TARGET_PATTERN,
+          SkyFunctions.PREPARE_DEPS_OF_PATTERN,
+          SkyFunctions.COLLECT_PACKAGES_UNDER_DIRECTORY,
+          SkyFunctions.RECURSIVE_PKG);
+
   /** Data that should be discarded in {@link #discardPreExecutionCache}. */
   protected enum DiscardType {
     ALL,
@@ -2572,29 +2592,66 @@ public abstract class SkyframeExecutor implements WalkableGraphFactory {
                 eventHandler);
         ErrorInfo error = result.getError(key);
         if (error != null) {
-          if (!Iterables.isEmpty(error.getCycleInfo())) {
-            reportCycles(eventHandler, result.getError().getCycleInfo(), key);
-            // This can only happen if a package is freshly loaded outside of the target parsing
-            // or loading phase
-            throw new BuildFileContainsErrorsException(
-                pkgName, "Cycle encountered while loading package " + pkgName);
-          }
-          Throwable e = error.getException();
-          // PackageFunction should be catching, swallowing, and rethrowing all transitive
-          // errors as NoSuchPackageExceptions or constructing packages with errors, since we're in
-          // keep_going mode.
-          Throwables.propagateIfInstanceOf(e, NoSuchPackageException.class);
-          throw new IllegalStateException(
-              "Unexpected Exception type from PackageValue for '"
-                  + pkgName
-                  + "'' with root causes: "
-                  + Iterables.toString(error.getRootCauses()),
-              e);
+          throw packageException(eventHandler, pkgName, error);
         }
         return result.get(key).getPackage();
       }
     }
 
+    /**
+     * Looks up the given packages in a single evaluation, so that those that are not loaded yet
+     * are loaded in parallel. See {@link #getPackage}.
+     */
+    ImmutableMap<PackageIdentifier, PackageOrException> getPackages(
+        ExtendedEventHandler eventHandler, Iterable<PackageIdentifier> pkgNames, int numThreads)
+        throws InterruptedException {
+      synchronized (valueLookupLock) {
+        ImmutableSet.Builder<SkyKey> keysBuilder = ImmutableSet.builder();
+        for (PackageIdentifier pkgName : pkgNames) {
+          keysBuilder.add(PackageValue.key(pkgName));
+        }
+        ImmutableSet<SkyKey> keys = keysBuilder.build();
+        EvaluationResult<PackageValue> result =
+            evaluate(keys, /*keepGoing=*/ true, numThreads, eventHandler);
+        ImmutableMap.Builder<PackageIdentifier, PackageOrException> packages =
+            ImmutableMap.builder();
+        for (SkyKey key : keys) {
+          PackageIdentifier pkgName = (PackageIdentifier) key.argument();
+          ErrorInfo error = result.getError(key);
+          packages.put(
+              pkgName,
+              error != null
+                  ? PackageOrException.ofException(packageException(eventHandler, pkgName, error))
+                  : PackageOrException.of(result.get(key).getPackage()));
+        }
+        return packages.build();
+      }
+    }
+
+    private NoSuchPackageException packageException(
+        ExtendedEventHandler eventHandler, PackageIdentifier pkgName, ErrorInfo error) {
+      if (!Iterables.isEmpty(error.getCycleInfo())) {
+        reportCycles(eventHandler, error.getCycleInfo(), PackageValue.key(pkgName));
+        // This can only happen if a package is freshly loaded outside of the target parsing
+        // or loading phase
+        return new BuildFileContainsErrorsException(
+            pkgName, "Cycle encountered while loading package " + pkgName);
+      }
+      Throwable e = error.getException();
+      // PackageFunction should be catching, swallowing, and rethrowing all transitive
+      // errors as NoSuchPackageExceptions or constructing packages with errors, since we're in
+      // keep_going mode.
+      if (e instanceof NoSuchPackageException) {
+        return (NoSuchPackageException) e;
+      }
+      throw new IllegalStateException(
+          "Unexpected Exception type from PackageValue for '"
+              + pkgName
+              + "'' with root causes: "
+              + Iterables.toString(error.getRootCauses()),
+          e);
+    }
+
     /** Returns whether the given package should be consider deleted and thus should be ignored. */
     public boolean isPackageDeleted(PackageIdentifier packageName) {
       Preconditions.checkState(
@@ -2798,6 +2855,20 @@ public abstract class SkyframeExecutor implements WalkableGraphFactory {
     return packageProgress;
   }
 
+  /**
+   * Returns a number that changes whenever a package, the set of existing packages, or the
+   * expansion of a target pattern may have changed. Only meaningful after the pending diffs of the
+   * current command were applied by an evaluation.
+   */
+  public long getPackageGraphVersion() {
+    return packageGraphVersion.get();
+  }
+
+  /** Returns the index of the configured targets and configurations that are done in the graph. */
+  public ConfiguredTargetIndex getConfiguredTargetIndex() {
+    return configuredTargetIndex;
+  }
+
   public TargetPatternPhaseValue loadTargetPatterns(
       ExtendedEventHandler eventHandler,
       List<String> targetPatterns,
@@ -2925,6 +2996,10 @@ public abstract class SkyframeExecutor implements WalkableGraphFactory {
     @Override
     public void invalidated(SkyKey skyKey, InvalidationState state) {
       trimmingListener.invalidated(skyKey, state);
+      if (PACKAGE_GRAPH_TYPES.contains(skyKey.functionName())) {
+        packageGraphVersion.incrementAndGet();
+      }
+      configuredTargetIndex.invalidated(skyKey, state);
       if (ignoreInvalidations) {
         return;
       }
@@ -2950,6 +3025,7 @@ public abstract class SkyframeExecutor implements WalkableGraphFactory {
         Supplier<EvaluationSuccessState> evaluationSuccessState,
         EvaluationState state) {
       trimmingListener.evaluated(skyKey, value, evaluationSuccessState, state);
+      configuredTargetIndex.evaluated(skyKey, value, state);
       if (ignoreInvalidations) {
         return;
       }
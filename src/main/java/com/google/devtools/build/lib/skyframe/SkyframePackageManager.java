@@ -14,6 +14,7 @@
 package com.google.devtools.build.lib.skyframe;
 
 import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableMap;
 import com.google.devtools.build.lib.cmdline.Label;
 import com.google.devtools.build.lib.cmdline.PackageIdentifier;
 import com.google.devtools.build.lib.concurrent.ThreadSafety.ThreadSafe;
@@ -23,6 +24,7 @@ import com.google.devtools.build.lib.packages.NoSuchPackageException;
 import com.google.devtools.build.lib.packages.NoSuchTargetException;
 import com.google.devtools.build.lib.packages.Package;
 import com.google.devtools.build.lib.packages.Target;
+import com.google.devtools.build.lib.pkgcache.BulkPackageProvider.PackageOrException;
 import com.google.devtools.build.lib.pkgcache.PackageManager;
 import com.google.devtools.build.lib.pkgcache.PathPackageLocator;
 import com.google.devtools.build.lib.pkgcache.TargetPatternPreloader;
@@ -74,6 +76,13 @@ class SkyframePackageManager implements PackageManager, CachingPackageLocator {
     return packageLoader.getPackage(eventHandler, packageIdentifier);
   }
 
+  @Override
+  public ImmutableMap<PackageIdentifier, PackageOrException> getPackages(
+      ExtendedEventHandler eventHandler, Iterable<PackageIdentifier> pkgIds, int parallelThreads)
+      throws InterruptedException {
+    return packageLoader.getPackages(eventHandler, pkgIds, parallelThreads);
+  }
+
   @Override
   public Target getTarget(ExtendedEventHandler eventHandler, Label label)
       throws NoSuchPackageException, NoSuchTargetException, InterruptedException {
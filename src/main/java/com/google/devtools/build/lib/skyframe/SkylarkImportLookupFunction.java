@@ -592,8 +592,9 @@ public class SkylarkImportLookupFunction implements SkyFunction {
     // A more accurate - however much more complicated - way would be to calculate a hash based on
     // the transitive closure of the accessible AST nodes.
     PathFragment extensionFile = extensionLabel.toPathFragment();
+    StarlarkThread extensionThread;
     try (Mutability mutability = Mutability.create("importing %s", extensionFile)) {
-      StarlarkThread extensionThread =
+      extensionThread =
           ruleClassProvider.createRuleClassStarlarkThread(
               extensionLabel,
               mutability,
@@ -612,8 +613,9 @@ public class SkylarkImportLookupFunction implements SkyFunction {
       if (eventHandler.hasErrors()) {
         throw SkylarkImportFailedException.errors(extensionFile);
       }
-      return new Extension(extensionThread);
     }
+    // Created once the module is frozen, so that its values can be compacted.
+    return new Extension(extensionThread);
   }
 
   // Precondition: file is validated and error-free.
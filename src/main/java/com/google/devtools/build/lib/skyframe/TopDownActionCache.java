@@ -13,6 +13,7 @@
 // limitations under the License.
 package com.google.devtools.build.lib.skyframe;
 
+import com.google.devtools.build.lib.actions.Action;
 import com.google.devtools.build.lib.actionsketch.ActionSketch;
 import javax.annotation.Nullable;
 
@@ -24,10 +25,17 @@ import javax.annotation.Nullable;
  */
 public interface TopDownActionCache {
 
-  /** Retrieves the cached value for the given action sketch, or null. */
+  /**
+   * Retrieves the cached value for the given action sketch of {@code action}, or null. The outputs
+   * of a returned value have the exec paths of the outputs of {@code action}, and are present.
+   */
   @Nullable
-  ActionExecutionValue get(ActionSketch sketch);
+  ActionExecutionValue get(ActionSketch sketch, Action action) throws InterruptedException;
 
-  /** Puts the sketch into the top-down cache. May complete asynchronously. */
-  void put(ActionSketch sketch, ActionExecutionValue value);
+  /**
+   * Puts the sketch of {@code action} and its value into the top-down cache. May complete
+   * asynchronously.
+   */
+  void put(ActionSketch sketch, Action action, ActionExecutionValue value)
+      throws InterruptedException;
 }
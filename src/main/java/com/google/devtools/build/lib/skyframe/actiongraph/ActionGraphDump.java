@@ -273,6 +273,24 @@ public class ActionGraphDump {
     return actionGraphBuilder.build();
   }
 
+  /** Returns the number of actions dumped since the last {@link #flush}. */
+  public int getPendingActionCount() {
+    return actionGraphBuilder.getActionsCount();
+  }
+
+  /**
+   * Returns everything dumped since the last call as a container fragment, and forgets it.
+   *
+   * <p>Ids stay stable across fragments: an artifact, configuration etc. is only emitted in the
+   * first fragment that refers to it, and later fragments refer to it by id. Concatenating the
+   * serialized fragments therefore yields a serialization of the full container.
+   */
+  public ActionGraphContainer flush() {
+    ActionGraphContainer fragment = actionGraphBuilder.build();
+    actionGraphBuilder.clear();
+    return fragment;
+  }
+
   /** Lazy initialization of paramFileNameToContentMap. */
   private Map<String, Iterable<String>> getParamFileNameToContentMap() {
     if (paramFileNameToContentMap == null) {
@@ -30,6 +30,7 @@ import com.google.devtools.build.lib.analysis.ConfiguredRuleClassProvider;
 import com.google.devtools.build.lib.analysis.ServerDirectories;
 import com.google.devtools.build.lib.clock.BlazeClock;
 import com.google.devtools.build.lib.cmdline.PackageIdentifier;
+import com.google.devtools.build.lib.events.ExtendedEventHandler;
 import com.google.devtools.build.lib.events.Reporter;
 import com.google.devtools.build.lib.packages.AstParseResult;
 import com.google.devtools.build.lib.packages.BuildFileContainsErrorsException;
@@ -41,6 +42,7 @@ import com.google.devtools.build.lib.packages.Package;
 import com.google.devtools.build.lib.packages.PackageFactory;
 import com.google.devtools.build.lib.packages.PackageFactory.EnvironmentExtension;
 import com.google.devtools.build.lib.packages.WorkspaceFileValue;
+import com.google.devtools.build.lib.pkgcache.BulkPackageProvider;
 import com.google.devtools.build.lib.pkgcache.PathPackageLocator;
 import com.google.devtools.build.lib.rules.repository.ManagedDirectoriesKnowledge;
 import com.google.devtools.build.lib.skyframe.ASTFileLookupFunction;
@@ -107,7 +109,7 @@ import javax.annotation.Nullable;
  * Abstract base class of a {@link PackageLoader} implementation that has no incrementality or
  * caching.
  */
-public abstract class AbstractPackageLoader implements PackageLoader {
+public abstract class AbstractPackageLoader implements PackageLoader, BulkPackageProvider {
 
   // See {@link PackageFactory.setMaxDirectoriesToEagerlyVisitInGlobbing}.
   private static final int MAX_DIRECTORIES_TO_EAGERLY_VISIT_IN_GLOBBING = 3000;
@@ -229,7 +231,7 @@ public abstract class AbstractPackageLoader implements PackageLoader {
       }
     }
 
-    public final PackageLoader build() {
+    public final AbstractPackageLoader build() {
       validate();
       externalFilesHelper =
           ExternalFilesHelper.create(
@@ -240,7 +242,7 @@ public abstract class AbstractPackageLoader implements PackageLoader {
       return buildImpl();
     }
 
-    protected abstract PackageLoader buildImpl();
+    protected abstract AbstractPackageLoader buildImpl();
 
     protected abstract ConfiguredRuleClassProvider getDefaultRuleClassProvider();
   }
@@ -305,18 +307,8 @@ public abstract class AbstractPackageLoader implements PackageLoader {
   @Override
   public ImmutableMap<PackageIdentifier, PackageLoader.PackageOrException> loadPackages(
       Iterable<? extends PackageIdentifier> pkgIds) throws InterruptedException {
-    ArrayList<SkyKey> keys = new ArrayList<>();
-    for (PackageIdentifier pkgId : ImmutableSet.copyOf(pkgIds)) {
-      keys.add(PackageValue.key(pkgId));
-    }
-
-    EvaluationContext evaluationContext =
-        EvaluationContext.newBuilder()
-            .setKeepGoing(true)
-            .setNumThreads(skyframeThreads)
-            .setEventHander(reporter)
-            .build();
-    EvaluationResult<PackageValue> evalResult = makeFreshDriver().evaluate(keys, evaluationContext);
+    ImmutableList<SkyKey> keys = packageKeys(pkgIds);
+    EvaluationResult<PackageValue> evalResult = evaluate(keys, skyframeThreads, reporter);
 
     ImmutableMap.Builder<PackageIdentifier, PackageLoader.PackageOrException> result =
         ImmutableMap.builder();
@@ -328,13 +320,60 @@ public abstract class AbstractPackageLoader implements PackageLoader {
       result.put(
           pkgId,
           error != null
-              ? new PackageOrException(null, exceptionFromErrorInfo(error, pkgId))
-              : new PackageOrException(packageValue.getPackage(), null));
+              ? new PackageLoader.PackageOrException(null, exceptionFromErrorInfo(error, pkgId))
+              : new PackageLoader.PackageOrException(packageValue.getPackage(), null));
     }
 
     return result.build();
   }
 
+  /**
+   * Like {@link #loadPackages}, but reports events to {@code eventHandler} and loads the packages
+   * with {@code parallelThreads} threads. As with all loads, the packages are not kept once they
+   * are returned, so each call loads them anew.
+   */
+  @Override
+  public ImmutableMap<PackageIdentifier, BulkPackageProvider.PackageOrException> getPackages(
+      ExtendedEventHandler eventHandler, Iterable<PackageIdentifier> pkgIds, int parallelThreads)
+      throws InterruptedException {
+    ImmutableList<SkyKey> keys = packageKeys(pkgIds);
+    EvaluationResult<PackageValue> evalResult = evaluate(keys, parallelThreads, eventHandler);
+
+    ImmutableMap.Builder<PackageIdentifier, BulkPackageProvider.PackageOrException> result =
+        ImmutableMap.builder();
+    for (SkyKey key : keys) {
+      ErrorInfo error = evalResult.getError(key);
+      PackageIdentifier pkgId = (PackageIdentifier) key.argument();
+      result.put(
+          pkgId,
+          error != null
+              ? BulkPackageProvider.PackageOrException.ofException(
+                  exceptionFromErrorInfo(error, pkgId))
+              : BulkPackageProvider.PackageOrException.of(evalResult.get(key).getPackage()));
+    }
+    return result.build();
+  }
+
+  private static ImmutableList<SkyKey> packageKeys(Iterable<? extends PackageIdentifier> pkgIds) {
+    ImmutableList.Builder<SkyKey> keys = ImmutableList.builder();
+    for (PackageIdentifier pkgId : ImmutableSet.copyOf(pkgIds)) {
+      keys.add(PackageValue.key(pkgId));
+    }
+    return keys.build();
+  }
+
+  private EvaluationResult<PackageValue> evaluate(
+      ImmutableList<SkyKey> keys, int numThreads, ExtendedEventHandler eventHandler)
+      throws InterruptedException {
+    EvaluationContext evaluationContext =
+        EvaluationContext.newBuilder()
+            .setKeepGoing(true)
+            .setNumThreads(numThreads)
+            .setEventHander(eventHandler)
+            .build();
+    return makeFreshDriver().evaluate(keys, evaluationContext);
+  }
+
   public ConfiguredRuleClassProvider getRuleClassProvider() {
     return ruleClassProvider;
   }
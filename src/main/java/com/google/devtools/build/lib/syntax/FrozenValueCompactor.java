@@ -0,0 +1,120 @@
+// Copyright 2019 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.devtools.build.lib.syntax;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Interner;
+import com.google.devtools.build.lib.concurrent.BlazeInterners;
+import com.google.devtools.build.lib.syntax.SkylarkList.MutableList;
+import com.google.devtools.build.lib.syntax.SkylarkList.Tuple;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Rewrites the values of a frozen Starlark module into compact representations.
+ *
+ * <p>Dicts and lists are built on a {@link java.util.LinkedHashMap} and an {@link
+ * java.util.ArrayList} respectively, which carry per-entry links and spare capacity for as long as
+ * they live. Once the {@link Mutability} of the module that created them is frozen they can never
+ * change again, so the compactor:
+ *
+ * <ul>
+ *   <li>copies the contents of each dict into an {@link ImmutableMap},
+ *   <li>trims the backing array of each list to its size,
+ *   <li>resets the {@code Mutability} of both to {@link Mutability#IMMUTABLE}, so that the
+ *       module's own {@code Mutability} is no longer retained by its values,
+ *   <li>replaces empty dicts and lists by shared empty instances, and
+ *   <li>replaces lists and tuples consisting only of strings, integers, booleans and {@code None}
+ *       by a canonical equal instance, shared across all modules.
+ * </ul>
+ *
+ * <p>Only dicts and lists that belong to the given {@code Mutability} are rewritten. Those are
+ * known not to be visible to other threads yet, whereas values loaded from other modules may
+ * already be read concurrently. Other values (structs, functions, ...) are left untouched.
+ */
+public final class FrozenValueCompactor {
+
+  private static final Interner<SkylarkList<?>> constantListInterner =
+      BlazeInterners.newWeakInterner();
+
+  private final Mutability mutability;
+
+  /** Results for values already visited, which also guards against self-containing lists. */
+  private final IdentityHashMap<Object, Object> compacted = new IdentityHashMap<>();
+
+  private FrozenValueCompactor(Mutability mutability) {
+    Preconditions.checkState(mutability.isFrozen(), "%s is not frozen", mutability);
+    this.mutability = mutability;
+  }
+
+  /**
+   * Returns the given module bindings with all values that belong to {@code mutability} compacted.
+   *
+   * <p>Must be called after {@code mutability} is frozen, and before any of the values are
+   * published to other threads.
+   */
+  public static ImmutableMap<String, Object> compactBindings(
+      Map<String, Object> bindings, Mutability mutability) {
+    FrozenValueCompactor compactor = new FrozenValueCompactor(mutability);
+    ImmutableMap.Builder<String, Object> result =
+        ImmutableMap.builderWithExpectedSize(bindings.size());
+    for (Map.Entry<String, Object> binding : bindings.entrySet()) {
+      result.put(binding.getKey(), compactor.compact(binding.getValue()));
+    }
+    return result.build();
+  }
+
+  /** Returns a compact value equal to {@code value}, possibly {@code value} itself. */
+  private Object compact(Object value) {
+    Object result = compacted.get(value);
+    if (result != null) {
+      return result;
+    }
+    result = value;
+    // Record the value before descending into it, in case it contains itself.
+    compacted.put(value, result);
+    if (value instanceof MutableList && ((MutableList<?>) value).mutability() == mutability) {
+      MutableList<?> list = (MutableList<?>) value;
+      list.compactFrozen(this::compact);
+      result = list.isEmpty() ? MutableList.empty() : internIfConstant(list);
+    } else if (value instanceof SkylarkDict
+        && ((SkylarkDict<?, ?>) value).mutability() == mutability) {
+      SkylarkDict<?, ?> dict = (SkylarkDict<?, ?>) value;
+      dict.compactFrozen(this::compact);
+      result = dict.isEmpty() ? SkylarkDict.empty() : dict;
+    } else if (value instanceof Tuple) {
+      // Tuples are already backed by an ImmutableList, but may contain lists and dicts of ours.
+      for (Object element : (Tuple<?>) value) {
+        compact(element);
+      }
+      result = internIfConstant((Tuple<?>) value);
+    }
+    compacted.put(value, result);
+    return result;
+  }
+
+  private static SkylarkList<?> internIfConstant(SkylarkList<?> list) {
+    for (Object element : list) {
+      if (!(element instanceof String
+          || element instanceof Integer
+          || element instanceof Boolean
+          || element == Runtime.NONE)) {
+        return list;
+      }
+    }
+    return constantListInterner.intern(list);
+  }
+}
@@ -15,6 +15,8 @@
 package com.google.devtools.build.lib.syntax;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Lists;
 import com.google.devtools.build.lib.events.Location;
 import com.google.devtools.build.lib.skylarkinterface.Param;
@@ -30,6 +32,7 @@ import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.function.Function;
 import javax.annotation.Nullable;
 
 /**
@@ -68,9 +71,16 @@ import javax.annotation.Nullable;
 public final class SkylarkDict<K, V> extends MutableMap<K, V>
     implements Map<K, V>, SkylarkIndexable {
 
-  private final LinkedHashMap<K, V> contents = new LinkedHashMap<>();
+  /**
+   * A {@link LinkedHashMap} for as long as the dict may be mutated. Final except for {@link
+   * #compactFrozen}, which swaps in an equivalent {@link ImmutableMap}.
+   */
+  private Map<K, V> contents = new LinkedHashMap<>();
 
-  /** Final except for {@link #unsafeShallowFreeze}; must not be modified any other way. */
+  /**
+   * Final except for {@link #unsafeShallowFreeze} and {@link #compactFrozen}; must not be modified
+   * any other way.
+   */
   private Mutability mutability;
 
   private SkylarkDict(@Nullable Mutability mutability) {
@@ -337,6 +347,29 @@ public final class SkylarkDict<K, V> extends MutableMap<K, V>
     this.mutability = Mutability.IMMUTABLE;
   }
 
+  /**
+   * Replaces the contents of this frozen dict with a compact immutable copy, whose values are first
+   * passed through {@code compactValue}, and resets its {@link Mutability} to {@link
+   * Mutability#IMMUTABLE}. Dicts with null keys or values are left as they are.
+   *
+   * <p>Like {@link #unsafeShallowFreeze}, this rewrites fields of the dict and is only safe to call
+   * before the dict becomes visible to other threads. See {@link FrozenValueCompactor}.
+   */
+  // Safe because the values of a dict are not statically typed anyway; see the TODO on the class.
+  @SuppressWarnings("unchecked")
+  void compactFrozen(Function<Object, Object> compactValue) {
+    Preconditions.checkState(mutability.isFrozen(), "dict is not frozen: %s", mutability);
+    if (contents.containsKey(null) || contents.containsValue(null)) {
+      return;
+    }
+    ImmutableMap.Builder<K, V> builder = ImmutableMap.builderWithExpectedSize(contents.size());
+    for (Map.Entry<K, V> e : contents.entrySet()) {
+      builder.put(e.getKey(), (V) compactValue.apply(e.getValue()));
+    }
+    this.contents = builder.build();
+    this.mutability = Mutability.IMMUTABLE;
+  }
+
   @Override
   protected Map<K, V> getContentsUnsafe() {
     return contents;
@@ -30,6 +30,7 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 import java.util.RandomAccess;
+import java.util.function.Function;
 import javax.annotation.Nullable;
 
 /**
@@ -227,7 +228,10 @@ public abstract class SkylarkList<E> extends BaseMutableList<E>
 
     private final ArrayList<E> contents;
 
-    /** Final except for {@link #unsafeShallowFreeze}; must not be modified any other way. */
+    /**
+     * Final except for {@link #unsafeShallowFreeze} and {@link #compactFrozen}; must not be
+     * modified any other way.
+     */
     private Mutability mutability;
 
     private MutableList(
@@ -315,6 +319,26 @@ public abstract class SkylarkList<E> extends BaseMutableList<E>
       this.mutability = Mutability.IMMUTABLE;
     }
 
+    /**
+     * Replaces each element of this frozen list by the result of {@code compactElement}, trims the
+     * backing {@link ArrayList} to its size, and resets the list's {@link Mutability} to {@link
+     * Mutability#IMMUTABLE}.
+     *
+     * <p>Like {@link #unsafeShallowFreeze}, this rewrites fields of the list and is only safe to
+     * call before the list becomes visible to other threads. See {@link FrozenValueCompactor}.
+     */
+    // Safe because the elements of a list are not statically typed anyway; see the TODO on
+    // SkylarkDict.
+    @SuppressWarnings("unchecked")
+    void compactFrozen(Function<Object, Object> compactElement) {
+      Preconditions.checkState(mutability.isFrozen(), "list is not frozen: %s", mutability);
+      for (int i = 0; i < contents.size(); i++) {
+        contents.set(i, (E) compactElement.apply(contents.get(i)));
+      }
+      contents.trimToSize();
+      this.mutability = Mutability.IMMUTABLE;
+    }
+
     @Override
     public boolean isTuple() {
       return false;
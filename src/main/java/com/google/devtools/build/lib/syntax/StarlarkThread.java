@@ -649,16 +649,24 @@ public final class StarlarkThread implements Freezable {
     /**
      * Constructs using the bindings from the global definitions of the given {@link
      * StarlarkThread}, and that {@code StarlarkThread}'s transitive hash code.
+     *
+     * <p>If the thread's {@link Mutability} is already frozen, the values it created are compacted
+     * by {@link FrozenValueCompactor}.
      */
     public Extension(StarlarkThread thread) {
+      this(exportedBindings(thread), thread.getTransitiveContentHashCode());
+    }
+
+    private static ImmutableMap<String, Object> exportedBindings(StarlarkThread thread) {
       // Legacy behavior: all symbols from the global Frame are exported (including symbols
       // introduced by load).
-      this(
-          ImmutableMap.copyOf(
-              thread.getSemantics().incompatibleNoTransitiveLoads()
-                  ? thread.globalFrame.getExportedBindings()
-                  : thread.globalFrame.getBindings()),
-          thread.getTransitiveContentHashCode());
+      Map<String, Object> bindings =
+          thread.getSemantics().incompatibleNoTransitiveLoads()
+              ? thread.globalFrame.getExportedBindings()
+              : thread.globalFrame.getBindings();
+      return thread.mutability().isFrozen()
+          ? FrozenValueCompactor.compactBindings(bindings, thread.mutability())
+          : ImmutableMap.copyOf(bindings);
     }
 
     private String getTransitiveContentHashCode() {
@@ -0,0 +1,28 @@
+// Copyright 2019 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.util.io;
+
+import com.google.protobuf.Message;
+import java.io.IOException;
+import javax.annotation.Nullable;
+
+/** A variation of InputStream for protobuf messages, see {@link MessageOutputStream}. */
+public interface MessageInputStream<T extends Message> {
+  /** Reads the next message, or returns null if the end of the stream was reached. */
+  @Nullable
+  T read() throws IOException;
+
+  /** Closes the underlying stream, following reads will fail. */
+  void close() throws IOException;
+}
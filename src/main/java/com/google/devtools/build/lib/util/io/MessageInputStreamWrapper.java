@@ -0,0 +1,47 @@
+// Copyright 2019 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.util.io;
+
+import com.google.common.base.Preconditions;
+import com.google.protobuf.Message;
+import com.google.protobuf.Parser;
+import java.io.IOException;
+import java.io.InputStream;
+import javax.annotation.Nullable;
+
+/** Creating a MessageInputStream from an InputStream */
+public class MessageInputStreamWrapper {
+  /** Reads messages in the binary format written by {@link MessageOutputStreamWrapper}. */
+  public static class BinaryInputStreamWrapper<T extends Message>
+      implements MessageInputStream<T> {
+    private final InputStream stream;
+    private final Parser<T> parser;
+
+    public BinaryInputStreamWrapper(InputStream stream, Parser<T> parser) {
+      this.stream = Preconditions.checkNotNull(stream);
+      this.parser = Preconditions.checkNotNull(parser);
+    }
+
+    @Override
+    @Nullable
+    public T read() throws IOException {
+      return parser.parseDelimitedFrom(stream);
+    }
+
+    @Override
+    public void close() throws IOException {
+      stream.close();
+    }
+  }
+}
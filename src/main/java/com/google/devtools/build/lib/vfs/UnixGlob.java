@@ -38,6 +38,8 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
@@ -111,6 +113,18 @@ public final class UnixGlob {
         .globAsync(base, patterns, excludeDirectories, dirPred, syscalls);
   }
 
+  private static Map<String, Future<List<Path>>> globAsyncByPatternInternal(
+      Path base,
+      Collection<String> patterns,
+      boolean excludeDirectories,
+      Predicate<Path> dirPred,
+      FilesystemCalls syscalls,
+      Executor executor) {
+    Preconditions.checkNotNull(executor, "%s %s", base, patterns);
+    return new GlobVisitor(executor)
+        .globAsyncByPattern(base, patterns, excludeDirectories, dirPred, syscalls);
+  }
+
   /**
    * Checks that each pattern is valid, splits it into segments and checks
    * that each segment contains only valid wildcards.
@@ -433,6 +447,17 @@ public final class UnixGlob {
       return globAsyncInternal(
           base, patterns, excludeDirectories, pathFilter, syscalls.get(), executor);
     }
+
+    /**
+     * Executes the glob asynchronously, returning the matches of each pattern separately. All
+     * patterns are evaluated in a single traversal of the file system, and cancelling any of the
+     * returned futures cancels that traversal. {@link #setExecutor} must have been called already
+     * with a non-null argument.
+     */
+    public Map<String, Future<List<Path>>> globAsyncByPattern() {
+      return globAsyncByPatternInternal(
+          base, patterns, excludeDirectories, pathFilter, syscalls.get(), executor);
+    }
   }
 
   /**
@@ -474,21 +499,43 @@ public final class UnixGlob {
   /**
    * GlobVisitor executes a glob using parallelism, which is useful when
    * the glob() requires many readdir() calls on high latency filesystems.
+   *
+   * <p>All the patterns of a glob are evaluated in a single traversal. Each directory is visited by
+   * a single task, which carries every (pattern, segment) position that reaches the directory, so
+   * that the directory is read, and each of its entries is stat'ed, at most once no matter how many
+   * patterns look at it. Subdirectories are handed to the executor as soon as they are discovered.
+   *
+   * <p>An I/O error only fails the patterns whose evaluation needed the failed file system call; the
+   * other patterns of the traversal complete normally.
    */
   private static final class GlobVisitor {
     // These collections are used across workers and must therefore be thread-safe.
-    private final Collection<Path> results = Sets.newConcurrentHashSet();
     private final ConcurrentHashMap<String, Pattern> cache = new ConcurrentHashMap<>();
+    private final List<Set<Path>> results = new ArrayList<>();
+    private final List<AtomicReference<IOException>> ioExceptions = new ArrayList<>();
+    /**
+     * The states each directory has been queued with, so that a directory that is reached more than
+     * once, e.g. through a symlink entry that both a wildcard and a literal segment name, is not
+     * visited again for the same state.
+     */
+    private final ConcurrentHashMap<Path, Set<GlobState>> visitedStates = new ConcurrentHashMap<>();
 
     private final GlobFuture result;
+    private final List<GlobFuture> patternResults = new ArrayList<>();
     private final Executor executor;
     private final AtomicLong totalOps = new AtomicLong(0);
     private final AtomicLong pendingOps = new AtomicLong(0);
-    private final AtomicReference<IOException> ioException = new AtomicReference<>();
     private final AtomicReference<RuntimeException> runtimeException = new AtomicReference<>();
     private final AtomicReference<Error> error = new AtomicReference<>();
     private volatile boolean canceled = false;
 
+    // Set once by start(), before any task is enqueued.
+    private List<String> patterns;
+    private List<String[]> patternParts;
+    private boolean excludeDirectories;
+    private Predicate<Path> dirPred;
+    private FilesystemCalls syscalls;
+
     GlobVisitor(Executor executor) {
       this.executor = executor;
       this.result = new GlobFuture(this);
@@ -548,7 +595,43 @@ public final class UnixGlob {
         boolean excludeDirectories,
         Predicate<Path> dirPred,
         FilesystemCalls syscalls) {
+      Future<List<Path>> immediateResult =
+          start(base, patterns, excludeDirectories, dirPred, syscalls);
+      return immediateResult != null ? immediateResult : result;
+    }
+
+    /**
+     * Same as {@link #globAsync}, except that the matches of each of the given patterns are
+     * returned separately, keyed by pattern.
+     */
+    Map<String, Future<List<Path>>> globAsyncByPattern(
+        Path base,
+        Collection<String> patterns,
+        boolean excludeDirectories,
+        Predicate<Path> dirPred,
+        FilesystemCalls syscalls) {
+      Future<List<Path>> immediateResult =
+          start(base, patterns, excludeDirectories, dirPred, syscalls);
+      Map<String, Future<List<Path>>> resultsByPattern = new LinkedHashMap<>();
+      for (String pattern : patterns) {
+        resultsByPattern.put(
+            pattern,
+            immediateResult != null
+                ? immediateResult
+                : patternResults.get(this.patterns.indexOf(pattern)));
+      }
+      return resultsByPattern;
+    }
 
+    /**
+     * Starts the traversal, or returns the complete result if no traversal is necessary.
+     */
+    private Future<List<Path>> start(
+        Path base,
+        Collection<String> patterns,
+        boolean excludeDirectories,
+        Predicate<Path> dirPred,
+        FilesystemCalls syscalls) {
       FileStatus baseStat;
       try {
         baseStat = syscalls.statIfFound(base, Symlinks.FOLLOW);
@@ -559,58 +642,76 @@ public final class UnixGlob {
         return Futures.immediateFuture(Collections.<Path>emptyList());
       }
 
-      List<String[]> splitPatterns = checkAndSplitPatterns(patterns);
+      this.patterns = ImmutableList.copyOf(new LinkedHashSet<>(patterns));
+      this.patternParts = checkAndSplitPatterns(this.patterns);
+      this.excludeDirectories = excludeDirectories;
+      this.dirPred = dirPred;
+      this.syscalls = syscalls;
+      for (int i = 0; i < this.patterns.size(); i++) {
+        results.add(Sets.newConcurrentHashSet());
+        ioExceptions.add(new AtomicReference<>());
+        patternResults.add(new GlobFuture(this));
+      }
 
-      // We do a dumb loop, even though it will likely duplicate logical work (note that the
-      // physical filesystem operations are cached). In order to optimize, we would need to keep
-      // track of which patterns shared sub-patterns and which did not (for example consider the
-      // glob [*/*.java, sub/*.java, */*.txt]).
       pendingOps.incrementAndGet();
       try {
-        for (String[] splitPattern : splitPatterns) {
-          int numRecursivePatterns = 0;
-          for (String pattern : splitPattern) {
-            if (isRecursivePattern(pattern)) {
-              ++numRecursivePatterns;
-            }
+        // A pattern can never match the empty path, so there is nothing to find under a file.
+        if (baseStat.isDirectory()) {
+          List<GlobState> states = new ArrayList<>(this.patterns.size());
+          for (int i = 0; i < this.patterns.size(); i++) {
+            states.add(new GlobState(i, 0));
           }
-          GlobTaskContext context = numRecursivePatterns > 1
-              ? new RecursiveGlobTaskContext(splitPattern, excludeDirectories, dirPred, syscalls)
-              : new GlobTaskContext(splitPattern, excludeDirectories, dirPred, syscalls);
-          context.queueGlob(base, baseStat.isDirectory(), 0);
+          queueGlob(base, states);
         }
       } finally {
         decrementAndCheckDone();
       }
-
-      return result;
+      return null;
     }
 
-    private Throwable getMostSeriousThrowableSoFar() {
+    /** Returns the error or runtime exception that stops the whole traversal, if any. */
+    private Throwable getFatalThrowableSoFar() {
       if (error.get() != null) {
         return error.get();
       }
-      if (runtimeException.get() != null) {
-        return runtimeException.get();
-      }
-      if (ioException.get() != null) {
-        return ioException.get();
+      return runtimeException.get();
+    }
+
+    /** Returns the most serious throwable that fails the given pattern, if any. */
+    private Throwable getMostSeriousThrowableSoFar(int patternIdx) {
+      Throwable fatal = getFatalThrowableSoFar();
+      return fatal != null ? fatal : ioExceptions.get(patternIdx).get();
+    }
+
+    private void fail(Collection<GlobState> states, IOException e) {
+      for (GlobState state : states) {
+        ioExceptions.get(state.patternIdx).compareAndSet(null, e);
       }
-      return null;
     }
 
-    /** Should only be called by link {@GlobTaskContext}. */
-    private void queueGlob(final Path base, final boolean baseIsDir, final int idx,
-        final GlobTaskContext context) {
+    private boolean hasFailed(GlobState state) {
+      return ioExceptions.get(state.patternIdx).get() != null;
+    }
+
+    /** Queues the visitation of directory {@code base} with the given states. */
+    private void queueGlob(final Path base, final Collection<GlobState> states) {
+      Set<GlobState> visited = visitedStates.computeIfAbsent(base, p -> Sets.newConcurrentHashSet());
+      List<GlobState> newStates = new ArrayList<>(states.size());
+      for (GlobState state : states) {
+        if (visited.add(state)) {
+          newStates.add(state);
+        }
+      }
+      if (newStates.isEmpty()) {
+        return;
+      }
       enqueue(
           new Runnable() {
             @Override
             public void run() {
               try (SilentCloseable c =
                   Profiler.instance().profile(ProfilerTask.VFS_GLOB, base.getPathString())) {
-                reallyGlob(base, baseIsDir, idx, context);
-              } catch (IOException e) {
-                ioException.set(e);
+                reallyGlob(base, newStates);
               } catch (RuntimeException e) {
                 runtimeException.set(e);
               } catch (Error e) {
@@ -623,17 +724,12 @@ public final class UnixGlob {
               return String.format(
                   "%s glob(include=[%s], exclude_directories=%s)",
                   base.getPathString(),
-                  "\"" + Joiner.on("\", \"").join(context.patternParts) + "\"",
-                  context.excludeDirectories);
+                  "\"" + Joiner.on("\", \"").join(patterns) + "\"",
+                  excludeDirectories);
             }
           });
     }
 
-    /** Should only be called by link {@GlobTaskContext}. */
-    private void queueTask(Runnable runnable) {
-      enqueue(runnable);
-    }
-
     protected void enqueue(final Runnable r) {
       totalOps.incrementAndGet();
       pendingOps.incrementAndGet();
@@ -641,7 +737,7 @@ public final class UnixGlob {
       Runnable wrapped =
           () -> {
             try {
-              if (!canceled && getMostSeriousThrowableSoFar() == null) {
+              if (!canceled && getFatalThrowableSoFar() == null) {
                 r.run();
               }
             } finally {
@@ -670,166 +766,186 @@ public final class UnixGlob {
         // the pending ops count as we're enqueuing, and don't decrement until the task is complete
         // (which includes accounting for any additional tasks that one enqueues).
 
-        Throwable mostSeriousThrowable = getMostSeriousThrowableSoFar();
         if (canceled) {
           result.markCanceled();
-        } else if (mostSeriousThrowable != null) {
-          result.setException(mostSeriousThrowable);
+          for (GlobFuture patternResult : patternResults) {
+            patternResult.markCanceled();
+          }
+          return;
+        }
+        // The combined result fails if any of its patterns failed.
+        Throwable firstThrowable = null;
+        Set<Path> allResults = new LinkedHashSet<>();
+        for (int i = 0; i < results.size(); i++) {
+          Throwable throwable = getMostSeriousThrowableSoFar(i);
+          if (throwable != null) {
+            patternResults.get(i).setException(throwable);
+            if (firstThrowable == null) {
+              firstThrowable = throwable;
+            }
+          } else {
+            allResults.addAll(results.get(i));
+            patternResults.get(i).set(ImmutableList.copyOf(results.get(i)));
+          }
+        }
+        Throwable fatal = getFatalThrowableSoFar();
+        if (fatal != null) {
+          result.setException(fatal);
+        } else if (firstThrowable != null) {
+          result.setException(firstThrowable);
         } else {
-          result.set(ImmutableList.copyOf(results));
+          result.set(ImmutableList.copyOf(allResults));
         }
       }
     }
 
-    /** A context for evaluating all the subtasks of a single top-level glob task. */
-    private class GlobTaskContext {
-      private final String[] patternParts;
-      private final boolean excludeDirectories;
-      private final Predicate<Path> dirPred;
-      private final FilesystemCalls syscalls;
+    /** A position in one of the patterns: the next segment to match is {@code segmentIdx}. */
+    private final class GlobState {
+      private final int patternIdx;
+      private final int segmentIdx;
 
-      GlobTaskContext(
-          String[] patternParts,
-          boolean excludeDirectories,
-          Predicate<Path> dirPred,
-          FilesystemCalls syscalls) {
-        this.patternParts = patternParts;
-        this.excludeDirectories = excludeDirectories;
-        this.dirPred = dirPred;
-        this.syscalls = syscalls;
+      private GlobState(int patternIdx, int segmentIdx) {
+        this.patternIdx = patternIdx;
+        this.segmentIdx = segmentIdx;
       }
 
-      protected void queueGlob(Path base, boolean baseIsDir, int patternIdx) {
-        GlobVisitor.this.queueGlob(base, baseIsDir, patternIdx, this);
+      private boolean isComplete() {
+        return segmentIdx == patternParts.get(patternIdx).length;
       }
 
-      protected void queueTask(Runnable runnable) {
-        GlobVisitor.this.queueTask(runnable);
+      private boolean isLastSegment() {
+        return segmentIdx + 1 == patternParts.get(patternIdx).length;
       }
-    }
-
-    /**
-     * A special implementation of {@link GlobTaskContext} that dedupes glob subtasks. Our naive
-     * implementation of recursive patterns means there are multiple ways to enqueue the same
-     * logical subtask.
-     */
-    private class RecursiveGlobTaskContext extends GlobTaskContext {
-
-      private class GlobTask {
-        private final Path base;
-        private final int patternIdx;
 
-        private GlobTask(Path base, int patternIdx) {
-          this.base = base;
-          this.patternIdx = patternIdx;
-        }
-
-        @Override
-        public boolean equals(Object obj) {
-          if (!(obj instanceof GlobTask)) {
-            return false;
-          }
-          GlobTask other = (GlobTask) obj;
-          return base.equals(other.base) && patternIdx == other.patternIdx;
-        }
-
-        @Override
-        public int hashCode() {
-          return Objects.hash(base, patternIdx);
-        }
+      private String segment() {
+        return patternParts.get(patternIdx)[segmentIdx];
       }
 
-      private final Set<GlobTask> visitedGlobSubTasks = Sets.newConcurrentHashSet();
-
-      private RecursiveGlobTaskContext(
-          String[] patternParts,
-          boolean excludeDirectories,
-          Predicate<Path> dirPred,
-          FilesystemCalls syscalls) {
-        super(patternParts, excludeDirectories, dirPred, syscalls);
+      private GlobState next() {
+        return new GlobState(patternIdx, segmentIdx + 1);
       }
 
       @Override
-      protected void queueGlob(Path base, boolean baseIsDir, int patternIdx) {
-        if (visitedGlobSubTasks.add(new GlobTask(base, patternIdx))) {
-          // This is a unique glob task. For example of how duplicates can arise, consider:
-          //   glob(['**/a/**/foo.txt'])
-          // with the only file being
-          //   a/a/foo.txt
-          //
-          // there are multiple ways to reach a/a/foo.txt: one route starts by recursively globbing
-          // 'a/**/foo.txt' in the base directory of the package, and another route starts by
-          // recursively globbing '**/a/**/foo.txt' in subdirectory 'a'.
-          super.queueGlob(base, baseIsDir, patternIdx);
+      public boolean equals(Object obj) {
+        if (!(obj instanceof GlobState)) {
+          return false;
         }
+        GlobState other = (GlobState) obj;
+        return patternIdx == other.patternIdx && segmentIdx == other.segmentIdx;
+      }
+
+      @Override
+      public int hashCode() {
+        return Objects.hash(patternIdx, segmentIdx);
       }
     }
 
     /**
-     * Expressed in Haskell:
+     * Expressed in Haskell, for each pattern:
      *
      * <pre>
      *  reallyGlob base []     = { base }
      *  reallyGlob base [x:xs] = union { reallyGlob(f, xs) | f results "base/x" }
      * </pre>
+     *
+     * <p>{@code base} is a directory.
      */
-    private void reallyGlob(Path base, boolean baseIsDir, int idx, GlobTaskContext context)
-        throws IOException {
-      if (baseIsDir && !context.dirPred.apply(base)) {
-        return;
-      }
-
-      if (idx == context.patternParts.length) { // Base case.
-        if (!(context.excludeDirectories && baseIsDir)) {
-          results.add(base);
-        }
-
-        return;
-      }
-
-      if (!baseIsDir) {
-        // Nothing to find here.
+    private void reallyGlob(Path base, Collection<GlobState> incoming) {
+      if (!dirPred.apply(base)) {
         return;
       }
 
-      String pattern = context.patternParts[idx];
-
       // ** is special: it can match nothing at all.
       // For example, x/** matches x, **/y matches y, and x/**/y matches x/y.
-      if (isRecursivePattern(pattern)) {
-        context.queueGlob(base, baseIsDir, idx + 1);
+      Set<GlobState> states = new LinkedHashSet<>();
+      for (GlobState state : incoming) {
+        // There is no point in evaluating a pattern that has already failed.
+        if (!hasFailed(state)) {
+          states.add(state);
+        }
       }
-
-      if (!pattern.contains("*") && !pattern.contains("?")) {
-        // We do not need to do a readdir in this case, just a stat.
-        Path child = base.getChild(pattern);
-        FileStatus status = context.syscalls.statIfFound(child, Symlinks.FOLLOW);
-        if (status == null || (!status.isDirectory() && !status.isFile())) {
-          // The file is a dangling symlink, fifo, does not exist, etc.
-          return;
+      List<GlobState> worklist = new ArrayList<>(states);
+      for (int i = 0; i < worklist.size(); i++) {
+        GlobState state = worklist.get(i);
+        if (!state.isComplete() && isRecursivePattern(state.segment())) {
+          GlobState next = state.next();
+          if (states.add(next)) {
+            worklist.add(next);
+          }
         }
-
-        context.queueGlob(child, status.isDirectory(), idx + 1);
-        return;
       }
 
-      Collection<Dirent> dents = context.syscalls.readdir(base);
-      for (Dirent dent : dents) {
-        Dirent.Type childType = dent.getType();
-        if (childType == Dirent.Type.UNKNOWN) {
-          // The file is a special file (fifo, etc.). No need to even match against the pattern.
-          continue;
+      Map<String, List<GlobState>> literalChildren = new HashMap<>();
+      List<GlobState> wildcardStates = new ArrayList<>();
+      for (GlobState state : states) {
+        if (state.isComplete()) { // Base case.
+          if (!excludeDirectories) {
+            results.get(state.patternIdx).add(base);
+          }
+        } else if (isWildcardFree(state.segment())) {
+          literalChildren.computeIfAbsent(state.segment(), s -> new ArrayList<>()).add(state);
+        } else {
+          wildcardStates.add(state);
         }
-        if (matches(pattern, dent.getName(), cache)) {
-          Path child = base.getChild(dent.getName());
+      }
 
+      if (!wildcardStates.isEmpty()) {
+        Collection<Dirent> dents;
+        try {
+          dents = syscalls.readdir(base);
+        } catch (IOException e) {
+          fail(wildcardStates, e);
+          dents = ImmutableList.of();
+        }
+        for (Dirent dent : dents) {
+          Dirent.Type childType = dent.getType();
+          if (childType == Dirent.Type.UNKNOWN) {
+            // The file is a special file (fifo, etc.). No need to even match against the pattern.
+            continue;
+          }
+          String name = dent.getName();
+          List<GlobState> matching = new ArrayList<>();
+          for (GlobState state : wildcardStates) {
+            if (matches(state.segment(), name, cache)) {
+              matching.add(state);
+            }
+          }
+          Path child = base.getChild(name);
+          // The entry is known to exist: a wildcard-free segment naming it shares its resolution
+          // with the wildcard segments, so that a directory named by both is only queued once.
+          List<GlobState> literalStates = literalChildren.remove(name);
           if (childType == Dirent.Type.SYMLINK) {
-            processSymlink(child, idx, context);
+            if (!matching.isEmpty() || literalStates != null) {
+              processSymlink(
+                  child, matching, literalStates != null ? literalStates : ImmutableList.of());
+            }
           } else {
-            processFileOrDirectory(child, childType == Dirent.Type.DIRECTORY, idx, context);
+            if (literalStates != null) {
+              matching.addAll(literalStates);
+            }
+            if (!matching.isEmpty()) {
+              processFileOrDirectory(child, childType == Dirent.Type.DIRECTORY, matching);
+            }
           }
         }
       }
+
+      // We do not need to do a readdir for the remaining wildcard-free segments, just a stat.
+      for (Map.Entry<String, List<GlobState>> literalChild : literalChildren.entrySet()) {
+        Path child = base.getChild(literalChild.getKey());
+        FileStatus status;
+        try {
+          status = syscalls.statIfFound(child, Symlinks.FOLLOW);
+        } catch (IOException e) {
+          fail(literalChild.getValue(), e);
+          continue;
+        }
+        if (status == null || (!status.isDirectory() && !status.isFile())) {
+          // The file is a dangling symlink, fifo, does not exist, etc.
+          continue;
+        }
+        processFileOrDirectory(child, status.isDirectory(), literalChild.getValue());
+      }
     }
 
     /**
@@ -837,29 +953,48 @@ public final class UnixGlob {
      * result in a sequential symlink resolution with many file system implementations. If the
      * underlying file system is networked and a single directory contains many symlinks, that can
      * lead to substantial slowness.
+     *
+     * @param wildcardStates the states whose wildcard segment matched the symlink
+     * @param literalStates the states whose wildcard-free segment names the symlink
      */
-    private void processSymlink(Path path, int idx, GlobTaskContext context) {
-      context.queueTask(
+    private void processSymlink(
+        Path path, List<GlobState> wildcardStates, List<GlobState> literalStates) {
+      enqueue(
           () -> {
+            FileStatus status;
             try {
-              FileStatus status = context.syscalls.statIfFound(path, Symlinks.FOLLOW);
-              if (status != null) {
-                processFileOrDirectory(path, status.isDirectory(), idx, context);
-              }
+              status = syscalls.statIfFound(path, Symlinks.FOLLOW);
             } catch (IOException e) {
-              // Intentionally empty. Just ignore symlinks that cannot be stat'ed to leave
-              // historical behavior of readdir(..., Symlinks.FOLLOW).
+              // Just ignore symlinks that cannot be stat'ed by wildcards to leave historical
+              // behavior of readdir(..., Symlinks.FOLLOW), but fail the patterns that name them.
+              fail(literalStates, e);
+              return;
+            }
+            if (status == null) {
+              return;
+            }
+            List<GlobState> states = new ArrayList<>(wildcardStates);
+            // Like a stat'ed wildcard-free child, a special file is not matched by its name.
+            if (status.isDirectory() || status.isFile()) {
+              states.addAll(literalStates);
             }
+            processFileOrDirectory(path, status.isDirectory(), states);
           });
     }
 
-    private void processFileOrDirectory(
-        Path path, boolean isDir, int idx, GlobTaskContext context) {
-      boolean isRecursivePattern = isRecursivePattern(context.patternParts[idx]);
+    private void processFileOrDirectory(Path path, boolean isDir, List<GlobState> states) {
       if (isDir) {
-        context.queueGlob(path, /* baseIsDir= */ true, idx + (isRecursivePattern ? 0 : 1));
-      } else if (idx + 1 == context.patternParts.length) {
-        results.add(path);
+        Set<GlobState> childStates = new LinkedHashSet<>(states.size());
+        for (GlobState state : states) {
+          childStates.add(isRecursivePattern(state.segment()) ? state : state.next());
+        }
+        queueGlob(path, childStates);
+      } else {
+        for (GlobState state : states) {
+          if (state.isLastSegment()) {
+            results.get(state.patternIdx).add(path);
+          }
+        }
       }
     }
   }
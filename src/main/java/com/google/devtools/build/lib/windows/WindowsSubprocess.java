@@ -250,6 +250,13 @@ public class WindowsSubprocess implements Subprocess {
     return stderrStream;
   }
 
+  @Override
+  public synchronized long getProcessId() {
+    return nativeProcess == WindowsProcesses.INVALID
+        ? -1
+        : WindowsProcesses.getProcessPid(nativeProcess);
+  }
+
   private synchronized void writeStream(byte[] b, int off, int len) throws IOException {
     checkLiveness();
 
@@ -37,6 +37,11 @@ final class SandboxedWorker extends Worker {
     workDir.deleteTree();
   }
 
+  @Override
+  void prestart() {
+    // The process cannot start before its sandbox is set up for the first request.
+  }
+
   @Override
   public void prepareExecution(
       SandboxInputs inputFiles, SandboxOutputs outputs, Set<PathFragment> workerFiles)
@@ -20,6 +20,8 @@ import com.google.devtools.build.lib.shell.Subprocess;
 import com.google.devtools.build.lib.shell.SubprocessBuilder;
 import com.google.devtools.build.lib.vfs.Path;
 import com.google.devtools.build.lib.vfs.PathFragment;
+import com.google.devtools.build.lib.worker.WorkerProtocol.WorkRequest;
+import com.google.devtools.build.lib.worker.WorkerProtocol.WorkResponse;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
@@ -48,6 +50,12 @@ class Worker {
 
   private Subprocess process;
   private Thread shutdownHook;
+  /** Records the bytes read for the last response, to be shown when they cannot be parsed. */
+  private RecordingInputStream recordingStream;
+  /** When the worker was last borrowed from the pool, as per {@link System#nanoTime}. */
+  private volatile long lastUsedNanos = System.nanoTime();
+  /** Set when the worker must be destroyed the next time the pool validates it. */
+  private volatile boolean doomed;
 
   Worker(WorkerKey workerKey, int workerId, final Path workDir, Path logFile) {
     this.workerKey = workerKey;
@@ -70,6 +78,15 @@ class Worker {
   }
 
   void createProcess() throws IOException {
+    this.process = startProcess(workerKey, workDir, logFile);
+  }
+
+  /**
+   * Starts a process for {@code workerKey} in {@code workDir}, with its stderr redirected to {@code
+   * logFile}.
+   */
+  static Subprocess startProcess(WorkerKey workerKey, Path workDir, Path logFile)
+      throws IOException {
     List<String> args = workerKey.getArgs();
     File executable = new File(args.get(0));
     if (!executable.isAbsolute() && executable.getParent() != null) {
@@ -81,7 +98,7 @@ class Worker {
     processBuilder.setWorkingDirectory(workDir.getPathFile());
     processBuilder.setStderr(logFile.getPathFile());
     processBuilder.setEnv(workerKey.getEnv());
-    this.process = processBuilder.start();
+    return processBuilder.start();
   }
 
   void destroy() throws IOException {
@@ -93,6 +110,10 @@ class Worker {
     }
   }
 
+  WorkerKey getWorkerKey() {
+    return workerKey;
+  }
+
   /**
    * Returns a unique id for this worker. This is used to distinguish different worker processes in
    * logs and messages.
@@ -109,6 +130,41 @@ class Worker {
     return workerKey.getWorkerFilesWithHashes();
   }
 
+  /**
+   * Starts the worker process ahead of its first request, so that it has started up by the time it
+   * gets one.
+   */
+  void prestart() throws IOException {
+    if (process == null) {
+      createProcess();
+    }
+  }
+
+  /**
+   * Returns the operating system's id of the worker process, or -1 if it has not been started or
+   * the id is not available.
+   */
+  long getProcessId() {
+    return process == null ? -1 : process.getProcessId();
+  }
+
+  void markUsed() {
+    lastUsedNanos = System.nanoTime();
+  }
+
+  long getLastUsedNanos() {
+    return lastUsedNanos;
+  }
+
+  /** Marks the worker to be destroyed instead of being handed out by the pool again. */
+  void doom() {
+    doomed = true;
+  }
+
+  boolean isDoomed() {
+    return doomed;
+  }
+
   boolean isAlive() {
     // This is horrible, but Process.isAlive() is only available from Java 8 on and this is the
     // best we can do prior to that.
@@ -123,6 +179,31 @@ class Worker {
     return process.getOutputStream();
   }
 
+  /** Sends a {@link WorkRequest} to the worker process. */
+  void putRequest(WorkRequest request) throws IOException {
+    request.writeDelimitedTo(getOutputStream());
+    getOutputStream().flush();
+  }
+
+  /**
+   * Waits for the {@link WorkResponse} to the request with the given id, and returns it, or null if
+   * the worker process closed its stdout before sending it.
+   */
+  WorkResponse getResponse(int requestId) throws IOException, InterruptedException {
+    recordingStream = new RecordingInputStream(getInputStream());
+    recordingStream.startRecording(4096);
+    return WorkResponse.parseDelimitedFrom(recordingStream);
+  }
+
+  /**
+   * Returns whatever the worker process wrote to stdout for the last response, after {@link
+   * #getResponse} failed to parse it.
+   */
+  String getRecordingStreamMessage() {
+    recordingStream.readRemaining();
+    return recordingStream.getRecordedDataAsString();
+  }
+
   public void prepareExecution(
       SandboxInputs inputFiles, SandboxOutputs outputs, Set<PathFragment> workerFiles)
       throws IOException {
@@ -13,12 +13,15 @@
 // limitations under the License.
 package com.google.devtools.build.lib.worker;
 
+import com.google.common.collect.ImmutableList;
 import com.google.common.hash.HashCode;
 import com.google.devtools.build.lib.events.Event;
 import com.google.devtools.build.lib.events.Reporter;
 import com.google.devtools.build.lib.vfs.Path;
 import com.google.devtools.build.lib.vfs.PathFragment;
+import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
 import org.apache.commons.pool2.BaseKeyedPooledObjectFactory;
 import org.apache.commons.pool2.PooledObject;
@@ -38,6 +41,9 @@ final class WorkerFactory extends BaseKeyedPooledObjectFactory<WorkerKey, Worker
   private final Path workerBaseDir;
   private Reporter reporter;
 
+  /** The workers created by this factory that have not been destroyed yet. */
+  private final Set<Worker> workers = ConcurrentHashMap.newKeySet();
+
   public WorkerFactory(WorkerOptions workerOptions, Path workerBaseDir) {
     this.workerOptions = workerOptions;
     this.workerBaseDir = workerBaseDir;
@@ -58,8 +64,12 @@ final class WorkerFactory extends BaseKeyedPooledObjectFactory<WorkerKey, Worker
         workerBaseDir.getRelative("worker-" + workerId + "-" + key.getMnemonic() + ".log");
 
     Worker worker;
-    boolean sandboxed = workerOptions.workerSandboxing || key.mustBeSandboxed();
-    if (sandboxed) {
+    // Multiplexed workers share one process, and thus one execroot, so they are never sandboxed.
+    boolean sandboxed =
+        !key.getProxied() && (workerOptions.workerSandboxing || key.mustBeSandboxed());
+    if (key.getProxied()) {
+      worker = new WorkerProxy(key, workerId, key.getExecRoot(), logFile);
+    } else if (sandboxed) {
       Path workDir = getSandboxedWorkerPath(key, workerId);
       worker = new SandboxedWorker(key, workerId, workDir, logFile);
     } else {
@@ -70,14 +80,20 @@ final class WorkerFactory extends BaseKeyedPooledObjectFactory<WorkerKey, Worker
           Event.info(
               String.format(
                   "Created new %s %s worker (id %d), logging to %s",
-                  sandboxed ? "sandboxed" : "non-sandboxed",
+                  key.getProxied() ? "multiplexed" : sandboxed ? "sandboxed" : "non-sandboxed",
                   key.getMnemonic(),
                   workerId,
-                  logFile)));
+                  worker.getLogFile())));
     }
+    workers.add(worker);
     return worker;
   }
 
+  /** Returns the workers that have been created and not destroyed yet, in use or not. */
+  ImmutableList<Worker> getWorkers() {
+    return ImmutableList.copyOf(workers);
+  }
+
   Path getSandboxedWorkerPath(WorkerKey key, int workerId) {
     String workspaceName = key.getExecRoot().getBaseName();
     return workerBaseDir
@@ -104,13 +120,20 @@ final class WorkerFactory extends BaseKeyedPooledObjectFactory<WorkerKey, Worker
               String.format(
                   "Destroying %s worker (id %d)", key.getMnemonic(), p.getObject().getWorkerId())));
     }
+    workers.remove(p.getObject());
     p.getObject().destroy();
   }
 
-  /** The worker is considered to be valid when its files have not changed on disk. */
+  /**
+   * The worker is considered to be valid when its files have not changed on disk, and it has not
+   * been doomed, e.g. to free memory.
+   */
   @Override
   public boolean validateObject(WorkerKey key, PooledObject<Worker> p) {
     Worker worker = p.getObject();
+    if (worker.isDoomed()) {
+      return false;
+    }
     boolean hashMatches =
         key.getWorkerFilesCombinedHash().equals(worker.getWorkerFilesCombinedHash());
 
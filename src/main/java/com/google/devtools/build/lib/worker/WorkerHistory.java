@@ -0,0 +1,253 @@
+// Copyright 2019 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.worker;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.hash.HashCode;
+import com.google.devtools.build.lib.vfs.FileSystem;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.PathFragment;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Remembers which workers recent builds used, and how many of each at most, so that they can be
+ * started ahead of the next build, even after a server restart.
+ */
+@ThreadSafe
+final class WorkerHistory {
+  /** Number of builds after which a worker that is no longer used is forgotten. */
+  static final int MAX_AGE = 5;
+
+  private static final class Entry {
+    /** The most recent key of the worker, whose worker files hashes are the most likely ones. */
+    private WorkerKey key;
+    private int inUse;
+    private int peakInUse;
+    /** Number of finished builds since one used the worker. */
+    private int age;
+    private boolean usedInCurrentBuild;
+
+    private Entry(WorkerKey key, int peakInUse, int age) {
+      this.key = key;
+      this.peakInUse = peakInUse;
+      this.age = age;
+    }
+  }
+
+  @GuardedBy("this")
+  private final Map<WorkerKey, Entry> entries = new LinkedHashMap<>();
+
+  /** Records that a worker for {@code key} was borrowed from the pool. */
+  synchronized void recordBorrow(WorkerKey key) {
+    Entry entry = entries.computeIfAbsent(key, k -> new Entry(k, 0, 0));
+    if (!entry.usedInCurrentBuild) {
+      entry.usedInCurrentBuild = true;
+      entry.peakInUse = 0;
+    }
+    entry.key = key;
+    entry.inUse++;
+    entry.peakInUse = Math.max(entry.peakInUse, entry.inUse);
+  }
+
+  /** Records that a worker for {@code key} was returned to the pool, or discarded. */
+  synchronized void recordReturn(WorkerKey key) {
+    Entry entry = entries.get(key);
+    if (entry != null && entry.inUse > 0) {
+      entry.inUse--;
+    }
+  }
+
+  /** Ages the workers that the build did not use, forgetting the ones unused for too long. */
+  synchronized void buildFinished() {
+    for (Iterator<Entry> it = entries.values().iterator(); it.hasNext(); ) {
+      Entry entry = it.next();
+      entry.age = entry.usedInCurrentBuild ? 0 : entry.age + 1;
+      entry.usedInCurrentBuild = false;
+      entry.inUse = 0;
+      if (entry.age >= MAX_AGE) {
+        it.remove();
+      }
+    }
+  }
+
+  /** Returns the most workers of each kind that were in use at once in the last build using it. */
+  synchronized ImmutableMap<WorkerKey, Integer> getPeakUsage() {
+    ImmutableMap.Builder<WorkerKey, Integer> peakUsage = ImmutableMap.builder();
+    for (Entry entry : entries.values()) {
+      if (entry.peakInUse > 0) {
+        peakUsage.put(entry.key, entry.peakInUse);
+      }
+    }
+    return peakUsage.build();
+  }
+
+  /** Writes the history to {@code file}, as JSON. */
+  synchronized void save(Path file) throws IOException {
+    try (Writer out = new OutputStreamWriter(file.getOutputStream(), UTF_8);
+        JsonWriter writer = new JsonWriter(out)) {
+      writer.setIndent("  ");
+      writer.beginArray();
+      for (Entry entry : entries.values()) {
+        WorkerKey key = entry.key;
+        writer.beginObject();
+        writer.name("mnemonic").value(key.getMnemonic());
+        writer.name("execRoot").value(key.getExecRoot().getPathString());
+        writer.name("args").beginArray();
+        for (String arg : key.getArgs()) {
+          writer.value(arg);
+        }
+        writer.endArray();
+        writer.name("env").beginObject();
+        for (Map.Entry<String, String> var : key.getEnv().entrySet()) {
+          writer.name(var.getKey()).value(var.getValue());
+        }
+        writer.endObject();
+        writer.name("workerFilesCombinedHash").value(key.getWorkerFilesCombinedHash().toString());
+        writer.name("workerFiles").beginObject();
+        for (Map.Entry<PathFragment, HashCode> workerFile :
+            key.getWorkerFilesWithHashes().entrySet()) {
+          writer.name(workerFile.getKey().getPathString()).value(workerFile.getValue().toString());
+        }
+        writer.endObject();
+        writer.name("mustBeSandboxed").value(key.mustBeSandboxed());
+        writer.name("proxied").value(key.getProxied());
+        writer.name("peakInUse").value(entry.peakInUse);
+        writer.name("age").value(entry.age);
+        writer.endObject();
+      }
+      writer.endArray();
+    }
+  }
+
+  /**
+   * Reads a history written by {@link #save}, resolving the paths in it on {@code fileSystem}.
+   * Returns an empty history if {@code file} does not exist.
+   */
+  static WorkerHistory load(Path file, FileSystem fileSystem) throws IOException {
+    WorkerHistory history = new WorkerHistory();
+    if (!file.exists()) {
+      return history;
+    }
+    try (Reader in = new InputStreamReader(file.getInputStream(), UTF_8);
+        JsonReader reader = new JsonReader(in)) {
+      reader.beginArray();
+      while (reader.hasNext()) {
+        history.readEntry(reader, fileSystem);
+      }
+      reader.endArray();
+    } catch (IllegalStateException | IllegalArgumentException e) {
+      throw new IOException("Malformed worker history in " + file, e);
+    }
+    return history;
+  }
+
+  private synchronized void readEntry(JsonReader reader, FileSystem fileSystem)
+      throws IOException {
+    String mnemonic = null;
+    Path execRoot = null;
+    List<String> args = new ArrayList<>();
+    Map<String, String> env = new LinkedHashMap<>();
+    HashCode workerFilesCombinedHash = null;
+    SortedMap<PathFragment, HashCode> workerFiles = new TreeMap<>();
+    boolean mustBeSandboxed = false;
+    boolean proxied = false;
+    int peakInUse = 0;
+    int age = 0;
+
+    reader.beginObject();
+    while (reader.hasNext()) {
+      switch (reader.nextName()) {
+        case "mnemonic":
+          mnemonic = reader.nextString();
+          break;
+        case "execRoot":
+          execRoot = fileSystem.getPath(reader.nextString());
+          break;
+        case "args":
+          reader.beginArray();
+          while (reader.hasNext()) {
+            args.add(reader.nextString());
+          }
+          reader.endArray();
+          break;
+        case "env":
+          reader.beginObject();
+          while (reader.hasNext()) {
+            env.put(reader.nextName(), reader.nextString());
+          }
+          reader.endObject();
+          break;
+        case "workerFilesCombinedHash":
+          workerFilesCombinedHash = HashCode.fromString(reader.nextString());
+          break;
+        case "workerFiles":
+          reader.beginObject();
+          while (reader.hasNext()) {
+            workerFiles.put(
+                PathFragment.create(reader.nextName()), HashCode.fromString(reader.nextString()));
+          }
+          reader.endObject();
+          break;
+        case "mustBeSandboxed":
+          mustBeSandboxed = reader.nextBoolean();
+          break;
+        case "proxied":
+          proxied = reader.nextBoolean();
+          break;
+        case "peakInUse":
+          peakInUse = reader.nextInt();
+          break;
+        case "age":
+          age = reader.nextInt();
+          break;
+        default:
+          reader.skipValue();
+      }
+    }
+    reader.endObject();
+
+    if (mnemonic == null || execRoot == null || workerFilesCombinedHash == null) {
+      throw new IOException("Incomplete worker history entry for " + ImmutableList.copyOf(args));
+    }
+    WorkerKey key =
+        new WorkerKey(
+            args,
+            env,
+            execRoot,
+            mnemonic,
+            workerFilesCombinedHash,
+            workerFiles,
+            mustBeSandboxed,
+            proxied);
+    entries.put(key, new Entry(key, peakInUse, age));
+  }
+}
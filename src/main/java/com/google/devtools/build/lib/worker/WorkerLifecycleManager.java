@@ -0,0 +1,235 @@
+// Copyright 2019 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.worker;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.Files;
+import com.google.devtools.build.lib.events.Event;
+import com.google.devtools.build.lib.events.EventHandler;
+import com.google.devtools.build.lib.profiler.Profiler;
+import com.google.devtools.build.lib.profiler.ProfilerTask;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Thread that periodically measures the memory used by the worker processes, logs it and the number
+ * of workers into the profile, and evicts workers when they use more memory than allowed.
+ *
+ * <p>Under memory pressure, the processes using the most memory are evicted first, the least
+ * recently used one among processes using the same amount. Idle workers are destroyed right away,
+ * workers in use once they finish their request.
+ *
+ * <p>Only runs when there is a memory limit, so that builds without one do not pay for the
+ * sampling.
+ */
+final class WorkerLifecycleManager extends Thread {
+  private static final long CHECK_INTERVAL_MILLIS = 1000;
+
+  private final WorkerPool workerPool;
+  private final WorkerFactory workerFactory;
+  private final EventHandler reporter;
+  private final long memoryLimitKb;
+  private final boolean verbose;
+
+  private volatile boolean stopped;
+
+  /**
+   * @param memoryLimitMb the most memory that the worker processes may use together, in megabytes
+   */
+  WorkerLifecycleManager(
+      WorkerPool workerPool,
+      WorkerFactory workerFactory,
+      EventHandler reporter,
+      int memoryLimitMb,
+      boolean verbose) {
+    super("worker-lifecycle-manager");
+    Preconditions.checkArgument(memoryLimitMb > 0, memoryLimitMb);
+    setDaemon(true);
+    this.workerPool = workerPool;
+    this.workerFactory = workerFactory;
+    this.reporter = reporter;
+    this.memoryLimitKb = memoryLimitMb * 1024L;
+    this.verbose = verbose;
+  }
+
+  @Override
+  public void run() {
+    while (!stopped) {
+      try {
+        Thread.sleep(CHECK_INTERVAL_MILLIS);
+        checkWorkers();
+      } catch (InterruptedException e) {
+        return;
+      } catch (IOException e) {
+        reporter.handle(Event.warn("Could not evict workers: " + e.getMessage()));
+      }
+    }
+  }
+
+  void stopManaging() {
+    stopped = true;
+    interrupt();
+  }
+
+  private void checkWorkers() throws IOException, InterruptedException {
+    List<WorkerProcess> processes =
+        collectProcesses(workerFactory.getWorkers(), WorkerLifecycleManager::getRss);
+    long totalRssKb = 0;
+    for (WorkerProcess process : processes) {
+      totalRssKb += process.rssKb;
+    }
+    long nanoTime = Profiler.nanoTimeMaybe();
+    if (nanoTime >= 0) {
+      Profiler profiler = Profiler.instance();
+      profiler.logEventAtTime(
+          nanoTime, ProfilerTask.WORKER_COUNTS, String.valueOf((double) processes.size()));
+      profiler.logEventAtTime(
+          nanoTime, ProfilerTask.WORKER_MEMORY, String.valueOf(totalRssKb / 1024.0));
+    }
+
+    if (totalRssKb > memoryLimitKb) {
+      for (WorkerProcess process : selectProcessesToEvict(processes, memoryLimitKb)) {
+        if (verbose) {
+          reporter.handle(
+              Event.info(
+                  String.format(
+                      "Evicting %s worker process %d using %d MB, because all workers use %d MB, "
+                          + "more than the limit of %d MB",
+                      process.workers.get(0).getWorkerKey().getMnemonic(),
+                      process.pid,
+                      process.rssKb / 1024,
+                      totalRssKb / 1024,
+                      memoryLimitKb / 1024)));
+        }
+        for (Worker worker : process.workers) {
+          worker.doom();
+        }
+      }
+      workerPool.evictDoomedWorkers();
+    }
+  }
+
+  /** Reads the memory usage of a process. */
+  @VisibleForTesting
+  interface RssReader {
+    /** Returns the resident set size of the process in kilobytes, or -1 if it is not known. */
+    long getRssKb(long pid);
+  }
+
+  /** The workers sharing a worker process, i.e. one worker or the proxies of a multiplexer. */
+  @VisibleForTesting
+  static final class WorkerProcess {
+    final long pid;
+    final long rssKb;
+    final List<Worker> workers = new ArrayList<>();
+    long lastUsedNanos = Long.MIN_VALUE;
+
+    WorkerProcess(long pid, long rssKb) {
+      this.pid = pid;
+      this.rssKb = rssKb;
+    }
+  }
+
+  /**
+   * Groups the running, not yet doomed, workers by process, along with the memory each process
+   * uses.
+   */
+  @VisibleForTesting
+  static List<WorkerProcess> collectProcesses(
+      ImmutableList<Worker> workers, RssReader rssReader) {
+    Map<Long, WorkerProcess> processes = new LinkedHashMap<>();
+    for (Worker worker : workers) {
+      long pid = worker.getProcessId();
+      if (pid < 0 || worker.isDoomed()) {
+        continue;
+      }
+      WorkerProcess process = processes.get(pid);
+      if (process == null) {
+        long rssKb = rssReader.getRssKb(pid);
+        if (rssKb < 0) {
+          continue;
+        }
+        process = new WorkerProcess(pid, rssKb);
+        processes.put(pid, process);
+      }
+      process.workers.add(worker);
+      process.lastUsedNanos = Math.max(process.lastUsedNanos, worker.getLastUsedNanos());
+    }
+    return new ArrayList<>(processes.values());
+  }
+
+  /**
+   * Returns the processes to evict so that the rest use at most {@code memoryLimitKb}: the largest
+   * ones first, and the least recently used one among equally large ones.
+   */
+  @VisibleForTesting
+  static List<WorkerProcess> selectProcessesToEvict(
+      List<WorkerProcess> processes, long memoryLimitKb) {
+    long excessKb = -memoryLimitKb;
+    for (WorkerProcess process : processes) {
+      excessKb += process.rssKb;
+    }
+    List<WorkerProcess> candidates = new ArrayList<>(processes);
+    candidates.sort(
+        Comparator.<WorkerProcess>comparingLong(p -> -p.rssKb)
+            .thenComparingLong(p -> p.lastUsedNanos));
+    List<WorkerProcess> toEvict = new ArrayList<>();
+    for (WorkerProcess process : candidates) {
+      if (excessKb <= 0) {
+        break;
+      }
+      toEvict.add(process);
+      excessKb -= process.rssKb;
+    }
+    return toEvict;
+  }
+
+  /** Returns the resident set size of a process in kilobytes, as per /proc, or -1. */
+  private static long getRss(long pid) {
+    try {
+      return parseRssKb(Files.asCharSource(new File("/proc/" + pid + "/status"), US_ASCII).read());
+    } catch (IOException e) {
+      // Not on Linux, or the process just exited.
+      return -1;
+    }
+  }
+
+  /** Extracts the resident set size in kilobytes from the contents of /proc/[pid]/status. */
+  @VisibleForTesting
+  static long parseRssKb(String status) {
+    for (String line : status.split("\n")) {
+      if (line.startsWith("VmRSS:")) {
+        String value = line.substring("VmRSS:".length()).trim();
+        if (value.endsWith("kB")) {
+          value = value.substring(0, value.length() - 2).trim();
+        }
+        try {
+          return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+          return -1;
+        }
+      }
+    }
+    return -1;
+  }
+}
@@ -50,6 +50,10 @@ public class WorkerModule extends BlazeModule {
   private WorkerPool workerPool;
   private WorkerOptions options;
   private ImmutableMap<String, Integer> workerPoolConfig;
+  private ImmutableMap<String, Integer> workerPoolMultiplexConfig;
+  private WorkerHistory workerHistory;
+  private Path workerHistoryFile;
+  private WorkerLifecycleManager lifecycleManager;
   
   @Override
   public Iterable<Class<? extends OptionsBase>> getCommandOptions(Command command) {
@@ -101,30 +105,32 @@ public class WorkerModule extends BlazeModule {
       }
 
       workerFactory = new WorkerFactory(options, workerDir);
+
+      workerHistoryFile = workerDir.getRelative("worker-history.json");
+      try {
+        workerHistory = WorkerHistory.load(workerHistoryFile, workerDir.getFileSystem());
+      } catch (IOException e) {
+        env.getReporter()
+            .handle(Event.warn("Could not read the history of workers: " + e.getMessage()));
+        workerHistory = new WorkerHistory();
+      }
     }
 
     workerFactory.setReporter(env.getReporter());
     workerFactory.setOptions(options);
 
-    // Use a LinkedHashMap instead of an ImmutableMap.Builder to allow duplicates; the last value
-    // passed wins.
-    LinkedHashMap<String, Integer> newConfigBuilder = new LinkedHashMap<>();
-    for (Map.Entry<String, Integer> entry : options.workerMaxInstances) {
-      newConfigBuilder.put(entry.getKey(), entry.getValue());
-    }
-
-    if (!newConfigBuilder.containsKey("")) {
-      // Empty string gives the number of workers for any type of worker not explicitly specified.
-      // If no value is given, use the default, 4.
-      // TODO(steinman): Calculate a reasonable default value instead of arbitrarily defaulting to
-      // 4.
-      newConfigBuilder.put("", MultiResourceConverter.DEFAULT_VALUE);
-    }
-
-    ImmutableMap<String, Integer> newConfig = ImmutableMap.copyOf(newConfigBuilder);
+    // TODO(steinman): Calculate a reasonable default value instead of arbitrarily defaulting to
+    // 4.
+    ImmutableMap<String, Integer> newConfig =
+        createPoolConfig(options.workerMaxInstances, MultiResourceConverter.DEFAULT_VALUE);
+    ImmutableMap<String, Integer> newMultiplexConfig =
+        createPoolConfig(
+            options.workerMaxMultiplexInstances, WorkerOptions.DEFAULT_MAX_MULTIPLEX_INSTANCES);
 
     // If the config changed compared to the last run, we have to create a new pool.
-    if (workerPoolConfig != null && !workerPoolConfig.equals(newConfig)) {
+    if ((workerPoolConfig != null && !workerPoolConfig.equals(newConfig))
+        || (workerPoolMultiplexConfig != null
+            && !workerPoolMultiplexConfig.equals(newMultiplexConfig))) {
       shutdownPool(
           "Worker configuration has changed, restarting worker pool...",
           /* alwaysLog= */ true);
@@ -132,15 +138,102 @@ public class WorkerModule extends BlazeModule {
 
     if (workerPool == null) {
       workerPoolConfig = newConfig;
-      workerPool = new WorkerPool(workerFactory, workerPoolConfig, options.highPriorityWorkers);
+      workerPoolMultiplexConfig = newMultiplexConfig;
+      workerPool =
+          new WorkerPool(
+              workerFactory,
+              workerPoolConfig,
+              workerPoolMultiplexConfig,
+              options.highPriorityWorkers,
+              workerHistory);
+    }
+
+    stopLifecycleManager();
+    if (options.totalWorkerMemoryLimitMb > 0) {
+      lifecycleManager =
+          new WorkerLifecycleManager(
+              workerPool,
+              workerFactory,
+              env.getReporter(),
+              options.totalWorkerMemoryLimitMb,
+              options.workerVerbose);
+      lifecycleManager.start();
+    }
+
+    if (options.prestartWorkers) {
+      prestartWorkers(
+          workerPool,
+          env.getExecRoot(),
+          options.workerMultiplex && !options.workerSandboxing,
+          options.workerSandboxing);
     }
   }
 
+  /**
+   * Starts the workers of recent builds in the background, as many of each as were in use at once,
+   * skipping the ones that this build would not use the same way.
+   */
+  private void prestartWorkers(
+      WorkerPool pool, Path execRoot, boolean multiplex, boolean workerSandboxing) {
+    ImmutableMap<WorkerKey, Integer> peakUsage = workerHistory.getPeakUsage();
+    if (peakUsage.isEmpty()) {
+      return;
+    }
+    Thread prestarter =
+        new Thread(
+            () -> {
+              for (Map.Entry<WorkerKey, Integer> entry : peakUsage.entrySet()) {
+                WorkerKey key = entry.getKey();
+                // Sandboxed workers cannot start before their first request.
+                if (!key.getExecRoot().equals(execRoot)
+                    || key.mustBeSandboxed()
+                    || (key.getProxied() ? !multiplex : workerSandboxing)) {
+                  continue;
+                }
+                try {
+                  pool.prestartWorkers(key, entry.getValue());
+                } catch (IOException | RuntimeException e) {
+                  // E.g. the pool was shut down; the workers are started on demand instead.
+                } catch (InterruptedException e) {
+                  return;
+                }
+              }
+            },
+            "worker-prestarter");
+    prestarter.setDaemon(true);
+    prestarter.start();
+  }
+
+  private void stopLifecycleManager() {
+    if (lifecycleManager != null) {
+      lifecycleManager.stopManaging();
+      lifecycleManager = null;
+    }
+  }
+
+  /**
+   * Returns the maximum number of workers per mnemonic given by {@code maxInstances}, where the
+   * empty string gives the number for any type of worker not explicitly specified, which is {@code
+   * defaultMax} if no value is given.
+   */
+  private static ImmutableMap<String, Integer> createPoolConfig(
+      Iterable<Map.Entry<String, Integer>> maxInstances, int defaultMax) {
+    // Use a LinkedHashMap instead of an ImmutableMap.Builder to allow duplicates; the last value
+    // passed wins.
+    LinkedHashMap<String, Integer> newConfigBuilder = new LinkedHashMap<>();
+    for (Map.Entry<String, Integer> entry : maxInstances) {
+      newConfigBuilder.put(entry.getKey(), entry.getValue());
+    }
+    newConfigBuilder.putIfAbsent("", defaultMax);
+    return ImmutableMap.copyOf(newConfigBuilder);
+  }
+
   @Override
   public void executorInit(CommandEnvironment env, BuildRequest request, ExecutorBuilder builder) {
     Preconditions.checkNotNull(workerPool);
+    WorkerOptions workerOptions = env.getOptions().getOptions(WorkerOptions.class);
     ImmutableMultimap<String, String> extraFlags =
-        ImmutableMultimap.copyOf(env.getOptions().getOptions(WorkerOptions.class).workerExtraFlags);
+        ImmutableMultimap.copyOf(workerOptions.workerExtraFlags);
     LocalEnvProvider localEnvProvider = LocalEnvProvider.forCurrentOs(env.getClientEnv());
     WorkerSpawnRunner spawnRunner =
         new WorkerSpawnRunner(
@@ -156,7 +249,9 @@ public class WorkerModule extends BlazeModule {
             env.getBlazeWorkspace().getBinTools(),
             env.getLocalResourceManager(),
             // TODO(buchgr): Replace singleton by a command-scoped RunfilesTreeUpdater
-            RunfilesTreeUpdater.INSTANCE);
+            RunfilesTreeUpdater.INSTANCE,
+            // Multiplexed workers share an execroot, so they cannot be sandboxed.
+            workerOptions.workerMultiplex && !workerOptions.workerSandboxing);
     builder.addActionContext(new WorkerSpawnStrategy(env.getExecRoot(), spawnRunner));
 
     builder.addStrategyByContext(SpawnActionContext.class, "standalone");
@@ -179,6 +274,22 @@ public class WorkerModule extends BlazeModule {
 
   @Subscribe
   public void buildComplete(BuildCompleteEvent event) {
+    stopLifecycleManager();
+    if (workerHistory != null) {
+      workerHistory.buildFinished();
+      // The history holds the command lines and environments of the workers, so it is only kept
+      // on disk for the builds that asked for it.
+      try {
+        if (options != null && options.prestartWorkers) {
+          workerHistory.save(workerHistoryFile);
+        } else {
+          workerHistoryFile.delete();
+        }
+      } catch (IOException e) {
+        env.getReporter()
+            .handle(Event.warn("Could not save the history of workers: " + e.getMessage()));
+      }
+    }
     if (options != null && options.workerQuitAfterBuild) {
       shutdownPool("Build completed, shutting down worker pool...");
     }
@@ -201,6 +312,7 @@ public class WorkerModule extends BlazeModule {
   private void shutdownPool(String reason, boolean alwaysLog) {
     Preconditions.checkArgument(!reason.isEmpty());
 
+    stopLifecycleManager();
     if (workerPool != null) {
       if ((options != null && options.workerVerbose) || alwaysLog) {
         env.getReporter().handle(Event.info(reason));
@@ -212,6 +324,7 @@ public class WorkerModule extends BlazeModule {
 
   @Override
   public void afterCommand() {
+    stopLifecycleManager();
     this.env = null;
     this.options = null;
 
@@ -0,0 +1,214 @@
+// Copyright 2019 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.worker;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.devtools.build.lib.shell.Subprocess;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.worker.WorkerProtocol.WorkRequest;
+import com.google.devtools.build.lib.worker.WorkerProtocol.WorkResponse;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * A single worker process that handles several {@link WorkRequest}s at once, on behalf of the
+ * {@link WorkerProxy}s that share it.
+ *
+ * <p>Requests are tagged with a request id that is unique among the requests in flight. A reader
+ * thread parses the {@link WorkResponse}s as the worker process sends them, possibly out of order,
+ * and hands each one to the proxy waiting for its request id.
+ */
+@ThreadSafe
+final class WorkerMultiplexer {
+  private final WorkerKey workerKey;
+  private final Path logFile;
+
+  /** Number of {@link WorkerProxy}s using this multiplexer; guarded by the manager's lock. */
+  int refCount;
+
+  @GuardedBy("this")
+  private Subprocess process;
+
+  @GuardedBy("this")
+  private Thread readerThread;
+
+  /** Serializes the writes of requests to the stdin of the worker process. */
+  private final Object writeLock = new Object();
+
+  /** Responses that arrived before their proxy asked for them. */
+  @GuardedBy("this")
+  private final Map<Integer, WorkResponse> responses = new HashMap<>();
+
+  /** Ids of the requests whose proxy stopped waiting for a response, e.g. when interrupted. */
+  @GuardedBy("this")
+  private final Set<Integer> abandonedRequestIds = new HashSet<>();
+
+  /** Set once the worker process can no longer be used; no response will arrive after that. */
+  @GuardedBy("this")
+  private boolean closed;
+
+  /** Why the reader thread stopped, if it was not because of the end of the stream. */
+  @GuardedBy("this")
+  @Nullable
+  private IOException readerFailure;
+
+  /** Whatever the worker process wrote to stdout for the response that could not be parsed. */
+  @GuardedBy("this")
+  private String recordedData = "";
+
+  WorkerMultiplexer(WorkerKey workerKey, Path logFile) {
+    this.workerKey = workerKey;
+    this.logFile = logFile;
+  }
+
+  WorkerKey getWorkerKey() {
+    return workerKey;
+  }
+
+  Path getLogFile() {
+    return logFile;
+  }
+
+  /** Starts the worker process and the reader thread, if they have not been started yet. */
+  synchronized void createProcessIfNeeded() throws IOException {
+    if (closed) {
+      throw new IOException("The multiplexed worker process has already quit");
+    }
+    if (process == null) {
+      process = Worker.startProcess(workerKey, workerKey.getExecRoot(), logFile);
+      startReader(process.getInputStream());
+    }
+  }
+
+  @VisibleForTesting
+  synchronized void startReader(InputStream stdout) {
+    readerThread =
+        new Thread(() -> readResponses(stdout), "worker-multiplexer-" + workerKey.getMnemonic());
+    readerThread.setDaemon(true);
+    readerThread.start();
+  }
+
+  /** Sends {@code request}, whose request id must not be used by another request in flight. */
+  void putRequest(WorkRequest request) throws IOException {
+    OutputStream stdin;
+    synchronized (this) {
+      if (closed) {
+        throw new IOException("The multiplexed worker process has already quit");
+      }
+      stdin = process.getOutputStream();
+    }
+    putRequest(request, stdin);
+  }
+
+  @VisibleForTesting
+  void putRequest(WorkRequest request, OutputStream stdin) throws IOException {
+    synchronized (writeLock) {
+      request.writeDelimitedTo(stdin);
+      stdin.flush();
+    }
+  }
+
+  /**
+   * Waits for the response to the request with the given id, and returns it, or null if the worker
+   * process closed its stdout before sending it.
+   *
+   * @throws IOException if the worker process sent something that is not a {@link WorkResponse}
+   */
+  synchronized WorkResponse getResponse(int requestId) throws IOException, InterruptedException {
+    try {
+      while (!responses.containsKey(requestId)) {
+        if (closed) {
+          if (readerFailure != null) {
+            throw new IOException(readerFailure.getMessage(), readerFailure);
+          }
+          return null;
+        }
+        wait();
+      }
+      return responses.remove(requestId);
+    } catch (InterruptedException e) {
+      abandonedRequestIds.add(requestId);
+      throw e;
+    }
+  }
+
+  /** Returns whatever the worker process wrote to stdout when its response could not be parsed. */
+  synchronized String getRecordedData() {
+    return recordedData;
+  }
+
+  /** Returns the operating system's id of the worker process, or -1 if it is not available. */
+  synchronized long getProcessId() {
+    return process == null ? -1 : process.getProcessId();
+  }
+
+  /** Returns whether the worker process has not quit nor sent a malformed response. */
+  synchronized boolean isAlive() {
+    return !closed && (process == null || !process.finished());
+  }
+
+  private void readResponses(InputStream stdout) {
+    RecordingInputStream recordingStream = new RecordingInputStream(stdout);
+    while (true) {
+      recordingStream.startRecording(4096);
+      WorkResponse response;
+      try {
+        response = WorkResponse.parseDelimitedFrom(recordingStream);
+      } catch (IOException e) {
+        recordingStream.readRemaining();
+        close(e, recordingStream.getRecordedDataAsString());
+        return;
+      }
+      if (response == null) {
+        close(null, "");
+        return;
+      }
+      synchronized (this) {
+        if (!abandonedRequestIds.remove(response.getRequestId())) {
+          responses.put(response.getRequestId(), response);
+          notifyAll();
+        }
+      }
+    }
+  }
+
+  private synchronized void close(@Nullable IOException failure, String recordedData) {
+    if (!closed) {
+      this.closed = true;
+      this.readerFailure = failure;
+      this.recordedData = recordedData;
+      notifyAll();
+    }
+  }
+
+  /** Kills the worker process; the proxies still waiting for a response get none. */
+  void destroy() {
+    Subprocess process;
+    synchronized (this) {
+      close(null, "");
+      process = this.process;
+    }
+    if (process != null) {
+      process.destroyAndWait();
+    }
+  }
+}
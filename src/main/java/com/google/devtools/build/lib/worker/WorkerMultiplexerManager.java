@@ -0,0 +1,66 @@
+// Copyright 2019 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.worker;
+
+import com.google.devtools.build.lib.vfs.Path;
+import java.util.HashMap;
+import java.util.Map;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Keeps one {@link WorkerMultiplexer} per {@link WorkerKey}, shared by all the {@link WorkerProxy}s
+ * for that key, and destroys it once the last of them is destroyed.
+ */
+@ThreadSafe
+final class WorkerMultiplexerManager {
+  @GuardedBy("WorkerMultiplexerManager.class")
+  private static final Map<WorkerKey, WorkerMultiplexer> multiplexers = new HashMap<>();
+
+  private WorkerMultiplexerManager() {}
+
+  /**
+   * Returns the multiplexer for {@code key}, creating it if there is none or if the current one can
+   * no longer be used, and counts one more proxy using it.
+   */
+  static synchronized WorkerMultiplexer getInstance(WorkerKey key, Path logFile) {
+    WorkerMultiplexer multiplexer = multiplexers.get(key);
+    // The worker files are not part of the key, but a multiplexer running outdated ones must not
+    // be handed to new proxies.
+    if (multiplexer == null
+        || !multiplexer.isAlive()
+        || !multiplexer
+            .getWorkerKey()
+            .getWorkerFilesCombinedHash()
+            .equals(key.getWorkerFilesCombinedHash())) {
+      multiplexer = new WorkerMultiplexer(key, logFile);
+      multiplexers.put(key, multiplexer);
+    }
+    multiplexer.refCount++;
+    return multiplexer;
+  }
+
+  /** Counts one proxy less using {@code multiplexer}, and destroys it if it was the last one. */
+  static void removeInstance(WorkerKey key, WorkerMultiplexer multiplexer) {
+    synchronized (WorkerMultiplexerManager.class) {
+      if (--multiplexer.refCount > 0) {
+        return;
+      }
+      if (multiplexers.get(key) == multiplexer) {
+        multiplexers.remove(key);
+      }
+    }
+    multiplexer.destroy();
+  }
+}
@@ -99,6 +99,63 @@ public class WorkerOptions extends OptionsBase {
       allowMultiple = true)
   public List<Map.Entry<String, Integer>> workerMaxInstances;
 
+  /** The number of requests in flight on a multiplexed worker process, unless specified. */
+  public static final int DEFAULT_MAX_MULTIPLEX_INSTANCES = 8;
+
+  @Option(
+      name = "worker_max_multiplex_instances",
+      converter = MultiResourceConverter.class,
+      defaultValue = "auto",
+      documentationCategory = OptionDocumentationCategory.UNCATEGORIZED,
+      effectTags = {OptionEffectTag.EXECUTION, OptionEffectTag.HOST_MACHINE_RESOURCE_OPTIMIZATIONS},
+      help =
+          "How many requests may be in flight at once on a single multiplexed worker process, when "
+              + "--experimental_worker_multiplex is enabled. May be specified as [name=value] to "
+              + "give a different value per worker mnemonic. Takes "
+              + ResourceConverter.FLAG_SYNTAX
+              + ". \"=value\" sets a default for unspecified mnemonics, which is otherwise "
+              + DEFAULT_MAX_MULTIPLEX_INSTANCES
+              + ".",
+      allowMultiple = true)
+  public List<Map.Entry<String, Integer>> workerMaxMultiplexInstances;
+
+  @Option(
+      name = "experimental_worker_multiplex",
+      defaultValue = "false",
+      documentationCategory = OptionDocumentationCategory.UNCATEGORIZED,
+      effectTags = {OptionEffectTag.EXECUTION, OptionEffectTag.HOST_MACHINE_RESOURCE_OPTIMIZATIONS},
+      help =
+          "If enabled, actions tagged with 'supports-multiplex-workers' send all their requests "
+              + "to a single worker process per worker kind, instead of one process per request in "
+              + "flight. Ignored when --worker_sandboxing is enabled.")
+  public boolean workerMultiplex;
+
+  @Option(
+      name = "experimental_prestart_workers",
+      defaultValue = "false",
+      documentationCategory = OptionDocumentationCategory.UNCATEGORIZED,
+      effectTags = {OptionEffectTag.EXECUTION},
+      help =
+          "If enabled, when a build starts, the workers that recent builds used and that are not "
+              + "running are started in the background, as many of each as the last build using "
+              + "them needed at once, so that they do not delay the first actions that need them. "
+              + "To do so, the command lines and environment variables of the workers are stored "
+              + "in the output base, and deleted again by the first build without this flag.")
+  public boolean prestartWorkers;
+
+  @Option(
+      name = "experimental_total_worker_memory_limit_mb",
+      defaultValue = "0",
+      documentationCategory = OptionDocumentationCategory.UNCATEGORIZED,
+      effectTags = {OptionEffectTag.EXECUTION, OptionEffectTag.HOST_MACHINE_RESOURCE_OPTIMIZATIONS},
+      help =
+          "If set to a positive value, worker processes are evicted when their resident memory "
+              + "together exceeds this many megabytes, largest first. Idle workers are evicted "
+              + "right away, busy ones when they finish their current request. While set, the number "
+              + "of workers and their memory use are also recorded in the profile. Only supported "
+              + "on Linux.")
+  public int totalWorkerMemoryLimitMb;
+
   @Option(
       name = "high_priority_workers",
       defaultValue = "",
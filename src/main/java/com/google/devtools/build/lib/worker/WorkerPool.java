@@ -16,9 +16,16 @@ package com.google.devtools.build.lib.worker;
 import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
+import com.google.devtools.build.lib.profiler.Profiler;
+import com.google.devtools.build.lib.profiler.ProfilerTask;
+import com.google.devtools.build.lib.profiler.SilentCloseable;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.concurrent.atomic.AtomicInteger;
 import javax.annotation.concurrent.ThreadSafe;
 
@@ -34,22 +41,41 @@ final class WorkerPool {
   private final ImmutableSet<String> highPriorityWorkerMnemonics;
   private final ImmutableMap<String, Integer> config;
   private final ImmutableMap<Integer, SimpleWorkerPool> pools;
+  private final ImmutableMap<String, Integer> multiplexConfig;
+  private final ImmutableMap<Integer, SimpleWorkerPool> multiplexPools;
+  private final WorkerHistory history;
 
   /**
    * @param factory worker factory
    * @param config pool configuration; max number of workers per worker mnemonic; the empty string
    *     key specifies the default maximum
+   * @param multiplexConfig pool configuration for multiplexed workers; max number of requests in
+   *     flight on the single process per worker mnemonic; the empty string key specifies the
+   *     default maximum
    * @param highPriorityWorkers mnemonics of high priority workers
+   * @param history where to record which workers are used
    */
   public WorkerPool(
-      WorkerFactory factory, Map<String, Integer> config, Iterable<String> highPriorityWorkers) {
+      WorkerFactory factory,
+      Map<String, Integer> config,
+      Map<String, Integer> multiplexConfig,
+      Iterable<String> highPriorityWorkers,
+      WorkerHistory history) {
+    this.history = history;
     highPriorityWorkerMnemonics = ImmutableSet.copyOf(highPriorityWorkers);
     this.config = ImmutableMap.copyOf(config);
+    this.multiplexConfig = ImmutableMap.copyOf(multiplexConfig);
+    pools = createPools(factory, config);
+    multiplexPools = createPools(factory, multiplexConfig);
+  }
+
+  private ImmutableMap<Integer, SimpleWorkerPool> createPools(
+      WorkerFactory factory, Map<String, Integer> config) {
     ImmutableMap.Builder<Integer, SimpleWorkerPool> poolsBuilder = ImmutableMap.builder();
     for (Integer max : new HashSet<>(config.values())) {
       poolsBuilder.put(max, new SimpleWorkerPool(factory, makeConfig(max)));
     }
-    pools = poolsBuilder.build();
+    return poolsBuilder.build();
   }
 
   private WorkerPoolConfig makeConfig(int max) {
@@ -77,18 +103,28 @@ final class WorkerPool {
     config.setTestOnCreate(true);
     config.setTestOnReturn(true);
 
-    // No eviction of idle workers.
+    // No eviction of idle workers, except for the doomed ones when evictDoomedWorkers() runs the
+    // validation over all of them.
     config.setTimeBetweenEvictionRunsMillis(-1);
+    config.setMinEvictableIdleTimeMillis(-1);
+    config.setSoftMinEvictableIdleTimeMillis(-1);
+    config.setTestWhileIdle(true);
+    config.setNumTestsPerEvictionRun(-1);
 
     return config;
   }
 
+  /**
+   * Returns the pool for {@code key}. The {@link WorkerProxy}s for multiplexed workers live in
+   * pools of their own, as their maximum number is that of requests in flight on one process.
+   */
   private SimpleWorkerPool getPool(WorkerKey key) {
+    ImmutableMap<String, Integer> config = key.getProxied() ? multiplexConfig : this.config;
     Integer max = config.get(key.getMnemonic());
     if (max == null) {
       max = config.get("");
     }
-    return pools.get(max);
+    return key.getProxied() ? multiplexPools.get(max) : pools.get(max);
   }
 
   /**
@@ -99,12 +135,15 @@ final class WorkerPool {
    */
   public Worker borrowObject(WorkerKey key) throws IOException, InterruptedException {
     Worker result;
-    try {
+    try (SilentCloseable c =
+        Profiler.instance().profile(ProfilerTask.WORKER_BORROW, key.getMnemonic())) {
       result = getPool(key).borrowObject(key);
     } catch (Throwable t) {
       Throwables.propagateIfPossible(t, IOException.class, InterruptedException.class);
       throw new RuntimeException("unexpected", t);
     }
+    result.markUsed();
+    history.recordBorrow(key);
 
     if (highPriorityWorkerMnemonics.contains(key.getMnemonic())) {
       highPriorityWorkersInUse.incrementAndGet();
@@ -124,6 +163,7 @@ final class WorkerPool {
     if (highPriorityWorkerMnemonics.contains(key.getMnemonic())) {
       decrementHighPriorityWorkerCount();
     }
+    history.recordReturn(key);
     getPool(key).returnObject(key, obj);
   }
 
@@ -131,6 +171,7 @@ final class WorkerPool {
     if (highPriorityWorkerMnemonics.contains(key.getMnemonic())) {
       decrementHighPriorityWorkerCount();
     }
+    history.recordReturn(key);
     try {
       getPool(key).invalidateObject(key, obj);
     } catch (Throwable t) {
@@ -162,9 +203,56 @@ final class WorkerPool {
     }
   }
 
+  /**
+   * Starts the processes of up to {@code count} workers for {@code key}, without waiting for
+   * workers in use, and leaves them idle in the pool.
+   */
+  public void prestartWorkers(WorkerKey key, int count) throws IOException, InterruptedException {
+    SimpleWorkerPool pool = getPool(key);
+    List<Worker> workers = new ArrayList<>();
+    try {
+      while (workers.size() < count) {
+        Worker worker;
+        try {
+          worker = pool.borrowObject(key, /* borrowMaxWaitMillis= */ 0);
+        } catch (NoSuchElementException e) {
+          // All the workers for the key are in use.
+          break;
+        } catch (Throwable t) {
+          Throwables.propagateIfPossible(t, IOException.class, InterruptedException.class);
+          throw new RuntimeException("unexpected", t);
+        }
+        workers.add(worker);
+        worker.prestart();
+      }
+    } finally {
+      for (Worker worker : workers) {
+        pool.returnObject(key, worker);
+      }
+    }
+  }
+
+  /**
+   * Destroys the idle workers that were doomed by {@link Worker#doom}. Doomed workers in use are
+   * destroyed when they are returned.
+   */
+  public void evictDoomedWorkers() throws IOException, InterruptedException {
+    for (SimpleWorkerPool pool : Iterables.concat(pools.values(), multiplexPools.values())) {
+      try {
+        pool.evict();
+      } catch (Throwable t) {
+        Throwables.propagateIfPossible(t, IOException.class, InterruptedException.class);
+        throw new RuntimeException("unexpected", t);
+      }
+    }
+  }
+
   public void close() {
     for (SimpleWorkerPool pool : pools.values()) {
       pool.close();
     }
+    for (SimpleWorkerPool pool : multiplexPools.values()) {
+      pool.close();
+    }
   }
 }
@@ -0,0 +1,94 @@
+// Copyright 2019 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.worker;
+
+import com.google.devtools.build.lib.sandbox.SandboxHelpers.SandboxInputs;
+import com.google.devtools.build.lib.sandbox.SandboxHelpers.SandboxOutputs;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.PathFragment;
+import com.google.devtools.build.lib.worker.WorkerProtocol.WorkRequest;
+import com.google.devtools.build.lib.worker.WorkerProtocol.WorkResponse;
+import java.io.IOException;
+import java.util.Set;
+
+/**
+ * A {@link Worker} that does not own a process, but sends its requests to the {@link
+ * WorkerMultiplexer} shared by all the proxies with the same {@link WorkerKey}.
+ *
+ * <p>Proxies are cheap, so the pool can hold many of them per key, all of them using a single
+ * worker process.
+ */
+final class WorkerProxy extends Worker {
+  private final WorkerKey workerKey;
+  private final WorkerMultiplexer workerMultiplexer;
+  private boolean destroyed;
+
+  WorkerProxy(WorkerKey workerKey, int workerId, Path workDir, Path logFile) {
+    super(workerKey, workerId, workDir, logFile);
+    this.workerKey = workerKey;
+    this.workerMultiplexer = WorkerMultiplexerManager.getInstance(workerKey, logFile);
+  }
+
+  @Override
+  void createProcess() throws IOException {
+    workerMultiplexer.createProcessIfNeeded();
+  }
+
+  @Override
+  public void prepareExecution(
+      SandboxInputs inputFiles, SandboxOutputs outputs, Set<PathFragment> workerFiles)
+      throws IOException {
+    createProcess();
+  }
+
+  @Override
+  long getProcessId() {
+    return workerMultiplexer.getProcessId();
+  }
+
+  @Override
+  boolean isAlive() {
+    return workerMultiplexer.isAlive();
+  }
+
+  @Override
+  void putRequest(WorkRequest request) throws IOException {
+    workerMultiplexer.putRequest(request);
+  }
+
+  @Override
+  WorkResponse getResponse(int requestId) throws IOException, InterruptedException {
+    return workerMultiplexer.getResponse(requestId);
+  }
+
+  @Override
+  String getRecordingStreamMessage() {
+    return workerMultiplexer.getRecordedData();
+  }
+
+  @Override
+  public Path getLogFile() {
+    return workerMultiplexer.getLogFile();
+  }
+
+  @Override
+  synchronized void destroy() throws IOException {
+    super.destroy();
+    // Both the pool and the shutdown hook may destroy the proxy.
+    if (!destroyed) {
+      destroyed = true;
+      WorkerMultiplexerManager.removeInstance(workerKey, workerMultiplexer);
+    }
+  }
+}
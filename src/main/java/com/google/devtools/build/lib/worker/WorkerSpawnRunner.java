@@ -56,6 +56,7 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.SortedMap;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Pattern;
 
 /**
@@ -84,6 +85,9 @@ final class WorkerSpawnRunner implements SpawnRunner {
   private final BinTools binTools;
   private final ResourceManager resourceManager;
   private final RunfilesTreeUpdater runfilesTreeUpdater;
+  private final boolean multiplex;
+  /** Tags the requests sent to multiplexed workers; 0 is what non-multiplexed workers receive. */
+  private final AtomicInteger requestIdCounter = new AtomicInteger(1);
 
   public WorkerSpawnRunner(
       Path execRoot,
@@ -95,7 +99,8 @@ final class WorkerSpawnRunner implements SpawnRunner {
       boolean sandboxUsesExpandedTreeArtifactsInRunfiles,
       BinTools binTools,
       ResourceManager resourceManager,
-      RunfilesTreeUpdater runfilesTreeUpdater) {
+      RunfilesTreeUpdater runfilesTreeUpdater,
+      boolean multiplex) {
     this.execRoot = execRoot;
     this.workers = Preconditions.checkNotNull(workers);
     this.extraFlags = extraFlags;
@@ -106,6 +111,7 @@ final class WorkerSpawnRunner implements SpawnRunner {
     this.binTools = binTools;
     this.resourceManager = resourceManager;
     this.runfilesTreeUpdater = runfilesTreeUpdater;
+    this.multiplex = multiplex;
   }
 
   @Override
@@ -174,6 +180,9 @@ final class WorkerSpawnRunner implements SpawnRunner {
             spawn, context, execRoot, sandboxUsesExpandedTreeArtifactsInRunfiles);
     SandboxOutputs outputs = SandboxHelpers.getOutputs(spawn);
 
+    // Speculative executions must be sandboxed, which multiplexed workers cannot be.
+    boolean proxied =
+        multiplex && Spawns.supportsMultiplexWorkers(spawn) && !context.speculating();
     WorkerKey key =
         new WorkerKey(
             workerArgs,
@@ -182,9 +191,16 @@ final class WorkerSpawnRunner implements SpawnRunner {
             spawn.getMnemonic(),
             workerFilesCombinedHash,
             workerFiles,
-            context.speculating());
+            context.speculating(),
+            proxied);
 
-    WorkRequest workRequest = createWorkRequest(spawn, context, flagFiles, inputFileCache);
+    WorkRequest workRequest =
+        createWorkRequest(
+            spawn,
+            context,
+            flagFiles,
+            inputFileCache,
+            proxied ? requestIdCounter.getAndIncrement() : 0);
 
     long startTime = System.currentTimeMillis();
     WorkResponse response = execInWorker(spawn, key, workRequest, context, inputFiles, outputs);
@@ -235,9 +251,10 @@ final class WorkerSpawnRunner implements SpawnRunner {
       Spawn spawn,
       SpawnExecutionContext context,
       List<String> flagfiles,
-      MetadataProvider inputFileCache)
+      MetadataProvider inputFileCache,
+      int requestId)
       throws IOException {
-    WorkRequest.Builder requestBuilder = WorkRequest.newBuilder();
+    WorkRequest.Builder requestBuilder = WorkRequest.newBuilder().setRequestId(requestId);
     for (String flagfile : flagfiles) {
       expandArgument(execRoot, flagfile, requestBuilder);
     }
@@ -345,8 +362,7 @@ final class WorkerSpawnRunner implements SpawnRunner {
         }
 
         try {
-          request.writeDelimitedTo(worker.getOutputStream());
-          worker.getOutputStream().flush();
+          worker.putRequest(request);
         } catch (IOException e) {
           throw new UserExecException(
               ErrorMessage.builder()
@@ -359,17 +375,14 @@ final class WorkerSpawnRunner implements SpawnRunner {
                   .toString());
         }
 
-        RecordingInputStream recordingStream = new RecordingInputStream(worker.getInputStream());
-        recordingStream.startRecording(4096);
         try {
           // response can be null when the worker has already closed stdout at this point and thus
           // the InputStream is at EOF.
-          response = WorkResponse.parseDelimitedFrom(recordingStream);
+          response = worker.getResponse(request.getRequestId());
         } catch (IOException e) {
           // If protobuf couldn't parse the response, try to print whatever the failing worker wrote
           // to stdout - it's probably a stack trace or some kind of error message that will help
           // the user figure out why the compiler is failing.
-          recordingStream.readRemaining();
           throw new UserExecException(
               ErrorMessage.builder()
                   .message(
@@ -377,7 +390,7 @@ final class WorkerSpawnRunner implements SpawnRunner {
                           + "Did you try to print something to stdout? Workers aren't allowed to "
                           + "do this, as it breaks the protocol between Bazel and the worker "
                           + "process.")
-                  .logText(recordingStream.getRecordedDataAsString())
+                  .logText(worker.getRecordingStreamMessage())
                   .exception(e)
                   .build()
                   .toString());
@@ -65,6 +65,14 @@ static void Usage(char *program_name, const char *fmt, ...) {
           "mounted readonly.\n"
           "    The -M option specifies which directory to mount, the -m option "
           "specifies where to\n"
+          "  -O <dir>  mount an overlay on the working directory, with <dir> "
+          "as a read-only layer\n"
+          "    Multiple layers can be specified, the first one being the "
+          "topmost.\n"
+          "  -P <dir>  directory where writes to the overlay go, required "
+          "with -O\n"
+          "  -K <dir>  overlay scratch directory on the same filesystem as -P, "
+          "required with -O\n"
           "  -S <file>  if set, write stats in protobuf format to a file\n"
           "  -H  if set, make hostname in the sandbox equal to 'localhost'\n"
           "  -N  if set, a new network namespace will be created\n"
@@ -92,7 +100,7 @@ static void ParseCommandLine(unique_ptr<vector<char *>> args) {
   bool source_specified = false;
 
   while ((c = getopt(args->size(), args->data(),
-                     ":W:T:t:l:L:w:e:M:m:S:HNRUD")) != -1) {
+                     ":W:T:t:l:L:w:e:M:m:O:P:K:S:HNRUD")) != -1) {
     if (c != 'M' && c != 'm') source_specified = false;
     switch (c) {
       case 'W':
@@ -157,6 +165,37 @@ static void ParseCommandLine(unique_ptr<vector<char *>> args) {
         opt.bind_mount_targets.emplace_back(optarg);
         source_specified = false;
         break;
+      case 'O':
+        ValidateIsAbsolutePath(optarg, args->front(), static_cast<char>(c));
+        // The layers are joined with ':' in the mount options, which are
+        // separated by ','.
+        if (strpbrk(optarg, ":,") != nullptr) {
+          Usage(args->front(),
+                "Overlay layers (-O) must not contain ':' or ','.");
+        }
+        if (!opt.overlay_lower_dir.empty()) {
+          opt.overlay_lower_dir.append(":");
+        }
+        opt.overlay_lower_dir.append(optarg);
+        break;
+      case 'P':
+        ValidateIsAbsolutePath(optarg, args->front(), static_cast<char>(c));
+        if (opt.overlay_upper_dir.empty()) {
+          opt.overlay_upper_dir.assign(optarg);
+        } else {
+          Usage(args->front(),
+                "Multiple overlay upper directories (-P) specified.");
+        }
+        break;
+      case 'K':
+        ValidateIsAbsolutePath(optarg, args->front(), static_cast<char>(c));
+        if (opt.overlay_work_dir.empty()) {
+          opt.overlay_work_dir.assign(optarg);
+        } else {
+          Usage(args->front(),
+                "Multiple overlay work directories (-K) specified.");
+        }
+        break;
       case 'S':
         if (opt.stats_path.empty()) {
           opt.stats_path.assign(optarg);
@@ -264,4 +303,9 @@ void ParseOptions(int argc, char *argv[]) {
   if (opt.working_dir.empty()) {
     opt.working_dir = getcwd(nullptr, 0);
   }
+
+  if (opt.overlay_lower_dir.empty() != opt.overlay_upper_dir.empty() ||
+      opt.overlay_lower_dir.empty() != opt.overlay_work_dir.empty()) {
+    Usage(args.front(), "The -O, -P and -K options must be used together.");
+  }
 }
@@ -40,6 +40,13 @@ struct Options {
   std::vector<std::string> bind_mount_sources;
   // Target of files or directories to explicitly bind mount in the sandbox (-m)
   std::vector<std::string> bind_mount_targets;
+  // Read-only directories to overlay the working directory with, topmost first
+  // and separated by ':' (-O)
+  std::string overlay_lower_dir;
+  // Directory receiving the writes to the overlaid working directory (-P)
+  std::string overlay_upper_dir;
+  // Scratch directory of the overlay, on the same filesystem as -P (-K)
+  std::string overlay_work_dir;
   // Where to write stats, in protobuf format (-S)
   std::string stats_path;
   // Set the hostname inside the sandbox to 'localhost' (-H)
@@ -171,11 +171,22 @@ static void MountFilesystems() {
   }
 
   // Make sure that our working directory is a mount point. The easiest way to
-  // do this is by bind-mounting it upon itself.
+  // do this is by bind-mounting it upon itself, unless we mount an overlay on
+  // it anyway.
   PRINT_DEBUG("working dir: %s", opt.working_dir.c_str());
 
-  if (mount(opt.working_dir.c_str(), opt.working_dir.c_str(), nullptr, MS_BIND,
-            nullptr) < 0) {
+  if (!opt.overlay_lower_dir.empty()) {
+    std::string options = "lowerdir=" + opt.overlay_lower_dir +
+                          ",upperdir=" + opt.overlay_upper_dir +
+                          ",workdir=" + opt.overlay_work_dir;
+    PRINT_DEBUG("overlay: %s", options.c_str());
+    if (mount("overlay", opt.working_dir.c_str(), "overlay", 0,
+              options.c_str()) < 0) {
+      DIE("mount(overlay, %s, overlay, 0, %s)", opt.working_dir.c_str(),
+          options.c_str());
+    }
+  } else if (mount(opt.working_dir.c_str(), opt.working_dir.c_str(), nullptr,
+                   MS_BIND, nullptr) < 0) {
     DIE("mount(%s, %s, nullptr, MS_BIND, nullptr)", opt.working_dir.c_str(),
         opt.working_dir.c_str());
   }
@@ -18,15 +18,21 @@ import static com.google.common.truth.Truth.assertThat;
 
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
+import com.google.devtools.build.lib.clock.BlazeClock;
 import com.google.devtools.build.lib.exec.Protos.File;
 import com.google.devtools.build.lib.exec.Protos.SpawnExec;
+import com.google.devtools.build.lib.util.io.MessageInputStream;
 import com.google.devtools.build.lib.util.io.MessageOutputStream;
+import com.google.devtools.build.lib.vfs.DigestHashFunction;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.inmemoryfs.InMemoryFileSystem;
 import com.google.protobuf.Message;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -35,6 +41,8 @@ import org.junit.runners.JUnit4;
 /** Tests for {@link StableSort}. */
 @RunWith(JUnit4.class)
 public final class StableSortTest {
+  private final Path tempDir =
+      new InMemoryFileSystem(BlazeClock.instance(), DigestHashFunction.SHA256).getPath("/sort");
 
   private static class ListOutput implements MessageOutputStream {
     public ArrayList<SpawnExec> list;
@@ -62,7 +70,7 @@ public final class StableSortTest {
     }
     InputStream inputStream = new ByteArrayInputStream(baos.toByteArray());
 
-    StableSort.stableSort(inputStream, o);
+    StableSort.stableSort(inputStream, o, tempDir);
     return o.list;
   }
 
@@ -363,4 +371,33 @@ public final class StableSortTest {
     List<SpawnExec> l = testStableSort(ImmutableList.of(f, e, d, c, b, a));
     assertThat(l).containsExactly(d, a, c, b, e, f).inOrder();
   }
+
+  @Test
+  public void stableSort_mergesSpawnsThatDoNotFitInMemory() throws Exception {
+    SpawnExec a = createSpawnExec(ImmutableList.of("b"), ImmutableList.of("a"));
+    SpawnExec b = createSpawnExec(ImmutableList.of("c"), ImmutableList.of("b"));
+    SpawnExec c = createSpawnExec(ImmutableList.of(""), ImmutableList.of("c"));
+    SpawnExec d = createSpawnExec(ImmutableList.of("e"), ImmutableList.of("d"));
+    SpawnExec e = createSpawnExec(ImmutableList.of("f"), ImmutableList.of("e"));
+    SpawnExec f = createSpawnExec(ImmutableList.of(""), ImmutableList.of("f"));
+    Iterator<SpawnExec> inputs = ImmutableList.of(e, a, f, c, d, b).iterator();
+
+    ListOutput o = new ListOutput();
+    // Every spawn ends up in a temporary file of its own.
+    StableSort.stableSort(
+        new MessageInputStream<SpawnExec>() {
+          @Override
+          public SpawnExec read() {
+            return inputs.hasNext() ? inputs.next() : null;
+          }
+
+          @Override
+          public void close() {}
+        },
+        o,
+        tempDir,
+        /* maxBytesInMemory= */ 1);
+    assertThat(o.list).containsExactly(c, b, a, f, e, d).inOrder();
+    assertThat(tempDir.exists()).isFalse();
+  }
 }
@@ -191,6 +191,21 @@ public class ImmutableSortedKeyMapTest {
     assertThat(map).doesNotContainKey(null);
   }
 
+  @Test
+  public void indexOf() {
+    ImmutableSortedKeyMap<String, Integer> map =
+        ImmutableSortedKeyMap.<String, Integer>builder()
+            .put("two", 2)
+            .put("one", 1)
+            .put("three", 3)
+            .build();
+    assertThat(map.indexOf("one")).isEqualTo(0);
+    assertThat(map.indexOf("three")).isEqualTo(1);
+    assertThat(map.indexOf("two")).isEqualTo(2);
+    assertThat(map.indexOf("four")).isEqualTo(-1);
+    assertThat(map.indexOf(null)).isEqualTo(-1);
+  }
+
   @Test
   public void nullPointers() {
     NullPointerTester tester = new NullPointerTester();
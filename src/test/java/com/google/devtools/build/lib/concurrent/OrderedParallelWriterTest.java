@@ -0,0 +1,117 @@
+// Copyright 2019 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.concurrent;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.devtools.build.lib.testutil.MoreAsserts.assertThrows;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link OrderedParallelWriter}. */
+@RunWith(JUnit4.class)
+public class OrderedParallelWriterTest {
+
+  @Test
+  public void testOutputIsInSubmissionOrder() throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    StringBuilder expected = new StringBuilder();
+    try (OrderedParallelWriter<Integer> writer =
+        new OrderedParallelWriter<>(
+            out,
+            i -> {
+              // Make early items finish last.
+              Thread.sleep((100 - i) % 7);
+              return (i + ",").getBytes(UTF_8);
+            },
+            /*threadCount=*/ 4,
+            /*maxPending=*/ 8,
+            "test-writer %d")) {
+      for (int i = 0; i < 100; i++) {
+        writer.write(i);
+        expected.append(i).append(',');
+      }
+      writer.flush();
+    }
+    assertThat(out.toString("UTF-8")).isEqualTo(expected.toString());
+  }
+
+  @Test
+  public void testWriteBlocksWhenTooManyItemsArePending() throws Exception {
+    CountDownLatch release = new CountDownLatch(1);
+    AtomicInteger started = new AtomicInteger();
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try (OrderedParallelWriter<Integer> writer =
+        new OrderedParallelWriter<>(
+            out,
+            i -> {
+              started.incrementAndGet();
+              release.await();
+              return new byte[] {i.byteValue()};
+            },
+            /*threadCount=*/ 2,
+            /*maxPending=*/ 2,
+            "test-writer %d")) {
+      writer.write(1);
+      writer.write(2);
+      Thread blocked =
+          new Thread(
+              () -> {
+                try {
+                  writer.write(3);
+                } catch (IOException | InterruptedException e) {
+                  throw new IllegalStateException(e);
+                }
+              });
+      blocked.start();
+      blocked.join(100);
+      assertThat(blocked.isAlive()).isTrue();
+
+      release.countDown();
+      blocked.join();
+      writer.flush();
+    }
+    assertThat(out.toByteArray()).isEqualTo(new byte[] {1, 2, 3});
+  }
+
+  @Test
+  public void testEncoderFailureIsPropagated() throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try (OrderedParallelWriter<Integer> writer =
+        new OrderedParallelWriter<>(
+            out,
+            i -> {
+              if (i == 1) {
+                throw new IOException("bad item");
+              }
+              return new byte[] {i.byteValue()};
+            },
+            /*threadCount=*/ 2,
+            /*maxPending=*/ 4,
+            "test-writer %d")) {
+      writer.write(0);
+      writer.write(1);
+      writer.write(2);
+      IOException e = assertThrows(IOException.class, writer::flush);
+      assertThat(e).hasMessageThat().isEqualTo("bad item");
+    }
+    assertThat(out.toByteArray()).isEqualTo(new byte[] {0});
+  }
+}
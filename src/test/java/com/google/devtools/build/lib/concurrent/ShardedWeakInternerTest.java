@@ -0,0 +1,121 @@
+// Copyright 2019 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.concurrent;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.testing.GcFinalization;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link ShardedWeakInterner}. */
+@RunWith(JUnit4.class)
+public class ShardedWeakInternerTest {
+
+  /** A key whose instances all collide, to exercise probing. */
+  private static final class Colliding {
+    private final String value;
+
+    Colliding(String value) {
+      this.value = value;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      return o instanceof Colliding && ((Colliding) o).value.equals(value);
+    }
+
+    @Override
+    public int hashCode() {
+      return 42;
+    }
+  }
+
+  @Test
+  public void testReturnsCanonicalInstance() {
+    ShardedWeakInterner<String> interner = new ShardedWeakInterner<>(4);
+    List<String> canonical = new ArrayList<>();
+    for (int i = 0; i < 10000; i++) {
+      String s = "s" + i;
+      assertThat(interner.intern(s)).isSameInstanceAs(s);
+      canonical.add(s);
+    }
+    for (int i = 0; i < 10000; i++) {
+      assertThat(interner.intern(new String("s" + i))).isSameInstanceAs(canonical.get(i));
+    }
+    assertThat(interner.size()).isEqualTo(10000);
+  }
+
+  @Test
+  public void testCollidingHashes() {
+    ShardedWeakInterner<Colliding> interner = new ShardedWeakInterner<>(1);
+    List<Colliding> canonical = new ArrayList<>();
+    for (int i = 0; i < 100; i++) {
+      canonical.add(interner.intern(new Colliding("c" + i)));
+    }
+    for (int i = 0; i < 100; i++) {
+      assertThat(interner.intern(new Colliding("c" + i))).isSameInstanceAs(canonical.get(i));
+    }
+  }
+
+  @Test
+  public void testDoesNotRetainInstances() {
+    ShardedWeakInterner<Colliding> interner = new ShardedWeakInterner<>(1);
+    Colliding c = interner.intern(new Colliding("c"));
+    WeakReference<Colliding> ref = new WeakReference<>(c);
+    c = null;
+    GcFinalization.awaitClear(ref);
+
+    Colliding replacement = new Colliding("c");
+    assertThat(interner.intern(replacement)).isSameInstanceAs(replacement);
+    // The cleared slot was reused.
+    assertThat(interner.size()).isEqualTo(1);
+  }
+
+  @Test
+  public void testConcurrentInterning() throws Exception {
+    ShardedWeakInterner<String> interner = new ShardedWeakInterner<>(4);
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    try {
+      List<Future<List<String>>> results = new ArrayList<>();
+      for (int t = 0; t < 8; t++) {
+        results.add(
+            executor.submit(
+                () -> {
+                  List<String> interned = new ArrayList<>();
+                  for (int i = 0; i < 5000; i++) {
+                    interned.add(interner.intern(new String("s" + i)));
+                  }
+                  return interned;
+                }));
+      }
+      List<String> first = results.get(0).get();
+      for (Future<List<String>> result : results) {
+        List<String> interned = result.get();
+        for (int i = 0; i < interned.size(); i++) {
+          assertThat(interned.get(i)).isSameInstanceAs(first.get(i));
+        }
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+}
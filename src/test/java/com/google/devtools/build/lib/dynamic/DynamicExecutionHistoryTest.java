@@ -0,0 +1,136 @@
+// Copyright 2019 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.dynamic;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.devtools.build.lib.dynamic.DynamicSpawnStrategy.MIN_ADAPTIVE_SAMPLES;
+import static com.google.devtools.build.lib.dynamic.DynamicSpawnStrategy.SKIP_LOCAL;
+import static com.google.devtools.build.lib.dynamic.DynamicSpawnStrategy.getLocalDelayMillis;
+
+import com.google.devtools.build.lib.dynamic.DynamicExecutionHistory.Stats;
+import com.google.devtools.build.lib.vfs.FileSystem;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.inmemoryfs.InMemoryFileSystem;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link DynamicExecutionHistory} and the decisions taken from it. */
+@RunWith(JUnit4.class)
+public class DynamicExecutionHistoryTest {
+  private final FileSystem fs = new InMemoryFileSystem();
+
+  @Test
+  public void testAveragesLatencies() {
+    DynamicExecutionHistory history = new DynamicExecutionHistory();
+    history.recordLocalWin("Javac", 100);
+    history.recordLocalWin("Javac", 200);
+    history.recordRemoteWin("Javac", 50, /*cacheHit=*/ true, /*raced=*/ true);
+    history.recordRemoteWin("Javac", 150, /*cacheHit=*/ false, /*raced=*/ true);
+
+    Stats stats = history.getStats("Javac");
+    assertThat(stats.localSamples).isEqualTo(2);
+    assertThat(stats.localMillis).isWithin(0.01).of(150);
+    assertThat(stats.remoteSamples).isEqualTo(2);
+    assertThat(stats.remoteMillis).isWithin(0.01).of(100);
+    // The local wins count as cache misses.
+    assertThat(stats.remoteCacheHitRate).isWithin(0.01).of(0.25);
+    assertThat(history.getStats("CppCompile")).isNull();
+  }
+
+  @Test
+  public void testRecentSamplesWeighMore() {
+    DynamicExecutionHistory history = new DynamicExecutionHistory();
+    for (int i = 0; i < 20; i++) {
+      history.recordRemoteWin("Javac", 1000, /*cacheHit=*/ false, /*raced=*/ true);
+    }
+    for (int i = 0; i < 20; i++) {
+      history.recordRemoteWin("Javac", 10, /*cacheHit=*/ true, /*raced=*/ true);
+    }
+
+    Stats stats = history.getStats("Javac");
+    assertThat(stats.remoteMillis).isLessThan(50.0);
+    assertThat(stats.remoteCacheHitRate).isGreaterThan(0.95);
+  }
+
+  @Test
+  public void testSummarizesWinsOfBuild() {
+    DynamicExecutionHistory history = new DynamicExecutionHistory();
+    assertThat(history.getSummary()).isNull();
+
+    history.recordLocalWin("Javac", 100);
+    history.recordRemoteWin("Javac", 50, /*cacheHit=*/ true, /*raced=*/ true);
+    history.recordRemoteWin("Javac", 50, /*cacheHit=*/ false, /*raced=*/ true);
+    history.recordRemoteWin("Javac", 10, /*cacheHit=*/ true, /*raced=*/ false);
+    assertThat(history.getSummary())
+        .isEqualTo(
+            "Dynamic execution: 1 local wins, 2 remote wins, 1 remote only (2 remote cache hits)");
+
+    history.buildFinished();
+    assertThat(history.getSummary()).isNull();
+    assertThat(history.getStats("Javac").remoteSamples).isEqualTo(3);
+  }
+
+  @Test
+  public void testSavesAndLoads() throws Exception {
+    Path file = fs.getPath("/outputbase/dynamic-execution-history.json");
+    file.getParentDirectory().createDirectoryAndParents();
+    DynamicExecutionHistory history = new DynamicExecutionHistory();
+    history.recordLocalWin("Javac", 100);
+    history.recordRemoteWin("GenRule", 50, /*cacheHit=*/ true, /*raced=*/ true);
+    history.save(file);
+
+    DynamicExecutionHistory loaded = DynamicExecutionHistory.load(file);
+    assertThat(loaded.getStats("Javac").localMillis).isWithin(0.01).of(100);
+    assertThat(loaded.getStats("Javac").localSamples).isEqualTo(1);
+    assertThat(loaded.getStats("GenRule").remoteMillis).isWithin(0.01).of(50);
+    assertThat(loaded.getStats("GenRule").remoteCacheHitRate).isWithin(0.01).of(1);
+    assertThat(loaded.getSummary()).isNull();
+  }
+
+  @Test
+  public void testLoadsEmptyHistoryFromMissingFile() throws Exception {
+    DynamicExecutionHistory history =
+        DynamicExecutionHistory.load(fs.getPath("/dynamic-execution-history.json"));
+    assertThat(history.getStats("Javac")).isNull();
+  }
+
+  @Test
+  public void testDelaysLocallyByDefaultWhileHistoryIsShort() {
+    assertThat(getLocalDelayMillis(null, 1000)).isEqualTo(1000);
+    Stats stats = new Stats(10, MIN_ADAPTIVE_SAMPLES, 5, MIN_ADAPTIVE_SAMPLES - 1, 1);
+    assertThat(getLocalDelayMillis(stats, 0)).isEqualTo(0);
+  }
+
+  @Test
+  public void testSkipsLocalWhenRemoteIsUsuallyCacheHit() {
+    Stats stats = new Stats(10, MIN_ADAPTIVE_SAMPLES, 500, MIN_ADAPTIVE_SAMPLES, 0.95);
+    assertThat(getLocalDelayMillis(stats, 1000)).isEqualTo(SKIP_LOCAL);
+  }
+
+  @Test
+  public void testRacesWhenLocalIsFaster() {
+    Stats stats = new Stats(10, MIN_ADAPTIVE_SAMPLES, 500, MIN_ADAPTIVE_SAMPLES, 0.1);
+    assertThat(getLocalDelayMillis(stats, 1000)).isEqualTo(0);
+  }
+
+  @Test
+  public void testDelaysLocalByRemoteLatencyWhenRemoteIsFaster() {
+    Stats stats = new Stats(800, MIN_ADAPTIVE_SAMPLES, 300, MIN_ADAPTIVE_SAMPLES, 0.1);
+    assertThat(getLocalDelayMillis(stats, 1000)).isEqualTo(300);
+
+    Stats neverLocal = new Stats(0, 0, 300, MIN_ADAPTIVE_SAMPLES, 0.1);
+    assertThat(getLocalDelayMillis(neverLocal, 1000)).isEqualTo(300);
+  }
+}
@@ -18,6 +18,7 @@ import static com.google.common.base.Preconditions.checkState;
 import static com.google.common.truth.Truth.assertThat;
 import static com.google.devtools.build.lib.testutil.MoreAsserts.assertThrows;
 import static junit.framework.TestCase.fail;
+import static org.junit.Assume.assumeFalse;
 
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
@@ -60,6 +61,7 @@ import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Logger;
 import javax.annotation.Nullable;
 import org.junit.After;
@@ -998,4 +1000,67 @@ public class DynamicSpawnStrategyTest {
     assertThatStrategyPropagatesException(
         localExec, remoteExec, legacyBehavior ? new UserExecException(e) : e);
   }
+
+  @Test
+  public void adaptiveSchedulingKeepsRacingWhenRemoteOnlyWinsOnCacheHits() throws Exception {
+    // Only the new scheduler supports adaptive scheduling.
+    assumeFalse(legacyBehavior);
+    AtomicBoolean cacheHit = new AtomicBoolean();
+    AtomicInteger localRuns = new AtomicInteger();
+    MockLocalSpawnStrategy localStrategy =
+        new MockLocalSpawnStrategy(
+            testRoot,
+            (self, spawn, actionExecutionContext) -> {
+              localRuns.incrementAndGet();
+              if (cacheHit.get()) {
+                Thread.sleep(TestUtils.WAIT_TIMEOUT_MILLISECONDS);
+              }
+              return ImmutableList.of();
+            });
+    MockRemoteSpawnStrategy remoteStrategy =
+        new MockRemoteSpawnStrategy(
+            testRoot,
+            (self, spawn, actionExecutionContext) -> {
+              if (!cacheHit.get()) {
+                // Executing the spawn remotely is slower than executing it locally.
+                Thread.sleep(1000);
+              }
+              return ImmutableList.of(
+                  new SpawnResult.Builder()
+                      .setStatus(SpawnResult.Status.SUCCESS)
+                      .setRunnerName("remote")
+                      .setCacheHit(cacheHit.get())
+                      .build());
+            });
+    DynamicExecutionOptions options = new DynamicExecutionOptions();
+    options.dynamicLocalStrategy =
+        Lists.newArrayList(Maps.immutableEntry("", ImmutableList.of("mock-local")));
+    options.dynamicRemoteStrategy =
+        Lists.newArrayList(Maps.immutableEntry("", ImmutableList.of("mock-remote")));
+    options.dynamicWorkerStrategy = "mock-local";
+    options.localExecutionDelay = 0;
+    options.adaptiveScheduling = true;
+    executorServiceForCleanup = Executors.newCachedThreadPool();
+    DynamicExecutionModule.setDefaultStrategiesByMnemonic(options);
+    SpawnActionContext dynamicSpawnStrategy =
+        new DynamicSpawnStrategy(
+            executorServiceForCleanup, options, DynamicSpawnStrategyTest::getExecutionPolicy);
+    dynamicSpawnStrategy.executorCreated(ImmutableList.of(localStrategy, remoteStrategy));
+
+    // Two out of three spawns miss the remote cache, and are won by the local branch. The remote
+    // branch only ever wins on cache hits.
+    for (int i = 0; i < DynamicSpawnStrategy.MIN_ADAPTIVE_SAMPLES; i++) {
+      cacheHit.set(false);
+      dynamicSpawnStrategy.exec(newDynamicSpawn(), actionExecutionContext);
+      dynamicSpawnStrategy.exec(newDynamicSpawn(), actionExecutionContext);
+      cacheHit.set(true);
+      dynamicSpawnStrategy.exec(newDynamicSpawn(), actionExecutionContext);
+    }
+
+    // Which makes the local branch still worth starting.
+    int localRunsBefore = localRuns.get();
+    cacheHit.set(false);
+    dynamicSpawnStrategy.exec(newDynamicSpawn(), actionExecutionContext);
+    assertThat(localRuns.get()).isEqualTo(localRunsBefore + 1);
+  }
 }
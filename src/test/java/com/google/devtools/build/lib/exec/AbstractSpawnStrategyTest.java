@@ -22,12 +22,14 @@ import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import com.google.common.util.concurrent.SettableFuture;
 import com.google.devtools.build.lib.actions.ActionExecutionContext;
 import com.google.devtools.build.lib.actions.Artifact;
 import com.google.devtools.build.lib.actions.ArtifactRoot;
 import com.google.devtools.build.lib.actions.FutureSpawn;
 import com.google.devtools.build.lib.actions.MetadataProvider;
 import com.google.devtools.build.lib.actions.Spawn;
+import com.google.devtools.build.lib.actions.SpawnContinuation;
 import com.google.devtools.build.lib.actions.SpawnResult;
 import com.google.devtools.build.lib.actions.SpawnResult.Status;
 import com.google.devtools.build.lib.actions.util.ActionsTestUtil;
@@ -171,6 +173,38 @@ public class AbstractSpawnStrategyTest {
     verify(entry).store(eq(spawnResult));
   }
 
+  @Test
+  public void testBeginExecutionDoesNotWaitForSpawn() throws Exception {
+    SpawnCache cache = mock(SpawnCache.class);
+    CacheHandle entry = mock(CacheHandle.class);
+    when(cache.lookup(any(Spawn.class), any(SpawnExecutionContext.class))).thenReturn(entry);
+    when(entry.hasResult()).thenReturn(false);
+    when(entry.willStore()).thenReturn(true);
+
+    when(actionExecutionContext.getContext(eq(SpawnCache.class))).thenReturn(cache);
+    when(actionExecutionContext.getExecRoot()).thenReturn(execRoot);
+    SettableFuture<SpawnResult> future = SettableFuture.create();
+    when(spawnRunner.execAsync(any(Spawn.class), any(SpawnExecutionContext.class)))
+        .thenReturn(new FutureSpawn(future));
+
+    SpawnContinuation continuation =
+        new TestedSpawnStrategy(execRoot, spawnRunner)
+            .beginExecution(SIMPLE_SPAWN, actionExecutionContext);
+
+    assertThat(continuation.isDone()).isFalse();
+    assertThat(continuation.getFuture().isDone()).isFalse();
+    verify(entry, never()).store(any(SpawnResult.class));
+    verify(entry, never()).close();
+
+    SpawnResult spawnResult =
+        new SpawnResult.Builder().setStatus(Status.SUCCESS).setRunnerName("test").build();
+    future.set(spawnResult);
+    assertThat(continuation.getFuture().isDone()).isTrue();
+    assertThat(SpawnContinuation.completeBlocking(continuation)).containsExactly(spawnResult);
+    verify(entry).store(eq(spawnResult));
+    verify(entry).close();
+  }
+
   @SuppressWarnings("unchecked")
   @Test
   public void testCacheMissWithNonZeroExit() throws Exception {
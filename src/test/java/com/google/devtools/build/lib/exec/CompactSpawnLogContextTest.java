@@ -0,0 +1,364 @@
+// Copyright 2019 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.exec;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.devtools.build.lib.testutil.MoreAsserts.assertThrows;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.devtools.build.lib.actions.ActionExecutionMetadata;
+import com.google.devtools.build.lib.actions.ActionInput;
+import com.google.devtools.build.lib.actions.ActionInputHelper;
+import com.google.devtools.build.lib.actions.Artifact;
+import com.google.devtools.build.lib.actions.ArtifactRoot;
+import com.google.devtools.build.lib.actions.FileArtifactValue;
+import com.google.devtools.build.lib.actions.MetadataProvider;
+import com.google.devtools.build.lib.actions.ResourceSet;
+import com.google.devtools.build.lib.actions.SimpleSpawn;
+import com.google.devtools.build.lib.actions.Spawn;
+import com.google.devtools.build.lib.actions.SpawnResult;
+import com.google.devtools.build.lib.actions.SpawnResult.Status;
+import com.google.devtools.build.lib.actions.util.ActionsTestUtil;
+import com.google.devtools.build.lib.collect.nestedset.NestedSet;
+import com.google.devtools.build.lib.collect.nestedset.NestedSetBuilder;
+import com.google.devtools.build.lib.collect.nestedset.Order;
+import com.google.devtools.build.lib.exec.Protos.ExecLogEntry;
+import com.google.devtools.build.lib.exec.Protos.SpawnExec;
+import com.google.devtools.build.lib.util.io.MessageOutputStream;
+import com.google.devtools.build.lib.util.io.MessageOutputStreamWrapper.BinaryOutputStreamWrapper;
+import com.google.devtools.build.lib.vfs.DigestHashFunction;
+import com.google.devtools.build.lib.vfs.FileSystem;
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.PathFragment;
+import com.google.devtools.build.lib.vfs.Root;
+import com.google.devtools.build.lib.vfs.inmemoryfs.InMemoryFileSystem;
+import com.google.protobuf.Message;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link CompactSpawnLogContext} and {@link CompactSpawnLogReader}. */
+@RunWith(JUnit4.class)
+public final class CompactSpawnLogContextTest {
+  private static final MetadataProvider NO_METADATA =
+      new MetadataProvider() {
+        @Override
+        public FileArtifactValue getMetadata(ActionInput input) {
+          return null;
+        }
+
+        @Override
+        public ActionInput getInput(String execPath) {
+          throw new UnsupportedOperationException();
+        }
+      };
+
+  private static final SpawnResult SUCCESS =
+      new SpawnResult.Builder().setStatus(Status.SUCCESS).setRunnerName("test").build();
+
+  private final FileSystem fs = new InMemoryFileSystem(DigestHashFunction.SHA256);
+  private final Path execRoot = fs.getPath("/execroot");
+  private ArtifactRoot sourceRoot;
+
+  @Before
+  public final void setUp() throws Exception {
+    execRoot.createDirectoryAndParents();
+    sourceRoot = ArtifactRoot.asSourceRoot(Root.fromPath(execRoot));
+  }
+
+  private Artifact createSource(String path, String contents) throws IOException {
+    Artifact artifact = ActionsTestUtil.createArtifact(sourceRoot, path);
+    artifact.getPath().getParentDirectory().createDirectoryAndParents();
+    FileSystemUtils.writeContentAsLatin1(artifact.getPath(), contents);
+    return artifact;
+  }
+
+  private static Spawn createSpawn(
+      String mnemonic,
+      NestedSet<Artifact> actionInputs,
+      ImmutableList<ActionInput> inputs,
+      ImmutableList<ActionInput> outputs) {
+    ActionExecutionMetadata owner = mock(ActionExecutionMetadata.class);
+    when(owner.getMnemonic()).thenReturn(mnemonic);
+    when(owner.getProgressMessage()).thenReturn("Running " + mnemonic);
+    when(owner.getInputs()).thenReturn(actionInputs);
+    when(owner.getExecProperties()).thenReturn(ImmutableMap.of());
+    return new SimpleSpawn(
+        owner,
+        ImmutableList.of(mnemonic.toLowerCase(), "--flag"),
+        ImmutableMap.of("PATH", "/bin"),
+        ImmutableMap.of(),
+        inputs,
+        outputs,
+        ResourceSet.ZERO);
+  }
+
+  private static SortedMap<PathFragment, ActionInput> inputMap(Spawn spawn) {
+    ImmutableSortedMap.Builder<PathFragment, ActionInput> inputMap =
+        ImmutableSortedMap.naturalOrder();
+    for (ActionInput input : spawn.getInputFiles()) {
+      inputMap.put(input.getExecPath(), input);
+    }
+    return inputMap.build();
+  }
+
+  /** Logs the spawns with a {@link CompactSpawnLogContext} and returns the log. */
+  private byte[] logCompact(List<Spawn> spawns) throws Exception {
+    ByteArrayOutputStream log = new ByteArrayOutputStream();
+    CompactSpawnLogContext context =
+        new CompactSpawnLogContext(execRoot, new BinaryOutputStreamWrapper(log), null);
+    for (Spawn spawn : spawns) {
+      context.logSpawn(spawn, NO_METADATA, inputMap(spawn), Duration.ZERO, SUCCESS);
+    }
+    context.close();
+    return log.toByteArray();
+  }
+
+  /** Logs the spawns with a {@link SpawnLogContext}. */
+  private List<SpawnExec> logExpanded(List<Spawn> spawns) throws Exception {
+    List<SpawnExec> log = new ArrayList<>();
+    SpawnLogContext context =
+        new SpawnLogContext(
+            execRoot,
+            new MessageOutputStream() {
+              @Override
+              public void write(Message m) {
+                log.add((SpawnExec) m);
+              }
+
+              @Override
+              public void close() {}
+            },
+            null);
+    for (Spawn spawn : spawns) {
+      context.logSpawn(spawn, NO_METADATA, inputMap(spawn), Duration.ZERO, SUCCESS);
+    }
+    return log;
+  }
+
+  private static List<SpawnExec> readCompact(byte[] log) throws IOException {
+    List<SpawnExec> spawns = new ArrayList<>();
+    CompactSpawnLogReader reader = new CompactSpawnLogReader(new ByteArrayInputStream(log));
+    SpawnExec spawn;
+    while ((spawn = reader.read()) != null) {
+      spawns.add(spawn);
+    }
+    return spawns;
+  }
+
+  private static List<ExecLogEntry> readEntries(byte[] log) throws IOException {
+    List<ExecLogEntry> entries = new ArrayList<>();
+    ByteArrayInputStream in = new ByteArrayInputStream(log);
+    ExecLogEntry entry;
+    while ((entry = ExecLogEntry.parseDelimitedFrom(in)) != null) {
+      entries.add(entry);
+    }
+    return entries;
+  }
+
+  private List<Spawn> createCompileAndLink() throws Exception {
+    NestedSet<Artifact> headers =
+        NestedSetBuilder.<Artifact>stableOrder()
+            .add(createSource("lib/a.h", "a"))
+            .add(createSource("lib/b.h", "b"))
+            .build();
+    Artifact aSource = createSource("lib/a.cc", "a()");
+    Artifact bSource = createSource("lib/b.cc", "b()");
+    NestedSet<Artifact> aInputs =
+        NestedSetBuilder.<Artifact>stableOrder().addTransitive(headers).add(aSource).build();
+    NestedSet<Artifact> bInputs =
+        NestedSetBuilder.<Artifact>stableOrder().addTransitive(headers).add(bSource).build();
+    // Not part of the action's inputs, like the files of a runfiles tree.
+    ActionInput compiler = ActionInputHelper.fromPath("tools/cc");
+    execRoot.getRelative("tools").createDirectoryAndParents();
+    FileSystemUtils.writeContentAsLatin1(execRoot.getRelative("tools/cc"), "compiler");
+
+    ActionInput aObject = ActionInputHelper.fromPath("out/a.o");
+    ActionInput bObject = ActionInputHelper.fromPath("out/b.o");
+    Spawn compileA =
+        createSpawn(
+            "CompileA",
+            aInputs,
+            ImmutableList.<ActionInput>builder().addAll(aInputs).add(compiler).build(),
+            ImmutableList.of(aObject));
+    Spawn compileB =
+        createSpawn(
+            "CompileB",
+            bInputs,
+            ImmutableList.<ActionInput>builder().addAll(bInputs).add(compiler).build(),
+            ImmutableList.of(bObject));
+    Spawn link =
+        createSpawn(
+            "Link",
+            NestedSetBuilder.emptySet(Order.STABLE_ORDER),
+            ImmutableList.of(aObject, bObject),
+            ImmutableList.of(ActionInputHelper.fromPath("out/lib.so")));
+    execRoot.getRelative("out").createDirectoryAndParents();
+    FileSystemUtils.writeContentAsLatin1(execRoot.getRelative("out/a.o"), "a.o");
+    FileSystemUtils.writeContentAsLatin1(execRoot.getRelative("out/b.o"), "b.o");
+    FileSystemUtils.writeContentAsLatin1(execRoot.getRelative("out/lib.so"), "lib.so");
+    return ImmutableList.of(compileA, compileB, link);
+  }
+
+  @Test
+  public void testReadsWhatSpawnLogContextWrites() throws Exception {
+    List<Spawn> spawns = createCompileAndLink();
+
+    assertThat(readCompact(logCompact(spawns)))
+        .containsExactlyElementsIn(logExpanded(spawns))
+        .inOrder();
+  }
+
+  @Test
+  public void testWritesSharedEntriesOnce() throws Exception {
+    List<ExecLogEntry> entries = readEntries(logCompact(createCompileAndLink()));
+
+    assertThat(entries.get(0).getInvocation().getHashFunctionName()).isEqualTo("SHA-256");
+    List<String> paths = new ArrayList<>();
+    int files = 0;
+    int inputSets = 0;
+    for (ExecLogEntry entry : entries) {
+      if (entry.hasPath()) {
+        paths.add(entry.getPath().getPath());
+      } else if (entry.hasFile()) {
+        files++;
+      } else if (entry.hasInputSet()) {
+        inputSets++;
+      }
+    }
+    assertThat(paths)
+        .containsExactly(
+            "lib/a.h",
+            "lib/b.h",
+            "lib/a.cc",
+            "tools/cc",
+            "out/a.o",
+            "lib/b.cc",
+            "out/b.o",
+            "out/lib.so");
+    assertThat(files).isEqualTo(paths.size());
+    // The headers, the inputs of each action, the inputs of each compile spawn, which add the
+    // compiler, and the inputs of the link spawn.
+    assertThat(inputSets).isEqualTo(6);
+  }
+
+  @Test
+  public void testLogsReplacedInputs() throws Exception {
+    ActionInput generated = ActionInputHelper.fromPath("out/gen.h");
+    Path path = execRoot.getRelative("out/gen.h");
+    path.getParentDirectory().createDirectoryAndParents();
+    Spawn generate =
+        createSpawn(
+            "Generate",
+            NestedSetBuilder.emptySet(Order.STABLE_ORDER),
+            ImmutableList.of(),
+            ImmutableList.of(generated));
+    Spawn consume =
+        createSpawn(
+            "Consume",
+            NestedSetBuilder.emptySet(Order.STABLE_ORDER),
+            ImmutableList.of(generated),
+            ImmutableList.of());
+
+    ByteArrayOutputStream log = new ByteArrayOutputStream();
+    CompactSpawnLogContext context =
+        new CompactSpawnLogContext(execRoot, new BinaryOutputStreamWrapper(log), null);
+    FileSystemUtils.writeContentAsLatin1(path, "old");
+    context.logSpawn(generate, NO_METADATA, inputMap(generate), Duration.ZERO, SUCCESS);
+    context.logSpawn(consume, NO_METADATA, inputMap(consume), Duration.ZERO, SUCCESS);
+    FileSystemUtils.writeContentAsLatin1(path, "new");
+    context.logSpawn(generate, NO_METADATA, inputMap(generate), Duration.ZERO, SUCCESS);
+    context.logSpawn(consume, NO_METADATA, inputMap(consume), Duration.ZERO, SUCCESS);
+    context.close();
+
+    List<SpawnExec> spawns = readCompact(log.toByteArray());
+    assertThat(spawns.get(1).getInputs(0).getDigest())
+        .isEqualTo(spawns.get(0).getActualOutputs(0).getDigest());
+    assertThat(spawns.get(3).getInputs(0).getDigest())
+        .isEqualTo(spawns.get(2).getActualOutputs(0).getDigest());
+    assertThat(spawns.get(3).getInputs(0).getDigest())
+        .isNotEqualTo(spawns.get(1).getInputs(0).getDigest());
+  }
+
+  @Test
+  public void testLoggingBlocksWhileTooManySpawnsArePending() throws Exception {
+    List<Spawn> spawns = createCompileAndLink();
+    CountDownLatch writerUnblocked = new CountDownLatch(1);
+    ByteArrayOutputStream log = new ByteArrayOutputStream();
+    BinaryOutputStreamWrapper out = new BinaryOutputStreamWrapper(log);
+    CompactSpawnLogContext context =
+        new CompactSpawnLogContext(
+            execRoot,
+            new MessageOutputStream() {
+              @Override
+              public void write(Message m) throws IOException {
+                try {
+                  writerUnblocked.await();
+                } catch (InterruptedException e) {
+                  throw new IOException(e);
+                }
+                out.write(m);
+              }
+
+              @Override
+              public void close() throws IOException {
+                out.close();
+              }
+            },
+            null,
+            /*maxPendingSpawns=*/ 1);
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      // The writer is stuck on the first entry, so the queue only has room for one spawn.
+      Future<?> logged =
+          executor.submit(
+              () -> {
+                for (Spawn spawn : spawns) {
+                  context.logSpawn(spawn, NO_METADATA, inputMap(spawn), Duration.ZERO, SUCCESS);
+                }
+                return null;
+              });
+      assertThrows(TimeoutException.class, () -> logged.get(100, TimeUnit.MILLISECONDS));
+
+      writerUnblocked.countDown();
+      logged.get(1, TimeUnit.MINUTES);
+      context.close();
+    } finally {
+      executor.shutdownNow();
+    }
+
+    assertThat(readCompact(log.toByteArray()))
+        .containsExactlyElementsIn(logExpanded(spawns))
+        .inOrder();
+  }
+}
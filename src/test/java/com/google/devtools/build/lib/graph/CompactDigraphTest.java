@@ -0,0 +1,171 @@
+// Copyright 2019 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.devtools.build.lib.graph;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableSet;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link CompactDigraph}. */
+@RunWith(JUnit4.class)
+public class CompactDigraphTest {
+
+  /** Returns the labels of the nodes in {@code ids}, in order. */
+  private static List<String> labels(CompactDigraph<String> graph, int[] ids) {
+    List<String> result = new ArrayList<>();
+    for (int id : ids) {
+      result.add(graph.getLabel(id));
+    }
+    return result;
+  }
+
+  private static int rankOf(CompactDigraph<String> graph, int[] ranks, String label) {
+    for (int i = 0; i < graph.getNodeCount(); i++) {
+      if (graph.getLabel(i).equals(label)) {
+        return ranks[i];
+      }
+    }
+    throw new AssertionError(label);
+  }
+
+  @Test
+  public void testSnapshotOfDigraph() {
+    Digraph<String> digraph = new Digraph<>();
+    digraph.addEdge("a", "b");
+    digraph.addEdge("a", "c");
+    digraph.addEdge("b", "c");
+    digraph.createNode("d");
+
+    CompactDigraph<String> graph = CompactDigraph.of(digraph);
+
+    assertThat(graph.getNodeCount()).isEqualTo(4);
+    assertThat(graph.getEdgeCount()).isEqualTo(3);
+    for (int i = 0; i < graph.getNodeCount(); i++) {
+      Node<String> node = digraph.getNode(graph.getLabel(i));
+      Set<String> successors = new HashSet<>();
+      for (int j = 0; j < graph.getSuccessorCount(i); j++) {
+        successors.add(graph.getLabel(graph.getSuccessor(i, j)));
+      }
+      Set<String> expected = new HashSet<>();
+      for (Node<String> succ : node.getSuccessors()) {
+        expected.add(succ.getLabel());
+      }
+      assertThat(successors).isEqualTo(expected);
+    }
+  }
+
+  @Test
+  public void testTopologicalOrder() {
+    CompactDigraph<String> graph =
+        CompactDigraph.fromAdjacency(
+            new String[] {"a", "b", "c", "d"}, new int[][] {{1, 2}, {3}, {3}, {}});
+
+    assertThat(labels(graph, graph.getPostorder())).containsExactly("d", "b", "c", "a").inOrder();
+    assertThat(labels(graph, graph.getTopologicalOrder()))
+        .containsExactly("a", "c", "b", "d")
+        .inOrder();
+  }
+
+  @Test
+  public void testStrongComponents() {
+    // a -> b -> c -> a is a cycle; c -> d; d is a singleton with a self edge; e is isolated.
+    CompactDigraph<String> graph =
+        CompactDigraph.fromAdjacency(
+            new String[] {"a", "b", "c", "d", "e"},
+            new int[][] {{1}, {2}, {0, 3}, {3}, {}});
+
+    int[] component = graph.getStrongComponents();
+
+    assertThat(component[0]).isEqualTo(component[1]);
+    assertThat(component[1]).isEqualTo(component[2]);
+    assertThat(component[3]).isNotEqualTo(component[0]);
+    assertThat(component[4]).isNotEqualTo(component[0]);
+    assertThat(component[4]).isNotEqualTo(component[3]);
+    // Components are numbered in post-order.
+    assertThat(component[0]).isGreaterThan(component[3]);
+  }
+
+  @Test
+  public void testDeepChainDoesNotOverflowStack() {
+    int length = 200000;
+    String[] labels = new String[length];
+    int[][] adjacency = new int[length][];
+    for (int i = 0; i < length; i++) {
+      labels[i] = "n" + i;
+      // Close the chain into a single cycle.
+      adjacency[i] = new int[] {(i + 1) % length};
+    }
+    CompactDigraph<String> graph = CompactDigraph.fromAdjacency(labels, adjacency);
+
+    int[] component = graph.getStrongComponents();
+    for (int c : component) {
+      assertThat(c).isEqualTo(0);
+    }
+    assertThat(graph.getPostorder()).hasLength(length);
+  }
+
+  @Test
+  public void testRanks() {
+    // a -> b -> c -> d and a -> d; c and e form a cycle below b.
+    CompactDigraph<String> graph =
+        CompactDigraph.fromAdjacency(
+            new String[] {"a", "b", "c", "d", "e"},
+            new int[][] {{1, 3}, {2}, {3, 4}, {}, {2}});
+
+    int[] maxRanks = graph.getMaxRanks();
+    assertThat(rankOf(graph, maxRanks, "a")).isEqualTo(0);
+    assertThat(rankOf(graph, maxRanks, "b")).isEqualTo(1);
+    assertThat(rankOf(graph, maxRanks, "c")).isEqualTo(2);
+    assertThat(rankOf(graph, maxRanks, "e")).isEqualTo(2);
+    assertThat(rankOf(graph, maxRanks, "d")).isEqualTo(3);
+
+    int[] minRanks = graph.getMinRanks();
+    assertThat(rankOf(graph, minRanks, "a")).isEqualTo(0);
+    assertThat(rankOf(graph, minRanks, "b")).isEqualTo(1);
+    assertThat(rankOf(graph, minRanks, "c")).isEqualTo(2);
+    assertThat(rankOf(graph, minRanks, "e")).isEqualTo(2);
+    assertThat(rankOf(graph, minRanks, "d")).isEqualTo(1);
+  }
+
+  @Test
+  public void testDigraphStronglyConnectedComponents() {
+    Digraph<String> digraph = new Digraph<>();
+    digraph.addEdge("a", "b");
+    digraph.addEdge("b", "a");
+    digraph.addEdge("b", "c");
+    digraph.createNode("d");
+
+    Collection<Set<Node<String>>> sccs = digraph.getStronglyConnectedComponents();
+
+    Set<Set<String>> components = new HashSet<>();
+    for (Set<Node<String>> scc : sccs) {
+      Set<String> component = new HashSet<>();
+      for (Node<String> node : scc) {
+        component.add(node.getLabel());
+      }
+      components.add(component);
+    }
+    assertThat(components)
+        .containsExactly(ImmutableSet.of("a", "b"), ImmutableSet.of("c"), ImmutableSet.of("d"));
+  }
+}
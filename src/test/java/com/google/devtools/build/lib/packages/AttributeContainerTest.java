@@ -14,10 +14,16 @@
 package com.google.devtools.build.lib.packages;
 
 import static com.google.common.truth.Truth.assertThat;
+import static com.google.devtools.build.lib.packages.Attribute.attr;
+import static com.google.devtools.build.lib.packages.Type.STRING;
+import static com.google.devtools.build.lib.packages.Type.STRING_LIST;
 
+import com.google.devtools.build.lib.packages.RuleClass.Builder.RuleClassType;
 import com.google.devtools.build.lib.testutil.TestRuleClassProvider;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.List;
 import java.util.Random;
 import org.junit.Before;
 import org.junit.Test;
@@ -72,6 +78,74 @@ public class AttributeContainerTest {
     assertThat(container.isAttributeValueExplicitlySpecified(attribute2)).isFalse();
   }
 
+  @Test
+  public void testUnsetAttributesHaveSharedDefault() throws Exception {
+    int index = ruleClass.getAttributeIndex(attribute2.getName());
+    Object defaultValue = ruleClass.getSharedDefaultValue(index);
+    assertThat(container.getAttr(attribute2.getName())).isSameInstanceAs(defaultValue);
+
+    Object someValue = new Object();
+    container.setAttributeValue(attribute2, someValue, false);
+    assertThat(container.getAttr(attribute2.getName())).isSameInstanceAs(someValue);
+    container.setAttributeValue(attribute2, defaultValue, false);
+    assertThat(container.getAttr(attribute2.getName())).isSameInstanceAs(defaultValue);
+  }
+
+  @Test
+  public void testSparseValues() throws Exception {
+    int numAttributes = ruleClass.getAttributeCount();
+    Attribute[] attributes = ruleClass.getAttributes().toArray(new Attribute[0]);
+    Object[] expected = new Object[numAttributes];
+    for (int i = 0; i < numAttributes; ++i) {
+      expected[i] = ruleClass.getSharedDefaultValue(i);
+    }
+    // Set, overwrite and reset values in a random order.
+    Random rng = new Random();
+    for (int step = 0; step < 100; ++step) {
+      int i = rng.nextInt(numAttributes);
+      Object value = rng.nextBoolean() ? new Object() : ruleClass.getSharedDefaultValue(i);
+      container.setAttributeValue(attributes[i], value, false);
+      expected[i] = value;
+      for (int j = 0; j < numAttributes; ++j) {
+        assertThat(container.getAttributeValue(j)).isSameInstanceAs(expected[j]);
+      }
+    }
+  }
+
+  @Test
+  public void testSparseValuesBeyondSignedByteRange() throws Exception {
+    // Stored indices are bytes, so exercise indices on both sides of 128.
+    RuleClass.Builder builder =
+        new RuleClass.Builder("many_attributes", RuleClassType.NORMAL, false)
+            .factory(
+                ruleContext -> {
+                  throw new IllegalStateException();
+                })
+            .add(attr("tags", STRING_LIST));
+    for (int i = 0; i < 200; ++i) {
+      builder.add(attr("attr" + i, STRING));
+    }
+    RuleClass manyAttributes = builder.build();
+    AttributeContainer container = new AttributeContainer(manyAttributes);
+    int numAttributes = manyAttributes.getAttributeCount();
+    Object[] expected = new Object[numAttributes];
+    List<Integer> order = new ArrayList<>();
+    for (int i = 0; i < numAttributes; ++i) {
+      expected[i] = manyAttributes.getSharedDefaultValue(i);
+      order.add(i);
+    }
+    Collections.shuffle(order);
+    for (int i : order) {
+      if (i % 3 != 0) {
+        expected[i] = "value" + i;
+        container.setAttributeValue(manyAttributes.getAttribute(i), expected[i], false);
+      }
+    }
+    for (int i = 0; i < numAttributes; ++i) {
+      assertThat(container.getAttributeValue(i)).isSameInstanceAs(expected[i]);
+    }
+  }
+
   @Test
   public void testPackedState() throws Exception {
     Random rng = new Random();
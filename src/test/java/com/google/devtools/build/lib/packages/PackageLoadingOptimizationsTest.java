@@ -54,6 +54,22 @@ public class PackageLoadingOptimizationsTest extends PackageLoadingTestCase {
     }
   }
 
+  @Test
+  public void tagsAndVisibilityAreDedupedAcrossPackages() throws Exception {
+    scratch.file(
+        "foo/BUILD",
+        "sh_library(name = 'foo', tags = ['manual', 'local'], visibility = ['//visibility:public'])");
+    scratch.file(
+        "bar/BUILD",
+        "sh_library(name = 'bar', tags = ['manual', 'local'], visibility = ['//visibility:public'])");
+
+    AttributeContainer foo = ((Rule) getTarget("//foo:foo")).getAttributeContainer();
+    AttributeContainer bar = ((Rule) getTarget("//bar:bar")).getAttributeContainer();
+
+    assertThat(bar.getAttr("tags")).isSameInstanceAs(foo.getAttr("tags"));
+    assertThat(bar.getAttr("visibility")).isSameInstanceAs(foo.getAttr("visibility"));
+  }
+
   @Test
   public void testRuntimeListValueIsDedupedAcrossRuleClasses() throws Exception {
     scratch.file(
@@ -0,0 +1,156 @@
+// Copyright 2019 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.query2;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.common.truth.Truth.assertWithMessage;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
+import com.google.devtools.build.lib.analysis.ConfiguredRuleClassProvider;
+import com.google.devtools.build.lib.analysis.config.BuildOptions;
+import com.google.devtools.build.lib.analysis.util.DefaultBuildOptionsForTesting;
+import com.google.devtools.build.lib.packages.PackageFactory.EnvironmentExtension;
+import com.google.devtools.build.lib.packages.Target;
+import com.google.devtools.build.lib.packages.util.MockToolsConfig;
+import com.google.devtools.build.lib.query2.common.AbstractBlazeQueryEnvironment;
+import com.google.devtools.build.lib.query2.engine.QueryEnvironment.QueryFunction;
+import com.google.devtools.build.lib.query2.engine.SkyframeQueryHelper;
+import java.util.Set;
+import java.util.TreeSet;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link AffectedTestsFunction} in a {@link SkyQueryEnvironment}. */
+@RunWith(JUnit4.class)
+public class AffectedTestsFunctionTest {
+  private SkyframeQueryHelper helper;
+
+  @Before
+  public final void setUpHelper() throws Exception {
+    helper =
+        new SkyframeQueryHelper() {
+          @Override
+          protected String getRootDirectoryNameForSetup() {
+            return "/workspace";
+          }
+
+          @Override
+          protected void performAdditionalClientSetup(MockToolsConfig mockToolsConfig) {}
+
+          @Override
+          protected Iterable<QueryFunction> getExtraQueryFunctions() {
+            return ImmutableList.of();
+          }
+
+          @Override
+          protected Iterable<EnvironmentExtension> getEnvironmentExtensions() {
+            return ImmutableList.of();
+          }
+
+          @Override
+          protected BuildOptions getDefaultBuildOptions(
+              ConfiguredRuleClassProvider ruleClassProvider) {
+            return DefaultBuildOptionsForTesting.getDefaultBuildOptionsForTest(ruleClassProvider);
+          }
+        };
+    helper.setUp();
+    // Sky Query is only used for unordered results with a universe scope.
+    helper.setUniverseScope("//...");
+    helper.setOrderedResults(false);
+
+    helper.writeFile(
+        "lib/BUILD",
+        "sh_library(name = 'lib', srcs = ['lib.sh'], visibility = ['//visibility:public'])",
+        "sh_test(name = 'lib_test', srcs = ['lib_test.sh'], deps = [':lib'])",
+        "sh_test(name = 'unrelated_test', srcs = ['unrelated_test.sh'])");
+    helper.writeFile(
+        "app/BUILD",
+        "load('//app:defs.bzl', 'NAME')",
+        "sh_binary(name = NAME, srcs = ['app.sh'], deps = ['//lib'])",
+        "sh_test(name = 'app_test', srcs = ['app_test.sh'], data = [':app'])",
+        "sh_test(name = 'standalone_test', srcs = ['standalone_test.sh'])",
+        "test_suite(name = 'all_tests', tests = [':app_test', '//lib:unrelated_test'])");
+    helper.writeFile("app/defs.bzl", "NAME = 'app'");
+    helper.writeFile(
+        "other/BUILD",
+        "sh_test(name = 'other_test', srcs = ['other_test.sh'], data = ['//app:app_test.sh'])",
+        "test_suite(name = 'suite_of_suites', tests = ['//app:all_tests'])");
+  }
+
+  private Set<String> eval(String query) throws Exception {
+    Set<String> labels = new TreeSet<>();
+    for (Target target : helper.evaluateQueryRaw(query)) {
+      labels.add(target.getLabel().toString());
+    }
+    assertWithMessage(Iterables.toString(helper.getEvents())).that(helper.getEvents()).isEmpty();
+    return labels;
+  }
+
+  @Test
+  public void testUsesSkyQuery() throws Exception {
+    try (AbstractBlazeQueryEnvironment<Target> env = helper.getQueryEnvironment()) {
+      assertThat(env).isInstanceOf(SkyQueryEnvironment.class);
+    }
+  }
+
+  @Test
+  public void testChangedSourceFile() throws Exception {
+    assertThat(eval("affectedtests(lib/lib.sh)"))
+        .containsExactly("//lib:lib_test", "//app:app_test");
+  }
+
+  @Test
+  public void testChangedBuildFileAndLoadedFile() throws Exception {
+    assertThat(eval("affectedtests(app/BUILD)"))
+        .containsExactly("//app:app_test", "//app:standalone_test", "//other:other_test");
+    assertThat(eval("affectedtests(app/defs.bzl)")).isEqualTo(eval("affectedtests(app/BUILD)"));
+  }
+
+  @Test
+  public void testNonTestTargetsAreNotReturned() throws Exception {
+    // The library, the binary and the source files are visited, but are not tests.
+    assertThat(eval("affectedtests(lib/lib.sh)"))
+        .containsNoneOf(
+            "//lib:lib", "//lib:lib.sh", "//app:app", "//app:all_tests", "//other:suite_of_suites");
+    assertThat(eval("affectedtests(app/app.sh)")).containsExactly("//app:app_test");
+  }
+
+  @Test
+  public void testTestSuitesAreNotExpanded() throws Exception {
+    // //app:all_tests depends on the affected //app:app_test, but neither the suite itself nor its
+    // other, unaffected member is returned.
+    assertThat(eval("affectedtests(app/app_test.sh)"))
+        .containsExactly("//app:app_test", "//other:other_test");
+    // Whereas the tests function expands the suite.
+    assertThat(eval("tests(allrdeps(//app:app_test.sh))")).contains("//lib:unrelated_test");
+  }
+
+  @Test
+  public void testUnknownFilesAffectNoTests() throws Exception {
+    assertThat(eval("affectedtests(lib/missing.sh, nonexistent/BUILD)")).isEmpty();
+  }
+
+  @Test
+  public void testMatchesSerialQuery() throws Exception {
+    assertThat(eval("affectedtests(lib/lib.sh, app/defs.bzl)"))
+        .isEqualTo(eval("kind('_test rule', allrdeps(//lib:lib.sh + //app:*))"));
+    assertThat(eval("affectedtests(lib/lib.sh)"))
+        .isEqualTo(eval("kind('_test rule', allrdeps(//lib:lib.sh))"));
+    assertThat(eval("affectedtests(lib/BUILD)"))
+        .isEqualTo(eval("kind('_test rule', allrdeps(//lib:*))"));
+  }
+}
@@ -0,0 +1,188 @@
+// Copyright 2019 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.query2;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.LinkedHashMultimap;
+import com.google.common.collect.Multimap;
+import com.google.common.collect.Multimaps;
+import com.google.devtools.build.lib.cmdline.Label;
+import com.google.devtools.build.lib.skyframe.TransitiveTraversalValue;
+import com.google.devtools.build.skyframe.SkyKey;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link ParallelPathFinder}. */
+@RunWith(JUnit4.class)
+public class ParallelPathFinderTest {
+  // Wide enough to be split into batches even on a single core.
+  private static final int WIDTH = ParallelSkyQueryUtils.VISIT_BATCH_SIZE + 1000;
+
+  private final Multimap<SkyKey, SkyKey> edges = LinkedHashMultimap.create();
+  private final Set<SkyKey> nodes = new HashSet<>();
+
+  private static SkyKey key(String name) {
+    return TransitiveTraversalValue.key(Label.parseAbsoluteUnchecked("//p:" + name));
+  }
+
+  private static List<SkyKey> keys(String... names) {
+    List<SkyKey> keys = new ArrayList<>();
+    for (String name : names) {
+      keys.add(key(name));
+    }
+    return keys;
+  }
+
+  private void addEdge(String from, String to) {
+    edges.put(key(from), key(to));
+    nodes.add(key(from));
+    nodes.add(key(to));
+  }
+
+  private ParallelPathFinder newFinder() {
+    return new ParallelPathFinder(newLookup());
+  }
+
+  private ParallelPathFinder.NeighborLookup newLookup() {
+    Multimap<SkyKey, SkyKey> reverseEdges =
+        Multimaps.invertFrom(edges, LinkedHashMultimap.<SkyKey, SkyKey>create());
+    return (keys, reverse) -> {
+      Map<SkyKey, Collection<SkyKey>> result = new HashMap<>();
+      for (SkyKey key : keys) {
+        if (nodes.contains(key)) {
+          result.put(key, ImmutableList.copyOf((reverse ? reverseEdges : edges).get(key)));
+        }
+      }
+      return result;
+    };
+  }
+
+  @Test
+  public void testSomePathReturnsAStartNodeThatIsAlsoAnEndNode() throws Exception {
+    addEdge("a", "b");
+
+    assertThat(newFinder().somePath(keys("a", "b"), keys("b"))).containsExactly(key("b"));
+  }
+
+  @Test
+  public void testSomePathReturnsEmptyListWithoutPath() throws Exception {
+    addEdge("a", "b");
+    addEdge("c", "b");
+
+    assertThat(newFinder().somePath(keys("a"), keys("c"))).isEmpty();
+    assertThat(newFinder().somePath(keys("a"), keys("unknown"))).isEmpty();
+  }
+
+  @Test
+  public void testSomePathFindsChainInOrder() throws Exception {
+    addEdge("a", "b");
+    addEdge("b", "c");
+    addEdge("c", "d");
+    addEdge("d", "e");
+    addEdge("b", "x");
+
+    assertThat(newFinder().somePath(keys("a"), keys("e")))
+        .containsExactlyElementsIn(keys("a", "b", "c", "d", "e"))
+        .inOrder();
+  }
+
+  @Test
+  public void testSomePathReturnsAShortestPath() throws Exception {
+    // Every frontier lists the neighbor on the long way around first.
+    addEdge("a", "long1");
+    addEdge("a", "short1");
+    addEdge("long1", "long2");
+    addEdge("long2", "long3");
+    addEdge("long3", "long4");
+    addEdge("long4", "z");
+    addEdge("short1", "short2");
+    addEdge("short2", "z");
+    addEdge("other", "z");
+
+    assertThat(newFinder().somePath(keys("a"), keys("z")))
+        .containsExactlyElementsIn(keys("a", "short1", "short2", "z"))
+        .inOrder();
+    assertThat(newFinder().somePath(keys("a", "long3"), keys("z")))
+        .containsExactlyElementsIn(keys("long3", "long4", "z"))
+        .inOrder();
+  }
+
+  @Test
+  public void testSomePathOverFrontiersLargerThanOneBatch() throws Exception {
+    for (int i = 0; i < WIDTH; i++) {
+      addEdge("root", "mid" + i);
+      addEdge("mid" + i, "leaf" + i);
+      addEdge("leaf" + i, "sink");
+    }
+    addEdge("leaf567", "target");
+    addEdge("sink", "target");
+
+    assertThat(newFinder().somePath(keys("root"), keys("target")))
+        .containsExactlyElementsIn(keys("root", "mid567", "leaf567", "target"))
+        .inOrder();
+  }
+
+  @Test
+  public void testAllPathsReturnsNodesOnAnyPath() throws Exception {
+    addEdge("a", "b");
+    addEdge("a", "c");
+    addEdge("b", "d");
+    addEdge("c", "d");
+    addEdge("d", "e");
+    // Reachable from a, but not on a path to e.
+    addEdge("b", "dead_end");
+    // On a path to e, but not reachable from a.
+    addEdge("other", "d");
+
+    Set<SkyKey> visited = new HashSet<>();
+    newFinder()
+        .allPaths(keys("a"), keys("e"), partialResult -> partialResult.forEach(visited::add));
+
+    assertThat(visited).containsExactlyElementsIn(keys("a", "b", "c", "d", "e"));
+  }
+
+  @Test
+  public void testDoesNotDeadlockWhenCalledFromEveryParallelVisitorThread() throws Exception {
+    for (int i = 0; i < WIDTH; i++) {
+      addEdge("root", "mid" + i);
+      addEdge("mid" + i, "leaf" + i);
+      addEdge("leaf" + i, "target");
+    }
+    ParallelPathFinder.NeighborLookup lookup = newLookup();
+
+    // Occupy every thread of the pool used by the parallel visitors with a search of its own.
+    List<Future<ImmutableList<SkyKey>>> futures = new ArrayList<>();
+    for (int i = 0; i < 2 * SkyQueryEnvironment.DEFAULT_THREAD_COUNT; i++) {
+      futures.add(
+          ParallelVisitorUtils.FIXED_THREAD_POOL_EXECUTOR.submit(
+              () -> new ParallelPathFinder(lookup).somePath(keys("root"), keys("target"))));
+    }
+
+    for (Future<ImmutableList<SkyKey>> future : futures) {
+      assertThat(future.get(1, TimeUnit.MINUTES)).hasSize(4);
+    }
+  }
+}
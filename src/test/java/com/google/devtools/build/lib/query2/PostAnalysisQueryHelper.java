@@ -194,8 +194,12 @@ public abstract class PostAnalysisQueryHelper<T> extends AbstractQueryHelper<T>
     WalkableGraph walkableGraph =
         SkyframeExecutorWrappingWalkableGraph.of(analysisHelper.getSkyframeExecutor());
 
-    return getPostAnalysisQueryEnvironment(
-        walkableGraph, new TopLevelConfigurations(analysisResult.getTopLevelTargetsWithConfigs()));
+    PostAnalysisQueryEnvironment<T> env =
+        getPostAnalysisQueryEnvironment(
+            walkableGraph,
+            new TopLevelConfigurations(analysisResult.getTopLevelTargetsWithConfigs()));
+    env.setConfiguredTargetIndex(analysisHelper.getSkyframeExecutor().getConfiguredTargetIndex());
+    return env;
   }
 
   protected abstract PostAnalysisQueryEnvironment<T> getPostAnalysisQueryEnvironment(
@@ -0,0 +1,72 @@
+// Copyright 2019 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.query2;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableList;
+import com.google.devtools.build.lib.cmdline.Label;
+import com.google.devtools.build.lib.skyframe.TransitiveTraversalValue;
+import com.google.devtools.build.skyframe.SkyKey;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link UniverseMembershipFilter}. */
+@RunWith(JUnit4.class)
+public class UniverseMembershipFilterTest {
+
+  private static List<SkyKey> keys(String pkg, int count) {
+    List<SkyKey> keys = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      keys.add(TransitiveTraversalValue.key(Label.parseAbsoluteUnchecked(pkg + ":t" + i)));
+    }
+    return keys;
+  }
+
+  @Test
+  public void testAcceptsAllOfTheUniverse() {
+    List<SkyKey> universe = keys("//in", 1000);
+    UniverseMembershipFilter filter = UniverseMembershipFilter.create(universe);
+
+    for (SkyKey key : universe) {
+      assertThat(filter.apply(key)).isTrue();
+    }
+    assertThat(filter.size()).isEqualTo(1000);
+    assertThat(filter.getLookupCount()).isEqualTo(1000);
+    assertThat(filter.getRejectedCount()).isEqualTo(0);
+  }
+
+  @Test
+  public void testRejectsMostKeysOutsideTheUniverse() {
+    UniverseMembershipFilter filter = UniverseMembershipFilter.create(keys("//in", 1000));
+
+    long accepted = keys("//out", 1000).stream().filter(filter::apply).count();
+
+    // The false positive probability is 1%.
+    assertThat(accepted).isLessThan(50L);
+    assertThat(filter.getLookupCount()).isEqualTo(1000);
+    assertThat(filter.getRejectedCount()).isEqualTo(1000 - accepted);
+  }
+
+  @Test
+  public void testEmptyUniverse() {
+    UniverseMembershipFilter filter = UniverseMembershipFilter.create(ImmutableList.of());
+
+    assertThat(filter.apply(keys("//out", 1).get(0))).isFalse();
+    assertThat(filter.getRejectedCount()).isEqualTo(1);
+  }
+}
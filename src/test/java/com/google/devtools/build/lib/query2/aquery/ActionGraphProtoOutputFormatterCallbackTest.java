@@ -40,6 +40,10 @@ import com.google.devtools.build.lib.query2.engine.QueryParser;
 import com.google.devtools.build.lib.query2.query.aspectresolvers.AspectResolver.Mode;
 import com.google.devtools.build.lib.skyframe.ConfiguredTargetValue;
 import com.google.devtools.build.lib.util.OS;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.LinkedHashSet;
@@ -896,12 +900,42 @@ public class ActionGraphProtoOutputFormatterCallbackTest extends ActionGraphQuer
         .isEmpty();
   }
 
+  @Test
+  public void testStreamedOutput_mergesToFullContainer() throws Exception {
+    writeFile(
+        "test/BUILD",
+        "genrule(name='foo', srcs=['in'], outs=['foo_out'], cmd='cat $(SRCS) > $(OUTS)')",
+        "genrule(name='bar', srcs=[':foo'], outs=['bar_out'], cmd='cat $(SRCS) > $(OUTS)')");
+    ActionGraphContainer expected = getOutput("deps(//test:bar)");
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    getOutput(
+        "deps(//test:bar)", AqueryActionFilter.emptyInstance(), out, OutputType.STREAMED_BINARY);
+
+    ActionGraphContainer.Builder merged = ActionGraphContainer.newBuilder();
+    InputStream in = new ByteArrayInputStream(out.toByteArray());
+    ActionGraphContainer fragment;
+    while ((fragment = ActionGraphContainer.parseDelimitedFrom(in)) != null) {
+      merged.mergeFrom(fragment);
+    }
+    assertThat(merged.build()).isEqualTo(expected);
+  }
+
   private AnalysisProtos.ActionGraphContainer getOutput(String queryExpression) throws Exception {
     return getOutput(queryExpression, /* actionFilters= */ AqueryActionFilter.emptyInstance());
   }
 
   private AnalysisProtos.ActionGraphContainer getOutput(
       String queryExpression, AqueryActionFilter actionFilters) throws Exception {
+    return getOutput(queryExpression, actionFilters, /*out=*/ null, OutputType.BINARY);
+  }
+
+  private AnalysisProtos.ActionGraphContainer getOutput(
+      String queryExpression,
+      AqueryActionFilter actionFilters,
+      OutputStream out,
+      OutputType outputType)
+      throws Exception {
     QueryExpression expression = QueryParser.parse(queryExpression, getDefaultFunctions());
     Set<String> targetPatternSet = new LinkedHashSet<>();
     expression.collectTargetPatterns(targetPatternSet);
@@ -913,10 +947,10 @@ public class ActionGraphProtoOutputFormatterCallbackTest extends ActionGraphQuer
         new ActionGraphProtoOutputFormatterCallback(
             reporter,
             options,
-            /*out=*/ null,
+            out,
             getHelper().getSkyframeExecutor(),
             env.getAccessor(),
-            OutputType.BINARY,
+            outputType,
             actionFilters);
     env.evaluateQuery(expression, callback);
     return callback.getProtoResult();
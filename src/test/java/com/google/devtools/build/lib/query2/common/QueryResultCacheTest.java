@@ -0,0 +1,93 @@
+// Copyright 2019 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.devtools.build.lib.query2.common;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableList;
+import com.google.devtools.build.lib.query2.engine.BinaryOperatorExpression;
+import com.google.devtools.build.lib.query2.engine.LetExpression;
+import com.google.devtools.build.lib.query2.engine.Lexer;
+import com.google.devtools.build.lib.query2.engine.QueryExpression;
+import com.google.devtools.build.lib.query2.engine.TargetLiteral;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link QueryResultCache}. */
+@RunWith(JUnit4.class)
+public class QueryResultCacheTest {
+
+  private final QueryResultCache<String> cache = new QueryResultCache<>();
+
+  @Test
+  public void testGraphVersionChangeDropsEntries() {
+    cache.startEvaluation(/*graphVersion=*/ 1, /*maxSize=*/ 10);
+    cache.put("a", ImmutableList.of("x", "y"), 1);
+    assertThat(cache.get("a", 1)).containsExactly("x", "y").inOrder();
+
+    cache.startEvaluation(/*graphVersion=*/ 1, /*maxSize=*/ 10);
+    assertThat(cache.get("a", 1)).containsExactly("x", "y").inOrder();
+
+    cache.startEvaluation(/*graphVersion=*/ 2, /*maxSize=*/ 10);
+    assertThat(cache.get("a", 2)).isNull();
+    assertThat(cache.getEntryCount()).isEqualTo(0);
+  }
+
+  @Test
+  public void testStaleResultsAreNotCached() {
+    cache.startEvaluation(/*graphVersion=*/ 1, /*maxSize=*/ 10);
+    cache.put("a", ImmutableList.of("x"), 2);
+    assertThat(cache.get("a", 1)).isNull();
+  }
+
+  @Test
+  public void testLeastRecentlyUsedEntriesAreEvicted() {
+    cache.startEvaluation(/*graphVersion=*/ 1, /*maxSize=*/ 4);
+    cache.put("a", ImmutableList.of("1", "2"), 1);
+    cache.put("b", ImmutableList.of("3"), 1);
+    assertThat(cache.get("a", 1)).isNotNull();
+    cache.put("c", ImmutableList.of("4", "5"), 1);
+
+    assertThat(cache.get("b", 1)).isNull();
+    assertThat(cache.get("a", 1)).isNotNull();
+    assertThat(cache.get("c", 1)).isNotNull();
+
+    cache.put("d", ImmutableList.of("6", "7", "8", "9", "10"), 1);
+    assertThat(cache.get("d", 1)).isNull();
+    assertThat(cache.getEntryCount()).isEqualTo(2);
+
+    cache.startEvaluation(/*graphVersion=*/ 1, /*maxSize=*/ 2);
+    assertThat(cache.getEntryCount()).isEqualTo(1);
+  }
+
+  @Test
+  public void testIsCacheable() {
+    QueryExpression literal = new TargetLiteral("//foo:bar");
+    QueryExpression reference = new TargetLiteral("$x");
+    QueryExpression union =
+        new BinaryOperatorExpression(Lexer.TokenKind.PLUS, ImmutableList.of(literal, literal));
+    QueryExpression unionWithReference =
+        new BinaryOperatorExpression(Lexer.TokenKind.PLUS, ImmutableList.of(literal, reference));
+
+    assertThat(QueryResultCache.isCacheable(literal)).isFalse();
+    assertThat(QueryResultCache.isCacheable(union)).isTrue();
+    assertThat(QueryResultCache.isCacheable(unionWithReference)).isFalse();
+    assertThat(QueryResultCache.isCacheable(new LetExpression("x", literal, unionWithReference)))
+        .isTrue();
+    assertThat(QueryResultCache.isCacheable(new LetExpression("y", literal, unionWithReference)))
+        .isFalse();
+  }
+}
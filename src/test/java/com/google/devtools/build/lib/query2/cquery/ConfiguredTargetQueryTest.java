@@ -366,7 +366,51 @@ public class ConfiguredTargetQueryTest extends PostAnalysisQueryTest<ConfiguredT
     createConfigRulesAndBuild();
     assertThat(evalThrows("config(//test:my_rule,foo)", true))
         .isEqualTo(
-            "the second argument of the config function must be 'target', 'host', or 'null'");
+            "the second argument of the config function must be 'target', 'host', 'null', or the"
+                + " checksum of a configuration in the graph");
+  }
+
+  @Test
+  public void testConfig_checksum() throws Exception {
+    createConfigRulesAndBuild();
+    getHelper().setWholeTestUniverseScope("test:my_rule");
+
+    ConfiguredTarget execDep =
+        Iterables.getOnlyElement(
+            Iterables.filter(
+                eval("deps(//test:my_rule, 1)"),
+                ct -> ct.getLabel().toString().equals("//test:exec_dep")));
+    BuildConfiguration execConfiguration = getConfiguration(execDep);
+
+    ConfiguredTarget dep =
+        Iterables.getOnlyElement(
+            eval("config(//test:dep, " + execConfiguration.checksum() + ")"));
+    assertThat(dep.getLabel().toString()).isEqualTo("//test:dep");
+    assertThat(getConfiguration(dep)).isEqualTo(execConfiguration);
+  }
+
+  @Test
+  public void testConfig_checksumAfterIncrementalBuild() throws Exception {
+    createConfigRulesAndBuild();
+    overwriteFile("test/BUILD", getHelper().getScratch().readFile("test/BUILD"), "glob(['*.txt'])");
+    getHelper().setWholeTestUniverseScope("test:my_rule");
+
+    ImmutableList<String> deps = evalToListOfStrings("deps(//test:my_rule)");
+    ConfiguredTarget execDep =
+        Iterables.getOnlyElement(
+            Iterables.filter(
+                eval("deps(//test:my_rule, 1)"),
+                ct -> ct.getLabel().toString().equals("//test:exec_dep")));
+    String checksum = getConfiguration(execDep).checksum();
+
+    // A file that does not match the glob dirties the package, but does not change it, so its
+    // configured targets are only re-verified as clean.
+    writeFile("test/README.md");
+
+    assertThat(evalToListOfStrings("deps(//test:my_rule)")).containsExactlyElementsIn(deps);
+    ConfiguredTarget dep = Iterables.getOnlyElement(eval("config(//test:dep, " + checksum + ")"));
+    assertThat(dep.getLabel().toString()).isEqualTo("//test:dep");
+    assertThat(getConfiguration(dep).checksum()).isEqualTo(checksum);
   }
 
   @Test
@@ -24,6 +24,7 @@ import com.google.devtools.build.lib.packages.CachingPackageLocator;
 import com.google.devtools.build.lib.packages.PackageFactory.EnvironmentExtension;
 import com.google.devtools.build.lib.packages.Target;
 import com.google.devtools.build.lib.packages.util.MockToolsConfig;
+import com.google.devtools.build.lib.pkgcache.PackageManager;
 import com.google.devtools.build.lib.pkgcache.PathPackageLocator;
 import com.google.devtools.build.lib.pkgcache.TargetPatternPreloader;
 import com.google.devtools.build.lib.pkgcache.TargetProvider;
@@ -80,6 +81,18 @@ public class GraphlessQueryTest extends AbstractQueryTest<Target> {
     // There's no hdrs_check attribute in Bazel.
   }
 
+  /** Returns the number of threads the query environment loads packages with. */
+  protected int getLoadingPhaseThreads(int requested) {
+    return requested;
+  }
+
+  /**
+   * Called for each query environment before it evaluates a query, with the package manager the
+   * environment loads packages from.
+   */
+  protected void configureQueryEnvironment(
+      GraphlessBlazeQueryEnvironment env, PackageManager packageManager) {}
+
   @Override
   protected QueryHelper<Target> createQueryHelper() {
     return new SkyframeQueryHelper() {
@@ -114,19 +127,22 @@ public class GraphlessQueryTest extends AbstractQueryTest<Target> {
               @Nullable PathPackageLocator packagePath,
               boolean blockUniverseEvaluationErrors,
               boolean useGraphlessQuery) {
-            return new GraphlessBlazeQueryEnvironment(
-                transitivePackageLoader,
-                targetProvider,
-                cachingPackageLocator,
-                targetPatternPreloader,
-                relativeWorkingDirectory,
-                keepGoing,
-                strictScope,
-                loadingPhaseThreads,
-                labelFilter,
-                eventHandler,
-                settings,
-                extraFunctions);
+            GraphlessBlazeQueryEnvironment env =
+                new GraphlessBlazeQueryEnvironment(
+                    transitivePackageLoader,
+                    targetProvider,
+                    cachingPackageLocator,
+                    targetPatternPreloader,
+                    relativeWorkingDirectory,
+                    keepGoing,
+                    strictScope,
+                    getLoadingPhaseThreads(loadingPhaseThreads),
+                    labelFilter,
+                    eventHandler,
+                    settings,
+                    extraFunctions);
+            configureQueryEnvironment(env, (PackageManager) targetProvider);
+            return env;
           }
         };
       }
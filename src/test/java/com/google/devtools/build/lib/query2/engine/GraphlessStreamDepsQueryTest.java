@@ -0,0 +1,139 @@
+// Copyright 2019 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.query2.engine;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.HashMultiset;
+import com.google.common.collect.Multiset;
+import com.google.devtools.build.lib.cmdline.PackageIdentifier;
+import com.google.devtools.build.lib.pkgcache.BulkPackageProvider;
+import com.google.devtools.build.lib.pkgcache.PackageManager;
+import com.google.devtools.build.lib.query2.query.GraphlessBlazeQueryEnvironment;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Runs the graphless query tests with {@link GraphlessBlazeQueryEnvironment#setStreamDeps}, with
+ * loads and batches small enough that every unbounded {@code deps} loads its packages over several
+ * loads and streams more than one batch.
+ */
+@RunWith(JUnit4.class)
+public class GraphlessStreamDepsQueryTest extends GraphlessQueryTest {
+  private boolean streamDeps = true;
+  private final Multiset<PackageIdentifier> packageLoads = HashMultiset.create();
+
+  @Override
+  protected int getLoadingPhaseThreads(int requested) {
+    return 4;
+  }
+
+  @Override
+  protected void configureQueryEnvironment(
+      GraphlessBlazeQueryEnvironment env, PackageManager packageManager) {
+    BulkPackageProvider countingProvider =
+        (eventHandler, pkgIds, parallelThreads) -> {
+          pkgIds.forEach(packageLoads::add);
+          return packageManager.getPackages(eventHandler, pkgIds, parallelThreads);
+        };
+    env.setStreamDeps(streamDeps ? countingProvider : null);
+    env.setStreamingLimitsForTesting(/*maxPackagesPerLoad=*/ 2, /*streamedDepsBatchSize=*/ 3);
+  }
+
+  @Test
+  public void testStreamedDepsMatchDefaultMode() throws Exception {
+    // A closure of 100 rules in 10 packages, with diamonds both within and across packages.
+    for (int p = 0; p < 10; p++) {
+      List<String> rules = new ArrayList<>();
+      for (int r = 0; r < 10; r++) {
+        List<String> deps = new ArrayList<>();
+        if (r + 1 < 10) {
+          deps.add("':r" + (r + 1) + "'");
+        }
+        if (r + 2 < 10) {
+          deps.add("':r" + (r + 2) + "'");
+        }
+        // A wide fan-out across packages fills the work queue.
+        for (int q = p + 1; q < 10; q++) {
+          deps.add("'//p" + q + ":r" + r + "'");
+        }
+        rules.add(
+            String.format(
+                "sh_library(name = 'r%d', srcs = ['r%d.sh'], deps = [%s])",
+                r, r, String.join(", ", deps)));
+      }
+      writeFile("p" + p + "/BUILD", rules.toArray(new String[0]));
+    }
+
+    streamDeps = false;
+    List<String> expected = evalToListOfStrings("deps(//p0:r0)");
+    streamDeps = true;
+    List<String> streamed = evalToListOfStrings("deps(//p0:r0)");
+
+    // Each rule and its source file.
+    assertThat(expected).hasSize(200);
+    assertThat(streamed).containsExactlyElementsIn(expected).inOrder();
+    assertThat(evalToListOfStrings("deps(//p0:r0 + //p5:r5)")).isEqualTo(expected);
+  }
+
+  @Test
+  public void testStreamedDepsLoadEachPackageAtMostTwice() throws Exception {
+    // Chains of rules through all packages, each chain starting where the previous one ends, so
+    // that each package is reached again after it was dropped, once per chain.
+    for (int p = 0; p < 5; p++) {
+      writeFile(
+          "p" + p + "/BUILD",
+          String.format("sh_library(name = 'a', deps = ['//p%d:a'])", p + 1),
+          String.format("sh_library(name = 'b', deps = ['//p%d:b'])", p + 1),
+          String.format("sh_library(name = 'c', deps = ['//p%d:c'])", p + 1));
+    }
+    writeFile(
+        "p5/BUILD",
+        "sh_library(name = 'a', deps = ['//p0:b'])",
+        "sh_library(name = 'b', deps = ['//p0:c'])",
+        "sh_library(name = 'c')");
+
+    streamDeps = false;
+    List<String> expected = evalToListOfStrings("deps(//p0:a)");
+    streamDeps = true;
+    packageLoads.clear();
+    List<String> streamed = evalToListOfStrings("deps(//p0:a)");
+
+    assertThat(expected).hasSize(18);
+    assertThat(streamed).containsExactlyElementsIn(expected).inOrder();
+    // The edges of the dropped packages are kept, so the packages are only loaded again to pass
+    // the targets reached in them on, after the whole closure is visited.
+    assertThat(packageLoads.elementSet()).hasSize(6);
+    for (Multiset.Entry<PackageIdentifier> entry : packageLoads.entrySet()) {
+      assertThat(entry.getCount()).isAtMost(2);
+    }
+  }
+
+  @Test
+  public void testStreamedDepsReportMissingTargetsOfDroppedPackages() throws Exception {
+    // //p0 is no longer loaded by the time //p3 is, where the missing target would be.
+    writeFile("p0/BUILD", "sh_library(name = 'r', deps = ['//p1:r', '//p2:r', '//p3:missing'])");
+    writeFile("p1/BUILD", "sh_library(name = 'r')");
+    writeFile("p2/BUILD", "sh_library(name = 'r')");
+    writeFile("p3/BUILD", "sh_library(name = 'r')");
+
+    evalThrows("deps(//p0:r)", false);
+    assertContainsEvent(
+        "no such target '//p3:missing': target 'missing' not declared in package 'p3'");
+    assertContainsEvent("and referenced by '//p0:r'");
+  }
+}
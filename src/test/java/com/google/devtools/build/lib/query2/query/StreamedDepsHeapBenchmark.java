@@ -0,0 +1,198 @@
+// Copyright 2019 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.devtools.build.lib.query2.query;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.eventbus.EventBus;
+import com.google.devtools.build.lib.cmdline.Label;
+import com.google.devtools.build.lib.cmdline.PackageIdentifier;
+import com.google.devtools.build.lib.events.EventKind;
+import com.google.devtools.build.lib.events.Reporter;
+import com.google.devtools.build.lib.packages.Attribute;
+import com.google.devtools.build.lib.packages.DependencyFilter;
+import com.google.devtools.build.lib.packages.NoSuchThingException;
+import com.google.devtools.build.lib.packages.Package;
+import com.google.devtools.build.lib.packages.Target;
+import com.google.devtools.build.lib.pkgcache.BulkPackageProvider.PackageOrException;
+import com.google.devtools.build.lib.pkgcache.TargetEdgeObserver;
+import com.google.devtools.build.lib.skyframe.packages.AbstractPackageLoader;
+import com.google.devtools.build.lib.skyframe.packages.BazelPackageLoader;
+import com.google.devtools.build.lib.vfs.DigestHashFunction;
+import com.google.devtools.build.lib.vfs.FileSystem;
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
+import com.google.devtools.build.lib.vfs.JavaIoFileSystem;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.PathFragment;
+import com.google.devtools.build.lib.vfs.Root;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import javax.annotation.Nullable;
+
+/**
+ * Measures the heap that a streamed unbounded {@code deps} holds while it visits the closure of a
+ * synthetic workspace, loading the packages through a {@link BazelPackageLoader} that does not keep
+ * them, against the heap that keeping all the packages of the closure takes.
+ *
+ * <p>Usage: {@code StreamedDepsHeapBenchmark <install base> <output base> [package count] [rules
+ * per package]}, with the install base and output base of a Bazel server that has fetched
+ * {@code @bazel_tools} already, such as those {@code bazel info} prints after any {@code bazel
+ * query}. Run with a fixed heap, e.g. {@code --jvm_flags=-Xmx4g}.
+ */
+public class StreamedDepsHeapBenchmark {
+  private static final int MAX_PACKAGES_PER_LOAD = 100;
+  // The heap is measured every this many visited targets.
+  private static final int SAMPLE_INTERVAL = 5000;
+
+  public static void main(String[] args) throws Exception {
+    if (args.length < 2) {
+      System.err.println(
+          "Usage: StreamedDepsHeapBenchmark <install base> <output base> [package count]"
+              + " [rules per package]");
+      System.exit(2);
+    }
+    FileSystem fs = new JavaIoFileSystem(DigestHashFunction.SHA256);
+    Path installBase = fs.getPath(new File(args[0]).getAbsolutePath());
+    Path outputBase = fs.getPath(new File(args[1]).getAbsolutePath());
+    int packageCount = args.length > 2 ? Integer.parseInt(args[2]) : 2000;
+    int rulesPerPackage = args.length > 3 ? Integer.parseInt(args[3]) : 20;
+    int threads = Runtime.getRuntime().availableProcessors();
+
+    Path workspace = fs.getPath(Files.createTempDirectory("workspace").toString());
+    writeWorkspace(workspace, packageCount, rulesPerPackage);
+    Reporter reporter = new Reporter(new EventBus());
+    reporter.addHandler(
+        event -> {
+          if (EventKind.ERRORS_AND_WARNINGS.contains(event.getKind())) {
+            System.err.println(event);
+          }
+        });
+    AbstractPackageLoader packageLoader =
+        BazelPackageLoader.builder(Root.fromPath(workspace), installBase, outputBase)
+            .useDefaultSkylarkSemantics()
+            .setReporter(reporter)
+            .build();
+
+    // Keep all the packages of the closure, as the Skyframe graph does.
+    long baseline = usedHeap();
+    List<PackageIdentifier> pkgIds = new ArrayList<>();
+    for (int p = 0; p < packageCount; p++) {
+      pkgIds.add(PackageIdentifier.createInMainRepo(PathFragment.create("p" + p)));
+    }
+    List<Package> packages = new ArrayList<>();
+    for (int i = 0; i < packageCount; i += MAX_PACKAGES_PER_LOAD) {
+      for (PackageOrException pkg :
+          packageLoader
+              .getPackages(
+                  reporter,
+                  pkgIds.subList(i, Math.min(i + MAX_PACKAGES_PER_LOAD, packageCount)),
+                  threads)
+              .values()) {
+        packages.add(pkg.get());
+      }
+    }
+    long keptHeap = usedHeap() - baseline;
+    System.out.printf("Packages kept: %d, heap: %d MB%n", packages.size(), keptHeap >> 20);
+    packages = null;
+
+    // Visit the closure with the packages dropped once their edges are recorded.
+    baseline = usedHeap();
+    Target root =
+        packageLoader
+            .getPackages(reporter, ImmutableList.of(pkgIds.get(0)), threads)
+            .get(pkgIds.get(0))
+            .get()
+            .getTarget("r0");
+    HeapSampler sampler = new HeapSampler(baseline);
+    new LabelVisitor(
+            (eventHandler, label) -> {
+              throw new UnsupportedOperationException(label.toString());
+            },
+            DependencyFilter.ALL_DEPS)
+        .syncUncachedCompact(
+            reporter,
+            packageLoader,
+            ImmutableList.of(root),
+            threads,
+            MAX_PACKAGES_PER_LOAD,
+            sampler);
+    System.out.printf(
+        "Targets visited: %d, peak heap while visiting: %d MB%n",
+        sampler.targets, sampler.peakHeap >> 20);
+  }
+
+  /**
+   * Writes a workspace where each of the {@code rulesPerPackage} rules of each package depends on
+   * the next rule of the package and on the rule of the same name in the next package.
+   */
+  private static void writeWorkspace(Path workspace, int packageCount, int rulesPerPackage)
+      throws Exception {
+    FileSystemUtils.writeIsoLatin1(workspace.getRelative("WORKSPACE"));
+    for (int p = 0; p < packageCount; p++) {
+      List<String> lines = new ArrayList<>();
+      for (int r = 0; r < rulesPerPackage; r++) {
+        List<String> deps = new ArrayList<>();
+        if (r + 1 < rulesPerPackage) {
+          deps.add("':r" + (r + 1) + "'");
+        }
+        if (p + 1 < packageCount) {
+          deps.add("'//p" + (p + 1) + ":r" + r + "'");
+        }
+        lines.add(
+            String.format(
+                "sh_library(name = 'r%d', srcs = ['r%d.sh'], deps = [%s])",
+                r, r, String.join(", ", deps)));
+      }
+      Path buildFile = workspace.getRelative("p" + p + "/BUILD");
+      buildFile.getParentDirectory().createDirectoryAndParents();
+      FileSystemUtils.writeIsoLatin1(buildFile, lines.toArray(new String[0]));
+    }
+  }
+
+  private static long usedHeap() {
+    Runtime runtime = Runtime.getRuntime();
+    for (int i = 0; i < 3; i++) {
+      System.gc();
+    }
+    return runtime.totalMemory() - runtime.freeMemory();
+  }
+
+  /** Counts the visited targets and measures the heap every {@link #SAMPLE_INTERVAL} of them. */
+  private static class HeapSampler implements TargetEdgeObserver {
+    private final long baseline;
+    private int targets;
+    private long peakHeap;
+
+    HeapSampler(long baseline) {
+      this.baseline = baseline;
+    }
+
+    @Override
+    public void edge(Target from, Attribute attribute, Target to) {}
+
+    @Override
+    public void missingEdge(@Nullable Target target, Label to, NoSuchThingException e) {
+      System.err.println("Missing edge to " + to + ": " + e.getMessage());
+    }
+
+    @Override
+    public void node(Target node) {
+      if (++targets % SAMPLE_INTERVAL == 0) {
+        peakHeap = Math.max(peakHeap, usedHeap() - baseline);
+      }
+    }
+  }
+}
@@ -0,0 +1,121 @@
+// Copyright 2019 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.query2.query.output;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.devtools.build.lib.cmdline.PackageIdentifier;
+import com.google.devtools.build.lib.packages.Target;
+import com.google.devtools.build.lib.packages.util.PackageLoadingTestCase;
+import com.google.devtools.build.lib.query2.engine.OutputFormatterCallback;
+import com.google.devtools.build.lib.query2.proto.proto2api.Build;
+import com.google.devtools.build.lib.query2.proto.proto2api.Build.QueryResult;
+import com.google.devtools.build.lib.query2.query.aspectresolvers.NullAspectResolver;
+import com.google.devtools.common.options.Options;
+import java.io.ByteArrayOutputStream;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link ProtoOutputFormatter} and {@link StreamedProtoOutputFormatter}. */
+@RunWith(JUnit4.class)
+public class ProtoOutputFormatterTest extends PackageLoadingTestCase {
+  // More than fit in one of the chunks that the formatters convert in parallel.
+  private static final int RULE_COUNT = 700;
+
+  private QueryOptions options;
+  private ImmutableList<Target> targets;
+
+  @Before
+  public final void setUpTargets() throws Exception {
+    options = Options.getDefaults(QueryOptions.class);
+    scratch.file(
+        "pkg/BUILD",
+        "[sh_library(",
+        "    name = 'r%d' % i,",
+        "    srcs = ['r%d.sh' % i],",
+        "    deps = [':r%d' % (i + 1)] if i + 1 < " + RULE_COUNT + " else [],",
+        ") for i in range(" + RULE_COUNT + ")]");
+    targets =
+        ImmutableList.copyOf(
+            getPackageManager()
+                .getPackage(reporter, PackageIdentifier.createInMainRepo("pkg"))
+                .getTargets()
+                .values());
+    // The rules, their source files and the BUILD file.
+    assertThat(targets).hasSize(2 * RULE_COUNT + 1);
+  }
+
+  /** Writes the targets through the formatter's callback, in batches of uneven sizes. */
+  private byte[] format(ProtoOutputFormatter formatter) throws Exception {
+    formatter.setOptions(options, new NullAspectResolver());
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    OutputFormatterCallback<Target> callback =
+        formatter.createPostFactoStreamCallback(out, options);
+    callback.start();
+    for (List<Target> batch : Lists.partition(targets, 99)) {
+      callback.processOutput(batch);
+    }
+    callback.close(/*failFast=*/ false);
+    return out.toByteArray();
+  }
+
+  @Test
+  public void protoOutputMatchesSequentialConversion() throws Exception {
+    ProtoOutputFormatter formatter = new ProtoOutputFormatter();
+    byte[] output = format(formatter);
+
+    QueryResult.Builder expected = QueryResult.newBuilder();
+    for (Target target : targets) {
+      expected.addTarget(formatter.toTargetProtoBuffer(target));
+    }
+    assertThat(output).isEqualTo(expected.build().toByteArray());
+  }
+
+  @Test
+  public void streamedProtoOutputMatchesSequentialConversion() throws Exception {
+    StreamedProtoOutputFormatter formatter = new StreamedProtoOutputFormatter();
+    byte[] output = format(formatter);
+
+    ByteArrayOutputStream expected = new ByteArrayOutputStream();
+    for (Target target : targets) {
+      formatter.toTargetProtoBuffer(target).writeDelimitedTo(expected);
+    }
+    assertThat(output).isEqualTo(expected.toByteArray());
+  }
+
+  @Test
+  public void protoOutputKeepsTargetOrder() throws Exception {
+    QueryResult result = QueryResult.parseFrom(format(new ProtoOutputFormatter()));
+
+    assertThat(Lists.transform(result.getTargetList(), ProtoOutputFormatterTest::nameOf))
+        .containsExactlyElementsIn(Lists.transform(targets, t -> t.getLabel().toString()))
+        .inOrder();
+  }
+
+  private static String nameOf(Build.Target target) {
+    switch (target.getType()) {
+      case RULE:
+        return target.getRule().getName();
+      case SOURCE_FILE:
+        return target.getSourceFile().getName();
+      default:
+        throw new IllegalArgumentException(target.getType().toString());
+    }
+  }
+}
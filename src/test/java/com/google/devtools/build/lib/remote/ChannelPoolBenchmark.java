@@ -0,0 +1,135 @@
+// Copyright 2019 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.remote;
+
+import com.google.bytestream.ByteStreamGrpc;
+import com.google.bytestream.ByteStreamGrpc.ByteStreamImplBase;
+import com.google.bytestream.ByteStreamProto.ReadRequest;
+import com.google.bytestream.ByteStreamProto.ReadResponse;
+import com.google.protobuf.ByteString;
+import io.grpc.ManagedChannel;
+import io.grpc.Server;
+import io.grpc.netty.NettyChannelBuilder;
+import io.grpc.netty.NettyServerBuilder;
+import io.grpc.stub.StreamObserver;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Benchmarks the throughput of many concurrent ByteStream reads from a local server that, like most
+ * remote caches, limits the number of concurrent streams per connection, as the number of
+ * connections in the {@link ChannelPool} grows.
+ *
+ * <p>Usage: {@code ChannelPoolBenchmark [repetitions]}.
+ */
+public class ChannelPoolBenchmark {
+  private static final int MAX_CONCURRENT_CALLS_PER_CONNECTION = 100;
+  private static final int CONCURRENT_READS = 1000;
+  private static final ByteString BLOB = ByteString.copyFrom(new byte[64 * 1024]);
+  private static final int[] CONNECTIONS = {1, 2, 4, 8};
+  private static final int WARMUP_REPS = 3;
+
+  private final Server server;
+  private final ChannelPool pool;
+
+  private ChannelPoolBenchmark(int connections) throws Exception {
+    server =
+        NettyServerBuilder.forAddress(new InetSocketAddress("localhost", 0))
+            .maxConcurrentCallsPerConnection(MAX_CONCURRENT_CALLS_PER_CONNECTION)
+            .addService(
+                new ByteStreamImplBase() {
+                  @Override
+                  public void read(
+                      ReadRequest request, StreamObserver<ReadResponse> responseObserver) {
+                    responseObserver.onNext(ReadResponse.newBuilder().setData(BLOB).build());
+                    responseObserver.onCompleted();
+                  }
+                })
+            .build()
+            .start();
+    pool = new ChannelPool(newChannels(connections), newChannels(1));
+  }
+
+  private void shutdown() throws Exception {
+    pool.shutdownNow();
+    pool.awaitTermination(10, TimeUnit.SECONDS);
+    server.shutdownNow();
+    server.awaitTermination();
+  }
+
+  /** Reads {@link #CONCURRENT_READS} blobs at once and waits for all of them. */
+  private void read() throws Exception {
+    ByteStreamGrpc.ByteStreamStub stub = ByteStreamGrpc.newStub(pool);
+    CountDownLatch done = new CountDownLatch(CONCURRENT_READS);
+    AtomicReference<Throwable> failure = new AtomicReference<>();
+    for (int j = 0; j < CONCURRENT_READS; j++) {
+      stub.read(
+          ReadRequest.newBuilder().setResourceName("blobs/" + j + "/65536").build(),
+          new StreamObserver<ReadResponse>() {
+            @Override
+            public void onNext(ReadResponse response) {}
+
+            @Override
+            public void onError(Throwable t) {
+              failure.set(t);
+              done.countDown();
+            }
+
+            @Override
+            public void onCompleted() {
+              done.countDown();
+            }
+          });
+    }
+    done.await();
+    if (failure.get() != null) {
+      throw new IllegalStateException(failure.get());
+    }
+  }
+
+  private List<ManagedChannel> newChannels(int count) {
+    List<ManagedChannel> channels = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      channels.add(
+          NettyChannelBuilder.forAddress("localhost", server.getPort()).usePlaintext().build());
+    }
+    return channels;
+  }
+
+  public static void main(String[] args) throws Exception {
+    int reps = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+    System.out.printf(
+        "%d concurrent reads of %d bytes, %d repetitions%n", CONCURRENT_READS, BLOB.size(), reps);
+    for (int connections : CONNECTIONS) {
+      ChannelPoolBenchmark benchmark = new ChannelPoolBenchmark(connections);
+      try {
+        for (int i = 0; i < WARMUP_REPS; i++) {
+          benchmark.read();
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < reps; i++) {
+          benchmark.read();
+        }
+        double millisPerRep = (System.nanoTime() - start) / 1e6 / reps;
+        System.out.printf("%d connection(s) %10.2f ms/repetition%n", connections, millisPerRep);
+      } finally {
+        benchmark.shutdown();
+      }
+    }
+  }
+}
@@ -0,0 +1,148 @@
+// Copyright 2019 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.remote;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import build.bazel.remote.execution.v2.ActionCacheGrpc;
+import build.bazel.remote.execution.v2.ActionCacheGrpc.ActionCacheImplBase;
+import build.bazel.remote.execution.v2.ActionResult;
+import build.bazel.remote.execution.v2.ContentAddressableStorageGrpc;
+import build.bazel.remote.execution.v2.ContentAddressableStorageGrpc.ContentAddressableStorageImplBase;
+import build.bazel.remote.execution.v2.ExecutionGrpc;
+import build.bazel.remote.execution.v2.FindMissingBlobsRequest;
+import build.bazel.remote.execution.v2.FindMissingBlobsResponse;
+import build.bazel.remote.execution.v2.GetActionResultRequest;
+import com.google.bytestream.ByteStreamGrpc;
+import com.google.common.util.concurrent.ListenableFuture;
+import io.grpc.ManagedChannel;
+import io.grpc.Server;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.stub.StreamObserver;
+import io.grpc.util.MutableHandlerRegistry;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link ChannelPool}. */
+@RunWith(JUnit4.class)
+public class ChannelPoolTest {
+  private final MutableHandlerRegistry serviceRegistry = new MutableHandlerRegistry();
+  private final List<StreamObserver<ActionResult>> pendingCalls = new ArrayList<>();
+  private String fakeServerName;
+  private Server fakeServer;
+  private ChannelPool pool;
+
+  @Before
+  public final void setUp() throws Exception {
+    fakeServerName = "fake server for " + getClass();
+    fakeServer =
+        InProcessServerBuilder.forName(fakeServerName)
+            .fallbackHandlerRegistry(serviceRegistry)
+            .directExecutor()
+            .build()
+            .start();
+    serviceRegistry.addService(
+        new ActionCacheImplBase() {
+          @Override
+          public void getActionResult(
+              GetActionResultRequest request, StreamObserver<ActionResult> responseObserver) {
+            // Keep the call in flight until the test completes it.
+            pendingCalls.add(responseObserver);
+          }
+        });
+    serviceRegistry.addService(
+        new ContentAddressableStorageImplBase() {
+          @Override
+          public void findMissingBlobs(
+              FindMissingBlobsRequest request,
+              StreamObserver<FindMissingBlobsResponse> responseObserver) {
+            responseObserver.onNext(FindMissingBlobsResponse.getDefaultInstance());
+            responseObserver.onCompleted();
+          }
+        });
+    pool = new ChannelPool(newChannels(1), newChannels(3));
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    pool.shutdownNow();
+    pool.awaitTermination(5, TimeUnit.SECONDS);
+    fakeServer.shutdownNow();
+    fakeServer.awaitTermination();
+  }
+
+  @Test
+  public void testSeparatesBulkTransfers() {
+    assertThat(ChannelPool.isBulkTransfer(ByteStreamGrpc.getReadMethod())).isTrue();
+    assertThat(ChannelPool.isBulkTransfer(ByteStreamGrpc.getWriteMethod())).isTrue();
+    assertThat(
+            ChannelPool.isBulkTransfer(ContentAddressableStorageGrpc.getFindMissingBlobsMethod()))
+        .isTrue();
+    assertThat(ChannelPool.isBulkTransfer(ActionCacheGrpc.getGetActionResultMethod())).isFalse();
+    assertThat(ChannelPool.isBulkTransfer(ExecutionGrpc.getExecuteMethod())).isFalse();
+  }
+
+  @Test
+  public void testSendsCallsToLeastLoadedChannel() throws Exception {
+    List<ListenableFuture<ActionResult>> results = new ArrayList<>();
+    for (int i = 0; i < 3; i++) {
+      results.add(getActionResult());
+    }
+    assertThat(pool.getCallsInFlight()).asList().containsExactly(0, 1, 1, 1).inOrder();
+
+    results.add(getActionResult());
+    results.add(getActionResult());
+    assertThat(pool.getCallsInFlight()).asList().containsExactly(0, 2, 2, 1).inOrder();
+
+    // The channel whose call completes gets the next one.
+    pendingCalls.get(0).onNext(ActionResult.getDefaultInstance());
+    pendingCalls.get(0).onCompleted();
+    results.get(0).get();
+    assertThat(pool.getCallsInFlight()).asList().containsExactly(0, 1, 2, 1).inOrder();
+    results.add(getActionResult());
+    results.add(getActionResult());
+    assertThat(pool.getCallsInFlight()).asList().containsExactly(0, 2, 2, 2).inOrder();
+
+    ContentAddressableStorageGrpc.newBlockingStub(pool)
+        .findMissingBlobs(FindMissingBlobsRequest.getDefaultInstance());
+    for (int i = 1; i < pendingCalls.size(); i++) {
+      pendingCalls.get(i).onNext(ActionResult.getDefaultInstance());
+      pendingCalls.get(i).onCompleted();
+    }
+    for (ListenableFuture<ActionResult> result : results) {
+      result.get();
+    }
+    assertThat(pool.getCallsInFlight()).asList().containsExactly(0, 0, 0, 0);
+  }
+
+  private ListenableFuture<ActionResult> getActionResult() {
+    return ActionCacheGrpc.newFutureStub(pool)
+        .getActionResult(GetActionResultRequest.getDefaultInstance());
+  }
+
+  private List<ManagedChannel> newChannels(int count) {
+    List<ManagedChannel> channels = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      channels.add(InProcessChannelBuilder.forName(fakeServerName).directExecutor().build());
+    }
+    return channels;
+  }
+}
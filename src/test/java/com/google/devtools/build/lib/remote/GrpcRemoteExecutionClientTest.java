@@ -122,6 +122,7 @@ public class GrpcRemoteExecutionClientTest {
   private Digest inputDigest;
   private Digest cmdDigest;
   private Command command;
+  private RemoteOptions remoteOptions;
   private RemoteSpawnRunner client;
   private FileOutErr outErr;
   private Server fakeServer;
@@ -206,7 +207,7 @@ public class GrpcRemoteExecutionClientTest {
     FileSystemUtils.createDirectoryAndParents(stdout.getParentDirectory());
     FileSystemUtils.createDirectoryAndParents(stderr.getParentDirectory());
     outErr = new FileOutErr(stdout, stderr);
-    RemoteOptions remoteOptions = Options.getDefaults(RemoteOptions.class);
+    remoteOptions = Options.getDefaults(RemoteOptions.class);
     RemoteRetrier retrier =
         TestUtils.newRemoteRetrier(
             () -> new ExponentialBackoff(remoteOptions),
@@ -238,7 +239,8 @@ public class GrpcRemoteExecutionClientTest {
             RemoteModule.createExecuteRetrier(remoteOptions, retryService),
             DIGEST_UTIL,
             logDir,
-            /* filesToDownload= */ ImmutableSet.of());
+            /* filesToDownload= */ ImmutableSet.of(),
+            /* pipelineExecutor= */ MoreExecutors.directExecutor());
 
     inputDigest = fakeFileCache.createScratchInput(simpleSpawn.getInputFiles().get(0), "xyz");
     command =
@@ -403,6 +405,42 @@ public class GrpcRemoteExecutionClientTest {
 
   }
 
+  @Test
+  public void cacheHitWithOutputAsync() throws Exception {
+    remoteOptions.experimentalRemoteExecutionAsync = true;
+    final Digest stdOutDigest = DIGEST_UTIL.computeAsUtf8("stdout");
+    final Digest stdErrDigest = DIGEST_UTIL.computeAsUtf8("stderr");
+    BindableService actionCache =
+        new ActionCacheImplBase() {
+          @Override
+          public void getActionResult(
+              GetActionResultRequest request, StreamObserver<ActionResult> responseObserver) {
+            responseObserver.onNext(
+                ActionResult.newBuilder()
+                    .addOutputFiles(DUMMY_OUTPUT)
+                    .setStdoutDigest(stdOutDigest)
+                    .setStderrDigest(stdErrDigest)
+                    .build());
+            responseObserver.onCompleted();
+          }
+        };
+    serviceRegistry.addService(
+        ServerInterceptors.intercept(actionCache, new RequestHeadersValidator()));
+    serviceRegistry.addService(
+        ServerInterceptors.intercept(
+            new FakeImmutableCacheByteStreamImpl(stdOutDigest, "stdout", stdErrDigest, "stderr"),
+            new RequestHeadersValidator()));
+
+    FakeSpawnExecutionContext policy =
+        new FakeSpawnExecutionContext(simpleSpawn, fakeFileCache, execRoot, outErr);
+    SpawnResult result = client.execAsync(simpleSpawn, policy).get();
+    assertThat(result.setupSuccess()).isTrue();
+    assertThat(result.exitCode()).isEqualTo(0);
+    assertThat(result.isCacheHit()).isTrue();
+    assertThat(outErr.outAsLatin1()).isEqualTo("stdout");
+    assertThat(outErr.errAsLatin1()).isEqualTo("stderr");
+  }
+
   @Test
   public void cacheHitWithInlineOutput() throws Exception {
     serviceRegistry.addService(
@@ -570,6 +608,71 @@ public class GrpcRemoteExecutionClientTest {
     Mockito.verify(mockByteStreamImpl).write(ArgumentMatchers.<StreamObserver<WriteResponse>>any());
   }
 
+  @Test
+  public void remotelyExecuteAsync() throws Exception {
+    remoteOptions.experimentalRemoteExecutionAsync = true;
+    BindableService actionCache =
+        new ActionCacheImplBase() {
+          @Override
+          public void getActionResult(
+              GetActionResultRequest request, StreamObserver<ActionResult> responseObserver) {
+            responseObserver.onError(Status.NOT_FOUND.asRuntimeException());
+          }
+        };
+    serviceRegistry.addService(
+        ServerInterceptors.intercept(actionCache, new RequestHeadersValidator()));
+    final ActionResult actionResult =
+        ActionResult.newBuilder()
+            .addOutputFiles(DUMMY_OUTPUT)
+            .setStdoutRaw(ByteString.copyFromUtf8("stdout"))
+            .setStderrRaw(ByteString.copyFromUtf8("stderr"))
+            .build();
+    BindableService execService =
+        new ExecutionImplBase() {
+          @Override
+          public void execute(ExecuteRequest request, StreamObserver<Operation> responseObserver) {
+            assertThat(request.getSkipCacheLookup()).isFalse();
+            responseObserver.onNext(Operation.newBuilder().setName("operation").build());
+            responseObserver.onNext(
+                Operation.newBuilder()
+                    .setDone(true)
+                    .setResponse(
+                        Any.pack(ExecuteResponse.newBuilder().setResult(actionResult).build()))
+                    .build());
+            responseObserver.onCompleted();
+          }
+        };
+    serviceRegistry.addService(
+        ServerInterceptors.intercept(execService, new RequestHeadersValidator()));
+    BindableService cas =
+        new ContentAddressableStorageImplBase() {
+          @Override
+          public void findMissingBlobs(
+              FindMissingBlobsRequest request,
+              StreamObserver<FindMissingBlobsResponse> responseObserver) {
+            responseObserver.onNext(
+                FindMissingBlobsResponse.newBuilder().addMissingBlobDigests(inputDigest).build());
+            responseObserver.onCompleted();
+          }
+        };
+    serviceRegistry.addService(ServerInterceptors.intercept(cas, new RequestHeadersValidator()));
+    ByteStreamImplBase mockByteStreamImpl = Mockito.mock(ByteStreamImplBase.class);
+    when(mockByteStreamImpl.write(ArgumentMatchers.<StreamObserver<WriteResponse>>any()))
+        .thenAnswer(blobWriteAnswer("xyz".getBytes(UTF_8)));
+    serviceRegistry.addService(
+        ServerInterceptors.intercept(mockByteStreamImpl, new RequestHeadersValidator()));
+
+    FakeSpawnExecutionContext policy =
+        new FakeSpawnExecutionContext(simpleSpawn, fakeFileCache, execRoot, outErr);
+    SpawnResult result = client.execAsync(simpleSpawn, policy).get();
+    assertThat(result.setupSuccess()).isTrue();
+    assertThat(result.exitCode()).isEqualTo(0);
+    assertThat(result.isCacheHit()).isFalse();
+    assertThat(outErr.outAsLatin1()).isEqualTo("stdout");
+    assertThat(outErr.errAsLatin1()).isEqualTo("stderr");
+    Mockito.verify(mockByteStreamImpl).write(ArgumentMatchers.<StreamObserver<WriteResponse>>any());
+  }
+
   private Answer<Void> answerWith(@Nullable Operation op, Status status) {
     return invocationOnMock -> {
       @SuppressWarnings("unchecked")
@@ -589,6 +692,16 @@ public class GrpcRemoteExecutionClientTest {
 
   @Test
   public void remotelyExecuteRetries() throws Exception {
+    doRemotelyExecuteRetries(/* async= */ false);
+  }
+
+  @Test
+  public void remotelyExecuteRetriesAsync() throws Exception {
+    doRemotelyExecuteRetries(/* async= */ true);
+  }
+
+  private void doRemotelyExecuteRetries(boolean async) throws Exception {
+    remoteOptions.experimentalRemoteExecutionAsync = async;
     serviceRegistry.addService(
         new ActionCacheImplBase() {
           private int numErrors = 4;
@@ -718,7 +831,8 @@ public class GrpcRemoteExecutionClientTest {
 
     FakeSpawnExecutionContext policy =
         new FakeSpawnExecutionContext(simpleSpawn, fakeFileCache, execRoot, outErr);
-    SpawnResult result = client.exec(simpleSpawn, policy);
+    SpawnResult result =
+        async ? client.execAsync(simpleSpawn, policy).get() : client.exec(simpleSpawn, policy);
     assertThat(result.setupSuccess()).isTrue();
     assertThat(result.exitCode()).isEqualTo(0);
     assertThat(result.isCacheHit()).isFalse();
@@ -742,6 +856,16 @@ public class GrpcRemoteExecutionClientTest {
 
   @Test
   public void remotelyExecuteRetriesWaitResult() throws Exception {
+    doRemotelyExecuteRetriesWaitResult(/* async= */ false);
+  }
+
+  @Test
+  public void remotelyExecuteRetriesWaitResultAsync() throws Exception {
+    doRemotelyExecuteRetriesWaitResult(/* async= */ true);
+  }
+
+  private void doRemotelyExecuteRetriesWaitResult(boolean async) throws Exception {
+    remoteOptions.experimentalRemoteExecutionAsync = async;
     // This test's flow is similar to the previous, except the result
     // will eventually be returned by the waitExecute function.
     serviceRegistry.addService(
@@ -828,7 +952,8 @@ public class GrpcRemoteExecutionClientTest {
 
     FakeSpawnExecutionContext policy =
         new FakeSpawnExecutionContext(simpleSpawn, fakeFileCache, execRoot, outErr);
-    SpawnResult result = client.exec(simpleSpawn, policy);
+    SpawnResult result =
+        async ? client.execAsync(simpleSpawn, policy).get() : client.exec(simpleSpawn, policy);
     assertThat(result.setupSuccess()).isTrue();
     assertThat(result.exitCode()).isEqualTo(0);
     assertThat(result.isCacheHit()).isFalse();
@@ -1204,6 +1329,16 @@ public class GrpcRemoteExecutionClientTest {
 
   @Test
   public void execWaitsOnUnfinishedCompletion() throws Exception {
+    doExecWaitsOnUnfinishedCompletion(/* async= */ false);
+  }
+
+  @Test
+  public void execWaitsOnUnfinishedCompletionAsync() throws Exception {
+    doExecWaitsOnUnfinishedCompletion(/* async= */ true);
+  }
+
+  private void doExecWaitsOnUnfinishedCompletion(boolean async) throws Exception {
+    remoteOptions.experimentalRemoteExecutionAsync = async;
     serviceRegistry.addService(
         new ActionCacheImplBase() {
           @Override
@@ -1271,7 +1406,8 @@ public class GrpcRemoteExecutionClientTest {
     FakeSpawnExecutionContext policy =
         new FakeSpawnExecutionContext(simpleSpawn, fakeFileCache, execRoot, outErr);
 
-    SpawnResult result = client.exec(simpleSpawn, policy);
+    SpawnResult result =
+        async ? client.execAsync(simpleSpawn, policy).get() : client.exec(simpleSpawn, policy);
     assertThat(result.setupSuccess()).isTrue();
     assertThat(result.exitCode()).isEqualTo(0);
     assertThat(result.isCacheHit()).isFalse();
@@ -89,8 +89,7 @@ public class RemoteActionInputFetcherTest {
     MetadataProvider metadataProvider = new StaticMetadataProvider(metadata);
     AbstractRemoteActionCache remoteCache =
         new StaticRemoteActionCache(options, digestUtil, cacheEntries);
-    RemoteActionInputFetcher actionInputFetcher =
-        new RemoteActionInputFetcher(remoteCache, execRoot, Context.current());
+    RemoteActionInputFetcher actionInputFetcher = newActionInputFetcher(remoteCache);
 
     // act
     actionInputFetcher.prefetchFiles(metadata.keySet(), metadataProvider);
@@ -113,8 +112,7 @@ public class RemoteActionInputFetcherTest {
     MetadataProvider metadataProvider = new StaticMetadataProvider(new HashMap<>());
     AbstractRemoteActionCache remoteCache =
         new StaticRemoteActionCache(options, digestUtil, new HashMap<>());
-    RemoteActionInputFetcher actionInputFetcher =
-        new RemoteActionInputFetcher(remoteCache, execRoot, Context.current());
+    RemoteActionInputFetcher actionInputFetcher = newActionInputFetcher(remoteCache);
     VirtualActionInput a = new StringActionInput("hello world", PathFragment.create("file1"));
 
     // act
@@ -139,8 +137,7 @@ public class RemoteActionInputFetcherTest {
     MetadataProvider metadataProvider = new StaticMetadataProvider(metadata);
     AbstractRemoteActionCache remoteCache =
         new StaticRemoteActionCache(options, digestUtil, new HashMap<>());
-    RemoteActionInputFetcher actionInputFetcher =
-        new RemoteActionInputFetcher(remoteCache, execRoot, Context.current());
+    RemoteActionInputFetcher actionInputFetcher = newActionInputFetcher(remoteCache);
 
     // act
     assertThrows(
@@ -164,8 +161,7 @@ public class RemoteActionInputFetcherTest {
     MetadataProvider metadataProvider = new StaticMetadataProvider(ImmutableMap.of(a, f));
     AbstractRemoteActionCache remoteCache =
         new StaticRemoteActionCache(options, digestUtil, new HashMap<>());
-    RemoteActionInputFetcher actionInputFetcher =
-        new RemoteActionInputFetcher(remoteCache, execRoot, Context.current());
+    RemoteActionInputFetcher actionInputFetcher = newActionInputFetcher(remoteCache);
 
     // act
     actionInputFetcher.prefetchFiles(ImmutableList.of(a), metadataProvider);
@@ -183,8 +179,7 @@ public class RemoteActionInputFetcherTest {
     Artifact a1 = createRemoteArtifact("file1", "hello world", metadata, cacheEntries);
     AbstractRemoteActionCache remoteCache =
         new StaticRemoteActionCache(options, digestUtil, cacheEntries);
-    RemoteActionInputFetcher actionInputFetcher =
-        new RemoteActionInputFetcher(remoteCache, execRoot, Context.current());
+    RemoteActionInputFetcher actionInputFetcher = newActionInputFetcher(remoteCache);
 
     // act
     actionInputFetcher.downloadFile(a1.getPath(), metadata.get(a1));
@@ -197,6 +192,14 @@ public class RemoteActionInputFetcherTest {
     assertThat(a1.getPath().isWritable()).isTrue();
   }
 
+  private RemoteActionInputFetcher newActionInputFetcher(AbstractRemoteActionCache remoteCache) {
+    return new RemoteActionInputFetcher(
+        new RemoteDownloadScheduler(
+            remoteCache, /* maxConcurrentDownloads= */ 0, /* maxMegabytesPerSecond= */ 0),
+        execRoot,
+        Context.current());
+  }
+
   private Artifact createRemoteArtifact(
       String pathFragment,
       String contents,
@@ -0,0 +1,264 @@
+// Copyright 2019 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.remote;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.devtools.build.lib.testutil.MoreAsserts.assertThrows;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import build.bazel.remote.execution.v2.ActionResult;
+import build.bazel.remote.execution.v2.Digest;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.devtools.build.lib.clock.JavaClock;
+import com.google.devtools.build.lib.remote.RemoteDownloadScheduler.Priority;
+import com.google.devtools.build.lib.remote.common.SimpleBlobStore.ActionKey;
+import com.google.devtools.build.lib.remote.options.RemoteOptions;
+import com.google.devtools.build.lib.remote.util.BandwidthThrottle;
+import com.google.devtools.build.lib.remote.util.DigestUtil;
+import com.google.devtools.build.lib.remote.util.Utils;
+import com.google.devtools.build.lib.vfs.DigestHashFunction;
+import com.google.devtools.build.lib.vfs.FileSystem;
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.inmemoryfs.InMemoryFileSystem;
+import com.google.devtools.common.options.Options;
+import com.google.protobuf.ByteString;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link RemoteDownloadScheduler}. */
+@RunWith(JUnit4.class)
+public class RemoteDownloadSchedulerTest {
+
+  private static final DigestUtil DIGEST_UTIL = new DigestUtil(DigestHashFunction.SHA256);
+
+  private Path execRoot;
+  private ManualRemoteActionCache remoteCache;
+
+  @Before
+  public void setUp() throws IOException {
+    FileSystem fs = new InMemoryFileSystem(new JavaClock(), DigestHashFunction.SHA256);
+    execRoot = fs.getPath("/exec");
+    execRoot.createDirectoryAndParents();
+    remoteCache = new ManualRemoteActionCache(Options.getDefaults(RemoteOptions.class));
+  }
+
+  @Test
+  public void testStartsUrgentDownloadsFirst() throws Exception {
+    RemoteDownloadScheduler scheduler = newScheduler(/* maxConcurrentDownloads= */ 1);
+    Digest d1 = remoteCache.add("toplevel1");
+    Digest d2 = remoteCache.add("toplevel2");
+    Digest d3 = remoteCache.add("input");
+    Digest d4 = remoteCache.add("critical");
+
+    scheduler.download(execRoot.getRelative("toplevel1"), d1, Priority.TOPLEVEL_OUTPUT);
+    scheduler.download(execRoot.getRelative("toplevel2"), d2, Priority.TOPLEVEL_OUTPUT);
+    scheduler.download(execRoot.getRelative("input"), d3, Priority.ACTION_INPUT);
+    scheduler.download(execRoot.getRelative("critical"), d4, Priority.CRITICAL_PATH_INPUT);
+    assertThat(remoteCache.started).containsExactly(d1);
+    assertThat(scheduler.getQueueSize()).isEqualTo(3);
+
+    remoteCache.complete(d1);
+    remoteCache.complete(d4);
+    remoteCache.complete(d3);
+    remoteCache.complete(d2);
+
+    assertThat(remoteCache.started).containsExactly(d1, d4, d3, d2).inOrder();
+    assertThat(scheduler.getQueueSize()).isEqualTo(0);
+    assertThat(FileSystemUtils.readContent(execRoot.getRelative("critical"), UTF_8))
+        .isEqualTo("critical");
+  }
+
+  @Test
+  public void testRaisesPriorityOfQueuedDownload() throws Exception {
+    RemoteDownloadScheduler scheduler = newScheduler(/* maxConcurrentDownloads= */ 1);
+    Digest d1 = remoteCache.add("first");
+    Digest d2 = remoteCache.add("toplevel");
+    Digest d3 = remoteCache.add("input");
+
+    scheduler.download(execRoot.getRelative("first"), d1, Priority.ACTION_INPUT);
+    scheduler.download(execRoot.getRelative("toplevel"), d2, Priority.TOPLEVEL_OUTPUT);
+    scheduler.download(execRoot.getRelative("input"), d3, Priority.ACTION_INPUT);
+    scheduler.prioritize(d2, Priority.CRITICAL_PATH_INPUT);
+    remoteCache.complete(d1);
+
+    assertThat(remoteCache.started).containsExactly(d1, d2).inOrder();
+  }
+
+  @Test
+  public void testCoalescesRequestsForTheSameDigest() throws Exception {
+    RemoteDownloadScheduler scheduler = newScheduler(/* maxConcurrentDownloads= */ 0);
+    Digest d = remoteCache.add("contents");
+    Path first = execRoot.getRelative("bazel-out/first");
+    Path second = execRoot.getRelative("bazel-out/tmp/second");
+
+    ListenableFuture<Void> download1 = scheduler.download(first, d, Priority.TOPLEVEL_OUTPUT);
+    ListenableFuture<Void> download2 = scheduler.download(second, d, Priority.ACTION_INPUT);
+    assertThat(download2.isDone()).isFalse();
+    remoteCache.complete(d);
+
+    Utils.getFromFuture(download1);
+    Utils.getFromFuture(download2);
+    assertThat(remoteCache.started).containsExactly(d);
+    assertThat(FileSystemUtils.readContent(first, UTF_8)).isEqualTo("contents");
+    assertThat(FileSystemUtils.readContent(second, UTF_8)).isEqualTo("contents");
+
+    // The digest is downloaded again once the first download completed.
+    scheduler.download(execRoot.getRelative("third"), d, Priority.ACTION_INPUT);
+    assertThat(remoteCache.started).containsExactly(d, d);
+  }
+
+  @Test
+  public void testFailsAllCoalescedRequests() throws Exception {
+    RemoteDownloadScheduler scheduler = newScheduler(/* maxConcurrentDownloads= */ 0);
+    Digest d = remoteCache.add("contents");
+
+    ListenableFuture<Void> download1 =
+        scheduler.download(execRoot.getRelative("first"), d, Priority.ACTION_INPUT);
+    ListenableFuture<Void> download2 =
+        scheduler.download(execRoot.getRelative("second"), d, Priority.ACTION_INPUT);
+    remoteCache.fail(d, new IOException("connection reset"));
+
+    assertThrows(IOException.class, () -> Utils.getFromFuture(download1));
+    assertThrows(IOException.class, () -> Utils.getFromFuture(download2));
+  }
+
+  @Test
+  public void testShutdownCancelsQueuedDownloads() throws Exception {
+    RemoteDownloadScheduler scheduler = newScheduler(/* maxConcurrentDownloads= */ 1);
+    Digest d1 = remoteCache.add("first");
+    Digest d2 = remoteCache.add("second");
+
+    ListenableFuture<Void> download1 =
+        scheduler.download(execRoot.getRelative("first"), d1, Priority.ACTION_INPUT);
+    ListenableFuture<Void> download2 =
+        scheduler.download(execRoot.getRelative("second"), d2, Priority.ACTION_INPUT);
+    scheduler.shutdown();
+    remoteCache.complete(d1);
+
+    assertThat(download1.isDone()).isTrue();
+    assertThat(download2.isCancelled()).isTrue();
+    assertThat(remoteCache.started).containsExactly(d1);
+  }
+
+  @Test
+  public void testThrottlesAllButCriticalPathDownloads() throws Exception {
+    RemoteDownloadScheduler scheduler =
+        new RemoteDownloadScheduler(
+            remoteCache, /* maxConcurrentDownloads= */ 0, /* maxMegabytesPerSecond= */ 1);
+    Digest toplevel = remoteCache.add("toplevel");
+    Digest critical = remoteCache.add("critical");
+
+    ListenableFuture<Void> toplevelDownload =
+        scheduler.download(execRoot.getRelative("toplevel"), toplevel, Priority.TOPLEVEL_OUTPUT);
+    ListenableFuture<Void> criticalDownload =
+        scheduler.download(
+            execRoot.getRelative("critical"), critical, Priority.CRITICAL_PATH_INPUT);
+    // The cap limits the throughput of the downloads, not how many of them start.
+    assertThat(remoteCache.started).containsExactly(toplevel, critical);
+    // The remote cache applies the throttle it finds in the context of the download.
+    assertThat(remoteCache.throttles.get(toplevel)).isNotNull();
+    assertThat(remoteCache.throttles).containsEntry(critical, null);
+
+    remoteCache.complete(toplevel);
+    remoteCache.complete(critical);
+    Utils.getFromFuture(toplevelDownload);
+    Utils.getFromFuture(criticalDownload);
+    assertThat(FileSystemUtils.readContent(execRoot.getRelative("toplevel"), UTF_8))
+        .isEqualTo("toplevel");
+  }
+
+  private RemoteDownloadScheduler newScheduler(int maxConcurrentDownloads) {
+    return new RemoteDownloadScheduler(
+        remoteCache, maxConcurrentDownloads, /* maxMegabytesPerSecond= */ 0);
+  }
+
+  /** A remote cache whose downloads complete when the test says so. */
+  private static class ManualRemoteActionCache extends AbstractRemoteActionCache {
+    private final Map<Digest, ByteString> contents = new HashMap<>();
+    private final Map<Digest, OutputStream> outputs = new HashMap<>();
+    private final Map<Digest, SettableFuture<Void>> downloads = new HashMap<>();
+    private final List<Digest> started = new ArrayList<>();
+    private final Map<Digest, BandwidthThrottle> throttles = new HashMap<>();
+
+    ManualRemoteActionCache(RemoteOptions options) {
+      super(options, DIGEST_UTIL);
+    }
+
+    Digest add(String data) {
+      Digest digest = DIGEST_UTIL.computeAsUtf8(data);
+      contents.put(digest, ByteString.copyFromUtf8(data));
+      return digest;
+    }
+
+    void complete(Digest digest) throws IOException {
+      contents.get(digest).writeTo(outputs.get(digest));
+      downloads.remove(digest).set(null);
+    }
+
+    void fail(Digest digest, IOException e) {
+      downloads.remove(digest).setException(e);
+    }
+
+    @Override
+    protected ListenableFuture<Void> downloadBlob(Digest digest, OutputStream out) {
+      started.add(digest);
+      throttles.put(digest, BandwidthThrottle.fromCurrentContext());
+      SettableFuture<Void> download = SettableFuture.create();
+      outputs.put(digest, out);
+      downloads.put(digest, download);
+      return download;
+    }
+
+    @Override
+    ActionResult getCachedActionResult(ActionKey actionKey) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    protected void setCachedActionResult(ActionKey actionKey, ActionResult action) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    protected ListenableFuture<Void> uploadFile(Digest digest, Path path) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    protected ListenableFuture<Void> uploadBlob(Digest digest, ByteString data) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public ListenableFuture<ImmutableSet<Digest>> findMissingDigests(Iterable<Digest> digests) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void close() {
+      // Intentionally left empty.
+    }
+  }
+}
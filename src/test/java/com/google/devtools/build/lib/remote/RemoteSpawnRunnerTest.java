@@ -39,6 +39,7 @@ import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.eventbus.EventBus;
 import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListeningScheduledExecutorService;
 import com.google.common.util.concurrent.MoreExecutors;
 import com.google.common.util.concurrent.SettableFuture;
@@ -252,6 +253,50 @@ public class RemoteSpawnRunnerTest {
     verify(cache).upload(any(), any(), any(), any(), any(), any());
   }
 
+  @Test
+  public void cachableSpawnsShouldBeCached_localFallbackAsync() throws Exception {
+    // Test that the asynchronous pipeline falls back to local execution too, and uploads the
+    // result to the remote cache.
+
+    remoteOptions.remoteAcceptCached = true;
+    remoteOptions.remoteLocalFallback = true;
+    remoteOptions.remoteUploadLocalResults = true;
+    remoteOptions.experimentalRemoteExecutionAsync = true;
+
+    RemoteSpawnRunner runner = spy(newSpawnRunner());
+
+    when(cache.getCachedActionResultAsync(any(ActionKey.class)))
+        .thenReturn(Futures.immediateFuture(null));
+    when(cache.ensureInputsPresentAsync(any(), any(), any()))
+        .thenReturn(Futures.immediateFuture(null));
+    // Fail with an IOException to trigger the local fallback.
+    when(executor.executeRemotelyAsync(any(ExecuteRequest.class)))
+        .thenReturn(Futures.immediateFailedFuture(new IOException("reset by peer")));
+
+    SpawnResult res =
+        new SpawnResult.Builder()
+            .setStatus(Status.SUCCESS)
+            .setExitCode(0)
+            .setRunnerName("test")
+            .build();
+    when(localRunner.exec(any(Spawn.class), any(SpawnExecutionContext.class))).thenReturn(res);
+
+    Spawn spawn = newSimpleSpawn();
+    SpawnExecutionContext policy =
+        new FakeSpawnExecutionContext(spawn, fakeFileCache, execRoot, outErr);
+
+    SpawnResult result = runner.execAsync(spawn, policy).get();
+    assertThat(result.exitCode()).isEqualTo(0);
+    assertThat(result.status()).isEqualTo(Status.SUCCESS);
+    verify(executor).executeRemotelyAsync(any(ExecuteRequest.class));
+    verify(executor, never()).executeRemotely(any(ExecuteRequest.class));
+    verify(localRunner).exec(eq(spawn), eq(policy));
+    verify(runner)
+        .execLocallyAndUpload(
+            eq(spawn), eq(policy), any(), any(), any(), any(), /* uploadLocalResults= */ eq(true));
+    verify(cache).upload(any(), any(), any(), any(), any(), any());
+  }
+
   @Test
   public void failedLocalActionShouldNotBeUploaded() throws Exception {
     // Test that the outputs of a locally executed action that failed are not uploaded.
@@ -820,7 +865,8 @@ public class RemoteSpawnRunnerTest {
             retrier,
             digestUtil,
             logDir,
-            /* filesToDownload= */ ImmutableSet.of());
+            /* filesToDownload= */ ImmutableSet.of(),
+            /* pipelineExecutor= */ MoreExecutors.directExecutor());
 
     ExecuteResponse succeeded =
         ExecuteResponse.newBuilder()
@@ -1017,6 +1063,7 @@ public class RemoteSpawnRunnerTest {
         retrier,
         digestUtil,
         logDir,
-        topLevelOutputs);
+        topLevelOutputs,
+        /* pipelineExecutor= */ MoreExecutors.directExecutor());
   }
 }
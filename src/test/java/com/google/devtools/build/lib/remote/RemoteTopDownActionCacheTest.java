@@ -0,0 +1,208 @@
+// Copyright 2019 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.remote;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.devtools.build.lib.actions.Action;
+import com.google.devtools.build.lib.actions.Artifact;
+import com.google.devtools.build.lib.actions.ArtifactRoot;
+import com.google.devtools.build.lib.actions.FileArtifactValue;
+import com.google.devtools.build.lib.actions.util.ActionsTestUtil;
+import com.google.devtools.build.lib.actions.util.ActionsTestUtil.NullAction;
+import com.google.devtools.build.lib.actionsketch.ActionSketch;
+import com.google.devtools.build.lib.clock.JavaClock;
+import com.google.devtools.build.lib.events.NullEventHandler;
+import com.google.devtools.build.lib.remote.blobstore.ConcurrentMapBlobStore;
+import com.google.devtools.build.lib.remote.options.RemoteOptions;
+import com.google.devtools.build.lib.remote.util.DigestUtil;
+import com.google.devtools.build.lib.skyframe.ActionExecutionValue;
+import com.google.devtools.build.lib.vfs.DigestHashFunction;
+import com.google.devtools.build.lib.vfs.FileSystem;
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.inmemoryfs.InMemoryFileSystem;
+import com.google.devtools.common.options.Options;
+import java.math.BigInteger;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link RemoteTopDownActionCache}. */
+@RunWith(JUnit4.class)
+public class RemoteTopDownActionCacheTest {
+  private static final DigestUtil DIGEST_UTIL = new DigestUtil(DigestHashFunction.SHA256);
+
+  private Path execRoot;
+  private ArtifactRoot artifactRoot;
+  private SimpleBlobStoreActionCache cache;
+  private RemoteTopDownActionCache topDownCache;
+
+  @Before
+  public final void setUp() throws Exception {
+    FileSystem fs = new InMemoryFileSystem(new JavaClock(), DigestHashFunction.SHA256);
+    execRoot = fs.getPath("/exec/root");
+    artifactRoot = ArtifactRoot.asDerivedRoot(execRoot, execRoot.getChild("outputs"));
+    artifactRoot.getRoot().asPath().createDirectoryAndParents();
+    cache =
+        new SimpleBlobStoreActionCache(
+            Options.getDefaults(RemoteOptions.class),
+            new ConcurrentMapBlobStore(new ConcurrentHashMap<>()),
+            DIGEST_UTIL);
+    topDownCache = createTopDownCache(/*maxStoresInFlight=*/ 4);
+  }
+
+  private RemoteTopDownActionCache createTopDownCache(int maxStoresInFlight) {
+    return new RemoteTopDownActionCache(
+        cache,
+        DIGEST_UTIL,
+        execRoot,
+        NullEventHandler.INSTANCE,
+        "build",
+        "command",
+        maxStoresInFlight);
+  }
+
+  private static ActionSketch sketch(int sourceHash) {
+    return ActionSketch.builder()
+        .setTransitiveSourceHash(BigInteger.valueOf(sourceHash))
+        .setTransitiveActionLookupHash(BigInteger.TEN)
+        .build();
+  }
+
+  private Artifact createOutput(String name, String content) throws Exception {
+    Artifact output = ActionsTestUtil.createArtifact(artifactRoot, name);
+    FileSystemUtils.writeContentAsLatin1(output.getPath(), content);
+    return output;
+  }
+
+  private static ActionExecutionValue valueOf(Artifact... outputs) throws Exception {
+    ImmutableMap.Builder<Artifact, FileArtifactValue> artifactData = ImmutableMap.builder();
+    for (Artifact output : outputs) {
+      artifactData.put(output, FileArtifactValue.createForTesting(output));
+    }
+    return ActionExecutionValue.create(
+        artifactData.build(),
+        ImmutableMap.of(),
+        /*outputSymlinks=*/ null,
+        /*discoveredModules=*/ null,
+        /*actionDependsOnBuildId=*/ false);
+  }
+
+  @Test
+  public void testMissThenHit() throws Exception {
+    Artifact foo = createOutput("foo", "foo content");
+    Artifact bar = createOutput("bar", "bar content");
+    bar.getPath().setExecutable(true);
+    Action action = new NullAction(foo, bar);
+    ActionExecutionValue value = valueOf(foo, bar);
+
+    assertThat(topDownCache.get(sketch(1), action)).isNull();
+    topDownCache.put(sketch(1), action, value);
+    topDownCache.awaitPendingStores();
+    foo.getPath().delete();
+    FileSystemUtils.writeContentAsLatin1(bar.getPath(), "stale");
+
+    ActionExecutionValue cached = topDownCache.get(sketch(1), action);
+    assertThat(cached).isNotNull();
+    assertThat(FileSystemUtils.readContent(foo.getPath(), UTF_8)).isEqualTo("foo content");
+    assertThat(FileSystemUtils.readContent(bar.getPath(), UTF_8)).isEqualTo("bar content");
+    assertThat(bar.getPath().isExecutable()).isTrue();
+    assertThat(cached.getArtifactValue(foo).getDigest())
+        .isEqualTo(value.getArtifactValue(foo).getDigest());
+    assertThat(cached.getArtifactValue(bar).getDigest())
+        .isEqualTo(value.getArtifactValue(bar).getDigest());
+    assertThat(topDownCache.getHitCount()).isEqualTo(1);
+  }
+
+  @Test
+  public void testDifferentSketchMisses() throws Exception {
+    Artifact foo = createOutput("foo", "foo content");
+    Action action = new NullAction(foo);
+    topDownCache.put(sketch(1), action, valueOf(foo));
+    topDownCache.awaitPendingStores();
+
+    assertThat(topDownCache.get(sketch(2), action)).isNull();
+    assertThat(topDownCache.getHitCount()).isEqualTo(0);
+  }
+
+  @Test
+  public void testDifferentOutputsMiss() throws Exception {
+    Artifact foo = createOutput("foo", "foo content");
+    Artifact bar = createOutput("bar", "bar content");
+    topDownCache.put(sketch(1), new NullAction(foo), valueOf(foo));
+    topDownCache.awaitPendingStores();
+
+    assertThat(topDownCache.get(sketch(1), new NullAction(bar))).isNull();
+  }
+
+  @Test
+  public void testPutDoesNotWaitForTheStore() throws Exception {
+    CountDownLatch storing = new CountDownLatch(1);
+    CountDownLatch stored = new CountDownLatch(1);
+    cache =
+        new SimpleBlobStoreActionCache(
+            Options.getDefaults(RemoteOptions.class),
+            new ConcurrentMapBlobStore(
+                new ConcurrentHashMap<String, byte[]>() {
+                  @Override
+                  public byte[] put(String key, byte[] value) {
+                    storing.countDown();
+                    try {
+                      stored.await();
+                    } catch (InterruptedException e) {
+                      throw new IllegalStateException(e);
+                    }
+                    return super.put(key, value);
+                  }
+                }),
+            DIGEST_UTIL);
+    topDownCache = createTopDownCache(/*maxStoresInFlight=*/ 1);
+    Artifact foo = createOutput("foo", "foo content");
+    Artifact bar = createOutput("bar", "bar content");
+
+    topDownCache.put(sketch(1), new NullAction(foo), valueOf(foo));
+    storing.await();
+    // The only store is in flight, so this entry is not stored.
+    topDownCache.put(sketch(2), new NullAction(bar), valueOf(bar));
+    stored.countDown();
+    topDownCache.shutdown();
+
+    assertThat(topDownCache.getSummary())
+        .isEqualTo(
+            "Top-down action cache: 0 actions cached with their transitive inputs, 0 misses, "
+                + "1 actions stored, 1 actions not stored because 1 entries were being stored "
+                + "already");
+  }
+
+  @Test
+  public void testSummary() throws Exception {
+    Artifact foo = createOutput("foo", "foo content");
+    Action action = new NullAction(foo);
+    topDownCache.get(sketch(1), action);
+    topDownCache.put(sketch(1), action, valueOf(foo));
+    topDownCache.awaitPendingStores();
+    topDownCache.get(sketch(1), action);
+
+    assertThat(topDownCache.getSummary())
+        .isEqualTo(
+            "Top-down action cache: 1 actions cached with their transitive inputs, 1 misses, "
+                + "1 actions stored");
+  }
+}
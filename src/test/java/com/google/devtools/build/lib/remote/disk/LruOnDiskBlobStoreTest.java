@@ -0,0 +1,91 @@
+// Copyright 2019 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.remote.disk;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import build.bazel.remote.execution.v2.Digest;
+import com.google.common.io.ByteStreams;
+import com.google.devtools.build.lib.remote.util.DigestUtil;
+import com.google.devtools.build.lib.testutil.ManualClock;
+import com.google.devtools.build.lib.vfs.DigestHashFunction;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.inmemoryfs.InMemoryFileSystem;
+import com.google.protobuf.ByteString;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link LruOnDiskBlobStore}. */
+@RunWith(JUnit4.class)
+public class LruOnDiskBlobStoreTest {
+  private static final DigestUtil DIGEST_UTIL = new DigestUtil(DigestHashFunction.SHA256);
+
+  private final ManualClock clock = new ManualClock();
+  private Path root;
+
+  @Before
+  public final void setUp() throws Exception {
+    root = new InMemoryFileSystem(clock, DigestHashFunction.SHA256).getPath("/cache");
+    root.createDirectoryAndParents();
+  }
+
+  private Digest upload(LruOnDiskBlobStore store, String content) throws Exception {
+    ByteString data = ByteString.copyFromUtf8(content);
+    Digest digest = DIGEST_UTIL.compute(data.toByteArray());
+    store.uploadBlob(digest, data).get();
+    clock.advanceMillis(1000);
+    return digest;
+  }
+
+  @Test
+  public void trimDeletesLeastRecentlyUsedEntries() throws Exception {
+    LruOnDiskBlobStore store = new LruOnDiskBlobStore(root, /*maxSizeBytes=*/ 25);
+    Digest first = upload(store, "first-10ch");
+    Digest second = upload(store, "second-10c");
+    Digest third = upload(store, "third-10ch");
+    // Reading the first entry makes the second the least recently used.
+    assertThat(store.get(first.getHash(), ByteStreams.nullOutputStream()).get()).isTrue();
+
+    assertThat(store.trim()).isEqualTo(10);
+
+    assertThat(store.contains(first.getHash())).isTrue();
+    assertThat(store.contains(second.getHash())).isFalse();
+    assertThat(store.contains(third.getHash())).isTrue();
+  }
+
+  @Test
+  public void uploadOfExistingEntryCountsAsUse() throws Exception {
+    LruOnDiskBlobStore store = new LruOnDiskBlobStore(root, /*maxSizeBytes=*/ 10);
+    Digest first = upload(store, "first-10ch");
+    Digest second = upload(store, "second-10c");
+    upload(store, "first-10ch");
+
+    assertThat(store.trim()).isEqualTo(10);
+
+    assertThat(store.contains(first.getHash())).isTrue();
+    assertThat(store.contains(second.getHash())).isFalse();
+  }
+
+  @Test
+  public void trimKeepsStoreWithinMaxSize() throws Exception {
+    LruOnDiskBlobStore store = new LruOnDiskBlobStore(root, /*maxSizeBytes=*/ 100);
+    Digest first = upload(store, "first-10ch");
+
+    assertThat(store.trim()).isEqualTo(0);
+
+    assertThat(store.contains(first.getHash())).isTrue();
+  }
+}
@@ -19,6 +19,8 @@ import static org.mockito.Mockito.verify;
 
 import com.google.common.collect.ImmutableList;
 import com.google.common.net.HttpHeaders;
+import com.google.devtools.build.lib.remote.util.BandwidthThrottle;
+import com.google.devtools.build.lib.testutil.ManualClock;
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.ByteBufUtil;
 import io.netty.buffer.Unpooled;
@@ -155,4 +157,35 @@ public class HttpDownloadHandlerTest extends AbstractHttpHandlerTest {
     verify(out, never()).close();
     assertThat(ch.isOpen()).isFalse();
   }
+
+  /** Test that a throttled download stops reading from the connection instead of blocking. */
+  @Test
+  public void throttledDownloadPausesReading() throws Exception {
+    EmbeddedChannel ch = new EmbeddedChannel(new HttpDownloadHandler(null, ImmutableList.of()));
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    // 5 bytes at 100 bytes per second take 50ms.
+    BandwidthThrottle throttle = new BandwidthThrottle(new ManualClock(), 100);
+    DownloadCommand cmd = new DownloadCommand(CACHE_URI, true, "abcdef", out, throttle);
+    ChannelPromise writePromise = ch.newPromise();
+    ch.writeOneOutbound(cmd, writePromise);
+
+    HttpResponse response = new DefaultHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK);
+    response.headers().set(HttpHeaders.CONTENT_LENGTH, 10);
+    response.headers().set(HttpHeaders.CONNECTION, HttpHeaderValues.KEEP_ALIVE);
+    ch.writeInbound(response);
+    ch.writeInbound(new DefaultHttpContent(Unpooled.wrappedBuffer(new byte[] {1, 2, 3, 4, 5})));
+
+    assertThat(out.toByteArray()).isEqualTo(new byte[] {1, 2, 3, 4, 5});
+    assertThat(ch.config().isAutoRead()).isFalse();
+    Thread.sleep(100);
+    ch.runScheduledPendingTasks();
+    assertThat(ch.config().isAutoRead()).isTrue();
+
+    ch.writeInbound(
+        new DefaultLastHttpContent(Unpooled.wrappedBuffer(new byte[] {6, 7, 8, 9, 10})));
+    assertThat(writePromise.isSuccess()).isTrue();
+    assertThat(out.toByteArray()).isEqualTo(new byte[] {1, 2, 3, 4, 5, 6, 7, 8, 9, 10});
+    // The end of the download does not pause reading.
+    assertThat(ch.config().isAutoRead()).isTrue();
+  }
 }
@@ -115,6 +115,11 @@ public final class LinuxSandboxUtilTest {
     Path tmpfsDir1 = sandboxDir.getRelative("tmpfs1");
     Path tmpfsDir2 = sandboxDir.getRelative("tmpfs2");
 
+    Path overlayLowerDir1 = concreteDir.getRelative("template1");
+    Path overlayLowerDir2 = concreteDir.getRelative("template2");
+    Path overlayUpperDir = sandboxDir.getRelative("upper");
+    Path overlayWorkDir = sandboxDir.getRelative("overlay-work");
+
     ImmutableSet<Path> writableFilesAndDirectories = ImmutableSet.of(writableDir1, writableDir2);
 
     ImmutableSet<Path> tmpfsDirectories = ImmutableSet.of(tmpfsDir1, tmpfsDir2);
@@ -143,6 +148,10 @@ public final class LinuxSandboxUtilTest {
             .add("-m", bindMountTarget1.getPathString())
             .add("-M", bindMountSource2.getPathString())
             .add("-m", bindMountTarget2.getPathString())
+            .add("-O", overlayLowerDir1.getPathString())
+            .add("-O", overlayLowerDir2.getPathString())
+            .add("-P", overlayUpperDir.getPathString())
+            .add("-K", overlayWorkDir.getPathString())
             .add("-S", statisticsPath.getPathString())
             .add("-H")
             .add("-N")
@@ -162,6 +171,10 @@ public final class LinuxSandboxUtilTest {
             .setWritableFilesAndDirectories(writableFilesAndDirectories)
             .setTmpfsDirectories(tmpfsDirectories)
             .setBindMounts(bindMounts)
+            .setOverlay(
+                ImmutableList.of(overlayLowerDir1, overlayLowerDir2),
+                overlayUpperDir,
+                overlayWorkDir)
             .setUseFakeHostname(useFakeHostname)
             .setCreateNetworkNamespace(createNetworkNamespace)
             .setUseFakeRoot(useFakeRoot)
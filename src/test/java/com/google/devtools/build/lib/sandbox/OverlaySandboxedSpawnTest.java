@@ -0,0 +1,176 @@
+// Copyright 2019 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.devtools.build.lib.sandbox;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.devtools.build.lib.sandbox.SandboxHelpers.SandboxInputs;
+import com.google.devtools.build.lib.sandbox.SandboxHelpers.SandboxOutputs;
+import com.google.devtools.build.lib.testutil.TestUtils;
+import com.google.devtools.build.lib.vfs.FileSystem;
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.PathFragment;
+import com.google.devtools.build.lib.vfs.Symlinks;
+import com.google.devtools.build.lib.vfs.inmemoryfs.InMemoryFileSystem;
+import java.io.IOException;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link OverlaySandboxedSpawn}. */
+@RunWith(JUnit4.class)
+public class OverlaySandboxedSpawnTest {
+  private Path workspaceDir;
+  private Path sandboxDir;
+  private Path execRoot;
+  private Path outputsDir;
+  private SandboxInputTemplates templates;
+
+  @Before
+  public final void setupTestDirs() throws IOException {
+    FileSystem fileSystem = new InMemoryFileSystem();
+    Path testRoot = fileSystem.getPath(TestUtils.tmpDir());
+    testRoot.createDirectoryAndParents();
+
+    workspaceDir = testRoot.getRelative("workspace");
+    workspaceDir.createDirectory();
+    sandboxDir = testRoot.getRelative("sandbox/1");
+    sandboxDir.createDirectoryAndParents();
+    execRoot = sandboxDir.getRelative("execroot");
+    execRoot.createDirectory();
+    outputsDir = testRoot.getRelative("outputs");
+    outputsDir.createDirectory();
+    templates =
+        new SandboxInputTemplates(
+            testRoot.getRelative("sandbox/inputs"), 1, new SynchronousTreeDeleter());
+  }
+
+  private OverlaySandboxedSpawn createSpawn(SandboxInputs inputs, SandboxOutputs outputs) {
+    return createSpawn(sandboxDir, inputs, outputs);
+  }
+
+  private OverlaySandboxedSpawn createSpawn(
+      Path sandboxDir, SandboxInputs inputs, SandboxOutputs outputs) {
+    return new OverlaySandboxedSpawn(
+        sandboxDir,
+        sandboxDir.getRelative("execroot"),
+        ImmutableList.of("/bin/true"),
+        ImmutableMap.of(),
+        SandboxInputTemplates.splitIntoGroups(inputs),
+        outputs,
+        ImmutableSet.of(
+            sandboxDir.getRelative("execroot"),
+            sandboxDir.getRelative("execroot/wow/writable")),
+        templates,
+        new SynchronousTreeDeleter(),
+        /* statisticsPath= */ null);
+  }
+
+  @Test
+  public void createFileSystem() throws Exception {
+    Path helloTxt = workspaceDir.getRelative("hello.txt");
+    FileSystemUtils.createEmptyFile(helloTxt);
+
+    OverlaySandboxedSpawn spawn =
+        createSpawn(
+            new SandboxInputs(
+                ImmutableMap.of(PathFragment.create("such/input.txt"), helloTxt),
+                ImmutableMap.of()),
+            SandboxOutputs.create(
+                ImmutableSet.of(PathFragment.create("very/output.txt")), ImmutableSet.of()));
+    spawn.createFileSystem();
+
+    OverlaySandboxedSpawn.OverlayDirs overlayDirs =
+        OverlaySandboxedSpawn.getOverlayDirs(sandboxDir, 1);
+    assertThat(overlayDirs.lowerDirs.get(0).getRelative("such/input.txt").isFile()).isTrue();
+    assertThat(overlayDirs.workDir.isDirectory()).isTrue();
+    assertThat(overlayDirs.upperDir.getRelative("very").isDirectory()).isTrue();
+    assertThat(overlayDirs.upperDir.getRelative("wow/writable").isDirectory()).isTrue();
+    // Nothing is staged in the execroot itself, it only serves as the mount point.
+    assertThat(execRoot.getDirectoryEntries()).isEmpty();
+  }
+
+  @Test
+  public void copyOutputsAndDelete() throws Exception {
+    PathFragment output = PathFragment.create("very/output.txt");
+    OverlaySandboxedSpawn spawn =
+        createSpawn(
+            new SandboxInputs(ImmutableMap.of(), ImmutableMap.of()),
+            SandboxOutputs.create(ImmutableSet.of(output), ImmutableSet.of()));
+    spawn.createFileSystem();
+    Path lowerDir = OverlaySandboxedSpawn.getOverlayDirs(sandboxDir, 1).lowerDirs.get(0);
+    Path template = lowerDir.resolveSymbolicLinks();
+
+    // This is where the overlay puts the files the spawn writes to its execroot.
+    FileSystemUtils.createEmptyFile(
+        OverlaySandboxedSpawn.getOverlayDirs(sandboxDir, 1).upperDir.getRelative(output));
+
+    outputsDir.getRelative("very").createDirectory();
+    spawn.copyOutputs(outputsDir);
+    assertThat(outputsDir.getRelative(output).isFile(Symlinks.NOFOLLOW)).isTrue();
+
+    spawn.delete();
+    assertThat(sandboxDir.exists()).isFalse();
+    // The tree of inputs is kept for later spawns.
+    assertThat(template.isDirectory()).isTrue();
+  }
+
+  @Test
+  public void sharesTreesOfInputGroups() throws Exception {
+    Path helloTxt = workspaceDir.getRelative("hello.txt");
+    FileSystemUtils.createEmptyFile(helloTxt);
+    SandboxOutputs outputs = SandboxOutputs.create(ImmutableSet.of(), ImmutableSet.of());
+    PathFragment toolchainInput = PathFragment.create("external/toolchain/bin/cc");
+    Path otherSandboxDir = sandboxDir.getParentDirectory().getRelative("2");
+    otherSandboxDir.getRelative("execroot").createDirectoryAndParents();
+
+    OverlaySandboxedSpawn spawn =
+        createSpawn(
+            new SandboxInputs(
+                ImmutableMap.of(
+                    toolchainInput, helloTxt, PathFragment.create("pkg/first.cc"), helloTxt),
+                ImmutableMap.of()),
+            outputs);
+    OverlaySandboxedSpawn otherSpawn =
+        createSpawn(
+            otherSandboxDir,
+            new SandboxInputs(
+                ImmutableMap.of(
+                    toolchainInput, helloTxt, PathFragment.create("pkg/second.cc"), helloTxt),
+                ImmutableMap.of()),
+            outputs);
+    spawn.createFileSystem();
+    otherSpawn.createFileSystem();
+
+    ImmutableList<Path> lowerDirs = OverlaySandboxedSpawn.getOverlayDirs(sandboxDir, 2).lowerDirs;
+    ImmutableList<Path> otherLowerDirs =
+        OverlaySandboxedSpawn.getOverlayDirs(otherSandboxDir, 2).lowerDirs;
+    // The groups are in the order of their directories.
+    assertThat(lowerDirs.get(0).getRelative("external/toolchain/bin/cc").isFile()).isTrue();
+    assertThat(lowerDirs.get(1).getRelative("pkg/first.cc").isFile()).isTrue();
+    assertThat(otherLowerDirs.get(1).getRelative("pkg/second.cc").isFile()).isTrue();
+    assertThat(otherLowerDirs.get(0).resolveSymbolicLinks())
+        .isEqualTo(lowerDirs.get(0).resolveSymbolicLinks());
+    assertThat(otherLowerDirs.get(1).resolveSymbolicLinks())
+        .isNotEqualTo(lowerDirs.get(1).resolveSymbolicLinks());
+    assertThat(templates.getHits()).isEqualTo(1);
+    assertThat(templates.getMisses()).isEqualTo(3);
+  }
+}
@@ -0,0 +1,170 @@
+// Copyright 2019 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.devtools.build.lib.sandbox;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.devtools.build.lib.sandbox.SandboxHelpers.SandboxInputs;
+import com.google.devtools.build.lib.sandbox.SandboxHelpers.SandboxOutputs;
+import com.google.devtools.build.lib.unix.UnixFileSystem;
+import com.google.devtools.build.lib.vfs.DigestHashFunction;
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.PathFragment;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Benchmarks setting up and deleting the sandbox of an action with many inputs, with one symlink
+ * per input versus an overlay on shared trees of groups of inputs, on the native file system.
+ *
+ * <p>The inputs are those of a compile: the headers of a few toolchains, which all spawns share,
+ * and one source file of their own. The overlay is measured both when the trees of the toolchains
+ * exist already, and when none does, which is the cost of a miss.
+ *
+ * <p>Usage: {@code SandboxInputStagingBenchmark [input count] [repetitions]}.
+ */
+public class SandboxInputStagingBenchmark {
+  private static final int WARMUP_REPS = 3;
+  private static final int TOOLCHAINS = 4;
+
+  private final Path sandboxBase;
+  private final Path source;
+  private final Map<PathFragment, Path> sharedInputs = new TreeMap<>();
+  private final SandboxOutputs outputs;
+  private final SandboxInputTemplates templates;
+  private int lastId;
+
+  private SandboxInputStagingBenchmark(Path testRoot, int inputCount) throws Exception {
+    Path workspace = testRoot.getRelative("workspace");
+    for (int i = 0; i < inputCount; i++) {
+      PathFragment execPath =
+          PathFragment.create(
+              String.format("external/toolchain%d/include%d/file%d.h", i % TOOLCHAINS, i / 100, i));
+      Path file = workspace.getRelative(execPath);
+      file.getParentDirectory().createDirectoryAndParents();
+      FileSystemUtils.createEmptyFile(file);
+      sharedInputs.put(execPath, file);
+    }
+    source = workspace.getRelative("pkg/source.cc");
+    source.getParentDirectory().createDirectoryAndParents();
+    FileSystemUtils.createEmptyFile(source);
+    outputs =
+        SandboxOutputs.create(
+            ImmutableSet.of(PathFragment.create("bazel-out/bin/pkg/out.o")), ImmutableSet.of());
+    sandboxBase = testRoot.getRelative("sandbox");
+    sandboxBase.createDirectory();
+    templates =
+        new SandboxInputTemplates(
+            sandboxBase.getRelative("inputs"),
+            SandboxInputTemplates.MAX_GROUPS,
+            new SynchronousTreeDeleter());
+  }
+
+  /** Returns the shared inputs and a source file only the spawn with the given id has. */
+  private SandboxInputs inputs(int id) {
+    Map<PathFragment, Path> files = new TreeMap<>(sharedInputs);
+    files.put(PathFragment.create("pkg/source" + id + ".cc"), source);
+    return new SandboxInputs(files, ImmutableMap.of());
+  }
+
+  private Path createSandboxPath() throws Exception {
+    Path sandboxPath = sandboxBase.getRelative(Integer.toString(++lastId));
+    sandboxPath.getRelative("execroot").createDirectoryAndParents();
+    return sandboxPath;
+  }
+
+  private void symlinkedSandbox() throws Exception {
+    Path sandboxPath = createSandboxPath();
+    SandboxedSpawn spawn =
+        new SymlinkedSandboxedSpawn(
+            sandboxPath,
+            sandboxPath.getRelative("execroot"),
+            ImmutableList.of("/bin/true"),
+            ImmutableMap.of(),
+            inputs(lastId),
+            outputs,
+            ImmutableSet.of(),
+            new SynchronousTreeDeleter(),
+            /* statisticsPath= */ null);
+    spawn.createFileSystem();
+    spawn.delete();
+  }
+
+  private void overlaySandbox() throws Exception {
+    Path sandboxPath = createSandboxPath();
+    SandboxedSpawn spawn =
+        new OverlaySandboxedSpawn(
+            sandboxPath,
+            sandboxPath.getRelative("execroot"),
+            ImmutableList.of("/bin/true"),
+            ImmutableMap.of(),
+            SandboxInputTemplates.splitIntoGroups(inputs(lastId)),
+            outputs,
+            ImmutableSet.of(),
+            templates,
+            new SynchronousTreeDeleter(),
+            /* statisticsPath= */ null);
+    spawn.createFileSystem();
+    spawn.delete();
+  }
+
+  /** Sets up the overlay of a spawn when no tree of its inputs exists yet. */
+  private void overlaySandboxMiss() throws Exception {
+    templates.clear();
+    overlaySandbox();
+  }
+
+  private interface Experiment {
+    void run() throws Exception;
+  }
+
+  private static void time(String name, int reps, Experiment experiment) throws Exception {
+    for (int i = 0; i < WARMUP_REPS; i++) {
+      experiment.run();
+    }
+    long start = System.nanoTime();
+    for (int i = 0; i < reps; i++) {
+      experiment.run();
+    }
+    double millisPerRep = (System.nanoTime() - start) / 1e6 / reps;
+    System.out.printf("%-20s %10.2f ms/spawn%n", name, millisPerRep);
+  }
+
+  public static void main(String[] args) throws Exception {
+    int inputCount = args.length > 0 ? Integer.parseInt(args[0]) : 50000;
+    int reps = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+    UnixFileSystem fileSystem = new UnixFileSystem(DigestHashFunction.SHA256);
+    Path testRoot = fileSystem.getPath(Files.createTempDirectory("sandbox-benchmark").toString());
+    try {
+      SandboxInputStagingBenchmark benchmark =
+          new SandboxInputStagingBenchmark(testRoot, inputCount);
+      System.out.printf("%d inputs, %d repetitions%n", inputCount, reps);
+      time("symlinkedSandbox", reps, benchmark::symlinkedSandbox);
+      SandboxInputTemplates templates = benchmark.templates;
+      time("overlaySandbox", reps, benchmark::overlaySandbox);
+      System.out.printf(
+          "%-20s %10.1f %% of input trees found%n",
+          "overlaySandbox",
+          100.0 * templates.getHits() / (templates.getHits() + templates.getMisses()));
+      time("overlaySandboxMiss", reps, benchmark::overlaySandboxMiss);
+      templates.clear();
+    } finally {
+      testRoot.deleteTree();
+    }
+  }
+}
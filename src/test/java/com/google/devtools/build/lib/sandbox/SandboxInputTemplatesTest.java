@@ -0,0 +1,238 @@
+// Copyright 2019 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.devtools.build.lib.sandbox;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assume.assumeTrue;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Iterables;
+import com.google.devtools.build.lib.actions.FileContentsProxy;
+import com.google.devtools.build.lib.sandbox.SandboxHelpers.SandboxInputs;
+import com.google.devtools.build.lib.sandbox.SandboxInputTemplates.Template;
+import com.google.devtools.build.lib.testutil.TestUtils;
+import com.google.devtools.build.lib.unix.UnixFileSystem;
+import com.google.devtools.build.lib.util.OS;
+import com.google.devtools.build.lib.vfs.DigestHashFunction;
+import com.google.devtools.build.lib.vfs.FileSystem;
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.PathFragment;
+import com.google.devtools.build.lib.vfs.inmemoryfs.InMemoryFileSystem;
+import java.io.File;
+import java.io.IOException;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link SandboxInputTemplates}. */
+@RunWith(JUnit4.class)
+public class SandboxInputTemplatesTest {
+  private Path workspaceDir;
+  private Path templatesDir;
+
+  @Before
+  public final void setupTestDirs() throws IOException {
+    FileSystem fileSystem = new InMemoryFileSystem();
+    Path testRoot = fileSystem.getPath(TestUtils.tmpDir());
+    testRoot.createDirectoryAndParents();
+    setupTestDirs(testRoot);
+  }
+
+  private void setupTestDirs(Path testRoot) throws IOException {
+    workspaceDir = testRoot.getRelative("workspace");
+    workspaceDir.createDirectory();
+    templatesDir = testRoot.getRelative("sandbox/inputs");
+  }
+
+  private SandboxInputs inputs(String execPath, Path source) {
+    return new SandboxInputs(
+        ImmutableMap.of(PathFragment.create(execPath), source),
+        ImmutableMap.of(PathFragment.create("link"), PathFragment.create("such/input.txt")));
+  }
+
+  @Test
+  public void createsTree() throws Exception {
+    Path helloTxt = workspaceDir.getRelative("hello.txt");
+    FileSystemUtils.writeContentAsLatin1(helloTxt, "hello");
+    SandboxInputTemplates templates =
+        new SandboxInputTemplates(templatesDir, 1, new SynchronousTreeDeleter());
+
+    Template template = templates.acquire(inputs("such/input.txt", helloTxt));
+
+    Path input = template.getRoot().getRelative("such/input.txt");
+    assertThat(input.isSymbolicLink()).isTrue();
+    assertThat(input.resolveSymbolicLinks()).isEqualTo(helloTxt);
+    assertThat(template.getRoot().getRelative("link").readSymbolicLink())
+        .isEqualTo(PathFragment.create("such/input.txt"));
+  }
+
+  @Test
+  public void reusesTreeForSameInputs() throws Exception {
+    Path helloTxt = workspaceDir.getRelative("hello.txt");
+    FileSystemUtils.createEmptyFile(helloTxt);
+    SandboxInputTemplates templates =
+        new SandboxInputTemplates(templatesDir, 1, new SynchronousTreeDeleter());
+
+    Template first = templates.acquire(inputs("such/input.txt", helloTxt));
+    Template second = templates.acquire(inputs("such/input.txt", helloTxt));
+    Template other = templates.acquire(inputs("other/input.txt", helloTxt));
+
+    assertThat(second).isSameInstanceAs(first);
+    assertThat(other.getRoot()).isNotEqualTo(first.getRoot());
+  }
+
+  @Test
+  public void reusesTreeForReplacedFile() throws Exception {
+    Path helloTxt = workspaceDir.getRelative("hello.txt");
+    FileSystemUtils.writeContentAsLatin1(helloTxt, "hello");
+    SandboxInputTemplates templates =
+        new SandboxInputTemplates(templatesDir, 1, new SynchronousTreeDeleter());
+    Template first = templates.acquire(inputs("such/input.txt", helloTxt));
+    templates.release(first);
+
+    helloTxt.delete();
+    FileSystemUtils.writeContentAsLatin1(helloTxt, "goodbye");
+    Template second = templates.acquire(inputs("such/input.txt", helloTxt));
+
+    assertThat(second).isSameInstanceAs(first);
+    Path input = second.getRoot().getRelative("such/input.txt");
+    assertThat(new String(FileSystemUtils.readContentAsLatin1(input))).isEqualTo("goodbye");
+  }
+
+  @Test
+  public void deletesUnusedTreesOverLimit() throws Exception {
+    Path helloTxt = workspaceDir.getRelative("hello.txt");
+    FileSystemUtils.createEmptyFile(helloTxt);
+    SandboxInputTemplates templates =
+        new SandboxInputTemplates(templatesDir, 1, new SynchronousTreeDeleter());
+
+    Template first = templates.acquire(inputs("first.txt", helloTxt));
+    Template second = templates.acquire(inputs("second.txt", helloTxt));
+    templates.release(first);
+    assertThat(first.getRoot().exists()).isTrue();
+
+    // The least recently used unused tree goes, trees in use stay.
+    templates.release(second);
+    assertThat(first.getRoot().exists()).isFalse();
+    assertThat(second.getRoot().exists()).isTrue();
+  }
+
+  @Test
+  public void clearDeletesTreesInUseOnRelease() throws Exception {
+    Path helloTxt = workspaceDir.getRelative("hello.txt");
+    FileSystemUtils.createEmptyFile(helloTxt);
+    SandboxInputTemplates templates =
+        new SandboxInputTemplates(templatesDir, 1, new SynchronousTreeDeleter());
+
+    Template template = templates.acquire(inputs("such/input.txt", helloTxt));
+    templates.clear();
+    assertThat(template.getRoot().exists()).isTrue();
+
+    templates.release(template);
+    assertThat(template.getRoot().exists()).isFalse();
+  }
+
+  @Test
+  public void reusesTreeWithoutTouchingInputsOnRealFileSystem() throws Exception {
+    // The ctime of files, which link(2) would update, is only meaningful on a real file system.
+    assumeTrue(OS.getCurrent() != OS.WINDOWS);
+    FileSystem fileSystem = new UnixFileSystem(DigestHashFunction.getDefaultUnchecked());
+    File tempDir = TestUtils.makeTempDir();
+    tempDir.deleteOnExit();
+    setupTestDirs(fileSystem.getPath(tempDir.getPath()));
+    Path helloTxt = workspaceDir.getRelative("hello.txt");
+    FileSystemUtils.writeContentAsLatin1(helloTxt, "hello");
+    FileContentsProxy before = FileContentsProxy.create(helloTxt.stat());
+    // Make any change to the ctime observable.
+    Thread.sleep(10);
+    SandboxInputTemplates templates =
+        new SandboxInputTemplates(templatesDir, 1, new SynchronousTreeDeleter());
+
+    Template first = templates.acquire(inputs("such/input.txt", helloTxt));
+    templates.release(first);
+    Template second = templates.acquire(inputs("such/input.txt", helloTxt));
+    templates.release(second);
+
+    assertThat(second).isSameInstanceAs(first);
+    assertThat(FileContentsProxy.create(helloTxt.stat())).isEqualTo(before);
+    assertThat(
+            new String(
+                FileSystemUtils.readContentAsLatin1(
+                    second.getRoot().getRelative("such/input.txt"))))
+        .isEqualTo("hello");
+    templates.clear();
+  }
+
+  @Test
+  public void splitsInputsIntoGroupsByDirectory() throws Exception {
+    Path helloTxt = workspaceDir.getRelative("hello.txt");
+    SandboxInputs inputs =
+        new SandboxInputs(
+            ImmutableMap.of(
+                PathFragment.create("external/cc/bin/gcc"), helloTxt,
+                PathFragment.create("external/cc/include/stdio.h"), helloTxt,
+                PathFragment.create("external/java/bin/javac"), helloTxt,
+                PathFragment.create("pkg/sub/such.cc"), helloTxt,
+                PathFragment.create("top.txt"), helloTxt),
+            ImmutableMap.of(PathFragment.create("pkg/sub/link"), PathFragment.create("such.cc")));
+
+    ImmutableList<SandboxInputs> groups = SandboxInputTemplates.splitIntoGroups(inputs);
+
+    assertThat(groups).hasSize(4);
+    assertThat(groups.get(0).getFiles().keySet())
+        .containsExactly(PathFragment.create("top.txt"));
+    assertThat(groups.get(1).getFiles().keySet())
+        .containsExactly(
+            PathFragment.create("external/cc/bin/gcc"),
+            PathFragment.create("external/cc/include/stdio.h"));
+    assertThat(groups.get(2).getFiles().keySet())
+        .containsExactly(PathFragment.create("external/java/bin/javac"));
+    assertThat(groups.get(3).getFiles().keySet())
+        .containsExactly(PathFragment.create("pkg/sub/such.cc"));
+    assertThat(groups.get(3).getSymlinks().keySet())
+        .containsExactly(PathFragment.create("pkg/sub/link"));
+  }
+
+  @Test
+  public void mergesSmallestGroups() throws Exception {
+    Path helloTxt = workspaceDir.getRelative("hello.txt");
+    ImmutableMap.Builder<PathFragment, Path> files = ImmutableMap.builder();
+    int groupCount = SandboxInputTemplates.MAX_GROUPS + 2;
+    for (int i = 0; i < groupCount; i++) {
+      // Group i has i + 1 inputs.
+      for (int j = 0; j <= i; j++) {
+        files.put(PathFragment.create(String.format("dir%02d/file%d", i, j)), helloTxt);
+      }
+    }
+
+    ImmutableList<SandboxInputs> groups =
+        SandboxInputTemplates.splitIntoGroups(new SandboxInputs(files.build(), ImmutableMap.of()));
+
+    assertThat(groups).hasSize(SandboxInputTemplates.MAX_GROUPS);
+    // The three smallest groups are merged into the last one.
+    assertThat(groups.get(0).getFiles()).hasSize(4);
+    assertThat(Iterables.getLast(groups).getFiles().keySet())
+        .containsExactly(
+            PathFragment.create("dir00/file0"),
+            PathFragment.create("dir01/file0"),
+            PathFragment.create("dir01/file1"),
+            PathFragment.create("dir02/file0"),
+            PathFragment.create("dir02/file1"),
+            PathFragment.create("dir02/file2"));
+  }
+}
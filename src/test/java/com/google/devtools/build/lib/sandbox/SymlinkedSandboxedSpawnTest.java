@@ -112,4 +112,93 @@ public class SymlinkedSandboxedSpawnTest {
 
     assertThat(outputsDir.getRelative("very/output.txt").isFile(Symlinks.NOFOLLOW)).isTrue();
   }
+
+  private SymlinkedSandboxedSpawn createReusingSpawn(
+      SandboxDirectoryPool pool, SandboxInputs inputs, PathFragment output) throws IOException {
+    Path sandboxPath = pool.acquire();
+    Path sandboxExecRoot = sandboxPath.getRelative("execroot");
+    sandboxExecRoot.createDirectoryAndParents();
+    return new SymlinkedSandboxedSpawn(
+        sandboxPath,
+        sandboxExecRoot,
+        ImmutableList.of("/bin/true"),
+        ImmutableMap.of(),
+        inputs,
+        SandboxOutputs.create(ImmutableSet.of(output), ImmutableSet.of()),
+        ImmutableSet.of(sandboxExecRoot.getRelative("tmp")),
+        new SynchronousTreeDeleter(),
+        sandboxPath.getRelative("stats.out"),
+        pool);
+  }
+
+  @Test
+  public void reuseSandboxDirectory() throws Exception {
+    Path helloTxt = workspaceDir.getRelative("hello.txt");
+    FileSystemUtils.createEmptyFile(helloTxt);
+    Path byeTxt = workspaceDir.getRelative("bye.txt");
+    FileSystemUtils.createEmptyFile(byeTxt);
+    SandboxDirectoryPool pool = new SandboxDirectoryPool(sandboxDir);
+
+    SymlinkedSandboxedSpawn first =
+        createReusingSpawn(
+            pool,
+            new SandboxInputs(
+                ImmutableMap.of(
+                    PathFragment.create("such/input.txt"), helloTxt,
+                    PathFragment.create("gone/input.txt"), byeTxt,
+                    PathFragment.create("changed/input.txt"), helloTxt),
+                ImmutableMap.of()),
+            PathFragment.create("very/output.txt"));
+    first.createFileSystem();
+    Path execRoot = first.getSandboxExecRoot();
+    Path keptInput = execRoot.getRelative("such/input.txt");
+    // Leave behind an output, a stray file, a file in the writable directory and statistics.
+    FileSystemUtils.createEmptyFile(execRoot.getRelative("very/output.txt"));
+    FileSystemUtils.createEmptyFile(execRoot.getRelative("such/stray.txt"));
+    FileSystemUtils.createEmptyFile(execRoot.getRelative("tmp/temp.txt"));
+    FileSystemUtils.createEmptyFile(first.getStatisticsPath());
+    first.delete();
+    assertThat(keptInput.exists()).isTrue();
+
+    SymlinkedSandboxedSpawn second =
+        createReusingSpawn(
+            pool,
+            new SandboxInputs(
+                ImmutableMap.of(
+                    PathFragment.create("such/input.txt"), helloTxt,
+                    PathFragment.create("changed/input.txt"), byeTxt,
+                    PathFragment.create("new/input.txt"), byeTxt),
+                ImmutableMap.of()),
+            PathFragment.create("other/output.txt"));
+    assertThat(second.getSandboxExecRoot()).isEqualTo(execRoot);
+    second.createFileSystem();
+
+    assertThat(keptInput.readSymbolicLink()).isEqualTo(helloTxt.asFragment());
+    assertThat(execRoot.getRelative("changed/input.txt").readSymbolicLink())
+        .isEqualTo(byeTxt.asFragment());
+    assertThat(execRoot.getRelative("new/input.txt").readSymbolicLink())
+        .isEqualTo(byeTxt.asFragment());
+    assertThat(execRoot.getRelative("gone").exists()).isFalse();
+    assertThat(execRoot.getRelative("very").exists()).isFalse();
+    assertThat(execRoot.getRelative("such/stray.txt").exists()).isFalse();
+    assertThat(execRoot.getRelative("tmp").getDirectoryEntries()).isEmpty();
+    assertThat(execRoot.getRelative("other").isDirectory()).isTrue();
+    assertThat(second.getStatisticsPath().exists()).isFalse();
+  }
+
+  @Test
+  public void reuseSandboxDirectoryOnlyWhenIdle() throws Exception {
+    SandboxDirectoryPool pool = new SandboxDirectoryPool(sandboxDir);
+    SandboxInputs noInputs = new SandboxInputs(ImmutableMap.of(), ImmutableMap.of());
+    PathFragment output = PathFragment.create("output.txt");
+
+    SymlinkedSandboxedSpawn first = createReusingSpawn(pool, noInputs, output);
+    SymlinkedSandboxedSpawn second = createReusingSpawn(pool, noInputs, output);
+    assertThat(second.getSandboxExecRoot()).isNotEqualTo(first.getSandboxExecRoot());
+
+    second.delete();
+    first.delete();
+    SymlinkedSandboxedSpawn third = createReusingSpawn(pool, noInputs, output);
+    assertThat(third.getSandboxExecRoot()).isEqualTo(first.getSandboxExecRoot());
+  }
 }
@@ -306,6 +306,18 @@ public abstract class GlobFunctionTest {
     assertGlobMatches("not-there/*" /* => nothing */);
   }
 
+  @Test
+  public void testExtensionPatterns() throws Exception {
+    for (String file : new String[] {"a.pb.h", "b.h", "c.pb.cc", ".hidden.h", "h"}) {
+      FileSystemUtils.createEmptyFile(pkgPath.getRelative("foo/" + file));
+    }
+    assertGlobMatches("foo/*.h", /* => */ "foo/a.pb.h", "foo/b.h");
+    assertGlobMatches("foo/*.pb.h", /* => */ "foo/a.pb.h");
+    assertGlobMatches("foo/*.pb.*", /* => */ "foo/a.pb.h", "foo/c.pb.cc");
+    assertGlobMatches("foo/.*.h", /* => */ "foo/.hidden.h");
+    assertGlobMatches("foo/*.cc.h" /* => nothing */);
+  }
+
   @Test
   public void testDifferentGlobsSameResultEqual() throws Exception {
     // Once the globs are run, it doesn't matter what pattern ran; only the output.
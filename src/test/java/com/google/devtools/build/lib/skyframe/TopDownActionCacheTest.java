@@ -19,6 +19,7 @@ import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Sets;
+import com.google.devtools.build.lib.actions.Action;
 import com.google.devtools.build.lib.actions.ActionKeyContext;
 import com.google.devtools.build.lib.actions.Artifact;
 import com.google.devtools.build.lib.actions.util.TestAction;
@@ -172,12 +173,12 @@ public class TopDownActionCacheTest extends TimestampBuilderTestCase {
 
     @Nullable
     @Override
-    public ActionExecutionValue get(ActionSketch sketch) {
+    public ActionExecutionValue get(ActionSketch sketch, Action action) {
       return cache.getIfPresent(sketch);
     }
 
     @Override
-    public void put(ActionSketch sketch, ActionExecutionValue value) {
+    public void put(ActionSketch sketch, Action action, ActionExecutionValue value) {
       cache.put(sketch, value);
     }
   }
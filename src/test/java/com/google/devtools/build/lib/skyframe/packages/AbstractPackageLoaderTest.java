@@ -27,6 +27,7 @@ import com.google.devtools.build.lib.events.Reporter;
 import com.google.devtools.build.lib.events.StoredEventHandler;
 import com.google.devtools.build.lib.packages.NoSuchPackageException;
 import com.google.devtools.build.lib.packages.Package;
+import com.google.devtools.build.lib.pkgcache.BulkPackageProvider;
 import com.google.devtools.build.lib.skyframe.ExternalFilesHelper.ExternalFileAction;
 import com.google.devtools.build.lib.vfs.FileSystem;
 import com.google.devtools.build.lib.vfs.FileSystemUtils;
@@ -136,6 +137,30 @@ public abstract class AbstractPackageLoaderTest {
     assertNoEvents(handler.getEvents());
   }
 
+  @Test
+  public void getPackagesReportsToGivenEventHandler() throws Exception {
+    AbstractPackageLoader pkgLoader = newPackageLoaderBuilder().build();
+    file("good/BUILD", "sh_library(name = 'good')");
+    file("bad/BUILD", "invalidBUILDsyntax");
+    PackageIdentifier goodId = PackageIdentifier.createInMainRepo(PathFragment.create("good"));
+    PackageIdentifier badId = PackageIdentifier.createInMainRepo(PathFragment.create("bad"));
+    PackageIdentifier nopeId = PackageIdentifier.createInMainRepo(PathFragment.create("nope"));
+    StoredEventHandler getPackagesHandler = new StoredEventHandler();
+    ImmutableMap<PackageIdentifier, BulkPackageProvider.PackageOrException> pkgs =
+        pkgLoader.getPackages(
+            getPackagesHandler, ImmutableList.of(goodId, badId, nopeId), /*parallelThreads=*/ 2);
+    assertThat(pkgs.get(goodId).get().getTarget("good").getAssociatedRule().getRuleClass())
+        .isEqualTo("sh_library");
+    assertThat(pkgs.get(badId).get().containsErrors()).isTrue();
+    NoSuchPackageException expected =
+        assertThrows(NoSuchPackageException.class, () -> pkgs.get(nopeId).get());
+    assertThat(expected)
+        .hasMessageThat()
+        .startsWith("no such package 'nope': BUILD file not found");
+    assertContainsEvent(getPackagesHandler.getEvents(), "invalidBUILDsyntax");
+    assertNoEvents(handler.getEvents());
+  }
+
   @Test
   public void simpleGoodPackage_Skylark() throws Exception {
     PackageLoader pkgLoader = newPackageLoader();
@@ -0,0 +1,137 @@
+// Copyright 2019 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.devtools.build.lib.syntax;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.devtools.build.lib.testutil.MoreAsserts.assertThrows;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.devtools.build.lib.syntax.SkylarkList.MutableList;
+import com.google.devtools.build.lib.syntax.SkylarkList.Tuple;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link FrozenValueCompactor}. */
+@RunWith(JUnit4.class)
+public final class FrozenValueCompactorTest {
+
+  @Test
+  public void testRequiresFrozenMutability() {
+    Mutability mutability = Mutability.create("test");
+    assertThrows(
+        IllegalStateException.class,
+        () -> FrozenValueCompactor.compactBindings(ImmutableMap.of(), mutability));
+  }
+
+  @Test
+  public void testCompactsOwnedDictsAndLists() throws Exception {
+    Mutability mutability = Mutability.create("test");
+    MutableList<Object> inner = MutableList.copyOf(mutability, ImmutableList.of("a", new Object()));
+    SkylarkDict<Object, Object> dict =
+        SkylarkDict.copyOf(mutability, ImmutableMap.of("z", inner, "y", 2));
+    mutability.freeze();
+
+    ImmutableMap<String, Object> bindings =
+        FrozenValueCompactor.compactBindings(ImmutableMap.of("d", dict), mutability);
+
+    assertThat(bindings.get("d")).isSameInstanceAs(dict);
+    assertThat(dict.mutability()).isSameInstanceAs(Mutability.IMMUTABLE);
+    assertThat(dict.getContentsUnsafe()).isInstanceOf(ImmutableMap.class);
+    // Iteration order is preserved.
+    assertThat(dict.keySet()).containsExactly("z", "y").inOrder();
+    assertThat(dict.get("z")).isSameInstanceAs(inner);
+    assertThat(inner.mutability()).isSameInstanceAs(Mutability.IMMUTABLE);
+  }
+
+  @Test
+  public void testSharesEqualConstantLists() throws Exception {
+    Mutability first = Mutability.create("first");
+    MutableList<Object> firstList = MutableList.copyOf(first, ImmutableList.of("a", 1, true));
+    first.freeze();
+    Mutability second = Mutability.create("second");
+    MutableList<Object> secondList = MutableList.copyOf(second, ImmutableList.of("a", 1, true));
+    Tuple<Object> tuple = Tuple.of(secondList, "b");
+    second.freeze();
+
+    Object firstResult =
+        FrozenValueCompactor.compactBindings(ImmutableMap.of("x", firstList), first).get("x");
+    ImmutableMap<String, Object> secondBindings =
+        FrozenValueCompactor.compactBindings(ImmutableMap.of("x", secondList, "t", tuple), second);
+
+    assertThat(secondBindings.get("x")).isSameInstanceAs(firstResult);
+    assertThat(secondBindings.get("x")).isEqualTo(secondList);
+    // The tuple itself cannot be rewritten, but the list it contains was still compacted.
+    assertThat(secondBindings.get("t")).isSameInstanceAs(tuple);
+    assertThat(secondList.mutability()).isSameInstanceAs(Mutability.IMMUTABLE);
+  }
+
+  @Test
+  public void testSharesEmptyContainers() throws Exception {
+    Mutability mutability = Mutability.create("test");
+    MutableList<Object> list = MutableList.copyOf(mutability, ImmutableList.of());
+    SkylarkDict<Object, Object> dict = SkylarkDict.withMutability(mutability);
+    mutability.freeze();
+
+    ImmutableMap<String, Object> bindings =
+        FrozenValueCompactor.compactBindings(ImmutableMap.of("l", list, "d", dict), mutability);
+
+    assertThat(bindings.get("l")).isSameInstanceAs(MutableList.empty());
+    assertThat(bindings.get("d")).isSameInstanceAs(SkylarkDict.empty());
+  }
+
+  @Test
+  public void testLeavesValuesOfOtherModulesAlone() throws Exception {
+    Mutability other = Mutability.create("other");
+    MutableList<Object> loaded = MutableList.copyOf(other, ImmutableList.of("a"));
+    other.freeze();
+    Mutability mutability = Mutability.create("test");
+    MutableList<Object> list = MutableList.copyOf(mutability, ImmutableList.of(loaded));
+    mutability.freeze();
+
+    FrozenValueCompactor.compactBindings(ImmutableMap.of("l", list), mutability);
+
+    assertThat(list.get(0)).isSameInstanceAs(loaded);
+    assertThat(loaded.mutability()).isSameInstanceAs(other);
+  }
+
+  @Test
+  public void testSelfContainingList() throws Exception {
+    Mutability mutability = Mutability.create("test");
+    MutableList<Object> list = MutableList.copyOf(mutability, ImmutableList.of());
+    list.add(list, null, mutability);
+    mutability.freeze();
+
+    ImmutableMap<String, Object> bindings =
+        FrozenValueCompactor.compactBindings(ImmutableMap.of("l", list), mutability);
+
+    assertThat(bindings.get("l")).isSameInstanceAs(list);
+    assertThat(list.get(0)).isSameInstanceAs(list);
+  }
+
+  @Test
+  public void testFrozenValuesStayImmutable() throws Exception {
+    Mutability mutability = Mutability.create("test");
+    MutableList<Object> list = MutableList.copyOf(mutability, ImmutableList.of(new Object()));
+    SkylarkDict<Object, Object> dict = SkylarkDict.copyOf(mutability, ImmutableMap.of(1, 2));
+    mutability.freeze();
+
+    FrozenValueCompactor.compactBindings(ImmutableMap.of("l", list, "d", dict), mutability);
+
+    assertThrows(EvalException.class, () -> list.add("x", null, mutability));
+    assertThrows(EvalException.class, () -> dict.put(3, 4, null, mutability));
+  }
+}
@@ -29,8 +29,10 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.ThreadPoolExecutor;
@@ -356,6 +358,83 @@ public class GlobTest {
     assertThat(e).hasMessageThat().contains("globtmp");
   }
 
+  @Test
+  public void testGlobAsyncByPattern() throws Exception {
+    ThreadPoolExecutor executor = (ThreadPoolExecutor) Executors.newFixedThreadPool(10);
+    Map<String, Future<List<Path>>> results =
+        new UnixGlob.Builder(tmpPath)
+            .addPatterns("foo/*/wiz", "foo/bar/wiz", "*/barnacle", "not-there/*")
+            .setExecutor(executor)
+            .globAsyncByPattern();
+
+    assertThat(results.keySet())
+        .containsExactly("foo/*/wiz", "foo/bar/wiz", "*/barnacle", "not-there/*")
+        .inOrder();
+    assertThat(results.get("foo/*/wiz").get())
+        .containsExactlyElementsIn(resolvePaths("foo/bar/wiz", "foo/barnacle/wiz"));
+    assertThat(results.get("foo/bar/wiz").get())
+        .containsExactlyElementsIn(resolvePaths("foo/bar/wiz"));
+    assertThat(results.get("*/barnacle").get())
+        .containsExactlyElementsIn(
+            resolvePaths("foo/barnacle", "food/barnacle", "fool/barnacle"));
+    assertThat(results.get("not-there/*").get()).isEmpty();
+    executor.shutdown();
+  }
+
+  @Test
+  public void testSymlinkMatchedByWildcardAndLiteralIsReadOnce() throws Exception {
+    Path link = tmpPath.getRelative("link");
+    link.createSymbolicLink(PathFragment.create("foo/bar"));
+    List<Path> readdirs = Collections.synchronizedList(new ArrayList<>());
+    UnixGlob.FilesystemCalls syscalls =
+        new UnixGlob.FilesystemCalls() {
+          @Override
+          public FileStatus statIfFound(Path path, Symlinks symlinks) throws IOException {
+            return UnixGlob.DEFAULT_SYSCALLS.statIfFound(path, symlinks);
+          }
+
+          @Override
+          public Collection<Dirent> readdir(Path path) throws IOException {
+            readdirs.add(path);
+            return UnixGlob.DEFAULT_SYSCALLS.readdir(path);
+          }
+
+          @Override
+          public Dirent.Type getType(Path path, Symlinks symlinks) {
+            throw new IllegalStateException();
+          }
+        };
+
+    assertThat(
+            new UnixGlob.Builder(tmpPath)
+                .addPatterns("li*/*", "link/w*")
+                .setFilesystemCalls(new AtomicReference<>(syscalls))
+                .glob())
+        .containsExactly(link.getRelative("wiz"));
+    assertThat(readdirs).containsExactly(tmpPath, link);
+  }
+
+  @Test
+  public void testIOExceptionOnlyFailsItsOwnPattern() throws Exception {
+    throwOnReaddir = tmpPath.getRelative("foo/bar");
+    ThreadPoolExecutor executor = (ThreadPoolExecutor) Executors.newFixedThreadPool(10);
+    Map<String, Future<List<Path>>> results =
+        new UnixGlob.Builder(tmpPath)
+            .addPatterns("foo/bar/*", "food/*", "foo/bar/wiz")
+            .setExecutor(executor)
+            .globAsyncByPattern();
+
+    ExecutionException e =
+        assertThrows(ExecutionException.class, () -> results.get("foo/bar/*").get());
+    assertThat(e).hasCauseThat().isInstanceOf(FileNotFoundException.class);
+    assertThat(results.get("food/*").get())
+        .containsExactlyElementsIn(resolvePaths("food/barnacle"));
+    // The wildcard-free pattern does not need the failed readdir.
+    assertThat(results.get("foo/bar/wiz").get())
+        .containsExactlyElementsIn(resolvePaths("foo/bar/wiz"));
+    executor.shutdown();
+  }
+
   @Test
   public void testCheckCanBeInterrupted() throws Exception {
     final Thread mainThread = Thread.currentThread();
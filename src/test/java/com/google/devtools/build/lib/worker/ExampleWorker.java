@@ -129,6 +129,7 @@ public class ExampleWorker {
           WorkResponse.newBuilder()
               .setOutput(baos.toString())
               .setExitCode(exitCode)
+              .setRequestId(request.getRequestId())
               .build()
               .writeDelimitedTo(System.out);
         }
@@ -0,0 +1,115 @@
+// Copyright 2019 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.worker;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.hash.HashCode;
+import com.google.devtools.build.lib.vfs.FileSystem;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.PathFragment;
+import com.google.devtools.build.lib.vfs.inmemoryfs.InMemoryFileSystem;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link WorkerHistory}. */
+@RunWith(JUnit4.class)
+public class WorkerHistoryTest {
+  private final FileSystem fs = new InMemoryFileSystem();
+
+  private WorkerKey createWorkerKey(String mnemonic, int workerFilesHash) {
+    return new WorkerKey(
+        ImmutableList.of("compiler", "--flag=a b"),
+        ImmutableMap.of("PATH", "/bin:/usr/bin"),
+        fs.getPath("/outputbase/execroot/workspace"),
+        mnemonic,
+        HashCode.fromInt(workerFilesHash),
+        ImmutableSortedMap.of(PathFragment.create("tools/compiler"), HashCode.fromInt(42)),
+        /* mustBeSandboxed= */ false,
+        /* proxied= */ false);
+  }
+
+  @Test
+  public void testRecordsPeakUsage() {
+    WorkerHistory history = new WorkerHistory();
+    WorkerKey javac = createWorkerKey("Javac", 1);
+    history.recordBorrow(javac);
+    history.recordBorrow(javac);
+    history.recordReturn(javac);
+    history.recordBorrow(javac);
+    history.recordBorrow(javac);
+    history.recordReturn(javac);
+
+    assertThat(history.getPeakUsage()).containsExactly(javac, 3);
+  }
+
+  @Test
+  public void testKeepsLatestKey() {
+    WorkerHistory history = new WorkerHistory();
+    history.recordBorrow(createWorkerKey("Javac", 1));
+    history.recordBorrow(createWorkerKey("Javac", 2));
+
+    WorkerKey key = history.getPeakUsage().keySet().iterator().next();
+    assertThat(key.getWorkerFilesCombinedHash()).isEqualTo(HashCode.fromInt(2));
+  }
+
+  @Test
+  public void testForgetsUnusedWorkers() {
+    WorkerHistory history = new WorkerHistory();
+    WorkerKey javac = createWorkerKey("Javac", 1);
+    WorkerKey scalac = createWorkerKey("Scalac", 1);
+    history.recordBorrow(javac);
+    history.recordBorrow(scalac);
+    history.buildFinished();
+
+    for (int i = 1; i < WorkerHistory.MAX_AGE; i++) {
+      history.recordBorrow(scalac);
+      history.recordReturn(scalac);
+      history.buildFinished();
+    }
+    assertThat(history.getPeakUsage()).containsExactly(javac, 1, scalac, 1);
+
+    history.buildFinished();
+    assertThat(history.getPeakUsage()).containsExactly(scalac, 1);
+  }
+
+  @Test
+  public void testSaveAndLoad() throws Exception {
+    WorkerHistory history = new WorkerHistory();
+    WorkerKey javac = createWorkerKey("Javac", 1);
+    history.recordBorrow(javac);
+    history.recordBorrow(javac);
+    history.buildFinished();
+    Path file = fs.getPath("/outputbase/worker-history.json");
+    file.getParentDirectory().createDirectoryAndParents();
+    history.save(file);
+
+    WorkerHistory loaded = WorkerHistory.load(file, fs);
+    assertThat(loaded.getPeakUsage()).containsExactly(javac, 2);
+    WorkerKey key = loaded.getPeakUsage().keySet().iterator().next();
+    assertThat(key.getArgs()).isEqualTo(javac.getArgs());
+    assertThat(key.getEnv()).isEqualTo(javac.getEnv());
+    assertThat(key.getWorkerFilesCombinedHash()).isEqualTo(javac.getWorkerFilesCombinedHash());
+    assertThat(key.getWorkerFilesWithHashes()).isEqualTo(javac.getWorkerFilesWithHashes());
+  }
+
+  @Test
+  public void testLoadMissingFile() throws Exception {
+    assertThat(WorkerHistory.load(fs.getPath("/nonexistent"), fs).getPeakUsage()).isEmpty();
+  }
+}
@@ -0,0 +1,115 @@
+// Copyright 2019 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.worker;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.hash.HashCode;
+import com.google.devtools.build.lib.vfs.FileSystem;
+import com.google.devtools.build.lib.vfs.inmemoryfs.InMemoryFileSystem;
+import com.google.devtools.build.lib.worker.WorkerLifecycleManager.WorkerProcess;
+import java.util.List;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link WorkerLifecycleManager}. */
+@RunWith(JUnit4.class)
+public class WorkerLifecycleManagerTest {
+  private final FileSystem fs = new InMemoryFileSystem();
+
+  private static WorkerProcess process(long pid, long rssKb, long lastUsedNanos) {
+    WorkerProcess process = new WorkerProcess(pid, rssKb);
+    process.lastUsedNanos = lastUsedNanos;
+    return process;
+  }
+
+  private static ImmutableList<Long> pids(List<WorkerProcess> processes) {
+    ImmutableList.Builder<Long> pids = ImmutableList.builder();
+    for (WorkerProcess process : processes) {
+      pids.add(process.pid);
+    }
+    return pids.build();
+  }
+
+  @Test
+  public void testParseRss() {
+    assertThat(
+            WorkerLifecycleManager.parseRssKb(
+                "Name:\tjava\nVmPeak:\t 3000000 kB\nVmRSS:\t  123456 kB\nThreads:\t42\n"))
+        .isEqualTo(123456);
+    assertThat(WorkerLifecycleManager.parseRssKb("Name:\tkworker\n")).isEqualTo(-1);
+  }
+
+  @Test
+  public void testEvictsLargestFirst() {
+    List<WorkerProcess> processes =
+        ImmutableList.of(process(1, 1000, 0), process(2, 3000, 0), process(3, 2000, 0));
+
+    assertThat(pids(WorkerLifecycleManager.selectProcessesToEvict(processes, 6000))).isEmpty();
+    assertThat(pids(WorkerLifecycleManager.selectProcessesToEvict(processes, 4000)))
+        .containsExactly(2L);
+    assertThat(pids(WorkerLifecycleManager.selectProcessesToEvict(processes, 2500)))
+        .containsExactly(2L, 3L)
+        .inOrder();
+  }
+
+  @Test
+  public void testEvictsLeastRecentlyUsedAmongEquals() {
+    List<WorkerProcess> processes =
+        ImmutableList.of(process(1, 1000, 30), process(2, 1000, 10), process(3, 1000, 20));
+
+    assertThat(pids(WorkerLifecycleManager.selectProcessesToEvict(processes, 2000)))
+        .containsExactly(2L);
+  }
+
+  @Test
+  public void testEvictDoomedWorkers() throws Exception {
+    WorkerFactory factory =
+        new WorkerFactory(new WorkerOptions(), fs.getPath("/outputbase/bazel-workers"));
+    WorkerPool pool =
+        new WorkerPool(
+            factory,
+            ImmutableMap.of("", 2),
+            ImmutableMap.of("", 2),
+            ImmutableList.of(),
+            new WorkerHistory());
+    WorkerKey key =
+        new WorkerKey(
+            ImmutableList.of("compiler"),
+            ImmutableMap.of(),
+            fs.getPath("/outputbase/execroot/workspace"),
+            "Javac",
+            HashCode.fromInt(0),
+            ImmutableSortedMap.of(),
+            /* mustBeSandboxed= */ false,
+            /* proxied= */ false);
+    Worker first = pool.borrowObject(key);
+    Worker second = pool.borrowObject(key);
+    pool.returnObject(key, first);
+    assertThat(factory.getWorkers()).containsExactly(first, second);
+
+    first.doom();
+    second.doom();
+    pool.evictDoomedWorkers();
+    // The idle worker is gone, the busy one goes when it is returned.
+    assertThat(factory.getWorkers()).containsExactly(second);
+    pool.returnObject(key, second);
+    assertThat(factory.getWorkers()).isEmpty();
+    pool.close();
+  }
+}
@@ -0,0 +1,124 @@
+// Copyright 2019 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.worker;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.devtools.build.lib.testutil.MoreAsserts.assertThrows;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.hash.HashCode;
+import com.google.devtools.build.lib.vfs.FileSystem;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.inmemoryfs.InMemoryFileSystem;
+import com.google.devtools.build.lib.worker.WorkerProtocol.WorkRequest;
+import com.google.devtools.build.lib.worker.WorkerProtocol.WorkResponse;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link WorkerMultiplexer} and {@link WorkerProxy}. */
+@RunWith(JUnit4.class)
+public class WorkerMultiplexerTest {
+  private final FileSystem fs = new InMemoryFileSystem();
+
+  private WorkerKey createWorkerKey(HashCode workerFilesHash) {
+    return new WorkerKey(
+        ImmutableList.of("worker"),
+        ImmutableMap.of(),
+        fs.getPath("/outputbase/execroot/workspace"),
+        "dummy",
+        workerFilesHash,
+        ImmutableSortedMap.of(),
+        /* mustBeSandboxed= */ false,
+        /* proxied= */ true);
+  }
+
+  private WorkerMultiplexer createMultiplexer() {
+    return new WorkerMultiplexer(
+        createWorkerKey(HashCode.fromInt(0)), fs.getPath("/outputbase/worker.log"));
+  }
+
+  private static WorkResponse response(int requestId, String output) {
+    return WorkResponse.newBuilder().setRequestId(requestId).setOutput(output).build();
+  }
+
+  @Test
+  public void testResponsesAreDemultiplexed() throws Exception {
+    WorkerMultiplexer multiplexer = createMultiplexer();
+    PipedOutputStream workerStdout = new PipedOutputStream();
+    multiplexer.startReader(new PipedInputStream(workerStdout));
+
+    ByteArrayOutputStream workerStdin = new ByteArrayOutputStream();
+    multiplexer.putRequest(WorkRequest.newBuilder().setRequestId(1).build(), workerStdin);
+    multiplexer.putRequest(WorkRequest.newBuilder().setRequestId(2).build(), workerStdin);
+    ByteArrayInputStream requests = new ByteArrayInputStream(workerStdin.toByteArray());
+    assertThat(WorkRequest.parseDelimitedFrom(requests).getRequestId()).isEqualTo(1);
+    assertThat(WorkRequest.parseDelimitedFrom(requests).getRequestId()).isEqualTo(2);
+
+    // The worker answers the second request first.
+    response(2, "second").writeDelimitedTo(workerStdout);
+    response(1, "first").writeDelimitedTo(workerStdout);
+    workerStdout.flush();
+
+    assertThat(multiplexer.getResponse(1).getOutput()).isEqualTo("first");
+    assertThat(multiplexer.getResponse(2).getOutput()).isEqualTo("second");
+    assertThat(multiplexer.isAlive()).isTrue();
+
+    workerStdout.close();
+    assertThat(multiplexer.getResponse(3)).isNull();
+    assertThat(multiplexer.isAlive()).isFalse();
+  }
+
+  @Test
+  public void testUnparseableResponse() throws Exception {
+    WorkerMultiplexer multiplexer = createMultiplexer();
+    multiplexer.startReader(new ByteArrayInputStream("\u007fnot a response".getBytes(UTF_8)));
+
+    assertThrows(IOException.class, () -> multiplexer.getResponse(1));
+    assertThat(multiplexer.getRecordedData()).contains("not a response");
+    assertThat(multiplexer.isAlive()).isFalse();
+  }
+
+  @Test
+  public void testProxiesShareMultiplexer() throws Exception {
+    Path logFile = fs.getPath("/outputbase/worker.log");
+    WorkerKey key = createWorkerKey(HashCode.fromInt(0));
+    WorkerProxy first = new WorkerProxy(key, 1, key.getExecRoot(), logFile);
+    WorkerProxy second = new WorkerProxy(key, 2, key.getExecRoot(), logFile);
+    WorkerMultiplexer multiplexer = WorkerMultiplexerManager.getInstance(key, logFile);
+    WorkerMultiplexerManager.removeInstance(key, multiplexer);
+    assertThat(multiplexer.refCount).isEqualTo(2);
+
+    // Changed worker files get a new process; the old one lives on for the proxies using it.
+    WorkerKey changedKey = createWorkerKey(HashCode.fromInt(1));
+    WorkerProxy third = new WorkerProxy(changedKey, 3, key.getExecRoot(), logFile);
+    assertThat(multiplexer.refCount).isEqualTo(2);
+
+    first.destroy();
+    first.destroy();
+    assertThat(multiplexer.refCount).isEqualTo(1);
+    assertThat(multiplexer.isAlive()).isTrue();
+    second.destroy();
+    assertThat(multiplexer.isAlive()).isFalse();
+    third.destroy();
+  }
+}